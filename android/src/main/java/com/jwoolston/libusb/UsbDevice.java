@@ -9,8 +9,6 @@ import com.jwoolston.libusb.util.Preconditions;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.nio.ByteBuffer;
-
 public class UsbDevice extends BaseUsbDevice implements Parcelable {
 
     @NotNull
@@ -39,11 +37,11 @@ public class UsbDevice extends BaseUsbDevice implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeLong(nativeGetPointerFromNativeObject(getNativeObject()));
+        dest.writeLong(getNativeObject());
         dest.writeParcelable(device, flags);
         dest.writeString(name);
-        dest.writeString(manufacturerName);
-        dest.writeString(productName);
+        dest.writeString(getManufacturerName());
+        dest.writeString(getProductName());
         dest.writeString(version);
         dest.writeString(serialNumber);
         dest.writeInt(speed.code);
@@ -53,7 +51,8 @@ public class UsbDevice extends BaseUsbDevice implements Parcelable {
         dest.writeInt(subclass);
         dest.writeInt(protocol);
         dest.writeInt(fileDescriptor);
-        dest.writeTypedArray((UsbConfiguration[]) configurations, flags);
+        dest.writeByteArray(descriptor != null ? descriptor.getRawDescriptor() : null);
+        dest.writeTypedArray((UsbConfiguration[]) getConfigurations(), flags);
         dest.writeTypedArray((UsbInterface[]) interfaces, flags);
     }
 
@@ -76,8 +75,8 @@ public class UsbDevice extends BaseUsbDevice implements Parcelable {
     }
 
     private UsbDevice(@NotNull android.hardware.usb.UsbDeviceConnection connection,
-                          @NotNull android.hardware.usb.UsbDevice device, @Nullable ByteBuffer nativeObject) {
-        Preconditions.checkNotNull(nativeObject, "UsbDevice initialization failed.");
+                          @NotNull android.hardware.usb.UsbDevice device, long nativeObject) {
+        Preconditions.checkArgument(nativeObject != 0, "UsbDevice initialization failed.");
         this.nativeObject = nativeObject;
         this.device = device;
         name = device.getDeviceName();
@@ -90,16 +89,16 @@ public class UsbDevice extends BaseUsbDevice implements Parcelable {
     }
 
     protected UsbDevice(Parcel in) {
-        final ByteBuffer buffer = nativeGetNativeObjectFromPointer(in.readLong());
-        if (buffer == null) {
+        nativeObject = in.readLong();
+        if (nativeObject == 0) {
             throw new IllegalStateException("Received a null reference for the native object. Creation from "
                     + "parcel failed.");
         }
-        nativeObject = buffer;
         device = in.readParcelable(android.hardware.usb.UsbDevice.class.getClassLoader());
         name = in.readString();
         manufacturerName = in.readString();
         productName = in.readString();
+        stringsLoaded = true;
         version = in.readString();
         serialNumber = in.readString();
         speed = LibusbSpeed.fromNative(in.readInt());
@@ -109,6 +108,8 @@ public class UsbDevice extends BaseUsbDevice implements Parcelable {
         subclass = in.readInt();
         protocol = in.readInt();
         fileDescriptor = in.readInt();
+        final byte[] rawDescriptor = in.createByteArray();
+        descriptor = rawDescriptor != null ? LibUsbDeviceDescriptor.fromRawDescriptor(rawDescriptor) : null;
         configurations = in.createTypedArray(UsbConfiguration.CREATOR);
         interfaces = in.createTypedArray(UsbInterface.CREATOR);
     }
@@ -13,7 +13,15 @@ public class UsbManager extends BaseUsbManager {
     private final android.hardware.usb.UsbManager androidUsbManager;
 
     public UsbManager(@NotNull Context context) {
-        super();
+        this(context, false);
+    }
+
+    /**
+     * @param context       {@link Context} used to access the Android USB service.
+     * @param sharedContext {@code true} to use the process wide shared {@link LibUsbContext}.
+     */
+    public UsbManager(@NotNull Context context, boolean sharedContext) {
+        super(sharedContext);
         this.context = context.getApplicationContext();
         androidUsbManager = (android.hardware.usb.UsbManager) context.getSystemService(Context.USB_SERVICE);
     }
@@ -21,12 +29,19 @@ public class UsbManager extends BaseUsbManager {
     @NonNull
     public UsbDeviceConnection registerDevice(@NonNull android.hardware.usb.UsbDevice device) throws
             DevicePermissionDenied {
+        final String key = device.getDeviceName();
+        final BaseUsbDeviceConnection cached = deviceRegistry.getConnection(key);
+        if (cached != null) {
+            // We have already dealt with this device, do nothing
+            Arbor.d("returning cached device.");
+            return (UsbDeviceConnection) cached;
+        }
         synchronized (cacheLock) {
-            final String key = device.getDeviceName();
-            if (localConnectionCache.containsKey(key)) {
-                // We have already dealt with this device, do nothing
+            final BaseUsbDeviceConnection registered = deviceRegistry.getConnection(key);
+            if (registered != null) {
+                // Registered by another thread while we waited for the lock
                 Arbor.d("returning cached device.");
-                return (UsbDeviceConnection) localConnectionCache.get(key);
+                return (UsbDeviceConnection) registered;
             } else {
                 android.hardware.usb.UsbDeviceConnection connection = androidUsbManager.openDevice(device);
                 if (connection == null) {
@@ -34,10 +49,11 @@ public class UsbManager extends BaseUsbManager {
                 }
                 final UsbDevice usbDevice = UsbDevice.fromAndroidDevice(libUsbContext, device, connection);
                 final UsbDeviceConnection usbConnection = UsbDeviceConnection.fromAndroidConnection(context, this, usbDevice);
-                localDeviceCache.put(key, usbDevice);
-                localConnectionCache.put(key, usbConnection);
+                deviceRegistry.register(usbDevice, usbConnection);
 
-                usbDevice.populate();
+                if (!isLazyPopulation()) {
+                    usbDevice.populate();
+                }
                 return usbConnection;
             }
         }
@@ -3,12 +3,22 @@
 //
 
 #include <common.h>
+#include <jni_registration.h>
 
 #define  LOG_TAG    "AsyncTransfer-Native"
 
 JNIEXPORT void JNICALL
 Java_com_jwoolston_libusb_async_AsyncTransfer_nativeDestroy(JNIEnv *env, jobject instance,
-                                                                    jobject nativeObject) {
-    struct libusb_transfer *transfer = (struct libusb_transfer *) (*env)->GetDirectBufferAddress(env, nativeObject);
+                                                                    jlong nativeObject) {
+    struct libusb_transfer *transfer = (struct libusb_transfer *) (intptr_t) nativeObject;
     libusb_free_transfer(transfer);
-}
\ No newline at end of file
+}
+
+static const JNINativeMethod methods[] = {
+        {"nativeDestroy", "(J)V",
+         (void *) Java_com_jwoolston_libusb_async_AsyncTransfer_nativeDestroy},
+};
+
+jint register_async_transfer_natives(JNIEnv *env) {
+    return register_natives(env, "com/jwoolston/libusb/async/AsyncTransfer", methods, NELEM(methods));
+}
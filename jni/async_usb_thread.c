@@ -3,11 +3,29 @@
 //
 
 #include <common.h>
+#include <jni_registration.h>
 
 #define  LOG_TAG    "AsyncUsbThread-Native"
 
 JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_AsyncUSBThread_nativeHandleEvents(JNIEnv *env, jclass type, jobject context) {
-    struct libusb_context *ctx = (libusb_context *) (*env)->GetDirectBufferAddress(env, context);
+Java_com_jwoolston_libusb_AsyncUSBThread_nativeHandleEvents(JNIEnv *env, jclass type, jlong context) {
+    struct libusb_context *ctx = (libusb_context *) (intptr_t) context;
     return libusb_handle_events(ctx);
-}
\ No newline at end of file
+}
+
+JNIEXPORT void JNICALL
+Java_com_jwoolston_libusb_AsyncUSBThread_nativeInterruptEventHandler(JNIEnv *env, jclass type, jlong context) {
+    struct libusb_context *ctx = (libusb_context *) (intptr_t) context;
+    libusb_interrupt_event_handler(ctx);
+}
+
+static const JNINativeMethod methods[] = {
+        {"nativeHandleEvents", "(J)I",
+         (void *) Java_com_jwoolston_libusb_AsyncUSBThread_nativeHandleEvents},
+        {"nativeInterruptEventHandler", "(J)V",
+         (void *) Java_com_jwoolston_libusb_AsyncUSBThread_nativeInterruptEventHandler},
+};
+
+jint register_async_usb_thread_natives(JNIEnv *env) {
+    return register_natives(env, "com/jwoolston/libusb/AsyncUSBThread", methods, NELEM(methods));
+}
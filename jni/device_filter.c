@@ -0,0 +1,64 @@
+//
+// Created by Jared Woolston (Jared.Woolston@gmail.com)
+//
+
+#include <device_filter.h>
+
+// USB 3.0 limits the hub depth to 7 tiers
+#define MAX_PORT_DEPTH 7
+
+static bool matches_range(const jint *filter, int min, int max, int value) {
+    return (filter[min] == FILTER_ANY || value >= filter[min]) && (filter[max] == FILTER_ANY || value <= filter[max]);
+}
+
+static bool matches_class(const jint *filter, int usbClass, int subclass, int protocol) {
+    return (filter[FILTER_CLASS] == FILTER_ANY || filter[FILTER_CLASS] == usbClass)
+           && (filter[FILTER_SUBCLASS] == FILTER_ANY || filter[FILTER_SUBCLASS] == subclass)
+           && (filter[FILTER_PROTOCOL] == FILTER_ANY || filter[FILTER_PROTOCOL] == protocol);
+}
+
+static bool matches_interface_class(const jint *filter, libusb_device *device) {
+    struct libusb_config_descriptor *config;
+    if (libusb_get_config_descriptor(device, 0, &config)) {
+        return false;
+    }
+    bool match = false;
+    for (int i = 0; i < config->bNumInterfaces && !match; ++i) {
+        const struct libusb_interface *interface = config->interface + i;
+        for (int j = 0; j < interface->num_altsetting && !match; ++j) {
+            const struct libusb_interface_descriptor *altsetting = interface->altsetting + j;
+            match = matches_class(filter, altsetting->bInterfaceClass, altsetting->bInterfaceSubClass,
+                                  altsetting->bInterfaceProtocol);
+        }
+    }
+    libusb_free_config_descriptor(config);
+    return match;
+}
+
+bool matches_filter(const jint *filter, jsize filterLength, libusb_device *device) {
+    struct libusb_device_descriptor descriptor;
+    if (libusb_get_device_descriptor(device, &descriptor)) {
+        return false;
+    }
+    if (!matches_range(filter, FILTER_VENDOR_MIN, FILTER_VENDOR_MAX, descriptor.idVendor)
+        || !matches_range(filter, FILTER_PRODUCT_MIN, FILTER_PRODUCT_MAX, descriptor.idProduct)) {
+        return false;
+    }
+    if (filter[FILTER_BUS] != FILTER_ANY && filter[FILTER_BUS] != libusb_get_bus_number(device)) {
+        return false;
+    }
+    if (filter[FILTER_PORT_COUNT] != FILTER_ANY) {
+        uint8_t ports[MAX_PORT_DEPTH];
+        int count = libusb_get_port_numbers(device, ports, MAX_PORT_DEPTH);
+        if (count != filter[FILTER_PORT_COUNT] || FILTER_HEADER_SIZE + count > filterLength) {
+            return false;
+        }
+        for (int i = 0; i < count; ++i) {
+            if (ports[i] != filter[FILTER_HEADER_SIZE + i]) {
+                return false;
+            }
+        }
+    }
+    return matches_class(filter, descriptor.bDeviceClass, descriptor.bDeviceSubClass, descriptor.bDeviceProtocol)
+           || matches_interface_class(filter, device);
+}
@@ -0,0 +1,29 @@
+//
+// Created by Jared Woolston (Jared.Woolston@gmail.com)
+//
+
+#ifndef ANDROID_LIBUSB_WRAPPER_DEVICE_FILTER_H
+#define ANDROID_LIBUSB_WRAPPER_DEVICE_FILTER_H
+
+#include <stdbool.h>
+#include <common.h>
+
+// Layout of the encoded filter. Must be kept in sync with DeviceFilter.java
+#define FILTER_ANY -1
+#define FILTER_VENDOR_MIN 0
+#define FILTER_VENDOR_MAX 1
+#define FILTER_PRODUCT_MIN 2
+#define FILTER_PRODUCT_MAX 3
+#define FILTER_CLASS 4
+#define FILTER_SUBCLASS 5
+#define FILTER_PROTOCOL 6
+#define FILTER_BUS 7
+#define FILTER_PORT_COUNT 8
+#define FILTER_HEADER_SIZE 9
+
+/*
+ * Evaluates an encoded DeviceFilter against the descriptors libusb cached during enumeration. No I/O is performed.
+ */
+bool matches_filter(const jint *filter, jsize filterLength, libusb_device *device);
+
+#endif //ANDROID_LIBUSB_WRAPPER_DEVICE_FILTER_H
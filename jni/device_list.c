@@ -2,6 +2,8 @@
 // Created by jared on 6/26/2019.
 //
 #include <common.h>
+#include <device_filter.h>
+#include <jni_registration.h>
 
 #define  LOG_TAG    "DeviceList-Native"
 
@@ -10,8 +12,7 @@ jobject usbDeviceClass;
 jmethodID listAdd;
 jmethodID usbDeviceConstructor;
 
-JNIEXPORT jboolean JNICALL
-Java_com_jwoolston_libusb_DeviceList_nativeInitialize(JNIEnv *env, jclass type) {
+static void cache_ids(JNIEnv *env) {
     // Find the classes
     jclass localClass = (*env)->FindClass(env, "java/util/List");
     listClass = (jclass) (*env)->NewGlobalRef(env, localClass);
@@ -20,54 +21,87 @@ Java_com_jwoolston_libusb_DeviceList_nativeInitialize(JNIEnv *env, jclass type)
 
     // Find the methods
     listAdd = (*env)->GetMethodID(env, listClass, "add", "(Ljava/lang/Object;)Z");
+    // Platforms which only wrap file descriptors have no way to create a device from a libusb_device
     usbDeviceConstructor = (*env)->GetMethodID(env, usbDeviceClass, "<init>", "(J)V");
-
-    //TODO: JNI Error checking
-
-    return JNI_TRUE;
+    if (usbDeviceConstructor == NULL) {
+        (*env)->ExceptionClear(env);
+    }
 }
 
 JNIEXPORT jlong JNICALL
 Java_com_jwoolston_libusb_DeviceList_nativeGetDeviceList(JNIEnv *env, jclass type,
-                                                             jobject nativeContext) {
+                                                             jlong nativeContext) {
 
     struct libusb_context *ctx
-            = (libusb_context *) (*env)->GetDirectBufferAddress(env, nativeContext);
+            = (libusb_context *) (intptr_t) nativeContext;
     // Discover devices
     libusb_device **list;
     ssize_t count = libusb_get_device_list(ctx, &list);
     if (count < 0) {
         LOGE("Failed to retrieve USB device list. Error: %i", count);
-        return NULL;
+        return 0;
     }
     return (jlong) (void *) list;
 }
 
 JNIEXPORT void JNICALL
 Java_com_jwoolston_libusb_DeviceList_nativePopulateDeviceList(JNIEnv *env, jclass type,
-                                                             jlong nativeObject, jobject devices) {
-    if (nativeObject == NULL) {
+                                                             jlong nativeObject, jobject devices,
+                                                             jintArray filter_) {
+    if (nativeObject == 0) {
         return;
     }
+    if (usbDeviceConstructor == NULL) {
+        LOGE("Device enumeration is not supported on this platform.");
+        return;
+    }
+
+    jint *filter = NULL;
+    jsize filterLength = 0;
+    if (filter_) {
+        filterLength = (*env)->GetArrayLength(env, filter_);
+        if (filterLength >= FILTER_HEADER_SIZE) {
+            filter = (*env)->GetIntArrayElements(env, filter_, NULL);
+        }
+    }
 
     libusb_device **list = (libusb_device **) nativeObject;
     int index = 0;
     libusb_device *device = list[index];
     while (device != NULL) {
-        jobject usbDevice = (*env)->NewObject(env, usbDeviceClass, usbDeviceConstructor,
-                (void *) device);
-        (*env)->CallBooleanMethod(env, devices, listAdd, usbDevice);
+        if (filter == NULL || matches_filter(filter, filterLength, device)) {
+            jobject usbDevice = (*env)->NewObject(env, usbDeviceClass, usbDeviceConstructor, (jlong) device);
+            (*env)->CallBooleanMethod(env, devices, listAdd, usbDevice);
+            (*env)->DeleteLocalRef(env, usbDevice);
+        }
         device = list[++index];
     }
+
+    if (filter) {
+        (*env)->ReleaseIntArrayElements(env, filter_, filter, JNI_ABORT);
+    }
 }
 
 JNIEXPORT void JNICALL
 Java_com_jwoolston_libusb_DeviceList_nativeRelease(JNIEnv *env, jobject instance,
                                                     jlong nativeObject) {
-    if (nativeObject == NULL) {
+    if (nativeObject == 0) {
         return;
     }
 
     libusb_device **list = (libusb_device **) nativeObject;
     libusb_free_device_list(list, 1);
 }
+
+static const JNINativeMethod methods[] = {
+        {"nativeGetDeviceList", "(J)J",
+         (void *) Java_com_jwoolston_libusb_DeviceList_nativeGetDeviceList},
+        {"nativePopulateDeviceList", "(JLjava/util/List;[I)V",
+         (void *) Java_com_jwoolston_libusb_DeviceList_nativePopulateDeviceList},
+        {"nativeRelease", "(J)V", (void *) Java_com_jwoolston_libusb_DeviceList_nativeRelease},
+};
+
+jint register_device_list_natives(JNIEnv *env) {
+    cache_ids(env);
+    return register_natives(env, "com/jwoolston/libusb/DeviceList", methods, NELEM(methods));
+}
@@ -0,0 +1,183 @@
+//
+// Created by Jared Woolston (Jared.Woolston@gmail.com)
+//
+
+#include <stdlib.h>
+#include <common.h>
+#include <device_filter.h>
+#include <jni_registration.h>
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wunused-parameter"
+#define  LOG_TAG    "Hotplug-Native"
+
+static jclass hotplugDeviceClass;
+static jmethodID hotplugDeviceConstructor;
+static jmethodID onHotplugEvent;
+
+struct hotplug_holder {
+    libusb_context *ctx;
+    libusb_hotplug_callback_handle handle;
+    jobject registration;
+    jint *filter;
+    jsize filterLength;
+    // Set once deregistered. libusb may still be dispatching to this holder, so it is only freed by nativeFree()
+    volatile bool deregistered;
+};
+
+static void cache_ids(JNIEnv *env) {
+    jclass localClass = (*env)->FindClass(env, "com/jwoolston/libusb/HotplugRegistration");
+    onHotplugEvent = (*env)->GetMethodID(env, localClass, "onHotplugEvent",
+                                         "(Lcom/jwoolston/libusb/BaseUsbDevice;Z)V");
+    (*env)->DeleteLocalRef(env, localClass);
+
+    localClass = (*env)->FindClass(env, "com/jwoolston/libusb/UsbDevice");
+    // Platforms which only wrap file descriptors have no way to create a device from a libusb_device
+    hotplugDeviceConstructor = (*env)->GetMethodID(env, localClass, "<init>", "(J)V");
+    if (hotplugDeviceConstructor == NULL) {
+        (*env)->ExceptionClear(env);
+        return;
+    }
+    hotplugDeviceClass = (jclass) (*env)->NewGlobalRef(env, localClass);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_jwoolston_libusb_HotplugRegistration_nativeHasHotplug(JNIEnv *env, jclass type) {
+    return (hotplugDeviceClass != NULL && libusb_has_capability(LIBUSB_CAP_HAS_HOTPLUG)) ? JNI_TRUE : JNI_FALSE;
+}
+
+/*
+ * Invoked by libusb from within libusb_handle_events, or from libusb_hotplug_register_callback when enumerating.
+ * Both run on Java threads, but attach defensively in case libusb ever calls from one of its own.
+ */
+static int LIBUSB_CALL on_hotplug_event(libusb_context *ctx, libusb_device *device, libusb_hotplug_event event,
+                                        void *user_data) {
+    struct hotplug_holder *holder = (struct hotplug_holder *) user_data;
+    if (holder->deregistered) {
+        return 0;
+    }
+    if (holder->filter != NULL && !matches_filter(holder->filter, holder->filterLength, device)) {
+        return 0;
+    }
+
+    JNIEnv *env;
+    bool didAttach = false;
+    if ((*javaVM)->GetEnv(javaVM, (void **) &env, JNI_VERSION_1_6) == JNI_EDETACHED) {
+        if ((*javaVM)->AttachCurrentThread(javaVM, &env, NULL) != 0) {
+            return 0;
+        }
+        didAttach = true;
+    }
+
+    jobject usbDevice = (*env)->NewObject(env, hotplugDeviceClass, hotplugDeviceConstructor, (jlong) device);
+    if ((*env)->ExceptionCheck(env)) {
+        (*env)->ExceptionClear(env);
+        LOGE("Failed to create device for hotplug event.");
+    } else {
+        (*env)->CallVoidMethod(env, holder->registration, onHotplugEvent, usbDevice,
+                               event == LIBUSB_HOTPLUG_EVENT_DEVICE_ARRIVED ? JNI_TRUE : JNI_FALSE);
+        if ((*env)->ExceptionCheck(env)) {
+            (*env)->ExceptionClear(env);
+        }
+    }
+    (*env)->DeleteLocalRef(env, usbDevice);
+
+    if (didAttach) {
+        (*javaVM)->DetachCurrentThread(javaVM);
+    }
+    // Returning 0 keeps the callback registered
+    return 0;
+}
+
+static void free_holder(JNIEnv *env, struct hotplug_holder *holder) {
+    (*env)->DeleteGlobalRef(env, holder->registration);
+    free(holder->filter);
+    free(holder);
+}
+
+/*
+ * Converts an encoded vendor or product ID range to a libusb match value. Only exact IDs are handed to libusb.
+ */
+static int to_hotplug_match(jint min, jint max) {
+    if (min == FILTER_ANY || max == FILTER_ANY || min != max) {
+        return LIBUSB_HOTPLUG_MATCH_ANY;
+    }
+    return min;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_jwoolston_libusb_HotplugRegistration_nativeRegister(JNIEnv *env, jclass type, jlong context,
+                                                             jobject registration, jintArray filter_,
+                                                             jboolean enumerate) {
+    struct libusb_context *ctx = (libusb_context *) (intptr_t) context;
+    struct hotplug_holder *holder = (struct hotplug_holder *) calloc(1, sizeof(struct hotplug_holder));
+    if (holder == NULL) {
+        return 0;
+    }
+    holder->ctx = ctx;
+    holder->registration = (*env)->NewGlobalRef(env, registration);
+
+    // Exact vendor and product IDs are handed to libusb so it can skip other devices itself. The device class is
+    // left to matches_filter() as libusb would only compare it against the device descriptor, not the interfaces.
+    int vendorId = LIBUSB_HOTPLUG_MATCH_ANY;
+    int productId = LIBUSB_HOTPLUG_MATCH_ANY;
+    if (filter_) {
+        holder->filterLength = (*env)->GetArrayLength(env, filter_);
+        if (holder->filterLength >= FILTER_HEADER_SIZE) {
+            holder->filter = (jint *) malloc(sizeof(jint) * holder->filterLength);
+            if (holder->filter == NULL) {
+                free_holder(env, holder);
+                return 0;
+            }
+            (*env)->GetIntArrayRegion(env, filter_, 0, holder->filterLength, holder->filter);
+            vendorId = to_hotplug_match(holder->filter[FILTER_VENDOR_MIN], holder->filter[FILTER_VENDOR_MAX]);
+            productId = to_hotplug_match(holder->filter[FILTER_PRODUCT_MIN], holder->filter[FILTER_PRODUCT_MAX]);
+        }
+    }
+
+    int events = LIBUSB_HOTPLUG_EVENT_DEVICE_ARRIVED | LIBUSB_HOTPLUG_EVENT_DEVICE_LEFT;
+    int flags = enumerate ? LIBUSB_HOTPLUG_ENUMERATE : LIBUSB_HOTPLUG_NO_FLAGS;
+    int retval = libusb_hotplug_register_callback(ctx, (libusb_hotplug_event) events, (libusb_hotplug_flag) flags,
+                                                  vendorId, productId, LIBUSB_HOTPLUG_MATCH_ANY, on_hotplug_event,
+                                                  holder, &holder->handle);
+    if (retval != LIBUSB_SUCCESS) {
+        LOGE("Failed to register hotplug callback: %s", libusb_strerror((enum libusb_error) retval));
+        free_holder(env, holder);
+        return 0;
+    }
+    return (jlong) holder;
+}
+
+JNIEXPORT void JNICALL
+Java_com_jwoolston_libusb_HotplugRegistration_nativeDeregister(JNIEnv *env, jclass type, jlong nativeObject) {
+    struct hotplug_holder *holder = (struct hotplug_holder *) nativeObject;
+    if (holder == NULL) {
+        return;
+    }
+    holder->deregistered = true;
+    // libusb does not wait for a callback already running on the event thread, so the holder outlives this call
+    libusb_hotplug_deregister_callback(holder->ctx, holder->handle);
+}
+
+JNIEXPORT void JNICALL
+Java_com_jwoolston_libusb_HotplugRegistration_nativeFree(JNIEnv *env, jclass type, jlong nativeObject) {
+    struct hotplug_holder *holder = (struct hotplug_holder *) nativeObject;
+    if (holder != NULL) {
+        free_holder(env, holder);
+    }
+}
+
+static const JNINativeMethod methods[] = {
+        {"nativeHasHotplug", "()Z", (void *) Java_com_jwoolston_libusb_HotplugRegistration_nativeHasHotplug},
+        {"nativeRegister", "(JLcom/jwoolston/libusb/HotplugRegistration;[IZ)J",
+         (void *) Java_com_jwoolston_libusb_HotplugRegistration_nativeRegister},
+        {"nativeDeregister", "(J)V", (void *) Java_com_jwoolston_libusb_HotplugRegistration_nativeDeregister},
+        {"nativeFree", "(J)V", (void *) Java_com_jwoolston_libusb_HotplugRegistration_nativeFree},
+};
+
+jint register_hotplug_natives(JNIEnv *env) {
+    cache_ids(env);
+    return register_natives(env, "com/jwoolston/libusb/HotplugRegistration", methods, NELEM(methods));
+}
+
+#pragma clang diagnostic pop
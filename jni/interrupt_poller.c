@@ -0,0 +1,319 @@
+//
+// Created by Jared Woolston (Jared.Woolston@gmail.com)
+//
+
+#include <pthread.h>
+#include <stdbool.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <common.h>
+#include <jni_registration.h>
+
+#define  LOG_TAG    "InterruptPoller-Native"
+
+/*
+ * Each report is stored in the batch buffer behind a fixed size header: the CLOCK_MONOTONIC completion time in
+ * nanoseconds, the report length and 4 reserved bytes. Records are 8 byte aligned so the timestamps can be read
+ * directly.
+ */
+#define RECORD_HEADER_SIZE 16
+
+static jmethodID pollerOnBatch;
+static jmethodID pollerOnStopped;
+
+struct interrupt_poller {
+    jobject owner;
+
+    /*
+     * Guards running, active and every submission, so a transfer is never resubmitted after nativeStop() has
+     * cancelled the ring.
+     */
+    pthread_mutex_t lock;
+
+    struct libusb_transfer **transfers;
+
+    int transfer_count;
+
+    /* Number of transfers currently submitted */
+    int active;
+
+    int running;
+
+    /* The one transfer carrying a timeout to bound the age of the current batch, or NULL */
+    struct libusb_transfer *flush_timer;
+
+    /* First error seen, reported when the poller stops */
+    int error;
+
+    int report_size;
+
+    size_t record_stride;
+
+    unsigned char *batch;
+
+    int batch_reports;
+
+    int batch_count;
+
+    int64_t batch_interval_ns;
+
+    int64_t batch_start_ns;
+};
+
+static int64_t monotonic_ns() {
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return (int64_t) now.tv_sec * 1000000000LL + now.tv_nsec;
+}
+
+static void free_poller(JNIEnv *env, struct interrupt_poller *poller) {
+    for (int i = 0; i < poller->transfer_count; ++i) {
+        struct libusb_transfer *transfer = poller->transfers[i];
+        if (transfer != NULL) {
+            free(transfer->buffer);
+            libusb_free_transfer(transfer);
+        }
+    }
+    free(poller->transfers);
+    (*env)->DeleteGlobalRef(env, poller->owner);
+    pthread_mutex_destroy(&poller->lock);
+    free(poller);
+}
+
+static void cancel_all(struct interrupt_poller *poller) {
+    for (int i = 0; i < poller->transfer_count; ++i) {
+        // Transfers which are not in flight report LIBUSB_ERROR_NOT_FOUND, which is expected here
+        libusb_cancel_transfer(poller->transfers[i]);
+    }
+}
+
+static void append_report(struct interrupt_poller *poller, struct libusb_transfer *transfer, int64_t timestamp) {
+    unsigned char *record = poller->batch + poller->record_stride * poller->batch_count;
+    int32_t length = transfer->actual_length;
+    int32_t reserved = 0;
+    memcpy(record, &timestamp, sizeof(timestamp));
+    memcpy(record + 8, &length, sizeof(length));
+    memcpy(record + 12, &reserved, sizeof(reserved));
+    memcpy(record + RECORD_HEADER_SIZE, transfer->buffer, (size_t) length);
+    if (poller->batch_count++ == 0) {
+        poller->batch_start_ns = timestamp;
+    }
+}
+
+static void flush_batch(JNIEnv *env, struct interrupt_poller *poller) {
+    if (poller->batch_count == 0) {
+        return;
+    }
+    (*env)->CallVoidMethod(env, poller->owner, pollerOnBatch, poller->batch_count);
+    if ((*env)->ExceptionCheck(env)) {
+        // Exceptions can not propagate out of the event thread
+        (*env)->ExceptionDescribe(env);
+        (*env)->ExceptionClear(env);
+    }
+    poller->batch_count = 0;
+}
+
+static void stop_with_error(struct interrupt_poller *poller, int error) {
+    if (poller->error == 0) {
+        poller->error = error;
+    }
+    poller->running = 0;
+    cancel_all(poller);
+}
+
+static int completion_result(struct libusb_transfer *transfer) {
+    switch (transfer->status) {
+        case LIBUSB_TRANSFER_COMPLETED:
+        case LIBUSB_TRANSFER_TIMED_OUT:
+        case LIBUSB_TRANSFER_CANCELLED:
+            return LIBUSB_SUCCESS;
+        case LIBUSB_TRANSFER_STALL:
+            return LIBUSB_ERROR_PIPE;
+        case LIBUSB_TRANSFER_NO_DEVICE:
+            return LIBUSB_ERROR_NO_DEVICE;
+        case LIBUSB_TRANSFER_OVERFLOW:
+            return LIBUSB_ERROR_OVERFLOW;
+        default:
+            return LIBUSB_ERROR_IO;
+    }
+}
+
+/*
+ * Returns the timeout for a transfer about to be resubmitted. Ring transfers wait indefinitely, so a quiet endpoint
+ * costs nothing. Only while a batch is pending with a time bound does a single transfer carry the remaining time, so
+ * that its expiry flushes the batch.
+ */
+static unsigned int resubmit_timeout(struct interrupt_poller *poller, struct libusb_transfer *transfer, int64_t now) {
+    if (poller->batch_interval_ns <= 0 || poller->batch_count == 0
+        || (poller->flush_timer != NULL && poller->flush_timer != transfer)) {
+        return 0;
+    }
+    int64_t remaining = poller->batch_start_ns + poller->batch_interval_ns - now;
+    poller->flush_timer = transfer;
+    return remaining <= 1000000LL ? 1 : (unsigned int) ((remaining + 999999LL) / 1000000LL);
+}
+
+/*
+ * Runs on the event thread for every completed transfer. The transfer is resubmitted before Java is involved so the
+ * ring stays armed while a batch is being delivered. Timed out transfers carry no report, their timeout only serves to
+ * flush a partial batch on a quiet endpoint.
+ */
+static void LIBUSB_CALL poller_callback(struct libusb_transfer *transfer) {
+    struct interrupt_poller *poller = (struct interrupt_poller *) transfer->user_data;
+    int64_t now = monotonic_ns();
+
+    pthread_mutex_lock(&poller->lock);
+    if (poller->flush_timer == transfer) {
+        poller->flush_timer = NULL;
+    }
+    if (transfer->status == LIBUSB_TRANSFER_COMPLETED && poller->running) {
+        append_report(poller, transfer, now);
+    }
+
+    int result = completion_result(transfer);
+    if (result != LIBUSB_SUCCESS && poller->running) {
+        LOGE("Interrupt transfer failed: %s", libusb_strerror(result));
+        stop_with_error(poller, result);
+    }
+
+    // The batch is flushed below when it is aged, so the timeout is only needed while it stays pending
+    bool flush = poller->batch_count >= poller->batch_reports
+                 || (poller->batch_interval_ns > 0 && poller->batch_count > 0
+                     && now - poller->batch_start_ns >= poller->batch_interval_ns);
+
+    if (poller->running) {
+        transfer->timeout = flush ? 0 : resubmit_timeout(poller, transfer, now);
+        result = libusb_submit_transfer(transfer);
+        if (result != LIBUSB_SUCCESS) {
+            LOGE("Failed to resubmit interrupt transfer: %s", libusb_strerror(result));
+            if (poller->flush_timer == transfer) {
+                poller->flush_timer = NULL;
+            }
+            --poller->active;
+            stop_with_error(poller, result);
+        }
+    } else {
+        --poller->active;
+    }
+    bool finished = !poller->running && poller->active == 0;
+    // Released before calling into Java, which may be blocked in nativeStop() waiting for this lock
+    pthread_mutex_unlock(&poller->lock);
+
+    JNIEnv *env;
+    int jniResult = (*javaVM)->GetEnv(javaVM, (void **) &env, JNI_VERSION_1_6);
+    if (jniResult != JNI_OK) {
+        LOGE("Failed to retrieve JNI environment: %i", jniResult);
+        return;
+    }
+
+    if (flush || finished) {
+        flush_batch(env, poller);
+    }
+
+    if (finished) {
+        (*env)->CallVoidMethod(env, poller->owner, pollerOnStopped, poller->error);
+        if ((*env)->ExceptionCheck(env)) {
+            (*env)->ExceptionDescribe(env);
+            (*env)->ExceptionClear(env);
+        }
+        free_poller(env, poller);
+    }
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_jwoolston_libusb_InterruptPoller_nativeStart(JNIEnv *env, jobject instance, jlong device, jint endpoint,
+                                                      jint reportSize, jint transferCount, jobject batchBuffer,
+                                                      jint batchReports, jlong batchIntervalNanos) {
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
+    struct interrupt_poller *poller = calloc(1, sizeof(struct interrupt_poller));
+    if (poller == NULL) {
+        return 0;
+    }
+    if (pthread_mutex_init(&poller->lock, NULL) != 0) {
+        free(poller);
+        return 0;
+    }
+    poller->owner = (*env)->NewGlobalRef(env, instance);
+    poller->transfer_count = transferCount;
+    poller->report_size = reportSize;
+    poller->record_stride = RECORD_HEADER_SIZE + (((size_t) reportSize + 7) & ~((size_t) 7));
+    poller->batch = (*env)->GetDirectBufferAddress(env, batchBuffer);
+    poller->batch_reports = batchReports;
+    poller->batch_interval_ns = batchIntervalNanos;
+    poller->running = 1;
+    poller->transfers = calloc((size_t) transferCount, sizeof(struct libusb_transfer *));
+    if (poller->transfers == NULL) {
+        free_poller(env, poller);
+        return 0;
+    }
+
+    for (int i = 0; i < transferCount; ++i) {
+        struct libusb_transfer *transfer = libusb_alloc_transfer(0);
+        unsigned char *buffer = malloc((size_t) reportSize);
+        if (transfer == NULL || buffer == NULL) {
+            libusb_free_transfer(transfer);
+            free(buffer);
+            free_poller(env, poller);
+            return 0;
+        }
+        // Armed without a timeout, see resubmit_timeout()
+        libusb_fill_interrupt_transfer(transfer, deviceHandle, (unsigned char) (0xFF & endpoint), buffer, reportSize,
+                                       poller_callback, poller, 0);
+        poller->transfers[i] = transfer;
+    }
+
+    // Completions of the first transfers may run on the event thread while the rest are being submitted
+    pthread_mutex_lock(&poller->lock);
+    for (int i = 0; i < transferCount; ++i) {
+        int result = libusb_submit_transfer(poller->transfers[i]);
+        if (result != LIBUSB_SUCCESS) {
+            if (poller->active == 0) {
+                LOGE("Failed to submit interrupt transfer: %s", libusb_strerror(result));
+                pthread_mutex_unlock(&poller->lock);
+                free_poller(env, poller);
+                return 0;
+            }
+            // Keep polling with a shorter ring rather than failing outright
+            LOGW("Interrupt poller armed %d of %d transfers: %s", poller->active, transferCount,
+                 libusb_strerror(result));
+            break;
+        }
+        ++poller->active;
+    }
+    pthread_mutex_unlock(&poller->lock);
+    return (jlong) (intptr_t) poller;
+}
+
+JNIEXPORT void JNICALL
+Java_com_jwoolston_libusb_InterruptPoller_nativeStop(JNIEnv *env, jobject instance, jlong nativeObject) {
+    struct interrupt_poller *poller = (struct interrupt_poller *) (intptr_t) nativeObject;
+    // Held across the cancellation so a completion on the event thread can not resubmit in between
+    pthread_mutex_lock(&poller->lock);
+    poller->running = 0;
+    cancel_all(poller);
+    pthread_mutex_unlock(&poller->lock);
+}
+
+static const JNINativeMethod methods[] = {
+        {"nativeStart", "(JIIILjava/nio/ByteBuffer;IJ)J",
+         (void *) Java_com_jwoolston_libusb_InterruptPoller_nativeStart},
+        {"nativeStop", "(J)V",
+         (void *) Java_com_jwoolston_libusb_InterruptPoller_nativeStop},
+};
+
+jint register_interrupt_poller_natives(JNIEnv *env) {
+    jclass clazz = (*env)->FindClass(env, "com/jwoolston/libusb/InterruptPoller");
+    if (clazz == NULL) {
+        LOGE("Failed to find class com.jwoolston.libusb.InterruptPoller");
+        return JNI_ERR;
+    }
+    pollerOnBatch = (*env)->GetMethodID(env, clazz, "onBatch", "(I)V");
+    pollerOnStopped = (*env)->GetMethodID(env, clazz, "onStopped", "(I)V");
+    (*env)->DeleteLocalRef(env, clazz);
+    if (pollerOnBatch == NULL || pollerOnStopped == NULL) {
+        LOGE("Failed to find InterruptPoller callback methods.");
+        return JNI_ERR;
+    }
+    return register_natives(env, "com/jwoolston/libusb/InterruptPoller", methods, NELEM(methods));
+}
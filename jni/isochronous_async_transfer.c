@@ -3,41 +3,114 @@
 //
 
 #include <common.h>
+#include <jni_registration.h>
 
 #define  LOG_TAG    "IsochronousAsyncTransfer-Native"
 
-JNIEXPORT jobject JNICALL
+JNIEXPORT jlong JNICALL
 Java_com_jwoolston_libusb_async_IsochronousAsyncTransfer_nativeAllocate(JNIEnv *env, jobject instance,
                                                                             jint numberPackets) {
     struct libusb_transfer *transfer = libusb_alloc_transfer(numberPackets);
+    if (transfer == NULL) {
+        return 0;
+    }
     transfer->num_iso_packets = numberPackets;
     transfer->type = LIBUSB_TRANSFER_TYPE_ISOCHRONOUS;
-    return ((*env)->NewDirectByteBuffer(env, (void *) transfer, sizeof(struct libusb_transfer)));
+    return (jlong) (intptr_t) transfer;
 }
 
 JNIEXPORT jint JNICALL
 Java_com_jwoolston_libusb_async_IsochronousAsyncTransfer_nativeSetupPackets(JNIEnv *env, jobject instance,
-                                                                                jobject device, jobject nativeObject,
+                                                                                jlong device, jlong nativeObject,
                                                                                 jint endpoint, jint packetSize) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
-    //int size = libusb_get_max_iso_packet_size(deviceHandle->dev, endpoint);
-    //TODO: Libusb currently does not use the current alternate setting for this
-    //LOGV("ISO Packet Size: %i", packetSize);
-
-    // Check for error condition
-    /*if (packetSize < 0) {
-        return packetSize;
-    }*/
-
-    struct libusb_transfer *transfer = (struct libusb_transfer *) (*env)->GetDirectBufferAddress(env, nativeObject);
+    // libusb_get_max_iso_packet_size() reads the first alternate setting rather than the selected one, so the packet
+    // size is computed from the active endpoint descriptor in Java (see IsochronousStreamConfig)
+    if (packetSize <= 0) {
+        return LIBUSB_ERROR_INVALID_PARAM;
+    }
+
+    struct libusb_transfer *transfer = (struct libusb_transfer *) (intptr_t) nativeObject;
     libusb_set_iso_packet_lengths(transfer, (unsigned int) packetSize);
+    return packetSize;
+}
 
-    //return size;
+JNIEXPORT jint JNICALL
+Java_com_jwoolston_libusb_async_IsochronousAsyncTransfer_nativeCountPacketErrors(JNIEnv *env, jobject instance,
+                                                                                     jlong nativeObject) {
+    struct libusb_transfer *transfer = (struct libusb_transfer *) (intptr_t) nativeObject;
+    int errors = 0;
+    for (int i = 0; i < transfer->num_iso_packets; ++i) {
+        if (transfer->iso_packet_desc[i].status != LIBUSB_TRANSFER_COMPLETED) {
+            ++errors;
+        }
+    }
+    return errors;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_jwoolston_libusb_async_IsochronousAsyncTransfer_nativeGetPacketLengths(JNIEnv *env, jobject instance,
+                                                                                    jlong nativeObject,
+                                                                                    jintArray lengths) {
+    struct libusb_transfer *transfer = (struct libusb_transfer *) (intptr_t) nativeObject;
+    jint *_lengths = (*env)->GetPrimitiveArrayCritical(env, lengths, NULL);
+    if (_lengths == NULL) {
+        return LIBUSB_ERROR_NO_MEM;
+    }
+    for (int i = 0; i < transfer->num_iso_packets; ++i) {
+        struct libusb_iso_packet_descriptor *packet = &transfer->iso_packet_desc[i];
+        switch (packet->status) {
+            case LIBUSB_TRANSFER_COMPLETED:
+                _lengths[i] = packet->actual_length;
+                break;
+            case LIBUSB_TRANSFER_OVERFLOW:
+                _lengths[i] = LIBUSB_ERROR_OVERFLOW;
+                break;
+            case LIBUSB_TRANSFER_STALL:
+                _lengths[i] = LIBUSB_ERROR_PIPE;
+                break;
+            default:
+                _lengths[i] = LIBUSB_ERROR_IO;
+                break;
+        }
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, lengths, _lengths, 0);
+    return transfer->num_iso_packets;
+}
+
+JNIEXPORT void JNICALL
+Java_com_jwoolston_libusb_async_IsochronousAsyncTransfer_nativeSetPacketLengths(JNIEnv *env, jobject instance,
+                                                                                    jlong nativeObject,
+                                                                                    jintArray lengths) {
+    struct libusb_transfer *transfer = (struct libusb_transfer *) (intptr_t) nativeObject;
+    jint *_lengths = (*env)->GetPrimitiveArrayCritical(env, lengths, NULL);
+    if (_lengths == NULL) {
+        return;
+    }
+    for (int i = 0; i < transfer->num_iso_packets; ++i) {
+        transfer->iso_packet_desc[i].length = (unsigned int) _lengths[i];
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, lengths, _lengths, JNI_ABORT);
 }
 
 JNIEXPORT void JNICALL
 Java_com_jwoolston_libusb_async_IsochronousAsyncTransfer_nativeDestroy(JNIEnv *env, jobject instance,
-                                                                           jobject nativeObject) {
+                                                                           jlong nativeObject) {
+
+}
+
+static const JNINativeMethod methods[] = {
+        {"nativeAllocate", "(I)J",
+         (void *) Java_com_jwoolston_libusb_async_IsochronousAsyncTransfer_nativeAllocate},
+        {"nativeSetupPackets", "(JJII)I",
+         (void *) Java_com_jwoolston_libusb_async_IsochronousAsyncTransfer_nativeSetupPackets},
+        {"nativeCountPacketErrors", "(J)I",
+         (void *) Java_com_jwoolston_libusb_async_IsochronousAsyncTransfer_nativeCountPacketErrors},
+        {"nativeGetPacketLengths", "(J[I)I",
+         (void *) Java_com_jwoolston_libusb_async_IsochronousAsyncTransfer_nativeGetPacketLengths},
+        {"nativeSetPacketLengths", "(J[I)V",
+         (void *) Java_com_jwoolston_libusb_async_IsochronousAsyncTransfer_nativeSetPacketLengths},
+};
 
-}
\ No newline at end of file
+jint register_isochronous_async_transfer_natives(JNIEnv *env) {
+    return register_natives(env, "com/jwoolston/libusb/async/IsochronousAsyncTransfer", methods, NELEM(methods));
+}
@@ -0,0 +1,62 @@
+//
+// Created by Jared Woolston (Jared.Woolston@gmail.com)
+//
+
+#include <common.h>
+#include <jni_registration.h>
+
+#define  LOG_TAG    "JniOnLoad-Native"
+
+typedef jint (*registration_function)(JNIEnv *env);
+
+static const registration_function registrations[] = {
+        register_async_transfer_natives,
+        register_async_usb_thread_natives,
+        register_device_list_natives,
+        register_hotplug_natives,
+        register_interrupt_poller_natives,
+        register_isochronous_async_transfer_natives,
+        register_libusb_context_natives,
+        register_libusb_device_descriptor_natives,
+        register_libusb_error_natives,
+        register_string_descriptor_cache_natives,
+        register_usb_configuration_natives,
+        register_usb_device_natives,
+        register_usb_device_connection_natives,
+        register_usb_manager_natives,
+};
+
+jint register_natives(JNIEnv *env, const char *className, const JNINativeMethod *methods, int count) {
+    jclass clazz = (*env)->FindClass(env, className);
+    if (clazz == NULL) {
+        LOGE("Failed to find class %s", className);
+        return JNI_ERR;
+    }
+    jint result = (*env)->RegisterNatives(env, clazz, methods, count);
+    (*env)->DeleteLocalRef(env, clazz);
+    if (result != JNI_OK) {
+        LOGE("Failed to register natives for %s", className);
+    }
+    return result;
+}
+
+/*
+ * Registers every native method of the library in one pass and caches the class and method IDs used for callbacks,
+ * so no symbol lookups or FindClass/GetMethodID calls are needed after the library has been loaded.
+ */
+JNIEXPORT jint JNICALL
+JNI_OnLoad(JavaVM *vm, void *reserved) {
+    JNIEnv *env;
+    if ((*vm)->GetEnv(vm, (void **) &env, JNI_VERSION_1_6) != JNI_OK) {
+        return JNI_ERR;
+    }
+    javaVM = vm;
+    initializeArbor(env);
+
+    for (int i = 0; i < NELEM(registrations); ++i) {
+        if (registrations[i](env) != JNI_OK) {
+            return JNI_ERR;
+        }
+    }
+    return JNI_VERSION_1_6;
+}
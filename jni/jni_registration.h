@@ -0,0 +1,54 @@
+//
+// Created by Jared Woolston (Jared.Woolston@gmail.com)
+//
+
+#ifndef ANDROID_LIBUSB_WRAPPER_JNI_REGISTRATION_H
+#define ANDROID_LIBUSB_WRAPPER_JNI_REGISTRATION_H
+
+#include <jni.h>
+
+#define NELEM(x) ((int) (sizeof(x) / sizeof((x)[0])))
+
+/*
+ * The Java VM, cached by JNI_OnLoad.
+ */
+extern JavaVM *javaVM;
+
+/*
+ * Registers a table of natives for a class. Returns JNI_OK on success.
+ */
+jint register_natives(JNIEnv *env, const char *className, const JNINativeMethod *methods, int count);
+
+/*
+ * Each native source file registers its own natives and caches any class and method IDs it needs. Called once per
+ * process from JNI_OnLoad.
+ */
+jint register_async_transfer_natives(JNIEnv *env);
+
+jint register_async_usb_thread_natives(JNIEnv *env);
+
+jint register_device_list_natives(JNIEnv *env);
+
+jint register_hotplug_natives(JNIEnv *env);
+
+jint register_interrupt_poller_natives(JNIEnv *env);
+
+jint register_isochronous_async_transfer_natives(JNIEnv *env);
+
+jint register_libusb_context_natives(JNIEnv *env);
+
+jint register_libusb_device_descriptor_natives(JNIEnv *env);
+
+jint register_libusb_error_natives(JNIEnv *env);
+
+jint register_string_descriptor_cache_natives(JNIEnv *env);
+
+jint register_usb_configuration_natives(JNIEnv *env);
+
+jint register_usb_device_natives(JNIEnv *env);
+
+jint register_usb_device_connection_natives(JNIEnv *env);
+
+jint register_usb_manager_natives(JNIEnv *env);
+
+#endif //ANDROID_LIBUSB_WRAPPER_JNI_REGISTRATION_H
@@ -0,0 +1,53 @@
+//
+// Created by Jared Woolston (Jared.Woolston@gmail.com)
+//
+
+#include <common.h>
+#include <jni_registration.h>
+
+#define  LOG_TAG    "LibUsbContext-Native"
+
+// Renamed from LIBUSB_OPTION_WEAK_AUTHORITY in libusb 1.0.24
+#if defined(LIBUSB_API_VERSION) && (LIBUSB_API_VERSION >= 0x01000108)
+#define OPTION_NO_DEVICE_DISCOVERY LIBUSB_OPTION_NO_DEVICE_DISCOVERY
+#else
+#define OPTION_NO_DEVICE_DISCOVERY LIBUSB_OPTION_WEAK_AUTHORITY
+#endif
+
+JNIEXPORT jlong JNICALL
+Java_com_jwoolston_libusb_LibUsbContext_nativeInitialize(JNIEnv *env, jclass type) {
+    LOGD("Initializing libusb.");
+    struct libusb_context *ctx;
+    int r = libusb_init(&ctx);
+    if (r < 0) {
+        LOGE("Initialization returned: %i", r);
+        return 0;
+    } else {
+        return (jlong) (intptr_t) ctx;
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_com_jwoolston_libusb_LibUsbContext_nativeDestroy(JNIEnv *env, jclass type, jlong context) {
+    LOGD("De-initializing libusb.");
+    struct libusb_context *ctx = (libusb_context *) (intptr_t) context;
+    libusb_exit(ctx);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_jwoolston_libusb_LibUsbContext_nativeDisableDeviceDiscovery(JNIEnv *env, jclass type) {
+    // A NULL context applies the option to every context initialized afterwards
+    return libusb_set_option(NULL, OPTION_NO_DEVICE_DISCOVERY);
+}
+
+static const JNINativeMethod methods[] = {
+        {"nativeInitialize", "()J",
+         (void *) Java_com_jwoolston_libusb_LibUsbContext_nativeInitialize},
+        {"nativeDisableDeviceDiscovery", "()I",
+         (void *) Java_com_jwoolston_libusb_LibUsbContext_nativeDisableDeviceDiscovery},
+        {"nativeDestroy", "(J)V", (void *) Java_com_jwoolston_libusb_LibUsbContext_nativeDestroy},
+};
+
+jint register_libusb_context_natives(JNIEnv *env) {
+    return register_natives(env, "com/jwoolston/libusb/LibUsbContext", methods, NELEM(methods));
+}
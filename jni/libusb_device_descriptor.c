@@ -3,68 +3,69 @@
 //
 
 #include <common.h>
+#include <jni_registration.h>
 
-JNIEXPORT jobject JNICALL
-Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeGetDeviceDescriptorFromHandle(JNIEnv *env, jclass type,
-                                                                                   jobject handle) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *)
-            (*env)->GetDirectBufferAddress(env, handle);
+#define  LOG_TAG    "LibUsbDeviceDescriptor-Native"
 
-    // The descriptor is cached in memory so we don't need to allocate memory for it
+/*
+ * Copies the descriptor libusb cached during enumeration into a Java byte array in USB wire format. No native memory
+ * is retained, the Java side decodes all fields from the array.
+ */
+static jbyteArray to_byte_array(JNIEnv *env, struct libusb_device *device) {
     struct libusb_device_descriptor descriptor;
-    libusb_get_device_descriptor(deviceHandle->dev, &descriptor);
-    return ((*env)->NewDirectByteBuffer(env, (void *) &descriptor, sizeof(struct libusb_device_descriptor)));
-}
-
-JNIEXPORT jobject JNICALL
-Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeGetDeviceDescriptorFromDevice(JNIEnv *env, jclass type,
-                                                                                     jlong device) {
-    struct libusb_device *devicePtr = (struct libusb_device *) device;
+    int retval = libusb_get_device_descriptor(device, &descriptor);
+    if (retval) {
+        LOGE("Error fetching device descriptor: %s", libusb_strerror(retval));
+        return NULL;
+    }
 
-    // The descriptor is cached in memory so we don't need to allocate memory for it
-    struct libusb_device_descriptor descriptor;
-    libusb_get_device_descriptor(devicePtr, &descriptor);
-    return ((*env)->NewDirectByteBuffer(env, (void *) &descriptor, sizeof(struct libusb_device_descriptor)));
-}
+    jbyte raw[LIBUSB_DT_DEVICE_SIZE];
+    raw[0] = LIBUSB_DT_DEVICE_SIZE;
+    raw[1] = LIBUSB_DT_DEVICE;
+    raw[2] = (jbyte) (0xFF & descriptor.bcdUSB);
+    raw[3] = (jbyte) (0xFF & (descriptor.bcdUSB >> 8));
+    raw[4] = descriptor.bDeviceClass;
+    raw[5] = descriptor.bDeviceSubClass;
+    raw[6] = descriptor.bDeviceProtocol;
+    raw[7] = descriptor.bMaxPacketSize0;
+    raw[8] = (jbyte) (0xFF & descriptor.idVendor);
+    raw[9] = (jbyte) (0xFF & (descriptor.idVendor >> 8));
+    raw[10] = (jbyte) (0xFF & descriptor.idProduct);
+    raw[11] = (jbyte) (0xFF & (descriptor.idProduct >> 8));
+    raw[12] = (jbyte) (0xFF & descriptor.bcdDevice);
+    raw[13] = (jbyte) (0xFF & (descriptor.bcdDevice >> 8));
+    raw[14] = descriptor.iManufacturer;
+    raw[15] = descriptor.iProduct;
+    raw[16] = descriptor.iSerialNumber;
+    raw[17] = descriptor.bNumConfigurations;
 
-JNIEXPORT void JNICALL
-Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeDestroy(JNIEnv *env, jclass type, jobject descriptor) {
-    struct libusb_device_descriptor *deviceDescriptor = (struct libusb_device_descriptor *)
-            (*env)->GetDirectBufferAddress(env, descriptor);
-    free(deviceDescriptor);
+    jbyteArray ret = (*env)->NewByteArray(env, LIBUSB_DT_DEVICE_SIZE);
+    if (ret) {
+        (*env)->SetByteArrayRegion(env, ret, 0, LIBUSB_DT_DEVICE_SIZE, raw);
+    }
+    return ret;
 }
 
-JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeGetVendorId(JNIEnv *env, jclass type, jobject descriptor) {
-    struct libusb_device_descriptor *deviceDescriptor = (struct libusb_device_descriptor *)
-            (*env)->GetDirectBufferAddress(env, descriptor);
-    return deviceDescriptor->idVendor;
+JNIEXPORT jbyteArray JNICALL
+Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeGetDeviceDescriptorFromHandle(JNIEnv *env, jclass type,
+                                                                                   jlong handle) {
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) handle;
+    return to_byte_array(env, deviceHandle->dev);
 }
 
-JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeGetProductId(JNIEnv *env, jclass type, jobject descriptor) {
-    struct libusb_device_descriptor *deviceDescriptor = (struct libusb_device_descriptor *)
-            (*env)->GetDirectBufferAddress(env, descriptor);
-    return deviceDescriptor->idProduct;
+JNIEXPORT jbyteArray JNICALL
+Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeGetDeviceDescriptorFromDevice(JNIEnv *env, jclass type,
+                                                                                     jlong device) {
+    return to_byte_array(env, (struct libusb_device *) device);
 }
 
-JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeGetDeviceClass(JNIEnv *env, jclass type, jobject descriptor) {
-    struct libusb_device_descriptor *deviceDescriptor = (struct libusb_device_descriptor *)
-            (*env)->GetDirectBufferAddress(env, descriptor);
-    return deviceDescriptor->bDeviceClass;
-}
+static const JNINativeMethod methods[] = {
+        {"nativeGetDeviceDescriptorFromHandle", "(J)[B",
+         (void *) Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeGetDeviceDescriptorFromHandle},
+        {"nativeGetDeviceDescriptorFromDevice", "(J)[B",
+         (void *) Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeGetDeviceDescriptorFromDevice},
+};
 
-JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeGetDeviceSubclass(JNIEnv *env, jclass type, jobject descriptor) {
-    struct libusb_device_descriptor *deviceDescriptor = (struct libusb_device_descriptor *)
-            (*env)->GetDirectBufferAddress(env, descriptor);
-    return deviceDescriptor->bDeviceSubClass;
+jint register_libusb_device_descriptor_natives(JNIEnv *env) {
+    return register_natives(env, "com/jwoolston/libusb/LibUsbDeviceDescriptor", methods, NELEM(methods));
 }
-
-JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_LibUsbDeviceDescriptor_nativeGetDeviceProtocol(JNIEnv *env, jclass type, jobject descriptor) {
-    struct libusb_device_descriptor *deviceDescriptor = (struct libusb_device_descriptor *)
-            (*env)->GetDirectBufferAddress(env, descriptor);
-    return deviceDescriptor->bDeviceProtocol;
-}
\ No newline at end of file
@@ -3,8 +3,18 @@
 //
 
 #include <common.h>
+#include <jni_registration.h>
 
 JNIEXPORT jstring JNICALL
 Java_com_jwoolston_libusb_LibusbError_getDescriptionString(JNIEnv *env, jclass type, jint code) {
     return (*env)->NewStringUTF(env, libusb_strerror((enum libusb_error) code));
 }
+
+static const JNINativeMethod methods[] = {
+        {"getDescriptionString", "(I)Ljava/lang/String;",
+         (void *) Java_com_jwoolston_libusb_LibusbError_getDescriptionString},
+};
+
+jint register_libusb_error_natives(JNIEnv *env) {
+    return register_natives(env, "com/jwoolston/libusb/LibusbError", methods, NELEM(methods));
+}
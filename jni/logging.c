@@ -21,7 +21,6 @@ jmethodID branchWtf;
 #define LOG_TAG "logging-native"
 
 void initializeArbor(JNIEnv *env) {
-    (*env)->GetJavaVM(env, &javaVM);
     jclass localClass = (*env)->FindClass(env, "com/toxicbakery/logging/Arbor");
     arborClass = (jclass) (*env)->NewGlobalRef(env, localClass);
     localClass = (*env)->FindClass(env, "com/toxicbakery/logging/Branch");
@@ -0,0 +1,56 @@
+//
+// Created by Jared Woolston (Jared.Woolston@gmail.com)
+//
+
+#include <common.h>
+#include <jni_registration.h>
+
+#pragma clang diagnostic push
+#pragma clang diagnostic ignored "-Wunused-parameter"
+#define  LOG_TAG    "StringDescriptorCache-Native"
+
+// Maximum length of any descriptor, bLength is a single byte
+#define MAX_DESCRIPTOR_LENGTH 255
+
+JNIEXPORT jobjectArray JNICALL
+Java_com_jwoolston_libusb_StringDescriptorCache_nativeGetRawStringDescriptors(JNIEnv *env, jclass type,
+                                                                              jlong device, jintArray indices_,
+                                                                              jint languageId) {
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
+    jsize count = (*env)->GetArrayLength(env, indices_);
+    jclass byteArrayClass = (*env)->FindClass(env, "[B");
+    jobjectArray ret = (*env)->NewObjectArray(env, count, byteArrayClass, NULL);
+    if (ret == NULL) {
+        return NULL;
+    }
+
+    jint *indices = (*env)->GetIntArrayElements(env, indices_, NULL);
+    unsigned char buffer[MAX_DESCRIPTOR_LENGTH];
+    for (jsize i = 0; i < count; ++i) {
+        int length = libusb_get_string_descriptor(deviceHandle, (uint8_t) (0xFF & indices[i]),
+                                                  (uint16_t) (0xFFFF & languageId), buffer, sizeof(buffer));
+        if (length < 0) {
+            LOGD("Failed to read string descriptor %i: %s", indices[i], libusb_strerror((enum libusb_error) length));
+            continue;
+        }
+        jbyteArray descriptor = (*env)->NewByteArray(env, length);
+        if (descriptor) {
+            (*env)->SetByteArrayRegion(env, descriptor, 0, length, (const jbyte *) buffer);
+            (*env)->SetObjectArrayElement(env, ret, i, descriptor);
+            (*env)->DeleteLocalRef(env, descriptor);
+        }
+    }
+    (*env)->ReleaseIntArrayElements(env, indices_, indices, JNI_ABORT);
+    return ret;
+}
+
+static const JNINativeMethod methods[] = {
+        {"nativeGetRawStringDescriptors", "(J[II)[[B",
+         (void *) Java_com_jwoolston_libusb_StringDescriptorCache_nativeGetRawStringDescriptors},
+};
+
+jint register_string_descriptor_cache_natives(JNIEnv *env) {
+    return register_natives(env, "com/jwoolston/libusb/StringDescriptorCache", methods, NELEM(methods));
+}
+
+#pragma clang diagnostic pop
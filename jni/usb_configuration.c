@@ -4,37 +4,132 @@
 
 #include <string.h>
 #include <common.h>
+#include <jni_registration.h>
 
 #define  LOG_TAG    "UsbConfiguration-Native"
 
-JNIEXPORT jobject JNICALL
-Java_com_jwoolston_libusb_BaseUsbConfiguration_nativeGetConfiguration(JNIEnv *env, jclass type, jobject device,
-                                                                          jint configuration) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+static size_t endpoint_descriptor_size(const struct libusb_endpoint_descriptor *endpoint) {
+    return (endpoint->bLength >= LIBUSB_DT_ENDPOINT_AUDIO_SIZE) ? LIBUSB_DT_ENDPOINT_AUDIO_SIZE
+                                                                : LIBUSB_DT_ENDPOINT_SIZE;
+}
+
+static size_t raw_config_length(const struct libusb_config_descriptor *config) {
+    size_t length = LIBUSB_DT_CONFIG_SIZE + config->extra_length;
+    for (int i = 0; i < config->bNumInterfaces; ++i) {
+        const struct libusb_interface *interface = config->interface + i;
+        for (int j = 0; j < interface->num_altsetting; ++j) {
+            const struct libusb_interface_descriptor *altsetting = interface->altsetting + j;
+            length += LIBUSB_DT_INTERFACE_SIZE + altsetting->extra_length;
+            for (int k = 0; k < altsetting->bNumEndpoints; ++k) {
+                const struct libusb_endpoint_descriptor *endpoint = altsetting->endpoint + k;
+                length += endpoint_descriptor_size(endpoint) + endpoint->extra_length;
+            }
+        }
+    }
+    return length;
+}
+
+static unsigned char *write_extra(unsigned char *out, const unsigned char *extra, int extra_length) {
+    if (extra_length > 0) {
+        memcpy(out, extra, (size_t) extra_length);
+    }
+    return out + (extra_length > 0 ? extra_length : 0);
+}
+
+/*
+ * Re-serializes the configuration descriptor libusb parsed during enumeration back into the USB wire format so the
+ * Java layer can build the entire configuration tree from a single array. Class specific descriptors are preserved
+ * in place through the extra fields.
+ */
+static void write_raw_config(const struct libusb_config_descriptor *config, unsigned char *out, size_t length) {
+    out[0] = LIBUSB_DT_CONFIG_SIZE;
+    out[1] = LIBUSB_DT_CONFIG;
+    out[2] = (unsigned char) (0xFF & length);
+    out[3] = (unsigned char) (0xFF & (length >> 8));
+    out[4] = config->bNumInterfaces;
+    out[5] = config->bConfigurationValue;
+    out[6] = config->iConfiguration;
+    out[7] = config->bmAttributes;
+    out[8] = config->MaxPower;
+    out = write_extra(out + LIBUSB_DT_CONFIG_SIZE, config->extra, config->extra_length);
+
+    for (int i = 0; i < config->bNumInterfaces; ++i) {
+        const struct libusb_interface *interface = config->interface + i;
+        for (int j = 0; j < interface->num_altsetting; ++j) {
+            const struct libusb_interface_descriptor *altsetting = interface->altsetting + j;
+            out[0] = LIBUSB_DT_INTERFACE_SIZE;
+            out[1] = LIBUSB_DT_INTERFACE;
+            out[2] = altsetting->bInterfaceNumber;
+            out[3] = altsetting->bAlternateSetting;
+            out[4] = altsetting->bNumEndpoints;
+            out[5] = altsetting->bInterfaceClass;
+            out[6] = altsetting->bInterfaceSubClass;
+            out[7] = altsetting->bInterfaceProtocol;
+            out[8] = altsetting->iInterface;
+            out = write_extra(out + LIBUSB_DT_INTERFACE_SIZE, altsetting->extra, altsetting->extra_length);
+
+            for (int k = 0; k < altsetting->bNumEndpoints; ++k) {
+                const struct libusb_endpoint_descriptor *endpoint = altsetting->endpoint + k;
+                size_t size = endpoint_descriptor_size(endpoint);
+                out[0] = (unsigned char) size;
+                out[1] = LIBUSB_DT_ENDPOINT;
+                out[2] = endpoint->bEndpointAddress;
+                out[3] = endpoint->bmAttributes;
+                out[4] = (unsigned char) (0xFF & endpoint->wMaxPacketSize);
+                out[5] = (unsigned char) (0xFF & (endpoint->wMaxPacketSize >> 8));
+                out[6] = endpoint->bInterval;
+                if (size == LIBUSB_DT_ENDPOINT_AUDIO_SIZE) {
+                    out[7] = endpoint->bRefresh;
+                    out[8] = endpoint->bSynchAddress;
+                }
+                out = write_extra(out + size, endpoint->extra, endpoint->extra_length);
+            }
+        }
+    }
+}
+
+static jbyteArray get_raw_descriptor(JNIEnv *env, libusb_device *device, jint configuration) {
     struct libusb_config_descriptor *config;
-    int retval = libusb_get_config_descriptor(deviceHandle->dev, (uint8_t) (0xFF & configuration), &config);
+    int retval = libusb_get_config_descriptor(device, (uint8_t) (0xFF & configuration), &config);
     if (retval) {
         LOGE("Error fetching configuration descriptor: %s", libusb_strerror(retval));
         return NULL;
     }
 
-    return ((*env)->NewDirectByteBuffer(env, (void *) config, sizeof(struct libusb_config_descriptor)));
+    size_t length = raw_config_length(config);
+    jbyteArray ret = (*env)->NewByteArray(env, (jsize) length);
+    if (ret) {
+        jbyte *bytes = (jbyte *) (*env)->GetPrimitiveArrayCritical(env, ret, 0);
+        if (bytes) {
+            write_raw_config(config, (unsigned char *) bytes, length);
+            (*env)->ReleasePrimitiveArrayCritical(env, ret, bytes, 0);
+        }
+    }
+    libusb_free_config_descriptor(config);
+    return ret;
 }
 
-JNIEXPORT jobject JNICALL
-Java_com_jwoolston_libusb_BaseUsbConfiguration_nativeGetInterface(JNIEnv *env, jclass type, jobject nativeObject,
-                                                                      jint interfaceIndex) {
-    struct libusb_config_descriptor *config = (struct libusb_config_descriptor *)
-            (*env)->GetDirectBufferAddress(env, nativeObject);
+JNIEXPORT jbyteArray JNICALL
+Java_com_jwoolston_libusb_BaseUsbConfiguration_nativeGetRawDescriptor(JNIEnv *env, jclass type, jlong device,
+                                                                      jint configuration) {
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
+    return get_raw_descriptor(env, deviceHandle->dev, configuration);
+}
 
-    return ((*env)->NewDirectByteBuffer(env, (void *) (config->interface + interfaceIndex), sizeof(struct
-            libusb_interface)));
+JNIEXPORT jbyteArray JNICALL
+Java_com_jwoolston_libusb_BaseUsbConfiguration_nativeGetRawDescriptorFromDevice(JNIEnv *env, jclass type,
+                                                                                jlong nativePointer,
+                                                                                jint configuration) {
+    return get_raw_descriptor(env, (libusb_device *) (intptr_t) nativePointer, configuration);
 }
 
-JNIEXPORT void JNICALL
-Java_com_jwoolston_libusb_BaseUsbConfiguration_nativeDestroy(JNIEnv *env, jclass type, jobject nativeObject) {
-    struct libusb_config_descriptor *config = (struct libusb_config_descriptor *)
-            (*env)->GetDirectBufferAddress(env, nativeObject);
-    libusb_free_config_descriptor(config);
+static const JNINativeMethod methods[] = {
+        {"nativeGetRawDescriptor", "(JI)[B",
+         (void *) Java_com_jwoolston_libusb_BaseUsbConfiguration_nativeGetRawDescriptor},
+        {"nativeGetRawDescriptorFromDevice", "(JI)[B",
+         (void *) Java_com_jwoolston_libusb_BaseUsbConfiguration_nativeGetRawDescriptorFromDevice},
+};
+
+jint register_usb_configuration_natives(JNIEnv *env) {
+    return register_natives(env, "com/jwoolston/libusb/BaseUsbConfiguration", methods, NELEM(methods));
 }
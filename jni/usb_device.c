@@ -3,142 +3,106 @@
 //
 
 #include <common.h>
+#include <jni_registration.h>
 
 #pragma clang diagnostic push
 #pragma clang diagnostic ignored "-Wunused-parameter"
 #define  LOG_TAG    "UsbDevice-Native"
 
-#define STR_ALLOC_LENGTH 50
-#define SIGN_MASK 0xFF
 
-JNIEXPORT jstring JNICALL
-Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetStringDescriptor(JNIEnv *env, jclass type, jobject device,
-                                                                      jint index) {
-    if (index == 0) {
+static jbyteArray get_bus_path(JNIEnv *env, libusb_device *device) {
+    // USB 3.0 limits the hub depth to 7 tiers
+    uint8_t path[8];
+    int count = libusb_get_port_numbers(device, path + 1, sizeof(path) - 1);
+    if (count < 0) {
+        LOGE("Failed to retrieve port numbers: %s", libusb_strerror((enum libusb_error) count));
         return NULL;
     }
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
-    size_t length = STR_ALLOC_LENGTH * sizeof(unsigned char);
-    unsigned char *name = malloc(length);
-    libusb_get_string_descriptor_ascii(deviceHandle, (uint8_t) (SIGN_MASK & index), name, (int) length);
-    jstring retval = (*env)->NewStringUTF(env, (const char *) name);
-    free(name);
-    return retval;
-}
-
-JNIEXPORT jobject JNICALL
-Java_com_jwoolston_libusb_BaseUsbDevice_wrapDevice(JNIEnv *env, jclass type, jobject context, jint fd) {
-    LOGD("Wrapping USB Device Handle.");
-    struct libusb_device_handle *deviceHandle;
+    path[0] = libusb_get_bus_number(device);
 
-    struct libusb_context *ctx = (struct libusb_context *) (*env)->GetDirectBufferAddress(env, context);
-    int ret =  libusb_wrap_sys_device(ctx, fd, &deviceHandle);
-
-    if (deviceHandle == NULL) {
-        LOGE("Failed to wrap usb device file descriptor. Error: %s", libusb_strerror((enum libusb_error) ret));
-        return NULL;
+    jbyteArray ret = (*env)->NewByteArray(env, count + 1);
+    if (ret) {
+        (*env)->SetByteArrayRegion(env, ret, 0, count + 1, (const jbyte *) path);
     }
-
-    return ((*env)->NewDirectByteBuffer(env, (void *) deviceHandle, sizeof(struct libusb_device_handle)));
+    return ret;
 }
 
-JNIEXPORT jstring JNICALL
-Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetManufacturerString(JNIEnv *env, jobject instance, jobject device,
-                                                                        jobject descriptor) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
-    struct libusb_device_descriptor *deviceDescriptor = (struct libusb_device_descriptor *)
-            (*env)->GetDirectBufferAddress(env, descriptor);
-
-    size_t length = STR_ALLOC_LENGTH * sizeof(unsigned char);
-    unsigned char *name = malloc(length);
-    libusb_get_string_descriptor_ascii(deviceHandle, deviceDescriptor->iManufacturer, name, (int) length);
-    jstring retval = (*env)->NewStringUTF(env, (const char *) name);
-    free(name);
-    return retval;
+JNIEXPORT jbyteArray JNICALL
+Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetBusPath(JNIEnv *env, jclass type, jlong device) {
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
+    return get_bus_path(env, deviceHandle->dev);
 }
 
-JNIEXPORT jstring JNICALL
-Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetSerialString(JNIEnv *env, jobject instance, jobject device,
-                                                                    jobject descriptor) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
-    struct libusb_device_descriptor *deviceDescriptor = (struct libusb_device_descriptor *)
-            (*env)->GetDirectBufferAddress(env, descriptor);
-
-    size_t length = STR_ALLOC_LENGTH * sizeof(unsigned char);
-    unsigned char *serial = malloc(length);
-    libusb_get_string_descriptor_ascii(deviceHandle, deviceDescriptor->iSerialNumber, serial, (int) length);
-    jstring retval = (*env)->NewStringUTF(env, (const char *) serial);
-    free(serial);
-    return retval;
+JNIEXPORT jbyteArray JNICALL
+Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetBusPathFromDevice(JNIEnv *env, jclass type, jlong nativePointer) {
+    return get_bus_path(env, (libusb_device *) nativePointer);
 }
 
-JNIEXPORT jstring JNICALL
-Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetProductNameString(JNIEnv *env, jobject instance, jobject device,
-                                                                       jobject descriptor) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
-    struct libusb_device_descriptor *deviceDescriptor = (struct libusb_device_descriptor *)
-            (*env)->GetDirectBufferAddress(env, descriptor);
-
-    size_t length = STR_ALLOC_LENGTH * sizeof(unsigned char);
-    unsigned char *name = malloc(length);
-    libusb_get_string_descriptor_ascii(deviceHandle, deviceDescriptor->iProduct, name, (int) length);
-    jstring retval = (*env)->NewStringUTF(env, (const char *) name);
-    free(name);
-    return retval;
+JNIEXPORT jlong JNICALL
+Java_com_jwoolston_libusb_BaseUsbDevice_nativeRefDevice(JNIEnv *env, jclass type, jlong nativePointer) {
+    return (jlong) (intptr_t) libusb_ref_device((libusb_device *) (intptr_t) nativePointer);
 }
 
-JNIEXPORT jstring JNICALL
-Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetDeviceVersion(JNIEnv *env, jobject instance, jobject descriptor) {
-    struct libusb_device_descriptor *deviceDescriptor = (struct libusb_device_descriptor *)
-            (*env)->GetDirectBufferAddress(env, descriptor);
-    uint16_t bcdDevice = deviceDescriptor->bcdDevice;
-    size_t length = 4 * sizeof(unsigned char);
-    char *version = malloc(length);
-    snprintf(version, length, "%i.%i", SIGN_MASK & (bcdDevice >> 8), SIGN_MASK & bcdDevice);
-    jstring retval = (*env)->NewStringUTF(env, (const char *) version);
-    free(version);
-    return retval;
+JNIEXPORT void JNICALL
+Java_com_jwoolston_libusb_BaseUsbDevice_nativeUnrefDevice(JNIEnv *env, jclass type, jlong nativePointer) {
+    libusb_unref_device((libusb_device *) (intptr_t) nativePointer);
 }
 
-JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetDeviceSpeed(JNIEnv *env, jobject instance, jobject device,
-                                                                 jobject descriptor) {
-
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
-    return libusb_get_device_speed(deviceHandle->dev);
+JNIEXPORT jlong JNICALL
+Java_com_jwoolston_libusb_BaseUsbDevice_nativeOpen(JNIEnv *env, jclass type, jlong nativePointer) {
+    struct libusb_device_handle *deviceHandle;
+    int ret = libusb_open((libusb_device *) (intptr_t) nativePointer, &deviceHandle);
+    if (ret != LIBUSB_SUCCESS) {
+        LOGE("Failed to open usb device. Error: %s", libusb_strerror((enum libusb_error) ret));
+        return 0;
+    }
+    return (jlong) (intptr_t) deviceHandle;
 }
 
 JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetConfigurationCount(JNIEnv *env, jobject instance, jobject device) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
-    return deviceHandle->dev->num_configurations;
+Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetDeviceAddress(JNIEnv *env, jclass type, jlong nativePointer) {
+    return libusb_get_device_address((libusb_device *) nativePointer);
 }
 
 JNIEXPORT jlong JNICALL
-Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetPointerFromNativeObject(JNIEnv *env, jobject instance,
-                                                                             jobject device) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
-    return (jlong) ((void *) deviceHandle);
-
-}
+Java_com_jwoolston_libusb_BaseUsbDevice_wrapDevice(JNIEnv *env, jclass type, jlong context, jint fd) {
+    LOGD("Wrapping USB Device Handle.");
+    struct libusb_device_handle *deviceHandle;
 
-JNIEXPORT jobject JNICALL
-Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetNativeObjectFromPointer(JNIEnv *env, jobject instance,
-                                                                             jlong pointer) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) ((void *) pointer);
+    struct libusb_context *ctx = (struct libusb_context *) (intptr_t) context;
+    int ret =  libusb_wrap_sys_device(ctx, fd, &deviceHandle);
 
     if (deviceHandle == NULL) {
-        return NULL;
+        LOGE("Failed to wrap usb device file descriptor. Error: %s", libusb_strerror((enum libusb_error) ret));
+        return 0;
     }
 
-    return ((*env)->NewDirectByteBuffer(env, (void *) deviceHandle, sizeof(struct libusb_device_handle)));
+    return (jlong) (intptr_t) deviceHandle;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetDeviceSpeed(JNIEnv *env, jobject instance, jlong device) {
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
+    return libusb_get_device_speed(deviceHandle->dev);
+}
+
+static const JNINativeMethod methods[] = {
+        {"nativeGetBusPath", "(J)[B",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetBusPath},
+        {"nativeGetBusPathFromDevice", "(J)[B",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetBusPathFromDevice},
+        {"nativeRefDevice", "(J)J", (void *) Java_com_jwoolston_libusb_BaseUsbDevice_nativeRefDevice},
+        {"nativeUnrefDevice", "(J)V", (void *) Java_com_jwoolston_libusb_BaseUsbDevice_nativeUnrefDevice},
+        {"nativeOpen", "(J)J", (void *) Java_com_jwoolston_libusb_BaseUsbDevice_nativeOpen},
+        {"nativeGetDeviceAddress", "(J)I", (void *) Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetDeviceAddress},
+        {"wrapDevice", "(JI)J",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDevice_wrapDevice},
+        {"nativeGetDeviceSpeed", "(J)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDevice_nativeGetDeviceSpeed},
+};
+
+jint register_usb_device_natives(JNIEnv *env) {
+    return register_natives(env, "com/jwoolston/libusb/BaseUsbDevice", methods, NELEM(methods));
 }
 
-#pragma clang diagnostic pop
\ No newline at end of file
+#pragma clang diagnostic pop
@@ -5,6 +5,7 @@
 #include <string.h>
 #include <stdbool.h>
 #include <common.h>
+#include <jni_registration.h>
 
 #pragma clang diagnostic push
 #pragma clang diagnostic ignored "-Wunused-parameter"
@@ -15,6 +16,8 @@ static jmethodID bulkCallback;
 static jmethodID interruptCallback;
 static jmethodID isochronousCallback;
 static jmethodID byteBufferLimit;
+static jmethodID directComplete;
+static jmethodID directAttach;
 
 struct transfer_callback_holder {
     jobject *callback;
@@ -31,40 +34,52 @@ static struct transfer_callback_holder *allocate_callback_holder(jobject *callba
     struct transfer_callback_holder *holder = malloc(sizeof(struct transfer_callback_holder));
     // TODO: Is this the most efficient way to do this (deleting on processing callback)
     holder->callback = (*env)->NewGlobalRef(env, callback);
-    JavaVM *vm;
-    (*env)->GetJavaVM(env, &vm);
-    holder->vm = vm;
+    holder->vm = javaVM;
     holder->buffer = (*env)->NewGlobalRef(env, buffer);
     holder->cleanup = cleanup;
     return holder;
 }
 
-static void LIBUSB_CALL libusb_transfer_callback(struct libusb_transfer *transfer) {
-    int result;
+/*
+ * Maps the status of a completed transfer to the transferred length on success or a libusb error code.
+ */
+static int transfer_result(struct libusb_transfer *transfer) {
     switch (transfer->status) {
         case LIBUSB_TRANSFER_COMPLETED:
-            result = transfer->actual_length;
-            break;
+            return transfer->actual_length;
         case LIBUSB_TRANSFER_TIMED_OUT:
-            result = LIBUSB_ERROR_TIMEOUT;
-            break;
+            return LIBUSB_ERROR_TIMEOUT;
         case LIBUSB_TRANSFER_STALL:
-            result = LIBUSB_ERROR_PIPE;
-            break;
+            return LIBUSB_ERROR_PIPE;
         case LIBUSB_TRANSFER_NO_DEVICE:
-            result = LIBUSB_ERROR_NO_DEVICE;
-            break;
+            return LIBUSB_ERROR_NO_DEVICE;
         case LIBUSB_TRANSFER_OVERFLOW:
-            result = LIBUSB_ERROR_OVERFLOW;
-            break;
+            return LIBUSB_ERROR_OVERFLOW;
         case LIBUSB_TRANSFER_ERROR:
         case LIBUSB_TRANSFER_CANCELLED:
-            result = LIBUSB_ERROR_IO;
-            break;
+            return LIBUSB_ERROR_IO;
         default:
             LOGE("Unrecognised status code %d", transfer->status);
-            result = LIBUSB_ERROR_OTHER;
+            return LIBUSB_ERROR_OTHER;
     }
+}
+
+/*
+ * Copies the data an IN transfer received into a new direct ByteBuffer, or returns NULL for an OUT transfer or one
+ * which failed. Failed transfers are still reported, with a NULL buffer, so the Java side can release what it holds
+ * for them.
+ */
+static jobject received_data(JNIEnv *env, unsigned char *source, int result, bool in) {
+    if (result < 0 || !in) {
+        return NULL;
+    }
+    unsigned char *data = malloc(result * sizeof(unsigned char));
+    memcpy(data, source, (size_t) result);
+    return (*env)->NewDirectByteBuffer(env, data, result);
+}
+
+static void LIBUSB_CALL libusb_transfer_callback(struct libusb_transfer *transfer) {
+    int result = transfer_result(transfer);
 
     struct transfer_callback_holder *holder = (struct transfer_callback_holder *) transfer->user_data;
     if (holder == NULL) {
@@ -76,84 +91,78 @@ static void LIBUSB_CALL libusb_transfer_callback(struct libusb_transfer *transfe
     JNIEnv *env;
     int jniResult = (*holder->vm)->GetEnv(holder->vm, (void **) &env, JNI_VERSION_1_6);
     if (jniResult != JNI_OK) {
-        result = LIBUSB_ERROR_OTHER;
+        // The callback can not be notified and its references can not be deleted, but the memory is still released
         LOGE("Failed to retrieve JNI environment: %i", jniResult);
+        if (holder->cleanup == true) {
+            libusb_free_transfer(transfer);
+        }
+        free(holder);
+        return;
     }
 
-    unsigned char *data = NULL;
     jobject byteBuffer = NULL;
+    jobject callback = holder->callback;
 
-    //TODO: error checking on allocation for data and if the transfer actually did anything.
     //TODO: the buffers allocated here need to be freed by native code. Probably want to change how this API works to
     // use a provided buffer from java
 
-    if (result >= 0) {
-        switch (transfer->type) {
-            case LIBUSB_TRANSFER_TYPE_CONTROL: {
-                struct libusb_control_setup *controlSetup = libusb_control_transfer_get_setup(transfer);
-                if ((controlSetup->bmRequestType & LIBUSB_ENDPOINT_DIR_MASK) == LIBUSB_ENDPOINT_IN) {
-                    data = malloc(transfer->actual_length * sizeof(unsigned char));
-                    memcpy(data, libusb_control_transfer_get_data(transfer), (size_t) transfer->actual_length);
-                    // We don't free the buffer here because we expect libusb to do it with control transfers
-                    byteBuffer = (*env)->NewDirectByteBuffer(env, data, transfer->actual_length);
-                }
-                jobject callback = holder->callback;
-                if (holder->cleanup == true) {
-                    libusb_free_transfer(transfer);
-                }
-                (*env)->CallVoidMethod(env, callback, controlCallback, byteBuffer, result);
-                break;
+    switch (transfer->type) {
+        case LIBUSB_TRANSFER_TYPE_CONTROL: {
+            struct libusb_control_setup *controlSetup = libusb_control_transfer_get_setup(transfer);
+            // We don't free the buffer here because we expect libusb to do it with control transfers
+            byteBuffer = received_data(env, libusb_control_transfer_get_data(transfer), result,
+                                       (controlSetup->bmRequestType & LIBUSB_ENDPOINT_DIR_MASK) == LIBUSB_ENDPOINT_IN);
+            if (holder->cleanup == true) {
+                libusb_free_transfer(transfer);
             }
-            case LIBUSB_TRANSFER_TYPE_BULK: {
-                if ((transfer->endpoint & LIBUSB_ENDPOINT_DIR_MASK) == LIBUSB_ENDPOINT_IN) {
-                    data = malloc(transfer->actual_length * sizeof(unsigned char));
-                    memcpy(data, transfer->buffer, (size_t) transfer->actual_length);
-                    // We don't free the buffer here because we expect libusb to do it with bulk transfers
-                    byteBuffer = (*env)->NewDirectByteBuffer(env, data, transfer->actual_length);
-                }
-                jobject callback = holder->callback;
-                if (holder->cleanup == true) {
-                    libusb_free_transfer(transfer);
-                }
-                (*env)->CallVoidMethod(env, callback, bulkCallback, byteBuffer, result);
-                break;
+            (*env)->CallVoidMethod(env, callback, controlCallback, byteBuffer, result);
+            break;
+        }
+        case LIBUSB_TRANSFER_TYPE_BULK: {
+            // We don't free the buffer here because we expect libusb to do it with bulk transfers
+            byteBuffer = received_data(env, transfer->buffer, result,
+                                       (transfer->endpoint & LIBUSB_ENDPOINT_DIR_MASK) == LIBUSB_ENDPOINT_IN);
+            if (holder->cleanup == true) {
+                libusb_free_transfer(transfer);
             }
-            case LIBUSB_TRANSFER_TYPE_INTERRUPT: {
-                if ((transfer->endpoint & LIBUSB_ENDPOINT_DIR_MASK) == LIBUSB_ENDPOINT_IN) {
-                    data = malloc(transfer->actual_length * sizeof(unsigned char));
-                    memcpy(data, transfer->buffer, (size_t) transfer->actual_length);
-                    // We don't free the buffer here because we expect libusb to do it with basic interrupt transfers
-                    byteBuffer = (*env)->NewDirectByteBuffer(env, data, transfer->actual_length);
-                }
-                jobject callback = holder->callback;
-                if (holder->cleanup == true) {
-                    libusb_free_transfer(transfer);
-                }
-                (*env)->CallVoidMethod(env, callback, interruptCallback, byteBuffer, result);
-                break;
+            (*env)->CallVoidMethod(env, callback, bulkCallback, byteBuffer, result);
+            break;
+        }
+        case LIBUSB_TRANSFER_TYPE_INTERRUPT: {
+            // We don't free the buffer here because we expect libusb to do it with basic interrupt transfers
+            byteBuffer = received_data(env, transfer->buffer, result,
+                                       (transfer->endpoint & LIBUSB_ENDPOINT_DIR_MASK) == LIBUSB_ENDPOINT_IN);
+            if (holder->cleanup == true) {
+                libusb_free_transfer(transfer);
             }
-            case LIBUSB_TRANSFER_TYPE_ISOCHRONOUS: {
-                jobject callback = holder->callback;
-                byteBuffer = holder->buffer;
-                int transferred = 0;
-                for (int i = 0; i < transfer->num_iso_packets; ++i) {
-                    if (transfer->iso_packet_desc[i].actual_length > 0) {
-                        transferred += transfer->iso_packet_desc[i].actual_length;
-                    } else {
-                        break;
-                    }
-                }
-                (*env)->CallObjectMethod(env, byteBuffer, byteBufferLimit, transferred);
-                if (holder->cleanup == true) {
-                    libusb_free_transfer(transfer);
+            (*env)->CallVoidMethod(env, callback, interruptCallback, byteBuffer, result);
+            break;
+        }
+        case LIBUSB_TRANSFER_TYPE_ISOCHRONOUS: {
+            byteBuffer = holder->buffer;
+            int transferred = 0;
+            for (int i = 0; result >= 0 && i < transfer->num_iso_packets; ++i) {
+                if (transfer->iso_packet_desc[i].actual_length > 0) {
+                    transferred += transfer->iso_packet_desc[i].actual_length;
+                } else {
+                    break;
                 }
-                (*env)->CallVoidMethod(env, callback, isochronousCallback, byteBuffer, result);
-                break;
             }
-            default:
-                LOGE("Unsupported transfer type: %i", transfer->type);
+            (*env)->CallObjectMethod(env, byteBuffer, byteBufferLimit, transferred);
+            if (holder->cleanup == true) {
                 libusb_free_transfer(transfer);
+            }
+            (*env)->CallVoidMethod(env, callback, isochronousCallback, byteBuffer, result);
+            break;
         }
+        default:
+            LOGE("Unsupported transfer type: %i", transfer->type);
+            libusb_free_transfer(transfer);
+    }
+    if ((*env)->ExceptionCheck(env)) {
+        // Never leave a pending exception on the event thread
+        (*env)->ExceptionDescribe(env);
+        (*env)->ExceptionClear(env);
     }
     // We must always free our callback holder
     if (holder->buffer != NULL) {
@@ -163,8 +172,58 @@ static void LIBUSB_CALL libusb_transfer_callback(struct libusb_transfer *transfe
     free(holder);
 }
 
-JNIEXPORT jboolean JNICALL
-Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeInitialize(JNIEnv *env, jclass type) {
+/*
+ * Transfers into a direct ByteBuffer owned by the Java side, backing the blocking API and endpoint streams. Nothing is
+ * allocated or copied here beyond the transfer itself.
+ */
+struct direct_transfer_holder {
+    jobject owner;
+
+    jobject buffer;
+};
+
+static void free_direct_holder(JNIEnv *env, struct direct_transfer_holder *holder) {
+    (*env)->DeleteGlobalRef(env, holder->owner);
+    (*env)->DeleteGlobalRef(env, holder->buffer);
+    free(holder);
+}
+
+static void LIBUSB_CALL direct_transfer_callback(struct libusb_transfer *transfer) {
+    struct direct_transfer_holder *holder = (struct direct_transfer_holder *) transfer->user_data;
+    // Cancellation is requested by the Java side, so it is reported distinctly from other I/O errors
+    int result = transfer->status == LIBUSB_TRANSFER_CANCELLED ? LIBUSB_ERROR_INTERRUPTED : transfer_result(transfer);
+
+    JNIEnv *env;
+    bool didAttach = false;
+    int jniResult = (*javaVM)->GetEnv(javaVM, (void **) &env, JNI_VERSION_1_6);
+    if (jniResult == JNI_EDETACHED) {
+        jniResult = (*javaVM)->AttachCurrentThread(javaVM, &env, NULL);
+        didAttach = jniResult == JNI_OK;
+    }
+    if (jniResult != JNI_OK) {
+        // The owner can not be notified and its references can not be deleted, but the memory is still released
+        LOGE("Failed to retrieve JNI environment: %i", jniResult);
+        free(holder);
+        libusb_free_transfer(transfer);
+        return;
+    }
+
+    // Timed out and cancelled transfers may still have moved data, which the owner can read from actualLength
+    (*env)->CallVoidMethod(env, holder->owner, directComplete, result, transfer->actual_length);
+    if ((*env)->ExceptionCheck(env)) {
+        LOGE("Direct transfer completion threw an exception.");
+        (*env)->ExceptionClear(env);
+    }
+    free_direct_holder(env, holder);
+    // Freed only after the owner has let go of it, so a concurrent cancel never sees a dangling transfer
+    libusb_free_transfer(transfer);
+
+    if (didAttach) {
+        (*javaVM)->DetachCurrentThread(javaVM);
+    }
+}
+
+static jboolean cache_method_ids(JNIEnv *env) {
     // Find the control transfer callback method
     jclass clazz = (*env)->FindClass(env, "com/jwoolston/libusb/async/ControlTransferCallback");
     if (clazz == NULL) {
@@ -224,17 +283,31 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeInitialize(JNIEnv *env,
         LOGE("Failed to find limit(int) method.");
         return JNI_FALSE;
     }
+
+    // Find the direct transfer completion method
+    clazz = (*env)->FindClass(env, "com/jwoolston/libusb/DirectTransfer");
+    if (clazz == NULL) {
+        LOGE("Failed to find class com.jwoolston.libusb.DirectTransfer");
+        return JNI_FALSE;
+    }
+    directComplete = (*env)->GetMethodID(env, clazz, "complete", "(II)V");
+    if (directComplete == NULL) {
+        LOGE("Failed to find complete(int, int) method.");
+        return JNI_FALSE;
+    }
+    directAttach = (*env)->GetMethodID(env, clazz, "attach", "(J)V");
+    if (directAttach == NULL) {
+        LOGE("Failed to find attach(long) method.");
+        return JNI_FALSE;
+    }
     return JNI_TRUE;
 }
 
 JNIEXPORT void JNICALL
-Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeClose(JNIEnv *env, jobject instance, jobject device) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeClose(JNIEnv *env, jobject instance, jlong device) {
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
+    // libusb_close() frees the handle itself
     libusb_close(deviceHandle);
-    if (deviceHandle != NULL) {
-        free(deviceHandle);
-    }
 }
 
 JNIEXPORT jbyteArray JNICALL
@@ -256,19 +329,17 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeGetRawDescriptor(JNIEnv
 }
 
 JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeClearStall(JNIEnv *env, jobject instance, jobject device,
+Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeClearStall(JNIEnv *env, jobject instance, jlong device,
                                                                        jint address) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
     return libusb_clear_halt(deviceHandle, (unsigned char) address);
 }
 
 JNIEXPORT jint JNICALL
 Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeClaimInterface(JNIEnv *env, jobject instance,
-                                                                           jobject device, jint interfaceID,
+                                                                           jlong device, jint interfaceID,
                                                                            jboolean force) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
     jint ret = libusb_claim_interface(deviceHandle, interfaceID);
     if (ret == LIBUSB_ERROR_BUSY && force) {
         libusb_detach_kernel_driver(deviceHandle, interfaceID);
@@ -279,36 +350,32 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeClaimInterface(JNIEnv *e
 
 JNIEXPORT jint JNICALL
 Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeReleaseInterface(JNIEnv *env, jobject instance,
-                                                                             jobject device, jint interfaceID) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+                                                                             jlong device, jint interfaceID) {
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
     return libusb_release_interface(deviceHandle, interfaceID);
 }
 
 JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeSetInterface(JNIEnv *env, jobject instance, jobject device,
+Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeSetInterface(JNIEnv *env, jobject instance, jlong device,
                                                                          jint interfaceID, jint alternateSetting) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
     return libusb_set_interface_alt_setting(deviceHandle, interfaceID, alternateSetting);
 }
 
 JNIEXPORT jint JNICALL
 Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeSetConfiguration(JNIEnv *env, jobject instance,
-                                                                             jobject device, jint configurationID) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+                                                                             jlong device, jint configurationID) {
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
     return libusb_set_configuration(deviceHandle, configurationID);
 }
 
 JNIEXPORT jint JNICALL
 Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeControlRequest(JNIEnv *env, jobject instance,
-                                                                           jobject device, jint requestType,
+                                                                           jlong device, jint requestType,
                                                                            jint request, jint value, jint index,
                                                                            jbyteArray buffer_, jint offset, jint length,
                                                                            jint timeout) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
     jbyte *buffer = NULL;
     if (buffer_) {
         // We have to use this over GetPrimitiveArrayCritical due to the need to call other JNI functions
@@ -327,13 +394,12 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeControlRequest(JNIEnv *e
 
 JNIEXPORT jint JNICALL
 Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeControlRequestAsync(JNIEnv *env, jobject instance,
-                                                                                jobject device, jobject callback,
+                                                                                jlong device, jobject callback,
                                                                                 jint requestType, jint request,
                                                                                 jint value, jint index,
                                                                                 jbyteArray buffer_, jint offset,
                                                                                 jint length, jint timeout) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
     // Allocate the transfer
     struct libusb_transfer *transfer = libusb_alloc_transfer(0);
     jbyte *buffer = NULL;
@@ -374,11 +440,10 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeControlRequestAsync(JNIE
 }
 
 JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeBulkRequest(JNIEnv *env, jobject instance, jobject device,
+Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeBulkRequest(JNIEnv *env, jobject instance, jlong device,
                                                                         jint endpoint, jbyteArray buffer_, jint offset,
                                                                         jint length, jint timeout) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
     jbyte *buffer = NULL;
     if (buffer_) {
         // We have to use this over GetPrimitiveArrayCritical due to the need to call other JNI functions
@@ -397,11 +462,10 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeBulkRequest(JNIEnv *env,
 
 JNIEXPORT jint JNICALL
 Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeBulkRequestAsync(JNIEnv *env, jobject instance,
-                                                                             jobject device, jobject callback,
+                                                                             jlong device, jobject callback,
                                                                              jint address, jbyteArray buffer_,
                                                                              jint offset, jint length, jint timeout) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
     // Allocate the transfer
     struct libusb_transfer *transfer = libusb_alloc_transfer(0);
     jbyte *buffer = NULL;
@@ -417,7 +481,7 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeBulkRequestAsync(JNIEnv
         if (buffer_) {
             buffer = (jbyte *) (*env)->GetPrimitiveArrayCritical(env, buffer_, NULL);
         }
-        memcpy(buffer + offset, userData, length);
+        memcpy(userData, buffer + offset, length);
         if (buffer) {
             (*env)->ReleasePrimitiveArrayCritical(env, buffer_, buffer, 0);
         }
@@ -433,17 +497,16 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeBulkRequestAsync(JNIEnv
     int result = libusb_submit_transfer(transfer);
     if (result < 0) {
         libusb_free_transfer(transfer);
-        return result;
     }
+    return result;
 }
 
 JNIEXPORT jint JNICALL
 Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeInterruptRequest(JNIEnv *env, jobject instance,
-                                                                             jobject device, jint endpoint,
+                                                                             jlong device, jint endpoint,
                                                                              jbyteArray buffer_, jint offset,
                                                                              jint length, jint timeout) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
     jbyte *buffer = NULL;
     if (buffer_) {
         // We have to use this over GetPrimitiveArrayCritical due to the need to call other JNI functions
@@ -460,11 +523,10 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeInterruptRequest(JNIEnv
 JNIEXPORT jint JNICALL
 Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeInterruptRequestAsync(JNIEnv *env, jobject instance,
                                                                                   jobject callback,
-                                                                                  jobject device, jint address,
+                                                                                  jlong device, jint address,
                                                                                   jbyteArray buffer_, jint offset,
                                                                                   jint length, jint timeout) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
 
     // Allocate the transfer
     struct libusb_transfer *transfer = libusb_alloc_transfer(0);
@@ -482,7 +544,7 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeInterruptRequestAsync(JN
             // We have to use this over GetPrimitiveArrayCritical due to the need to call other JNI functions
             buffer = (*env)->GetByteArrayElements(env, buffer_, NULL);
         }
-        memcpy(buffer + offset, userData, length);
+        memcpy(userData, buffer + offset, length);
         if (buffer) {
             (*env)->ReleaseByteArrayElements(env, buffer_, buffer, 0);
         }
@@ -498,19 +560,18 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeInterruptRequestAsync(JN
     int result = libusb_submit_transfer(transfer);
     if (result < 0) {
         libusb_free_transfer(transfer);
-        return result;
     }
+    return result;
 }
 
 JNIEXPORT jint JNICALL
 Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeIsochronousRequestAsync(JNIEnv *env, jobject instance,
-                                                                                    jobject callback, jobject device,
-                                                                                    jobject transfer, jint address,
+                                                                                    jobject callback, jlong device,
+                                                                                    jlong transfer, jint address,
                                                                                     jobject buffer, jint length,
                                                                                     jint timeout) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
-    struct libusb_transfer *_transfer = (struct libusb_transfer *) (*env)->GetDirectBufferAddress(env, transfer);
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
+    struct libusb_transfer *_transfer = (struct libusb_transfer *) (intptr_t) transfer;
     unsigned char *_buffer = (*env)->GetDirectBufferAddress(env, buffer);
     _transfer->buffer = _buffer;
 
@@ -525,10 +586,114 @@ Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeIsochronousRequestAsync(
 }
 
 JNIEXPORT jint JNICALL
-Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeResetDevice(JNIEnv *env, jobject instance, jobject device) {
-    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (*env)->GetDirectBufferAddress(env,
-                                                                                                               device);
+Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeSubmitDirect(JNIEnv *env, jobject instance, jlong device,
+                                                                     jint type, jint address, jobject buffer,
+                                                                     jint length, jint timeout, jobject owner) {
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
+    unsigned char *data = (*env)->GetDirectBufferAddress(env, buffer);
+    struct libusb_transfer *transfer = libusb_alloc_transfer(0);
+    struct direct_transfer_holder *holder = malloc(sizeof(struct direct_transfer_holder));
+    if (transfer == NULL || holder == NULL) {
+        libusb_free_transfer(transfer);
+        free(holder);
+        return LIBUSB_ERROR_NO_MEM;
+    }
+    holder->owner = (*env)->NewGlobalRef(env, owner);
+    holder->buffer = (*env)->NewGlobalRef(env, buffer);
+
+    switch (type) {
+        case LIBUSB_TRANSFER_TYPE_CONTROL:
+            // The length is taken from the setup packet at the start of the buffer
+            libusb_fill_control_transfer(transfer, deviceHandle, data, direct_transfer_callback, holder,
+                                         (unsigned int) timeout);
+            break;
+        case LIBUSB_TRANSFER_TYPE_BULK:
+            libusb_fill_bulk_transfer(transfer, deviceHandle, (unsigned char) (0xFF & address), data, length,
+                                      direct_transfer_callback, holder, (unsigned int) timeout);
+            break;
+        case LIBUSB_TRANSFER_TYPE_INTERRUPT:
+            libusb_fill_interrupt_transfer(transfer, deviceHandle, (unsigned char) (0xFF & address), data, length,
+                                           direct_transfer_callback, holder, (unsigned int) timeout);
+            break;
+        default:
+            free_direct_holder(env, holder);
+            libusb_free_transfer(transfer);
+            return LIBUSB_ERROR_INVALID_PARAM;
+    }
+
+    // Published before submission as the transfer may complete on the event thread before libusb_submit_transfer
+    // returns
+    (*env)->CallVoidMethod(env, owner, directAttach, (jlong) (intptr_t) transfer);
+    int result = libusb_submit_transfer(transfer);
+    if (result < 0) {
+        (*env)->CallVoidMethod(env, owner, directAttach, (jlong) 0);
+        free_direct_holder(env, holder);
+        libusb_free_transfer(transfer);
+    }
+    return result;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_jwoolston_libusb_DirectTransfer_nativeCancel(JNIEnv *env, jclass type, jlong nativeTransfer) {
+    struct libusb_transfer *transfer = (struct libusb_transfer *) (intptr_t) nativeTransfer;
+    return libusb_cancel_transfer(transfer);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeResetDevice(JNIEnv *env, jobject instance, jlong device) {
+    struct libusb_device_handle *deviceHandle = (struct libusb_device_handle *) (intptr_t) device;
     return libusb_reset_device(deviceHandle);
 }
 
-#pragma clang diagnostic pop
\ No newline at end of file
+static const JNINativeMethod methods[] = {
+        {"nativeClose", "(J)V",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeClose},
+        {"nativeGetRawDescriptor", "(I)[B",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeGetRawDescriptor},
+        {"nativeClearStall", "(JI)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeClearStall},
+        {"nativeClaimInterface", "(JIZ)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeClaimInterface},
+        {"nativeReleaseInterface", "(JI)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeReleaseInterface},
+        {"nativeSetInterface", "(JII)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeSetInterface},
+        {"nativeSetConfiguration", "(JI)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeSetConfiguration},
+        {"nativeControlRequest", "(JIIII[BIII)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeControlRequest},
+        {"nativeControlRequestAsync", "(JLcom/jwoolston/libusb/async/ControlTransferCallback;IIII[BIII)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeControlRequestAsync},
+        {"nativeBulkRequestAsync", "(JLcom/jwoolston/libusb/async/BulkTransferCallback;I[BIII)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeBulkRequestAsync},
+        {"nativeInterruptRequestAsync", "(Lcom/jwoolston/libusb/async/InterruptTransferCallback;JI[BIII)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeInterruptRequestAsync},
+        {"nativeIsochronousRequestAsync", "(Lcom/jwoolston/libusb/async/IsochronousTransferCallback;JJILjava/nio/ByteBuffer;II)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeIsochronousRequestAsync},
+        {"nativeBulkRequest", "(JI[BIII)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeBulkRequest},
+        {"nativeInterruptRequest", "(JI[BIII)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeInterruptRequest},
+        {"nativeSubmitDirect", "(JIILjava/nio/ByteBuffer;IILcom/jwoolston/libusb/DirectTransfer;)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeSubmitDirect},
+        {"nativeResetDevice", "(J)I",
+         (void *) Java_com_jwoolston_libusb_BaseUsbDeviceConnection_nativeResetDevice},
+};
+
+static const JNINativeMethod directTransferMethods[] = {
+        {"nativeCancel", "(J)I", (void *) Java_com_jwoolston_libusb_DirectTransfer_nativeCancel},
+};
+
+jint register_usb_device_connection_natives(JNIEnv *env) {
+    if (!cache_method_ids(env)) {
+        return JNI_ERR;
+    }
+    jint result = register_natives(env, "com/jwoolston/libusb/BaseUsbDeviceConnection", methods, NELEM(methods));
+    if (result != JNI_OK) {
+        return result;
+    }
+    return register_natives(env, "com/jwoolston/libusb/DirectTransfer", directTransferMethods,
+                            NELEM(directTransferMethods));
+}
+
+#pragma clang diagnostic pop
@@ -3,39 +3,23 @@
 //
 
 #include <common.h>
+#include <jni_registration.h>
 
 #define  LOG_TAG    "UsbManager-Native"
 
-JNIEXPORT jobject JNICALL
-Java_com_jwoolston_libusb_BaseUsbManager_nativeInitialize(JNIEnv *env, jobject instance) {
-    // Initialize Arbor
-    initializeArbor(env);
-    LOGD("Initializing libusb.");
-    struct libusb_context *ctx;
-    int r = libusb_init(&ctx);
-    if (r < 0) {
-        LOGE("Initialization returned: %i", r);
-        return NULL;
-    } else {
-        jobject buffer = (*env)->NewDirectByteBuffer(env, (void *) ctx,
-                                                     sizeof(struct libusb_context));
-        return buffer;
-    }
-}
-
 JNIEXPORT void JNICALL
 Java_com_jwoolston_libusb_BaseUsbManager_nativeSetLoggingLevel(JNIEnv *env, jobject instance,
-                                                               jobject nativeContext, jint level) {
+                                                               jlong nativeContext, jint level) {
     struct libusb_context *ctx
-            = (libusb_context *) (*env)->GetDirectBufferAddress(env, nativeContext);
+            = (libusb_context *) (intptr_t) nativeContext;
     libusb_set_option(ctx, LIBUSB_OPTION_LOG_LEVEL, level);
 }
 
-JNIEXPORT void JNICALL
-Java_com_jwoolston_libusb_BaseUsbManager_nativeDestroy(JNIEnv *env, jobject instance,
-                                                       jobject context) {
-    LOGD("De-initializing libusb.");
-    struct libusb_context *ctx = (libusb_context *) (*env)->GetDirectBufferAddress(env, context);
-    libusb_exit(ctx);
-}
+static const JNINativeMethod methods[] = {
+        {"nativeSetLoggingLevel", "(JI)V",
+         (void *) Java_com_jwoolston_libusb_BaseUsbManager_nativeSetLoggingLevel},
+};
 
+jint register_usb_manager_natives(JNIEnv *env) {
+    return register_natives(env, "com/jwoolston/libusb/BaseUsbManager", methods, NELEM(methods));
+}
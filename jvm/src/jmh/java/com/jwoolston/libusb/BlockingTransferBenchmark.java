@@ -0,0 +1,104 @@
+package com.jwoolston.libusb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares blocking control transfers submitted asynchronously with the caller parked until completion (direct)
+ * against the synchronous libusb calls which block inside JNI (pinned), see
+ * {@link BaseUsbManager#setAsyncBlockingTransfers(boolean)}. Every benchmark thread issues a standard GET_STATUS
+ * request, which any device answers without claiming an interface.
+ * <p>
+ * The benchmark threads are JMH's platform threads, so this measures how the two modes scale with concurrent callers,
+ * not carrier thread pinning. Running the callers on virtual threads needs JDK 21, which the Java 8 build of this
+ * module can not compile against; a virtual thread variant has to be run from a separate JDK 21 harness.
+ * <p>
+ * Requires the native library and a device the user may open, see {@code jmh.gradle}:
+ * <pre>
+ *     ./gradlew :jvm:jmh -PlibusbLibraryPath=&lt;dir&gt; \
+ *         -PjmhArgs='BlockingTransferBenchmark -jvmArgsAppend -Dlibusb.benchmark.device=1d6b:0002'
+ * </pre>
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class BlockingTransferBenchmark {
+
+    private static final String DEVICE_PROPERTY = "libusb.benchmark.device";
+
+    private static final int REQUEST_TYPE_IN_STANDARD_DEVICE = 0x80;
+
+    private static final int REQUEST_GET_STATUS = 0x00;
+
+    private static final int TIMEOUT_MS = 1000;
+
+    @Param({"direct", "pinned"})
+    public String mode;
+
+    private UsbManager manager;
+
+    private UsbDeviceConnection connection;
+
+    @Setup
+    public void setUp() throws IOException {
+        final String device = System.getProperty(DEVICE_PROPERTY);
+        if (device == null || device.indexOf(':') < 0) {
+            throw new IllegalStateException("Set -D" + DEVICE_PROPERTY + "=<vid>:<pid> to a device which can be "
+                                            + "opened.");
+        }
+        final String[] ids = device.split(":");
+        final DeviceFilter filter = new DeviceFilter.Builder()
+            .vendorId(Integer.parseInt(ids[0], 16))
+            .productId(Integer.parseInt(ids[1], 16))
+            .build();
+
+        manager = new UsbManager();
+        manager.setAsyncBlockingTransfers("direct".equals(mode));
+        final List<BaseUsbDevice> devices = manager.getDeviceList(filter);
+        if (devices.isEmpty()) {
+            throw new IllegalStateException("No device matches " + device + ".");
+        }
+        connection = manager.openDevice(devices.get(0));
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (connection != null) {
+            connection.close();
+        }
+        manager.destroy();
+    }
+
+    @Benchmark
+    public int getStatus(Buffer buffer) {
+        return connection.controlTransfer(REQUEST_TYPE_IN_STANDARD_DEVICE, REQUEST_GET_STATUS, 0, 0, buffer.status,
+            buffer.status.length, TIMEOUT_MS);
+    }
+
+    @State(Scope.Thread)
+    public static class Buffer {
+
+        final byte[] status = new byte[2];
+    }
+}
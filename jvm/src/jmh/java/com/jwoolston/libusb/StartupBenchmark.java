@@ -0,0 +1,49 @@
+package com.jwoolston.libusb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures library cold start: loading the native library, which registers every native method and caches the JNI
+ * IDs from {@code JNI_OnLoad}, followed by creating and destroying the first {@link UsbManager}. Each fork is a fresh
+ * JVM which measures a single start, with libusb device discovery enabled or disabled through
+ * {@link BaseUsbManager#disableDeviceDiscovery()}.
+ * <p>
+ * Requires the native library, see {@code jmh.gradle}:
+ * <pre>
+ *     ./gradlew :jvm:jmh -PlibusbLibraryPath=&lt;dir&gt; -PjmhArgs='StartupBenchmark'
+ * </pre>
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class StartupBenchmark {
+
+    @Param({"true", "false"})
+    public boolean deviceDiscovery;
+
+    @Benchmark
+    public UsbManager coldStart() {
+        if (!deviceDiscovery) {
+            BaseUsbManager.disableDeviceDiscovery();
+        }
+        final UsbManager manager = new UsbManager();
+        manager.destroy();
+        return manager;
+    }
+}
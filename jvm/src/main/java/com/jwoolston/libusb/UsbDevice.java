@@ -5,12 +5,12 @@ import com.jwoolston.libusb.util.Preconditions;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.nio.ByteBuffer;
+import java.io.IOException;
 
 public class UsbDevice extends BaseUsbDevice {
 
     /*private UsbDevice(@NotNull android.hardware.usb.UsbDeviceConnection connection,
-                          @NotNull android.hardware.usb.UsbDevice device, @Nullable ByteBuffer nativeObject) {
+                          @NotNull android.hardware.usb.UsbDevice device, long nativeObject) {
 
 
         serialNumber = connection.getSerial();
@@ -23,11 +23,36 @@ public class UsbDevice extends BaseUsbDevice {
         Preconditions.checkArgument(nativePointer != 0, "BaseUsbDevice initialization failed.");
         LibUsbDeviceDescriptor descriptor = LibUsbDeviceDescriptor.getDeviceDescriptor(nativePointer);
         initFromDescriptor(descriptor);
+        initFromDevice(nativePointer);
     }
 
-    private UsbDevice(@Nullable ByteBuffer nativeObject) {
-        LibUsbDeviceDescriptor descriptor = LibUsbDeviceDescriptor.getDeviceDescriptor(this);
-        initFromDescriptor(descriptor);
+    private UsbDevice(long nativePointer, long nativeObject) {
+        this.nativeObject = nativeObject;
+        initFromDescriptor(LibUsbDeviceDescriptor.getDeviceDescriptor(this));
+        initFromDevice(nativePointer);
+    }
+
+    /**
+     * Opens a device found by enumeration or hotplug.
+     *
+     * @param device {@link BaseUsbDevice} The enumerated device, which must not have been released.
+     *
+     * @return A new {@link UsbDevice} for the opened device.
+     *
+     * @throws IOException if the device could not be opened, typically for lack of permission.
+     */
+    @NotNull
+    static UsbDevice open(@NotNull BaseUsbDevice device) throws IOException {
+        synchronized (device) {
+            if (device.nativeDevice == 0) {
+                throw new IOException("Device " + device.getDeviceName() + " was not enumerated or was released.");
+            }
+            final long nativeObject = nativeOpen(device.nativeDevice);
+            if (nativeObject == 0) {
+                throw new IOException("Failed to open device " + device.getDeviceName() + ".");
+            }
+            return new UsbDevice(device.nativeDevice, nativeObject);
+        }
     }
 
     @Override
@@ -10,7 +10,7 @@ public class UsbDeviceConnection extends BaseUsbDeviceConnection {
     /**
      * BaseUsbDevice should only be instantiated by UsbService implementation
      */
-    private UsbDeviceConnection(@NotNull UsbManager manager, @NotNull UsbDevice device) {
+    UsbDeviceConnection(@NotNull UsbManager manager, @NotNull UsbDevice device) {
         super(manager, device);
     }
 
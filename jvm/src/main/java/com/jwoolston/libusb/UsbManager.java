@@ -1,8 +1,53 @@
 package com.jwoolston.libusb;
 
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
 public class UsbManager extends BaseUsbManager {
 
     public UsbManager() {
         super();
     }
+
+    /**
+     * @param sharedContext {@code true} to use the process wide shared {@link LibUsbContext}.
+     */
+    public UsbManager(boolean sharedContext) {
+        super(sharedContext);
+    }
+
+    /**
+     * Opens a device returned by {@link #getDeviceList(DeviceFilter)} or delivered to a {@link HotplugListener}. A
+     * device which is already open returns its existing connection.
+     *
+     * @param device {@link BaseUsbDevice} to open.
+     *
+     * @return The {@link UsbDeviceConnection} to the device.
+     *
+     * @throws IOException if the device could not be opened, typically for lack of permission.
+     */
+    @NotNull
+    public UsbDeviceConnection openDevice(@NotNull BaseUsbDevice device) throws IOException {
+        final String key = device.getDeviceName();
+        final BaseUsbDeviceConnection cached = deviceRegistry.getConnection(key);
+        if (cached != null) {
+            return (UsbDeviceConnection) cached;
+        }
+        synchronized (cacheLock) {
+            final BaseUsbDeviceConnection registered = deviceRegistry.getConnection(key);
+            if (registered != null) {
+                // Opened by another thread while we waited for the lock
+                return (UsbDeviceConnection) registered;
+            }
+            final UsbDevice usbDevice = UsbDevice.open(device);
+            final UsbDeviceConnection usbConnection = new UsbDeviceConnection(this, usbDevice);
+            deviceRegistry.register(usbDevice, usbConnection);
+
+            if (!isLazyPopulation()) {
+                usbDevice.populate();
+            }
+            return usbConnection;
+        }
+    }
 }
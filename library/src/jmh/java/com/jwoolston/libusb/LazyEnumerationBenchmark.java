@@ -0,0 +1,166 @@
+package com.jwoolston.libusb;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enumerates a simulated bus of 200 devices and looks one of them up by vendor and product ID, with the configuration
+ * tree built for every device (eager) or only for the device which is found (lazy). Each device reports a composite
+ * configuration of a CDC ACM function and a vendor interface, and reading a configuration descriptor costs
+ * {@link #descriptorReadCost} CPU tokens to stand in for the sysfs or control transfer behind it.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LazyEnumerationBenchmark {
+
+    private static final int DEVICE_COUNT = 200;
+
+    private static final int VENDOR_ID = 0x1234;
+
+    private static final int TARGET_PRODUCT_ID = DEVICE_COUNT / 2;
+
+    @Param({"0", "20000"})
+    public long descriptorReadCost;
+
+    private byte[][] deviceDescriptors;
+
+    private byte[] configuration;
+
+    @Setup
+    public void setUp() {
+        deviceDescriptors = new byte[DEVICE_COUNT][];
+        for (int i = 0; i < DEVICE_COUNT; ++i) {
+            deviceDescriptors[i] = new byte[]{
+                18, (byte) UsbConstants.USB_DT_DEVICE, 0x00, 0x02, (byte) 0xEF, 0x02, 0x01, 64,
+                (byte) VENDOR_ID, (byte) (VENDOR_ID >> 8), (byte) i, (byte) (i >> 8), 0x00, 0x01, 0, 0, 0, 1
+            };
+        }
+        configuration = buildConfiguration();
+    }
+
+    @Benchmark
+    public int eager() {
+        int found = 0;
+        for (int i = 0; i < DEVICE_COUNT; ++i) {
+            final SimulatedDevice device = new SimulatedDevice(i, deviceDescriptors[i], configuration,
+                descriptorReadCost);
+            device.populate();
+            if (device.getVendorId() == VENDOR_ID && device.getProductId() == TARGET_PRODUCT_ID) {
+                found += device.getInterfaceCount();
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int lazy() {
+        int found = 0;
+        for (int i = 0; i < DEVICE_COUNT; ++i) {
+            final SimulatedDevice device = new SimulatedDevice(i, deviceDescriptors[i], configuration,
+                descriptorReadCost);
+            if (device.getVendorId() == VENDOR_ID && device.getProductId() == TARGET_PRODUCT_ID) {
+                found += device.getInterfaceCount();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Builds a configuration with an interface association, a CDC control interface with its functional descriptors
+     * and interrupt endpoint, a CDC data interface with two bulk endpoints and a vendor interface with two bulk
+     * endpoints.
+     */
+    @NotNull
+    private static byte[] buildConfiguration() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] header = {9, (byte) UsbConstants.USB_DT_CONFIG, 0, 0, 3, 1, 0, (byte) 0x80, 50};
+        out.write(header, 0, header.length);
+        write(out, 8, 0x0B, 0, 2, UsbConstants.USB_CLASS_COMM, 2, 1, 0);
+        write(out, 9, UsbConstants.USB_DT_INTERFACE, 0, 0, 1, UsbConstants.USB_CLASS_COMM, 2, 1, 0);
+        write(out, 5, 0x24, 0x00, 0x10, 0x01);
+        write(out, 5, 0x24, 0x01, 0x00, 0x01);
+        write(out, 4, 0x24, 0x02, 0x02);
+        write(out, 5, 0x24, 0x06, 0x00, 0x01);
+        write(out, 7, UsbConstants.USB_DT_ENDPOINT, 0x81, UsbConstants.USB_ENDPOINT_XFER_INT, 16, 0, 8);
+        write(out, 9, UsbConstants.USB_DT_INTERFACE, 1, 0, 2, UsbConstants.USB_CLASS_CDC_DATA, 0, 0, 0);
+        write(out, 7, UsbConstants.USB_DT_ENDPOINT, 0x82, UsbConstants.USB_ENDPOINT_XFER_BULK, 0, 2, 0);
+        write(out, 7, UsbConstants.USB_DT_ENDPOINT, 0x02, UsbConstants.USB_ENDPOINT_XFER_BULK, 0, 2, 0);
+        write(out, 9, UsbConstants.USB_DT_INTERFACE, 2, 0, 2, UsbConstants.USB_CLASS_VENDOR_SPEC, 0, 0, 0);
+        write(out, 7, UsbConstants.USB_DT_ENDPOINT, 0x83, UsbConstants.USB_ENDPOINT_XFER_BULK, 0, 2, 0);
+        write(out, 7, UsbConstants.USB_DT_ENDPOINT, 0x03, UsbConstants.USB_ENDPOINT_XFER_BULK, 0, 2, 0);
+        final byte[] raw = out.toByteArray();
+        raw[2] = (byte) raw.length;
+        raw[3] = (byte) (raw.length >> 8);
+        return raw;
+    }
+
+    private static void write(@NotNull ByteArrayOutputStream out, int... values) {
+        for (int value : values) {
+            out.write(value);
+        }
+    }
+
+    /**
+     * A device whose configuration descriptor is read from memory rather than from libusb.
+     */
+    private static final class SimulatedDevice extends BaseUsbDevice {
+
+        @NotNull
+        private final byte[] configuration;
+
+        private final long readCost;
+
+        SimulatedDevice(int address, @NotNull byte[] deviceDescriptor, @NotNull byte[] configuration,
+                        long readCost) {
+            this.configuration = configuration;
+            this.readCost = readCost;
+            name = String.format(Locale.US, "/dev/bus/usb/001/%03d", address);
+            initFromDescriptor(LibUsbDeviceDescriptor.fromRawDescriptor(deviceDescriptor));
+        }
+
+        @NotNull
+        @Override
+        byte[] readRawConfiguration(int index) {
+            Blackhole.consumeCPU(readCost);
+            return configuration;
+        }
+
+        @Override
+        BaseUsbConfiguration createConfiguration(int id, @Nullable String name, int attributes, int maxPower) {
+            return new BaseUsbConfiguration(id, name, attributes, maxPower);
+        }
+
+        @Override
+        BaseUsbInterface createInterface(int id, int alternateSetting, @Nullable String name, int interfaceClass,
+                                         int subClass, int protocol) {
+            return new BaseUsbInterface(id, alternateSetting, name, interfaceClass, subClass, protocol);
+        }
+
+        @Override
+        BaseUsbEndpoint createEndpoint(int address, int attributes, int maxPacketSize, int interval) {
+            return new BaseUsbEndpoint(address, attributes, maxPacketSize, interval);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.jwoolston.libusb.pipeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands completions from one producer thread, standing in for the event thread of an {@link EndpointPipeline}, to one
+ * consumer thread which waits through {@link RingConsumer#waitFor(long)} and so the ring's {@link WaitStrategy}.
+ * <ul>
+ * <li>The {@code handoff} group measures latency. The producer stamps a slot, publishes it and waits until the
+ * consumer has released it, so each sample is the time from publishing a completion to the consumer having woken,
+ * read it and handed the slot back.</li>
+ * <li>The {@code ring} group measures throughput with the producer publishing as fast as slots are released, and the
+ * consumer releasing each batch returned by {@link RingConsumer#waitFor(long)}.</li>
+ * <li>The {@code queue} group passes the same buffers through an {@link ArrayBlockingQueue} as a baseline for
+ * {@code ring}. It does not use the wait strategy.</li>
+ * </ul>
+ * Once a measurement stops the consumer no longer blocks, so a producer which has finished can not stall the
+ * iteration.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+@State(Scope.Group)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompletionRingBenchmark {
+
+    private static final int SLOT_CAPACITY = 512;
+
+    @Param({"64", "1024"})
+    public int ringSize;
+
+    @Param({"busy-spin", "yielding", "blocking"})
+    public String waitStrategy;
+
+    private CompletionRing ring;
+
+    private RingConsumer consumer;
+
+    private long nextPublish;
+
+    private long nextConsume;
+
+    // Highest sequence returned by the last wait, owned by the consumer thread
+    private long available;
+
+    private ArrayBlockingQueue<ByteBuffer> queue;
+
+    private ByteBuffer[] buffers;
+
+    private int nextBuffer;
+
+    @Setup
+    public void setUp() {
+        ring = new CompletionRing(ringSize, SLOT_CAPACITY, createWaitStrategy(waitStrategy));
+        consumer = ring.newConsumer();
+        nextPublish = ring.getCursor() + 1;
+        nextConsume = nextPublish;
+        available = ring.getCursor();
+
+        queue = new ArrayBlockingQueue<>(ringSize);
+        buffers = new ByteBuffer[ringSize * 2];
+        for (int i = 0; i < buffers.length; ++i) {
+            buffers[i] = ByteBuffer.allocateDirect(SLOT_CAPACITY);
+        }
+    }
+
+    private static WaitStrategy createWaitStrategy(String name) {
+        switch (name) {
+            case "busy-spin":
+                return new BusySpinWaitStrategy();
+            case "yielding":
+                return new YieldingWaitStrategy();
+            case "blocking":
+                return new BlockingWaitStrategy();
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy: " + name);
+        }
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void handoffPublish(Control control) {
+        // Only short of slots once the consumer has stopped waiting for them
+        if (!ring.isAvailable(nextPublish)) {
+            return;
+        }
+        final long sequence = nextPublish++;
+        ring.slot(sequence).set(SLOT_CAPACITY, 0, System.nanoTime());
+        ring.publish(sequence);
+        while (consumer.getSequence() < sequence) {
+            if (control.stopMeasurement) {
+                return;
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long handoffConsume(Control control) throws InterruptedException {
+        if (!awaitNext(control)) {
+            return 0;
+        }
+        final long latency = System.nanoTime() - consumer.get(nextConsume).getTimestampNanos();
+        consumer.release(nextConsume++);
+        return latency;
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void ringPublish(Control control) {
+        while (!ring.isAvailable(nextPublish)) {
+            if (control.stopMeasurement) {
+                return;
+            }
+        }
+        ring.slot(nextPublish).set(SLOT_CAPACITY, 0, System.nanoTime());
+        ring.publish(nextPublish++);
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int ringConsume(Control control) throws InterruptedException {
+        if (!awaitNext(control)) {
+            return 0;
+        }
+        final int length = consumer.get(nextConsume).getLength();
+        if (nextConsume++ == available) {
+            consumer.release(available);
+        }
+        return length;
+    }
+
+    /**
+     * Waits for {@link #nextConsume} to be published unless it already was. Never blocks once the measurement has
+     * stopped, as the producer may not publish again.
+     *
+     * @return {@code true} if {@link #nextConsume} is available.
+     */
+    private boolean awaitNext(Control control) throws InterruptedException {
+        if (nextConsume <= available) {
+            return true;
+        }
+        if (control.stopMeasurement) {
+            available = ring.getCursor();
+            return nextConsume <= available;
+        }
+        available = consumer.waitFor(nextConsume);
+        return true;
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void queuePublish(Control control) {
+        final ByteBuffer buffer = buffers[nextBuffer];
+        buffer.clear();
+        while (!queue.offer(buffer)) {
+            if (control.stopMeasurement) {
+                return;
+            }
+        }
+        nextBuffer = (nextBuffer + 1) % buffers.length;
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int queueConsume(Control control) {
+        ByteBuffer buffer;
+        while ((buffer = queue.poll()) == null) {
+            if (control.stopMeasurement) {
+                return 0;
+            }
+        }
+        return buffer.remaining();
+    }
+}
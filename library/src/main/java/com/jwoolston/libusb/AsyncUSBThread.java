@@ -4,8 +4,6 @@ import com.toxicbakery.logging.Arbor;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.nio.ByteBuffer;
-
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
  */
@@ -15,7 +13,11 @@ public class AsyncUSBThread extends Thread {
 
     private static final String THREAD_NAME = "Async USB Handler";
 
-    private volatile boolean keepRunning = true;
+    // Guarded by this
+    private boolean keepRunning = true;
+
+    // Guarded by this
+    private boolean exited;
 
     @NotNull
     private final LibUsbContext context;
@@ -25,26 +27,58 @@ public class AsyncUSBThread extends Thread {
         this.context = context;
     }
 
-    void shutdown() {
+    synchronized void shutdown() {
         keepRunning = false;
+        // Wake libusb_handle_events so the loop notices without waiting for the next event
+        nativeInterruptEventHandler(context.getNativeObject());
+    }
+
+    /**
+     * Cancels a previous {@link #shutdown()} if the thread has not left its loop yet.
+     *
+     * @return {@code true} if the thread will keep handling events, {@code false} if it has already stopped.
+     */
+    synchronized boolean revive() {
+        if (exited) {
+            return false;
+        }
+        keepRunning = true;
+        return true;
+    }
+
+    private synchronized boolean shouldKeepRunning() {
+        if (!keepRunning) {
+            exited = true;
+        }
+        return keepRunning;
     }
 
     @Override
     public void run() {
-        while(keepRunning) {
-            try {
-                LibusbError result = LibusbError.fromNative(nativeHandleEvents(context.getNativeObject()));
-            } catch (Exception e) {
-                Arbor.e(e, "Async USB handling detected exception.");
+        try {
+            while (shouldKeepRunning()) {
+                try {
+                    LibusbError result = LibusbError.fromNative(nativeHandleEvents(context.getNativeObject()));
+                } catch (Exception e) {
+                    Arbor.e(e, "Async USB handling detected exception.");
+                }
+                // Any callback deregistered during that pass has returned by now
+                context.freeRetiredRegistrations();
             }
+        } finally {
+            context.freeRetiredRegistrations();
         }
     }
 
     @Override
     public void interrupt() {
-        keepRunning = false;
+        synchronized (this) {
+            keepRunning = false;
+        }
         super.interrupt();
     }
 
-    private static native int nativeHandleEvents(@NotNull ByteBuffer context);
+    private static native int nativeHandleEvents(long context);
+
+    private static native void nativeInterruptEventHandler(long context);
 }
@@ -21,6 +21,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -53,6 +54,12 @@ public class BaseUsbConfiguration {
     @Nullable
     BaseUsbInterface[] interfaces;
 
+    /**
+     * Class or vendor specific descriptors following the configuration descriptor, if any.
+     */
+    @Nullable
+    ByteBuffer classSpecificDescriptors;
+
     /**
      * BaseUsbConfiguration should only be instantiated by UsbService implementation
      */
@@ -138,6 +145,21 @@ public class BaseUsbConfiguration {
         this.interfaces = Preconditions.checkArrayElementsNotNull(interfaces, "interfaces");
     }
 
+    /**
+     * Returns any class or vendor specific descriptors which immediately follow the configuration descriptor.
+     *
+     * @return read only {@link ByteBuffer} view of the descriptors, or {@code null} if there are none
+     */
+    @Nullable
+    public ByteBuffer getClassSpecificDescriptors() {
+        return classSpecificDescriptors == null ? null
+            : classSpecificDescriptors.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void setClassSpecificDescriptors(@Nullable ByteBuffer descriptors) {
+        classSpecificDescriptors = descriptors;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder("BaseUsbConfiguration[id=" + id +
@@ -151,47 +173,212 @@ public class BaseUsbConfiguration {
         return builder.toString();
     }
 
-    private static final int INDEX_NUMBER_INTERFACES = 4;
+    private static final int INDEX_LENGTH = 0;
+    private static final int INDEX_DESCRIPTOR_TYPE = 1;
+    private static final int INDEX_TOTAL_LENGTH = 2;
     private static final int INDEX_CONFIGURATION_VALUE = 5;
     private static final int INDEX_CONFIGURATION_STRING_INDEX = 6;
     private static final int INDEX_ATTRIBUTES = 7;
     private static final int INDEX_MAX_POWER = 8;
 
+    private static final int INDEX_INTERFACE_ID = 2;
+    private static final int INDEX_ALTERNATE_SETTING = 3;
+    private static final int INDEX_INTERFACE_CLASS = 5;
+    private static final int INDEX_INTERFACE_SUBCLASS = 6;
+    private static final int INDEX_INTERFACE_PROTOCOL = 7;
+    private static final int INDEX_INTERFACE_STRING_INDEX = 8;
+
+    private static final int INDEX_ENDPOINT_ADDRESS = 2;
+    private static final int INDEX_ENDPOINT_ATTRIBUTES = 3;
+    private static final int INDEX_ENDPOINT_MAX_PACKET_SIZE = 4;
+    private static final int INDEX_ENDPOINT_INTERVAL = 6;
+
+    private static final int CONFIGURATION_DESCRIPTOR_SIZE = 9;
+    private static final int INTERFACE_DESCRIPTOR_SIZE = 9;
+    private static final int ENDPOINT_DESCRIPTOR_SIZE = 7;
+
+    /**
+     * Reads a raw configuration descriptor from an open device, or from the {@code libusb_device} referenced by a
+     * device found by enumeration.
+     *
+     * @param device        {@link BaseUsbDevice} to read from.
+     * @param configuration {@code int} The configuration index.
+     *
+     * @return {@code byte[]} The raw configuration descriptor.
+     *
+     * @throws IllegalStateException if the device has no native instance to read from or the read failed.
+     */
     @NotNull
-    static BaseUsbConfiguration fromNativeObject(@NotNull BaseUsbDevice device, int configuration) {
-        // Get the native configuration object. Make sure you free it!
-        final ByteBuffer nativeObject = nativeGetConfiguration(device.getNativeObject(), configuration);
-        final int numberInterfaces = 0xFF & nativeObject.get(INDEX_NUMBER_INTERFACES);
-        final int id = 0xFF & nativeObject.get(INDEX_CONFIGURATION_VALUE);
-        final int stringIndex = 0xFF & nativeObject.get(INDEX_CONFIGURATION_STRING_INDEX);
-        final int attributes = 0xFF & nativeObject.get(INDEX_ATTRIBUTES);
-        final int maxPower = 0xFF & nativeObject.get(INDEX_MAX_POWER);
-        final String name = BaseUsbDevice.nativeGetStringDescriptor(device.getNativeObject(), stringIndex);
+    static byte[] readRawDescriptor(@NotNull BaseUsbDevice device, int configuration) {
+        final byte[] raw;
+        if (device.getNativeObject() != 0) {
+            raw = nativeGetRawDescriptor(device.getNativeObject(), configuration);
+        } else if (device.nativeDevice != 0) {
+            raw = nativeGetRawDescriptorFromDevice(device.nativeDevice, configuration);
+        } else {
+            throw new IllegalStateException("Device " + device.getDeviceName()
+                                            + " is neither open nor holding a native device.");
+        }
+        if (raw == null) {
+            throw new IllegalStateException("Failed to retrieve configuration descriptor " + configuration + ".");
+        }
+        return raw;
+    }
 
+    /**
+     * Builds the full configuration/interface/endpoint tree from a raw configuration descriptor in a single linear
+     * pass. Descriptors which are not interface or endpoint descriptors (class specific, vendor specific, interface
+     * association, etc.) are attached to the most recently parsed configuration, interface or endpoint as read only
+     * slices of {@code raw}, matching the way libusb assigns them to the {@code extra} fields of its structures.
+     *
+     * @param device {@link BaseUsbDevice} used to create the platform specific instances.
+     * @param raw    {@code byte[]} containing the configuration descriptor followed by all of its sub descriptors, as
+     *               sent by the device in response to a {@code GET_DESCRIPTOR(CONFIGURATION)} request.
+     *
+     * @return The parsed {@link BaseUsbConfiguration}.
+     */
+    @NotNull
+    static BaseUsbConfiguration fromRawDescriptor(@NotNull BaseUsbDevice device, @NotNull byte[] raw) {
+        if (raw.length < CONFIGURATION_DESCRIPTOR_SIZE
+            || (0xFF & raw[INDEX_DESCRIPTOR_TYPE]) != UsbConstants.USB_DT_CONFIG) {
+            throw new IllegalArgumentException("Invalid configuration descriptor.");
+        }
+        final int totalLength = Math.min(raw.length, readShort(raw, INDEX_TOTAL_LENGTH));
+        final int id = 0xFF & raw[INDEX_CONFIGURATION_VALUE];
+        final int stringIndex = 0xFF & raw[INDEX_CONFIGURATION_STRING_INDEX];
+        final int attributes = 0xFF & raw[INDEX_ATTRIBUTES];
+        final int maxPower = 0xFF & raw[INDEX_MAX_POWER];
+        prefetchStrings(device, raw, totalLength);
+        final String name = device.getStringDescriptor(stringIndex);
         final BaseUsbConfiguration usbConfiguration = device.createConfiguration(id, name, attributes, maxPower);
+
         final List<BaseUsbInterface> usbInterfaces = new ArrayList<>();
-        for (int i = 0; i < numberInterfaces; ++i) {
-            // This is of type struct libusb_interface
-            final ByteBuffer nativeInterface = nativeGetInterface(nativeObject, i);
-            List<BaseUsbInterface> usbInterface = BaseUsbInterface.fromNativeObject(device, nativeInterface);
-            usbInterfaces.addAll(usbInterface);
+        final List<BaseUsbEndpoint> usbEndpoints = new ArrayList<>();
+        BaseUsbInterface usbInterface = null;
+        BaseUsbEndpoint usbEndpoint = null;
+
+        int offset = firstSubDescriptor(raw);
+        int extraStart = offset;
+        while (offset + 2 <= totalLength) {
+            final int length = 0xFF & raw[offset + INDEX_LENGTH];
+            final int type = 0xFF & raw[offset + INDEX_DESCRIPTOR_TYPE];
+            if (length < 2 || offset + length > totalLength) {
+                // Malformed trailing descriptor, stop here and keep what we have
+                break;
+            }
+            if (type == UsbConstants.USB_DT_INTERFACE && length >= INTERFACE_DESCRIPTOR_SIZE) {
+                attachExtra(usbConfiguration, usbInterface, usbEndpoint, raw, extraStart, offset);
+                if (usbInterface != null) {
+                    usbInterface.setEndpoints(usbEndpoints.toArray(new BaseUsbEndpoint[0]));
+                    usbEndpoints.clear();
+                }
+                final String interfaceName = device.getStringDescriptor(
+                    0xFF & raw[offset + INDEX_INTERFACE_STRING_INDEX]);
+                usbInterface = device.createInterface(0xFF & raw[offset + INDEX_INTERFACE_ID],
+                    0xFF & raw[offset + INDEX_ALTERNATE_SETTING], interfaceName,
+                    0xFF & raw[offset + INDEX_INTERFACE_CLASS], 0xFF & raw[offset + INDEX_INTERFACE_SUBCLASS],
+                    0xFF & raw[offset + INDEX_INTERFACE_PROTOCOL]);
+                usbInterfaces.add(usbInterface);
+                usbEndpoint = null;
+                extraStart = offset + length;
+            } else if (type == UsbConstants.USB_DT_ENDPOINT && length >= ENDPOINT_DESCRIPTOR_SIZE
+                       && usbInterface != null) {
+                attachExtra(usbConfiguration, usbInterface, usbEndpoint, raw, extraStart, offset);
+                usbEndpoint = device.createEndpoint(0xFF & raw[offset + INDEX_ENDPOINT_ADDRESS],
+                    0xFF & raw[offset + INDEX_ENDPOINT_ATTRIBUTES], readShort(raw,
+                        offset + INDEX_ENDPOINT_MAX_PACKET_SIZE), 0xFF & raw[offset + INDEX_ENDPOINT_INTERVAL]);
+                usbEndpoints.add(usbEndpoint);
+                extraStart = offset + length;
+            }
+            offset += length;
+        }
+        attachExtra(usbConfiguration, usbInterface, usbEndpoint, raw, extraStart, offset);
+        if (usbInterface != null) {
+            usbInterface.setEndpoints(usbEndpoints.toArray(new BaseUsbEndpoint[0]));
         }
         usbConfiguration.setInterfaces(usbInterfaces.toArray(new BaseUsbInterface[0]));
-
-        // Destroy the native configuration object
-        nativeDestroy(nativeObject);
         return usbConfiguration;
     }
 
-    private static native ByteBuffer nativeGetConfiguration(@NotNull ByteBuffer device, int configuration);
+    /**
+     * Collects the string indices referenced by the configuration and interface descriptors so they can be fetched
+     * with a single native call before the tree is built.
+     */
+    private static void prefetchStrings(@NotNull BaseUsbDevice device, @NotNull byte[] raw, int totalLength) {
+        if (device.stringCache == null) {
+            return;
+        }
+        final List<Integer> indices = new ArrayList<>();
+        indices.add(0xFF & raw[INDEX_CONFIGURATION_STRING_INDEX]);
+        int offset = firstSubDescriptor(raw);
+        while (offset + 2 <= totalLength) {
+            final int length = 0xFF & raw[offset + INDEX_LENGTH];
+            if (length < 2 || offset + length > totalLength) {
+                break;
+            }
+            if ((0xFF & raw[offset + INDEX_DESCRIPTOR_TYPE]) == UsbConstants.USB_DT_INTERFACE
+                && length >= INTERFACE_DESCRIPTOR_SIZE) {
+                indices.add(0xFF & raw[offset + INDEX_INTERFACE_STRING_INDEX]);
+            }
+            offset += length;
+        }
+        final int[] request = new int[indices.size()];
+        for (int i = 0; i < request.length; ++i) {
+            request[i] = indices.get(i);
+        }
+        device.stringCache.prefetch(device.getNativeObject(), request);
+    }
+
+    /**
+     * @return {@code int} The offset of the first descriptor after the configuration descriptor. A {@code bLength}
+     * shorter than a configuration descriptor is not trusted, so every walk of the descriptors starts aligned.
+     */
+    private static int firstSubDescriptor(@NotNull byte[] raw) {
+        return Math.max(CONFIGURATION_DESCRIPTOR_SIZE, 0xFF & raw[INDEX_LENGTH]);
+    }
+
+    private static void attachExtra(@NotNull BaseUsbConfiguration configuration,
+                                    @Nullable BaseUsbInterface usbInterface, @Nullable BaseUsbEndpoint endpoint,
+                                    @NotNull byte[] raw, int start, int end) {
+        if (end <= start) {
+            return;
+        }
+        final ByteBuffer extra = ByteBuffer.wrap(raw, start, end - start).slice().asReadOnlyBuffer();
+        if (endpoint != null) {
+            endpoint.setClassSpecificDescriptors(extra);
+        } else if (usbInterface != null) {
+            usbInterface.setClassSpecificDescriptors(extra);
+        } else {
+            configuration.setClassSpecificDescriptors(extra);
+        }
+    }
+
+    private static int readShort(@NotNull byte[] raw, int offset) {
+        return (0xFF & raw[offset]) | ((0xFF & raw[offset + 1]) << 8);
+    }
 
     /**
+     * Retrieves the full configuration descriptor, including all interface, endpoint and class specific descriptors,
+     * in a single call. The descriptor is taken from the copy libusb cached during enumeration so no bus traffic is
+     * generated.
      *
-     * @param nativeObject {@link ByteBuffer} wrapper to native stuct. Expected to be a libusb_config_descriptor.
-     * @param interfaceIndex
-     * @return
+     * @param device        {@code long} Pointer to a {@code libusb_device_handle} instance in native.
+     * @param configuration {@code int} The configuration index.
+     *
+     * @return {@code byte[]} The raw configuration descriptor, or {@code null} if a failure occurred.
      */
-    private static native ByteBuffer nativeGetInterface(@NotNull ByteBuffer nativeObject, int interfaceIndex);
+    @Nullable
+    private static native byte[] nativeGetRawDescriptor(long device, int configuration);
 
-    private static native void nativeDestroy(@NotNull ByteBuffer nativeObject);
-}
\ No newline at end of file
+    /**
+     * Retrieves the full configuration descriptor of a device which has not been opened. See
+     * {@link #nativeGetRawDescriptor(long, int)}.
+     *
+     * @param nativePointer {@code long} Pointer to a referenced {@code libusb_device} instance in native.
+     * @param configuration {@code int} The configuration index.
+     *
+     * @return {@code byte[]} The raw configuration descriptor, or {@code null} if a failure occurred.
+     */
+    @Nullable
+    private static native byte[] nativeGetRawDescriptorFromDevice(long nativePointer, int configuration);
+}
@@ -17,11 +17,12 @@ package com.jwoolston.libusb;
  */
 
 import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.nio.ByteBuffer;
+import java.util.Locale;
 
 /**
  * This class represents a USB device attached to the android device with the android device acting as the USB host.
@@ -51,12 +52,46 @@ public abstract class BaseUsbDevice{
 
     int fileDescriptor;
 
-    @NotNull ByteBuffer nativeObject;
+    /**
+     * Pointer to the {@code libusb_device_handle} instance in native, or 0 if the device has not been opened.
+     */
+    long nativeObject;
+
+    /**
+     * Pointer to a referenced {@code libusb_device} instance in native for a device found by enumeration or hotplug,
+     * or 0 if the device was wrapped from a file descriptor or has been {@link #release() released}.
+     */
+    long nativeDevice;
 
     /**
-     * All configurations for this device, only null during creation
+     * The context {@link #nativeDevice} belongs to, kept alive until the device is released.
      */
-    @Nullable BaseUsbConfiguration[] configurations;
+    @Nullable private LibUsbContext context;
+
+    /**
+     * Snapshot of the device descriptor this device was initialized from.
+     */
+    @Nullable LibUsbDeviceDescriptor descriptor;
+
+    /**
+     * Bus number followed by the port numbers from the root hub to the device. Empty if unknown.
+     */
+    @NotNull int[] busPath = new int[0];
+
+    /**
+     * String descriptors of this physical device, shared across reconnects.
+     */
+    @Nullable StringDescriptorCache stringCache;
+
+    /**
+     * Whether the manufacturer and product names have been read from the device.
+     */
+    volatile boolean stringsLoaded;
+
+    /**
+     * All configurations for this device, null until {@link #populate()} has run
+     */
+    @Nullable volatile BaseUsbConfiguration[] configurations;
     /**
      * All interfaces on the device. Initialized on first call to getInterfaceList
      */
@@ -92,6 +127,7 @@ public abstract class BaseUsbDevice{
      */
     @Nullable
     public String getManufacturerName() {
+        loadStrings();
         return manufacturerName;
     }
 
@@ -102,6 +138,7 @@ public abstract class BaseUsbDevice{
      */
     @Nullable
     public String getProductName() {
+        loadStrings();
         return productName;
     }
 
@@ -181,13 +218,102 @@ public abstract class BaseUsbDevice{
         return protocol;
     }
 
+    /**
+     * Returns the device descriptor this device was created from.
+     *
+     * @return the {@link LibUsbDeviceDescriptor}, or {@code null} if the device was restored without one
+     */
+    @Nullable
+    public LibUsbDeviceDescriptor getDeviceDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Returns the number of the bus the device is connected to.
+     *
+     * @return the bus number, or -1 if it is not known
+     */
+    public int getBusNumber() {
+        return busPath.length > 0 ? busPath[0] : -1;
+    }
+
+    /**
+     * Returns the port numbers from the root hub to the device, one entry per hub tier.
+     *
+     * @return the port path, empty if it is not known
+     */
+    @NotNull
+    public int[] getPortPath() {
+        if (busPath.length <= 1) {
+            return new int[0];
+        }
+        final int[] ports = new int[busPath.length - 1];
+        System.arraycopy(busPath, 1, ports, 0, ports.length);
+        return ports;
+    }
+
+    /**
+     * Returns the topological location of the device in the same format used by Linux sysfs, for example
+     * {@code "1-1.4"} for a device on port 4 of a hub attached to port 1 of bus 1.
+     *
+     * @return the bus path, or {@code null} if it is not known
+     */
+    @Nullable
+    public String getBusPath() {
+        if (busPath.length == 0) {
+            return null;
+        }
+        final StringBuilder builder = new StringBuilder().append(busPath[0]);
+        for (int i = 1; i < busPath.length; ++i) {
+            builder.append(i == 1 ? '-' : '.').append(busPath[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the LANGIDs the device provides string descriptors in.
+     *
+     * @return the supported LANGIDs, empty if the device provides no strings or is not open
+     */
+    @NotNull
+    public int[] getLanguageIds() {
+        return stringCache != null ? stringCache.getLanguageIds(nativeObject) : new int[0];
+    }
+
+    /**
+     * Returns a string descriptor from the device in the negotiated language. Strings are cached per physical device,
+     * so only the first request for an index generates bus traffic.
+     *
+     * @param index the string index, as found in the descriptor fields such as {@code iInterface}
+     *
+     * @return the string, or {@code null} if the index is 0 or the string could not be read
+     */
+    @Nullable
+    public String getStringDescriptor(int index) {
+        return stringCache != null ? stringCache.getString(nativeObject, index) : null;
+    }
+
+    /**
+     * Returns a string descriptor from the device in a specific language. Strings are cached per physical device, so
+     * only the first request for an index generates bus traffic.
+     *
+     * @param index      the string index, as found in the descriptor fields such as {@code iInterface}
+     * @param languageId the LANGID to request, one of {@link #getLanguageIds()}
+     *
+     * @return the string, or {@code null} if the index is 0 or the string could not be read
+     */
+    @Nullable
+    public String getStringDescriptor(int index, int languageId) {
+        return stringCache != null ? stringCache.getString(nativeObject, index, languageId) : null;
+    }
+
     /**
      * Returns the number of {@link BaseUsbConfiguration}s this device contains.
      *
      * @return the number of configurations
      */
     public int getConfigurationCount() {
-        return configurations.length;
+        return getConfigurations().length;
     }
 
     /**
@@ -197,12 +323,33 @@ public abstract class BaseUsbDevice{
      */
     @NotNull
     public BaseUsbConfiguration getConfiguration(int index) {
-        return configurations[index];
+        return getConfigurations()[index];
+    }
+
+    /**
+     * Retrieves all configurations of the device, building the configuration tree on first access if the device was
+     * registered with lazy population enabled.
+     *
+     * @return the configurations
+     */
+    @NotNull
+    BaseUsbConfiguration[] getConfigurations() {
+        BaseUsbConfiguration[] result = configurations;
+        if (result == null) {
+            synchronized (this) {
+                if (configurations == null) {
+                    populate();
+                }
+                result = configurations;
+            }
+        }
+        return result;
     }
 
     @NotNull
     private BaseUsbInterface[] getInterfaceList() {
         if (interfaces == null) {
+            final BaseUsbConfiguration[] configurations = getConfigurations();
             int configurationCount = configurations.length;
             int interfaceCount = 0;
             for (int i = 0; i < configurationCount; i++) {
@@ -279,30 +426,53 @@ public abstract class BaseUsbDevice{
     }
 
     /**
-     * Retrieves the {@link ByteBuffer} pointing to a {@code libusb_device_handle} instance in native.
+     * Retrieves the pointer to the {@code libusb_device_handle} instance in native.
      *
-     * @return The {@link ByteBuffer} pointing to a {@code libusb_device_handle} instance in native.
+     * @return {@code long} Pointer to a {@code libusb_device_handle} instance in native, or 0 if the device has not
+     * been opened.
      */
-    @NotNull
-    public ByteBuffer getNativeObject() {
+    public long getNativeObject() {
         //TODO: Validity check for native
         return nativeObject;
     }
 
     /**
      * Populates the internal data structures of this device which include the {@link BaseUsbConfiguration}s,
-     * the {@link BaseUsbInterface}s and {@link BaseUsbEndpoint}s.
+     * the {@link BaseUsbInterface}s and {@link BaseUsbEndpoint}s. When lazy population is enabled on the
+     * {@link BaseUsbManager} this is deferred until the first access to the configuration tree.
      */
-    void populate() {
-        final int numConfigurations = nativeGetConfigurationCount(getNativeObject());
+    synchronized void populate() {
+        if (configurations != null) {
+            return;
+        }
+        if (descriptor == null) {
+            // Restored without a device descriptor, so there is no configuration count to build the tree from
+            Arbor.w("No device descriptor for %s, reporting no configurations.", name);
+            setConfigurations(new BaseUsbConfiguration[0]);
+            return;
+        }
+        loadStrings();
+        final int numConfigurations = descriptor.getNumConfigurations();
         @SuppressWarnings({"unchecked", "ConstantConditions"})
         final BaseUsbConfiguration[] configurations = new BaseUsbConfiguration[numConfigurations];
         for (int i = 0; i < numConfigurations; ++i) {
-            configurations[i] = BaseUsbConfiguration.fromNativeObject(this, i);
+            configurations[i] = BaseUsbConfiguration.fromRawDescriptor(this, readRawConfiguration(i));
         }
         setConfigurations(configurations);
     }
 
+    /**
+     * Reads the raw descriptor of a configuration for {@link #populate()}.
+     *
+     * @param index {@code int} The configuration index.
+     *
+     * @return {@code byte[]} The raw configuration descriptor.
+     */
+    @NotNull
+    byte[] readRawConfiguration(int index) {
+        return BaseUsbConfiguration.readRawDescriptor(this, index);
+    }
+
     /**
      * Sets the available configurations for this device. Only expected to be called by the {@link BaseUsbDevice#populate()}
      * method.
@@ -314,139 +484,198 @@ public abstract class BaseUsbDevice{
     }
 
     protected void initFromDescriptor(@NotNull LibUsbDeviceDescriptor descriptor) {
-        // This involves a lot of cross JNI calls but is safer across multiple platforms than byte
-        // buffer access so we don't have to deal with padding/alignment
+        this.descriptor = descriptor;
         vendorId = descriptor.getVendorId();
         productId = descriptor.getProductId();
         deviceClass = descriptor.getDeviceClass();
         subclass = descriptor.getDeviceSubclass();
         protocol = descriptor.getDeviceProtocol();
 
-        manufacturerName = nativeGetManufacturerString(nativeObject, descriptor.getNativeObject());
-        productName = nativeGetProductNameString(nativeObject, descriptor.getNativeObject());
-        version = nativeGetDeviceVersion(descriptor.getNativeObject());
-
-        speed = LibusbSpeed.fromNative(nativeGetDeviceSpeed(nativeObject, descriptor.getNativeObject()));
+        final int bcdDevice = descriptor.getDeviceVersion();
+        version = (0xFF & (bcdDevice >> 8)) + "." + (0xFF & bcdDevice);
+
+        // String descriptors and the negotiated speed are only available through an open device handle
+        if (nativeObject != 0) {
+            setBusPath(nativeGetBusPath(nativeObject));
+            // The serial number identifies the physical device, so it is read before any cache can be chosen
+            final StringDescriptorCache strings = new StringDescriptorCache();
+            final String serial = strings.getString(nativeObject, descriptor.getSerialNumberStringIndex());
+            if (serial != null) {
+                serialNumber = serial;
+                stringCache = StringDescriptorCache.forDevice(getStringCacheKey(serial), strings);
+            } else {
+                stringCache = strings;
+            }
+            speed = LibusbSpeed.fromNative(nativeGetDeviceSpeed(nativeObject));
+        } else {
+            speed = LibusbSpeed.LIBUSB_SPEED_UNKNOWN;
+        }
     }
 
     /**
-     * Retrieves a string descriptor from the device.
+     * Initializes the location of a device enumerated by libusb rather than opened from a file descriptor. The
+     * device name follows the usbfs naming used by Android, {@code /dev/bus/usb/BBB/DDD}, so the same physical
+     * device gets the same name no matter how it was discovered. A reference to the {@code libusb_device} is taken so
+     * the configuration tree can still be read once the device list or hotplug event it came from is gone.
      *
-     * @param device {@link ByteBuffer} pointing to a {@code libusb_device_handle} instance in native. Provided by
-     *               {@link BaseUsbDevice#getNativeObject()}.
-     * @param index  {@code int} The string index to retrieve. A value of 0 will  cause {@code null} to be returned.
-     *
-     * @return {@link String} The descriptor or null if one is not present on the device.
+     * @param nativePointer {@code long} Pointer to a {@code libusb_device} instance in native.
      */
-    @Nullable
-    static native String nativeGetStringDescriptor(@NotNull ByteBuffer device, int index);
+    protected void initFromDevice(long nativePointer) {
+        setBusPath(nativeGetBusPathFromDevice(nativePointer));
+        name = String.format(Locale.US, "/dev/bus/usb/%03d/%03d", getBusNumber(),
+            nativeGetDeviceAddress(nativePointer));
+        nativeDevice = nativeRefDevice(nativePointer);
+    }
 
     /**
-     * Creates a {@code libusb_device_handle} native instance for the give file descriptor. On Android This file
-     * descriptor must be provided by {@code android.hardware.usb.BaseUsbDeviceConnection#getFileDescriptor()} in
-     * order to have proper permissions.
-     *
-     * @param context {@link ByteBuffer} pointing to a {@code libusb_context} instance in native.
-     * @param fd      {@code int} The file descriptor for the opened device.
+     * Keeps the context of an enumerated device alive for as long as the device holds its {@code libusb_device}, so
+     * the reference is never dropped after {@code libusb_exit()}.
      *
-     * @return {@link ByteBuffer} pointing to a {@code libusb_device_handle} instance in native, or {@code null} if a
-     * failure occurred.
+     * @param context {@link LibUsbContext} the device was enumerated from.
      */
-    @Nullable
-    static native ByteBuffer wrapDevice(@NotNull ByteBuffer context, int fd);
+    synchronized void attachContext(@NotNull LibUsbContext context) {
+        if (this.context == null && nativeDevice != 0) {
+            context.retain();
+            this.context = context;
+        }
+    }
+
+    /**
+     * Releases the reference a device found by enumeration or hotplug holds on libusb's record of it, along with its
+     * context. The configuration tree can not be read afterwards unless it already was. Devices returned by
+     * {@link BaseUsbManager#getDeviceList(DeviceFilter)} which are not released explicitly are released when the
+     * manager is destroyed, and devices reported by a {@link HotplugListener} once their detach has been delivered.
+     */
+    public synchronized void release() {
+        if (nativeDevice != 0) {
+            nativeUnrefDevice(nativeDevice);
+            nativeDevice = 0;
+        }
+        if (context != null) {
+            context.release();
+            context = null;
+        }
+    }
 
     /**
-     * Retrieves the manufacturer name string from the device.
+     * @return {@code true} if this device still holds its {@code libusb_device} reference.
+     */
+    synchronized boolean isReferenced() {
+        return nativeDevice != 0;
+    }
+
+    private void setBusPath(@Nullable byte[] path) {
+        if (path != null) {
+            busPath = new int[path.length];
+            for (int i = 0; i < path.length; ++i) {
+                busPath[i] = 0xFF & path[i];
+            }
+        }
+    }
+
+    /**
+     * Reads the manufacturer and product names if they have not been read yet. Deferred until first use so
+     * identifying a device by its descriptor fields costs no string requests.
+     */
+    void loadStrings() {
+        if (stringsLoaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!stringsLoaded && stringCache != null && descriptor != null) {
+                stringCache.prefetch(nativeObject, new int[]{descriptor.getManufacturerStringIndex(),
+                    descriptor.getProductStringIndex()});
+                manufacturerName = stringCache.getString(nativeObject, descriptor.getManufacturerStringIndex());
+                productName = stringCache.getString(nativeObject, descriptor.getProductStringIndex());
+            }
+            stringsLoaded = true;
+        }
+    }
+
+    /**
+     * Builds the key identifying this physical device for the {@link StringDescriptorCache}. A device with the same
+     * vendor ID, product ID and serial number reuses the strings read on a previous connection, wherever it is plugged
+     * in.
+     */
+    @NotNull
+    private String getStringCacheKey(@NotNull String serial) {
+        return String.format(Locale.US, "%04x:%04x:%s", vendorId, productId, serial);
+    }
+
+    /**
+     * Retrieves the bus number and port path of the device.
      *
-     * @param device     {@link ByteBuffer} pointing to a {@code libusb_device_handle} instance in native. Provided
-     *                   by {@link BaseUsbDevice#getNativeObject()}.
-     * @param descriptor {@link ByteBuffer} pointing to a {@code libusb_device_descriptor} instanace in native.
-     *                   Provided by {@link LibUsbDeviceDescriptor#getNativeObject()}.
+     * @param device {@code long} Pointer to a {@code libusb_device_handle} instance in native. Provided by
+     *               {@link BaseUsbDevice#getNativeObject()}.
      *
-     * @return {@link String} The device manufacturer name.
+     * @return {@code byte[]} The bus number followed by the port numbers, or {@code null} if a failure occurred.
      */
-    native String nativeGetManufacturerString(@NotNull ByteBuffer device, @NotNull ByteBuffer descriptor);
+    @Nullable
+    static native byte[] nativeGetBusPath(long device);
 
     /**
-     * Retrieves the serial number string from the device.
+     * Retrieves the bus number and port path of a device which has not been opened.
      *
-     * @param device     {@link ByteBuffer} pointing to a {@code libusb_device_handle} instance in native. Provided
-     *                   by {@link BaseUsbDevice#getNativeObject()}.
-     * @param descriptor {@link ByteBuffer} pointing to a {@code libusb_device_descriptor} instanace in native.
-     *                   Provided by {@link LibUsbDeviceDescriptor#getNativeObject()}.
+     * @param nativePointer {@code long} Pointer to a {@code libusb_device} instance in native.
      *
-     * @return {@link String} The device serial number string.
+     * @return {@code byte[]} The bus number followed by the port numbers, or {@code null} if a failure occurred.
      */
-    native String nativeGetSerialString(@NotNull ByteBuffer device, @NotNull ByteBuffer descriptor);
+    @Nullable
+    static native byte[] nativeGetBusPathFromDevice(long nativePointer);
 
     /**
-     * Retrieves the product name string from the device.
+     * Takes a reference to a {@code libusb_device}.
      *
-     * @param device     {@link ByteBuffer} pointing to a {@code libusb_device_handle} instance in native. Provided
-     *                   by {@link BaseUsbDevice#getNativeObject()}.
-     * @param descriptor {@link ByteBuffer} pointing to a {@code libusb_device_descriptor} instanace in native.
-     *                   Provided by {@link LibUsbDeviceDescriptor#getNativeObject()}.
+     * @param nativePointer {@code long} Pointer to a {@code libusb_device} instance in native.
      *
-     * @return {@link String} The device product name.
+     * @return {@code long} The same pointer, now referenced.
      */
-    native String nativeGetProductNameString(@NotNull ByteBuffer device, @NotNull ByteBuffer descriptor);
+    static native long nativeRefDevice(long nativePointer);
 
     /**
-     * Retrieves the product version number for the device.
+     * Drops a reference taken by {@link #nativeRefDevice(long)}.
      *
-     * @param descriptor {@link ByteBuffer} pointing to a {@code libusb_device_descriptor} instanace in native.
-     *                   Provided by {@link LibUsbDeviceDescriptor#getNativeObject()}.
-     *
-     * @return {@link String} The device product version.
+     * @param nativePointer {@code long} Pointer to a {@code libusb_device} instance in native.
      */
-    native String nativeGetDeviceVersion(@NotNull ByteBuffer descriptor);
+    static native void nativeUnrefDevice(long nativePointer);
 
     /**
-     * Retrieves the connection speed for the device.
+     * Opens a device found by enumeration.
      *
-     * @param device     {@link ByteBuffer} pointing to a {@code libusb_device_handle} instance in native. Provided
-     *                   by {@link BaseUsbDevice#getNativeObject()}.
-     * @param descriptor {@link ByteBuffer} pointing to a {@code libusb_device_descriptor} instanace in native.
-     *                                     Provided by {@link LibUsbDeviceDescriptor#getNativeObject()}.
+     * @param nativePointer {@code long} Pointer to a referenced {@code libusb_device} instance in native.
      *
-     * @return
+     * @return {@code long} Pointer to a {@code libusb_device_handle} instance in native, or 0 if a failure occurred.
      */
-    native int nativeGetDeviceSpeed(@NotNull ByteBuffer device, @NotNull ByteBuffer descriptor);
+    static native long nativeOpen(long nativePointer);
 
     /**
-     * Retrieves the number of configurations available on the device.
+     * Retrieves the address the device was assigned on its bus.
      *
-     * @param device {@link ByteBuffer} pointing to a {@code libusb_device_handle} instance in native. Provided by
-     *               {@link BaseUsbDevice#getNativeObject()}.
+     * @param nativePointer {@code long} Pointer to a {@code libusb_device} instance in native.
      *
-     * @return {@code int} The number of configurations.
+     * @return {@code int} The device address.
      */
-    private native int nativeGetConfigurationCount(@NotNull ByteBuffer device);
+    static native int nativeGetDeviceAddress(long nativePointer);
 
     /**
-     * Retrieves the pointer to a {@code libusb_device_handle} instance in native. This is useful when
-     * parceling/serializing the {@link BaseUsbDevice}
-     * as the {@link ByteBuffer} we normally use cannot be serialized and still point to the same instance.
+     * Creates a {@code libusb_device_handle} native instance for the give file descriptor. On Android This file
+     * descriptor must be provided by {@code android.hardware.usb.BaseUsbDeviceConnection#getFileDescriptor()} in
+     * order to have proper permissions.
      *
-     * @param device {@link ByteBuffer} pointing to a {@code libusb_device_handle} instance in native. Provided by
-     *               {@link BaseUsbDevice#getNativeObject()}.
+     * @param context {@code long} Pointer to a {@code libusb_context} instance in native.
+     * @param fd      {@code int} The file descriptor for the opened device.
      *
-     * @return {@code long} The native pointer.
+     * @return {@code long} Pointer to a {@code libusb_device_handle} instance in native, or 0 if a failure occurred.
      */
-    native long nativeGetPointerFromNativeObject(@NotNull ByteBuffer device);
+    static native long wrapDevice(long context, int fd);
 
     /**
-     * Converts a native pointer into a {@link ByteBuffer} wrapping a {@code libusb_device_handle} instance in native
-     * . This is
-     * useful when constructing a {@link BaseUsbDevice} from serialization or parcel as only the pointer can be stored.
+     * Retrieves the connection speed for the device.
      *
-     * @param pointer {@code long} The native pointer.
+     * @param device {@code long} Pointer to a {@code libusb_device_handle} instance in native. Provided by
+     *               {@link BaseUsbDevice#getNativeObject()}.
      *
-     * @return {@link ByteBuffer} pointing to a {@code libusb_device_handle} instance in native. Provided by
-     * {@link BaseUsbDevice#getNativeObject()}.
+     * @return {@code int} The native {@code libusb_speed} value.
      */
-    @Nullable
-    native ByteBuffer nativeGetNativeObjectFromPointer(long pointer);
-
-
+    native int nativeGetDeviceSpeed(long device);
 }
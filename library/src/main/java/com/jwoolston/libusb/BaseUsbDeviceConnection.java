@@ -17,25 +17,66 @@ package com.jwoolston.libusb;
 
 import com.jwoolston.libusb.async.AsyncTransfer;
 import com.jwoolston.libusb.async.BulkTransferCallback;
+import com.jwoolston.libusb.async.CallbackExecutors;
 import com.jwoolston.libusb.async.ControlTransferCallback;
 import com.jwoolston.libusb.async.InterruptTransferCallback;
+import com.jwoolston.libusb.async.IsochronousAsyncTransfer;
+import com.jwoolston.libusb.async.IsochronousStreamConfig;
 import com.jwoolston.libusb.async.IsochronousTransferCallback;
+import com.jwoolston.libusb.util.Preconditions;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 public class BaseUsbDeviceConnection {
 
+    private static final int CONTROL_SETUP_SIZE = 8;
+
+    private static final int TRANSFER_TYPE_CONTROL = 0;
+    private static final int TRANSFER_TYPE_BULK = 2;
+    private static final int TRANSFER_TYPE_INTERRUPT = 3;
+
+    /**
+     * Number of direct buffers retained for blocking transfers. Callers beyond this allocate and discard their own.
+     */
+    private static final int BLOCKING_BUFFER_POOL_SIZE = 8;
+
+    private static final int MIN_BLOCKING_BUFFER_SIZE = 512;
+
+    private static final int DISPATCH_POOL_SIZE = 64;
+
     private final BaseUsbManager manager;
     private final BaseUsbDevice device;
 
-    static void initialize() {
-        if (!nativeInitialize()) {
-            throw new RuntimeException("Failed to initialize native layer for BaseUsbDeviceConnection.");
-        }
-    }
+    private final BlockingQueue<ByteBuffer> blockingBuffers = new ArrayBlockingQueue<>(BLOCKING_BUFFER_POOL_SIZE);
+
+    private final BlockingQueue<CompletionDispatch> dispatchPool = new ArrayBlockingQueue<>(DISPATCH_POOL_SIZE);
+
+    /**
+     * Copies of the OUT payloads of transfers held back by the bus governor, so the caller's array is free once the
+     * submitting call returns.
+     */
+    private final BlockingQueue<byte[]> heldPayloads = new ArrayBlockingQueue<>(DISPATCH_POOL_SIZE);
+
+    @NotNull
+    private volatile Executor callbackExecutor = CallbackExecutors.INLINE;
+
+    private final ConcurrentMap<Integer, Executor> endpointExecutors = new ConcurrentHashMap<>();
+
+    private final List<IsochronousStreamConfig> isochronousStreams = new ArrayList<>();
+
+    private final ConcurrentMap<Integer, StreamTimingStats> timingStats = new ConcurrentHashMap<>();
 
     /**
      * BaseUsbDevice should only be instantiated by UsbService implementation
@@ -59,7 +100,15 @@ public class BaseUsbDeviceConnection {
      * communication with the device.
      */
     public void close() {
+        synchronized (isochronousStreams) {
+            for (IsochronousStreamConfig config : isochronousStreams) {
+                manager.periodicBandwidth.release(device.getBusNumber(), config);
+            }
+            isochronousStreams.clear();
+        }
         manager.onClosingDevice();
+        // Transfers still held back by a bus limit would otherwise be submitted against the freed handle
+        manager.busGovernor.purge(device);
         nativeClose(device.getNativeObject());
         manager.unregisterDevice(device);
     }
@@ -85,6 +134,44 @@ public class BaseUsbDeviceConnection {
         return nativeGetRawDescriptor(device.getFileDescriptor());
     }
 
+    /**
+     * Sets the executor which runs the callbacks of asynchronous transfers on this connection. By default callbacks
+     * run on the libusb event thread with {@link CallbackExecutors#INLINE}, where a slow callback delays completions
+     * for every device on the context. A single threaded executor keeps callbacks in completion order, a pool allows
+     * them to run concurrently.
+     *
+     * @param executor {@link Executor} to run callbacks on.
+     */
+    public void setCallbackExecutor(@NotNull Executor executor) {
+        callbackExecutor = executor;
+    }
+
+    /**
+     * Sets the executor which runs the callbacks of asynchronous transfers on a single endpoint, overriding the one
+     * set for the connection.
+     *
+     * @param endpoint {@link BaseUsbEndpoint} to configure.
+     * @param executor {@link Executor} to run callbacks on, or {@code null} to use the connection's executor.
+     */
+    public void setCallbackExecutor(@NotNull BaseUsbEndpoint endpoint, @Nullable Executor executor) {
+        if (executor == null) {
+            endpointExecutors.remove(endpoint.getAddress());
+        } else {
+            endpointExecutors.put(endpoint.getAddress(), executor);
+        }
+    }
+
+    /**
+     * @param endpoint {@link BaseUsbEndpoint} to look up, or {@code null} for control transfers.
+     *
+     * @return {@link Executor} which runs callbacks for transfers on the endpoint.
+     */
+    @NotNull
+    public Executor getCallbackExecutor(@Nullable BaseUsbEndpoint endpoint) {
+        final Executor executor = endpoint != null ? endpointExecutors.get(endpoint.getAddress()) : null;
+        return executor != null ? executor : callbackExecutor;
+    }
+
     /**
      * Clears the stall condition on the provided {@link BaseUsbEndpoint}.
      *
@@ -184,6 +271,27 @@ public class BaseUsbDeviceConnection {
     public int controlTransfer(int requestType, int request, int value, int index, byte[] buffer, int offset,
                                int length, int timeout) {
         checkBounds(buffer, offset, length);
+        if (useAsyncBlocking()) {
+            final ByteBuffer transferBuffer = acquireBlockingBuffer(CONTROL_SETUP_SIZE + length);
+            try {
+                transferBuffer.order(ByteOrder.LITTLE_ENDIAN);
+                transferBuffer.put((byte) requestType).put((byte) request).putShort((short) value)
+                    .putShort((short) index).putShort((short) length);
+                final boolean in = (requestType & UsbConstants.USB_ENDPOINT_DIR_MASK) == UsbConstants.USB_DIR_IN;
+                if (!in && length > 0) {
+                    transferBuffer.put(buffer, offset, length);
+                }
+                final int result = submitBlocking(TRANSFER_TYPE_CONTROL, 0, transferBuffer, CONTROL_SETUP_SIZE + length,
+                    timeout);
+                if (in && result > 0) {
+                    transferBuffer.position(CONTROL_SETUP_SIZE);
+                    transferBuffer.get(buffer, offset, result);
+                }
+                return result;
+            } finally {
+                releaseBlockingBuffer(transferBuffer);
+            }
+        }
         return nativeControlRequest(device.getNativeObject(), requestType, request, value, index, buffer, offset,
             length, timeout);
     }
@@ -222,6 +330,9 @@ public class BaseUsbDeviceConnection {
      */
     public int bulkTransfer(BaseUsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
         checkBounds(buffer, offset, length);
+        if (useAsyncBlocking()) {
+            return transferBlocking(TRANSFER_TYPE_BULK, endpoint.getAddress(), buffer, offset, length, timeout);
+        }
         return nativeBulkRequest(device.getNativeObject(), endpoint.getAddress(), buffer, offset, length, timeout);
     }
 
@@ -259,6 +370,9 @@ public class BaseUsbDeviceConnection {
      */
     public int interruptTransfer(BaseUsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
         checkBounds(buffer, offset, length);
+        if (useAsyncBlocking()) {
+            return transferBlocking(TRANSFER_TYPE_INTERRUPT, endpoint.getAddress(), buffer, offset, length, timeout);
+        }
         return nativeInterruptRequest(device.getNativeObject(), endpoint.getAddress(), buffer, offset, length, timeout);
     }
 
@@ -312,9 +426,11 @@ public class BaseUsbDeviceConnection {
                                     int index, byte[] buffer, int offset, int length, int timeout) {
         checkBounds(buffer, offset, length);
         manager.startAsyncIfNeeded();
-        final int result = nativeControlRequestAsync(device.getNativeObject(), callback, requestType, request, value,
-            index, buffer, offset, length, timeout);
-        return result;
+        final CompletionDispatch dispatch = obtainDispatch(null, CompletionDispatch.CONTROL, callback);
+        final int result = nativeControlRequestAsync(device.getNativeObject(),
+            dispatch != null ? dispatch : callback, requestType, request, value, index, buffer, offset, length,
+            timeout);
+        return onSubmitted(dispatch, result);
     }
 
     /**
@@ -356,8 +472,14 @@ public class BaseUsbDeviceConnection {
                                          int offset, int length, int timeout) {
         checkBounds(buffer, offset, length);
         manager.startAsyncIfNeeded();
-        return LibusbError.fromNative(nativeBulkRequestAsync(device.getNativeObject(), callback, endpoint.getAddress(), buffer, offset,
-            length, timeout));
+        if (manager.busGovernor.isGoverned(device)) {
+            return LibusbError.fromNative(submitGoverned(endpoint, CompletionDispatch.BULK, callback, buffer, offset,
+                length, timeout));
+        }
+        final CompletionDispatch dispatch = obtainDispatch(endpoint, CompletionDispatch.BULK, callback);
+        final int result = nativeBulkRequestAsync(device.getNativeObject(), dispatch != null ? dispatch : callback,
+            endpoint.getAddress(), buffer, offset, length, timeout);
+        return LibusbError.fromNative(onSubmitted(dispatch, result));
     }
 
     /**
@@ -399,8 +521,13 @@ public class BaseUsbDeviceConnection {
                                       int offset, int length, int timeout) {
         checkBounds(buffer, offset, length);
         manager.startAsyncIfNeeded();
-        return nativeInterruptRequestAsync(callback, device.getNativeObject(), endpoint.getAddress(), buffer, offset,
-            length, timeout);
+        if (manager.busGovernor.isGoverned(device)) {
+            return submitGoverned(endpoint, CompletionDispatch.INTERRUPT, callback, buffer, offset, length, timeout);
+        }
+        final CompletionDispatch dispatch = obtainDispatch(endpoint, CompletionDispatch.INTERRUPT, callback);
+        final int result = nativeInterruptRequestAsync(dispatch != null ? dispatch : callback,
+            device.getNativeObject(), endpoint.getAddress(), buffer, offset, length, timeout);
+        return onSubmitted(dispatch, result);
     }
 
     /**
@@ -417,8 +544,93 @@ public class BaseUsbDeviceConnection {
     public int isochronousTransfer(@NotNull IsochronousTransferCallback callback, @NotNull AsyncTransfer transfer,
                                    BaseUsbEndpoint endpoint, ByteBuffer buffer, int timeout) {
         manager.startAsyncIfNeeded();
-        return nativeIsochronousRequestAsync(callback, device.getNativeObject(), transfer.getNativeObject(),
-            endpoint.getAddress(), buffer, buffer.capacity(), timeout);
+        final CompletionDispatch dispatch = obtainDispatch(endpoint, CompletionDispatch.ISOCHRONOUS, callback);
+        final StreamTimingStats stats = timingStats.get(endpoint.getAddress());
+        final IsochronousTransferCallback target = dispatch != null ? dispatch : callback;
+        final int result = nativeIsochronousRequestAsync(stats != null
+                                                         ? new TimedIsochronousCallback(stats, transfer, target)
+                                                         : target,
+            device.getNativeObject(), transfer.getNativeObject(), endpoint.getAddress(), buffer, buffer.capacity(),
+            timeout);
+        return onSubmitted(dispatch, result);
+    }
+
+    /**
+     * Starts recording the timing of completions on an isochronous endpoint. Completions are timed on the event thread
+     * before they are handed to the callback executor, so the statistics reflect how promptly the event thread handles
+     * them. Interrupt streams are timed by {@link InterruptPoller#getTimingStats()}.
+     *
+     * @param endpoint {@link BaseUsbEndpoint} The isochronous endpoint.
+     *
+     * @return {@link StreamTimingStats} for the endpoint, the existing one if recording was already enabled.
+     */
+    @NotNull
+    public StreamTimingStats enableTimingStats(@NotNull BaseUsbEndpoint endpoint) {
+        Preconditions.checkArgument(endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_ISOC,
+            "Endpoint %s is not an isochronous endpoint.", endpoint);
+        final StreamTimingStats stats = new StreamTimingStats(
+            IsochronousStreamConfig.getServiceIntervalMicros(endpoint, device.getDeviceSpeed()) * 1000);
+        final StreamTimingStats existing = timingStats.putIfAbsent(endpoint.getAddress(), stats);
+        return existing != null ? existing : stats;
+    }
+
+    /**
+     * @param endpoint {@link BaseUsbEndpoint} The endpoint.
+     *
+     * @return {@link StreamTimingStats} for the endpoint, or {@code null} if recording is not enabled.
+     */
+    @Nullable
+    public StreamTimingStats getTimingStats(@NotNull BaseUsbEndpoint endpoint) {
+        return timingStats.get(endpoint.getAddress());
+    }
+
+    /**
+     * Stops recording the timing of completions on an endpoint. Transfers already in flight are still recorded.
+     *
+     * @param endpoint {@link BaseUsbEndpoint} The endpoint.
+     */
+    public void disableTimingStats(@NotNull BaseUsbEndpoint endpoint) {
+        timingStats.remove(endpoint.getAddress());
+    }
+
+    /**
+     * Computes the layout of an isochronous stream on an endpoint and reserves its bus time, so a stream the bus has
+     * no room for is rejected before anything is submitted. The reservation is held until
+     * {@link #releaseIsochronousStream(IsochronousStreamConfig)} or the connection is closed. Only streams reserved
+     * through the same {@link BaseUsbManager} are accounted, traffic from other processes is not visible.
+     *
+     * @param endpoint            {@link BaseUsbEndpoint} The isochronous endpoint, from the currently selected
+     *                            alternate setting.
+     * @param targetLatencyMicros {@code long} The time one transfer should span in microseconds.
+     *
+     * @return {@link IsochronousStreamConfig} to create the stream's {@link IsochronousAsyncTransfer}s with.
+     *
+     * @throws IOException if the stream exceeds what remains of the bus's periodic budget.
+     */
+    @NotNull
+    public IsochronousStreamConfig reserveIsochronousStream(@NotNull BaseUsbEndpoint endpoint, long targetLatencyMicros)
+        throws IOException {
+        final IsochronousStreamConfig config = IsochronousStreamConfig.forEndpoint(endpoint, device.getDeviceSpeed(),
+            targetLatencyMicros);
+        synchronized (isochronousStreams) {
+            manager.periodicBandwidth.reserve(device.getBusNumber(), config);
+            isochronousStreams.add(config);
+        }
+        return config;
+    }
+
+    /**
+     * Returns the bus time of a stream reserved with {@link #reserveIsochronousStream(BaseUsbEndpoint, long)}. Its
+     * transfers should no longer be in flight.
+     *
+     * @param config {@link IsochronousStreamConfig} The reserved stream.
+     */
+    public void releaseIsochronousStream(@NotNull IsochronousStreamConfig config) {
+        synchronized (isochronousStreams) {
+            if (isochronousStreams.remove(config)) {
+                manager.periodicBandwidth.release(device.getBusNumber(), config);
+            }
+        }
     }
 
     /**
@@ -440,6 +652,232 @@ public class BaseUsbDeviceConnection {
         return device.getSerialNumber();
     }
 
+    /**
+     * Returns a pooled stand in for the callback if its completion has to be handed off to an executor, or
+     * {@code null} if the callback runs inline and can be passed to native code directly.
+     */
+    @Nullable
+    private CompletionDispatch obtainDispatch(@Nullable BaseUsbEndpoint endpoint, int kind, @NotNull Object callback) {
+        final Executor executor = getCallbackExecutor(endpoint);
+        if (executor == CallbackExecutors.INLINE) {
+            return null;
+        }
+        CompletionDispatch dispatch = dispatchPool.poll();
+        if (dispatch == null) {
+            dispatch = new CompletionDispatch(dispatchPool);
+        }
+        return dispatch.prepare(executor, kind, callback);
+    }
+
+    /**
+     * Submits a bulk or interrupt transfer through the bus governor. If the device is over its share of the bus the
+     * transfer is queued and 0 returned, a later submission failure is reported through the callback. A queued OUT
+     * payload is copied first, as the caller may reuse its array as soon as this returns.
+     */
+    private int submitGoverned(@NotNull final BaseUsbEndpoint endpoint, final int kind, @NotNull Object callback,
+                               final byte[] buffer, final int offset, final int length, final int timeout) {
+        final BusBandwidthGovernor governor = manager.busGovernor;
+        CompletionDispatch pooled = dispatchPool.poll();
+        if (pooled == null) {
+            pooled = new CompletionDispatch(dispatchPool);
+        }
+        final CompletionDispatch dispatch = pooled.prepare(getCallbackExecutor(endpoint), kind, callback)
+            .govern(governor, device, length);
+        final BusBandwidthGovernor.Submission submission = new BusBandwidthGovernor.Submission() {
+
+            private byte[] payload = buffer;
+
+            private int payloadOffset = offset;
+
+            private boolean pooled;
+
+            @Override
+            public void onHeld() {
+                if (endpoint.getDirection() == UsbConstants.USB_DIR_OUT && buffer != null && length > 0) {
+                    payload = obtainHeldPayload(length);
+                    System.arraycopy(buffer, offset, payload, 0, length);
+                    payloadOffset = 0;
+                    pooled = true;
+                } else {
+                    // IN data is delivered through the callback, the array is never written
+                    payload = null;
+                    payloadOffset = 0;
+                }
+            }
+
+            @Override
+            public void submit() {
+                // Native code copies the payload before submitting, so the copy can be reused straight away
+                final int result = submitAsync(endpoint, kind, dispatch, payload, payloadOffset, length, timeout);
+                recyclePayload();
+                if (result < 0) {
+                    dispatch.fail(result);
+                }
+            }
+
+            @Override
+            public void fail(int result) {
+                recyclePayload();
+                dispatch.ungovern().fail(result);
+            }
+
+            private void recyclePayload() {
+                if (pooled) {
+                    heldPayloads.offer(payload);
+                    pooled = false;
+                }
+                payload = null;
+            }
+        };
+        if (!governor.admit(device, length, submission)) {
+            return LibusbError.LIBUSB_SUCCESS.getCode();
+        }
+        final int result = submitAsync(endpoint, kind, dispatch, buffer, offset, length, timeout);
+        if (result < 0) {
+            governor.release(device, length);
+            dispatch.recycle();
+        }
+        return result;
+    }
+
+    @NotNull
+    private byte[] obtainHeldPayload(int length) {
+        final byte[] payload = heldPayloads.poll();
+        // An array too small for this payload is dropped rather than returned, so the pool tends to the larger sizes
+        return payload != null && payload.length >= length ? payload : new byte[length];
+    }
+
+    private int submitAsync(@NotNull BaseUsbEndpoint endpoint, int kind, @NotNull CompletionDispatch dispatch,
+                            byte[] buffer, int offset, int length, int timeout) {
+        if (kind == CompletionDispatch.BULK) {
+            return nativeBulkRequestAsync(device.getNativeObject(), dispatch, endpoint.getAddress(), buffer, offset,
+                length, timeout);
+        }
+        return nativeInterruptRequestAsync(dispatch, device.getNativeObject(), endpoint.getAddress(), buffer, offset,
+            length, timeout);
+    }
+
+    private static int onSubmitted(@Nullable CompletionDispatch dispatch, int result) {
+        if (dispatch != null && result < 0) {
+            // Never submitted, so it will not be notified
+            dispatch.recycle();
+        }
+        return result;
+    }
+
+    /**
+     * Blocking transfers are submitted asynchronously and the caller parked unless disabled on the manager, or the
+     * caller is the event thread itself, which would never see its own completion.
+     */
+    private boolean useAsyncBlocking() {
+        return manager.isAsyncBlockingTransfers() && !(Thread.currentThread() instanceof AsyncUSBThread);
+    }
+
+    private int transferBlocking(int type, int address, byte[] buffer, int offset, int length, int timeout) {
+        final ByteBuffer transferBuffer = acquireBlockingBuffer(length);
+        try {
+            final boolean in = (address & UsbConstants.USB_ENDPOINT_DIR_MASK) == UsbConstants.USB_DIR_IN;
+            if (!in && length > 0) {
+                transferBuffer.put(buffer, offset, length);
+            }
+            final int result = submitBlocking(type, address, transferBuffer, length, timeout);
+            if (in && result > 0) {
+                transferBuffer.get(buffer, offset, result);
+            }
+            return result;
+        } finally {
+            releaseBlockingBuffer(transferBuffer);
+        }
+    }
+
+    private int submitBlocking(int type, int address, @NotNull ByteBuffer transferBuffer, int length, int timeout) {
+        final BlockingTransfer transfer = new BlockingTransfer();
+        final int result = submitDirect(type, address, transferBuffer, length, timeout, transfer);
+        if (result < 0) {
+            return result;
+        }
+        final int transferred = transfer.await();
+        transferBuffer.clear();
+        return transferred;
+    }
+
+    /**
+     * Submits an asynchronous bulk or interrupt transfer which reads into or writes from a direct buffer in place. The
+     * buffer is handed to libusb as is, from its start regardless of position, and must not be accessed until
+     * {@code transfer} is notified on the event thread. This is the building block for streaming without per
+     * transfer allocation or copies.
+     *
+     * @param endpoint {@link BaseUsbEndpoint} the bulk or interrupt endpoint for this transaction.
+     * @param buffer   {@link ByteBuffer} direct buffer to transfer into or out of.
+     * @param length   the length of the data to send or receive
+     * @param timeout  in milliseconds, 0 is infinite
+     * @param transfer {@link DirectTransfer} to notify of completion.
+     *
+     * @return {@code int} 0 if the transfer was submitted or a negative libusb error code.
+     */
+    public int submitDirectTransfer(@NotNull BaseUsbEndpoint endpoint, @NotNull ByteBuffer buffer, int length,
+                                    int timeout, @NotNull DirectTransfer transfer) {
+        Preconditions.checkArgument(buffer.isDirect(), "Buffer must be direct.");
+        Preconditions.checkArgument(length >= 0 && length <= buffer.capacity(), "Length %d exceeds buffer capacity %d.",
+            length, buffer.capacity());
+        Preconditions.checkArgument(endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_BULK
+                                    || endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_INT,
+            "Endpoint %s is not a bulk or interrupt endpoint.", endpoint);
+        return submitDirect(endpoint.getType(), endpoint.getAddress(), buffer, length, timeout, transfer);
+    }
+
+    /**
+     * Starts the event thread for asynchronous transfers submitted outside this class.
+     */
+    void startAsyncIfNeeded() {
+        manager.startAsyncIfNeeded();
+    }
+
+    /**
+     * Submits an asynchronous transfer into a direct buffer. The buffer must not be touched until {@code transfer} is
+     * notified of completion.
+     *
+     * @return {@code int} 0 if the transfer was submitted or a negative libusb error code.
+     */
+    int submitDirect(int type, int address, @NotNull ByteBuffer buffer, int length, int timeout,
+                     @NotNull DirectTransfer transfer) {
+        manager.startAsyncIfNeeded();
+        final BusBandwidthGovernor governor = manager.busGovernor;
+        if (type != TRANSFER_TYPE_CONTROL && governor.isGoverned(device)) {
+            transfer.govern(governor, device, length);
+            HeldSubmission held = (HeldSubmission) transfer.heldSubmission;
+            if (held == null || held.connection != this) {
+                held = new HeldSubmission(this, transfer);
+                transfer.heldSubmission = held;
+            }
+            if (!governor.admit(device, length, held.hold(type, address, buffer, length, timeout))) {
+                return LibusbError.LIBUSB_SUCCESS.getCode();
+            }
+            held.buffer = null;
+            final int result = nativeSubmitDirect(device.getNativeObject(), type, address, buffer, length, timeout,
+                transfer);
+            if (result < 0) {
+                transfer.releaseGovernor();
+            }
+            return result;
+        }
+        return nativeSubmitDirect(device.getNativeObject(), type, address, buffer, length, timeout, transfer);
+    }
+
+    @NotNull
+    private ByteBuffer acquireBlockingBuffer(int capacity) {
+        final ByteBuffer pooled = blockingBuffers.poll();
+        if (pooled != null && pooled.capacity() >= capacity) {
+            return pooled;
+        }
+        return ByteBuffer.allocateDirect(Math.max(capacity, MIN_BLOCKING_BUFFER_SIZE));
+    }
+
+    private void releaseBlockingBuffer(@NotNull ByteBuffer transferBuffer) {
+        transferBuffer.clear();
+        blockingBuffers.offer(transferBuffer);
+    }
+
     private static void checkBounds(byte[] buffer, int start, int length) {
         final int bufferLength = (buffer != null ? buffer.length : 0);
         if (length < 0 || start < 0 || start + length > bufferLength) {
@@ -447,46 +885,144 @@ public class BaseUsbDeviceConnection {
         }
     }
 
-    private static native boolean nativeInitialize();
+    /**
+     * The parameters of a direct transfer held back by the bus governor. One instance is kept per
+     * {@link DirectTransfer} and reused for each of its submissions.
+     */
+    private static final class HeldSubmission implements BusBandwidthGovernor.Submission {
+
+        @NotNull
+        final BaseUsbDeviceConnection connection;
+
+        @NotNull
+        final DirectTransfer transfer;
+
+        int type;
+
+        int address;
+
+        @Nullable
+        ByteBuffer buffer;
+
+        int length;
+
+        int timeout;
+
+        HeldSubmission(@NotNull BaseUsbDeviceConnection connection, @NotNull DirectTransfer transfer) {
+            this.connection = connection;
+            this.transfer = transfer;
+        }
+
+        @NotNull
+        HeldSubmission hold(int type, int address, @NotNull ByteBuffer buffer, int length, int timeout) {
+            this.type = type;
+            this.address = address;
+            this.buffer = buffer;
+            this.length = length;
+            this.timeout = timeout;
+            return this;
+        }
 
-    private native void nativeClose(@NotNull ByteBuffer device);
+        @Override
+        public void onHeld() {
+            // The direct buffer belongs to the transfer until it completes, so there is nothing to copy
+        }
+
+        @Override
+        public void submit() {
+            final ByteBuffer buffer = this.buffer;
+            this.buffer = null;
+            final int result = connection.nativeSubmitDirect(connection.device.getNativeObject(), type, address,
+                buffer, length, timeout, transfer);
+            if (result < 0) {
+                transfer.complete(result, 0);
+            }
+        }
+
+        @Override
+        public void fail(int result) {
+            buffer = null;
+            transfer.ungovern();
+            transfer.complete(result, 0);
+        }
+    }
+
+    private native void nativeClose(long device);
 
     @Nullable
     private native byte[] nativeGetRawDescriptor(int fd);
 
-    private native int nativeClearStall(@NotNull ByteBuffer device, int address);
+    private native int nativeClearStall(long device, int address);
 
-    private native int nativeClaimInterface(@NotNull ByteBuffer device, int interfaceID, boolean force);
+    private native int nativeClaimInterface(long device, int interfaceID, boolean force);
 
-    private native int nativeReleaseInterface(@NotNull ByteBuffer device, int interfaceID);
+    private native int nativeReleaseInterface(long device, int interfaceID);
 
-    private native int nativeSetInterface(@NotNull ByteBuffer device, int interfaceID, int alternateSetting);
+    private native int nativeSetInterface(long device, int interfaceID, int alternateSetting);
 
-    private native int nativeSetConfiguration(@NotNull ByteBuffer device, int configurationID);
+    private native int nativeSetConfiguration(long device, int configurationID);
 
-    private native int nativeControlRequest(@NotNull ByteBuffer device, int requestType, int request, int value,
+    private native int nativeControlRequest(long device, int requestType, int request, int value,
                                             int index, byte[] buffer, int offset, int length, int timeout);
 
-    private native int nativeControlRequestAsync(@NotNull ByteBuffer device, @NotNull ControlTransferCallback callback,
+    private native int nativeControlRequestAsync(long device, @NotNull ControlTransferCallback callback,
                                                  int requestType, int request, int value, int index, byte[] buffer,
                                                  int offset, int length, int timeout);
 
-    private native int nativeBulkRequestAsync(@NotNull ByteBuffer device, @NotNull BulkTransferCallback callback,
+    private native int nativeBulkRequestAsync(long device, @NotNull BulkTransferCallback callback,
                                               int address, byte[] buffer, int offset, int length, int timeout);
 
     private native int nativeInterruptRequestAsync(@NotNull InterruptTransferCallback callback,
-                                                   @NotNull ByteBuffer device, int address, byte[] buffer,
+                                                   long device, int address, byte[] buffer,
                                                    int offset, int length, int timeout);
 
     private native int nativeIsochronousRequestAsync(@NotNull IsochronousTransferCallback callback,
-                                                     @NotNull ByteBuffer device, @NotNull ByteBuffer transfer,
+                                                     long device, long transfer,
                                                      int address, @NotNull ByteBuffer buffer, int length, int timeout);
 
-    private native int nativeBulkRequest(@NotNull ByteBuffer device, int endpoint, byte[] buffer, int offset,
+    private native int nativeBulkRequest(long device, int endpoint, byte[] buffer, int offset,
                                          int length, int timeout);
 
-    private native int nativeInterruptRequest(@NotNull ByteBuffer device, int endpoint, byte[] buffer, int offset,
+    private native int nativeInterruptRequest(long device, int endpoint, byte[] buffer, int offset,
                                               int length, int timeout);
 
-    private native int nativeResetDevice(@NotNull ByteBuffer device);
-}
\ No newline at end of file
+    private native int nativeSubmitDirect(long device, int type, int address, @NotNull ByteBuffer buffer,
+                                          int length, int timeout, @NotNull DirectTransfer transfer);
+
+    private native int nativeResetDevice(long device);
+
+    /**
+     * Records a completion on the event thread before passing it on to the callback or its dispatch.
+     */
+    private static final class TimedIsochronousCallback implements IsochronousTransferCallback {
+
+        @NotNull
+        private final StreamTimingStats stats;
+
+        @NotNull
+        private final AsyncTransfer transfer;
+
+        @NotNull
+        private final IsochronousTransferCallback target;
+
+        TimedIsochronousCallback(@NotNull StreamTimingStats stats, @NotNull AsyncTransfer transfer,
+                                 @NotNull IsochronousTransferCallback target) {
+            this.stats = stats;
+            this.transfer = transfer;
+            this.target = target;
+        }
+
+        @Override
+        public void onIsochronousTransferComplete(@Nullable ByteBuffer data, int result) throws IOException {
+            final long now = System.nanoTime();
+            if (transfer instanceof IsochronousAsyncTransfer) {
+                final IsochronousAsyncTransfer isochronous = (IsochronousAsyncTransfer) transfer;
+                final int packets = isochronous.getPacketCount();
+                stats.recordCompletion(now, packets, result < 0 ? packets : isochronous.getPacketErrorCount());
+            } else {
+                stats.recordCompletion(now, 1, result < 0 ? 1 : 0);
+            }
+            target.onIsochronousTransferComplete(data, result);
+        }
+    }
+}
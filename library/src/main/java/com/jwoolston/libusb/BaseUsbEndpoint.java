@@ -15,9 +15,10 @@
  */
 package com.jwoolston.libusb;
 
-import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * A class representing an endpoint on a {@link BaseUsbInterface}. Endpoints are the channels for sending and receiving
@@ -32,6 +33,12 @@ public class BaseUsbEndpoint {
     final int maxPacketSize;
     final int interval;
 
+    /**
+     * Class or vendor specific descriptors following the endpoint descriptor, if any.
+     */
+    @Nullable
+    ByteBuffer classSpecificDescriptors;
+
     /**
      * BaseUsbEndpoint should only be instantiated by UsbService implementation
      */
@@ -116,23 +123,25 @@ public class BaseUsbEndpoint {
         return interval;
     }
 
+    /**
+     * Returns any class or vendor specific descriptors which follow the endpoint descriptor, such as the SuperSpeed
+     * endpoint companion descriptor or class specific isochronous endpoint descriptors.
+     *
+     * @return read only {@link ByteBuffer} view of the descriptors, or {@code null} if there are none
+     */
+    @Nullable
+    public ByteBuffer getClassSpecificDescriptors() {
+        return classSpecificDescriptors == null ? null
+            : classSpecificDescriptors.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void setClassSpecificDescriptors(@Nullable ByteBuffer descriptors) {
+        classSpecificDescriptors = descriptors;
+    }
+
     @Override
     public String toString() {
         return "BaseUsbEndpoint[address=" + address + ",attributes=" + attributes +
                ",maxPacketSize=" + maxPacketSize + ",interval=" + interval + "]";
     }
-
-    private static final int INDEX_ADDRESS = 2;
-    private static final int INDEX_ATTRIBUTES = 3;
-    private static final int INDEX_MAX_PACKET_SIZE = 4;
-    private static final int INDEX_INTERVAL = 6;
-
-    static BaseUsbEndpoint fromNativeObject(@NotNull BaseUsbDevice device, @NotNull ByteBuffer nativeObject) {
-        final int address = 0xFF & nativeObject.get(INDEX_ADDRESS);
-        final int attributes = 0xFF & nativeObject.get(INDEX_ATTRIBUTES);
-        final int maxPacketSize = (0xFF & nativeObject.get(INDEX_MAX_PACKET_SIZE))
-                | ((0xFF & nativeObject.get(INDEX_MAX_PACKET_SIZE + 1)) << 8);
-        final int interval = 0xFF & nativeObject.get(INDEX_INTERVAL);
-        return device.createEndpoint(address, attributes, maxPacketSize, interval);
-    }
 }
\ No newline at end of file
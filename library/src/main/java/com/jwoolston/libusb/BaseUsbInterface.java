@@ -17,12 +17,10 @@ package com.jwoolston.libusb;
 
 import com.jwoolston.libusb.util.Preconditions;
 
-import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteOrder;
 
 /**
  * A class representing an interface on a {@link BaseUsbDevice}. USB devices can have one or more interfaces, each one
@@ -42,6 +40,10 @@ public class BaseUsbInterface {
     /** All endpoints of this interface, only null during creation */
     BaseUsbEndpoint[] endpoints;
 
+    /** Class or vendor specific descriptors following the interface descriptor, if any. */
+    @Nullable
+    ByteBuffer classSpecificDescriptors;
+
     /**
      * BaseUsbInterface should only be instantiated by BaseUsbManager implementation
      */
@@ -137,6 +139,22 @@ public class BaseUsbInterface {
         this.endpoints = Preconditions.checkArrayElementsNotNull(endpoints, "endpoints");
     }
 
+    /**
+     * Returns any class or vendor specific descriptors which follow the interface descriptor, such as the CDC
+     * functional descriptors or the UVC/UAC class specific interface descriptors.
+     *
+     * @return read only {@link ByteBuffer} view of the descriptors, or {@code null} if there are none
+     */
+    @Nullable
+    public ByteBuffer getClassSpecificDescriptors() {
+        return classSpecificDescriptors == null ? null
+            : classSpecificDescriptors.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void setClassSpecificDescriptors(@Nullable ByteBuffer descriptors) {
+        classSpecificDescriptors = descriptors;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder("BaseUsbInterface[id=" + id +
@@ -153,65 +171,4 @@ public class BaseUsbInterface {
         }
         return builder.toString();
     }
-
-    private static final int INDEX_INTERFACE_ID = 2;
-    private static final int INDEX_ALTERNATE_SETTING = 3;
-    private static final int INDEX_NUM_ENDPOINTS = 4;
-    private static final int INDEX_INTERFACE_CLASS = 5;
-    private static final int INDEX_INTERFACE_SUBCLASS = 6;
-    private static final int INDEX_INTERFACE_PROTOCOL = 7;
-    private static final int INDEX_INTERFACE_STRING_INDEX = 8;
-
-    @NotNull
-    static List<BaseUsbInterface> fromNativeObject(@NotNull BaseUsbDevice device, @NotNull ByteBuffer nativeInterface) {
-        final List<BaseUsbInterface> interfaces = new ArrayList<>();
-        BaseUsbInterface usbInterface = null;
-        do {
-            usbInterface = fromNativeDescriptor(device, nativeInterface, interfaces.size());
-            if (usbInterface != null) {
-                interfaces.add(usbInterface);
-            }
-        } while (usbInterface != null);
-        return interfaces;
-    }
-
-    @Nullable
-    private static BaseUsbInterface fromNativeDescriptor(@NotNull BaseUsbDevice device, @NotNull ByteBuffer nativeObject,
-                                                         int index) {
-        final ByteBuffer nativeDescriptor = nativeGetInterfaceDescriptor(nativeObject, index);
-
-        if (nativeDescriptor == null) {
-            return null;
-        }
-        nativeDescriptor.isDirect();
-
-        final int id = 0xFF & nativeDescriptor.get(INDEX_INTERFACE_ID);
-        final int alternateSetting = 0xFF & nativeDescriptor.get(INDEX_ALTERNATE_SETTING);
-        final int numEndpoints = 0xFF & nativeDescriptor.get(INDEX_NUM_ENDPOINTS);
-        final int interfaceClass = 0xFF & nativeDescriptor.get(INDEX_INTERFACE_CLASS);
-        final int subclass = 0xFF & nativeDescriptor.get(INDEX_INTERFACE_SUBCLASS);
-        final int protocol = 0xFF & nativeDescriptor.get(INDEX_INTERFACE_PROTOCOL);
-        final int stringIndex = 0xFF & nativeDescriptor.get(INDEX_INTERFACE_STRING_INDEX);
-        final String name = BaseUsbDevice.nativeGetStringDescriptor(device.getNativeObject(), stringIndex);
-        final BaseUsbInterface usbInterface = device.createInterface(id, alternateSetting, name,
-                interfaceClass, subclass, protocol);
-        final BaseUsbEndpoint[] endpoints = new BaseUsbEndpoint[numEndpoints];
-        for (int i = 0; i < numEndpoints; ++i) {
-            final ByteBuffer nativeEndpoint = nativeGetEndpoint(nativeDescriptor, i);
-            if (nativeEndpoint != null) {
-                endpoints[i] = BaseUsbEndpoint.fromNativeObject(device, nativeEndpoint);
-            } else {
-                throw new IllegalStateException("Received a null endpoint when one was expected. Expected index: " +
-                                                i + " Expected total: " + numEndpoints);
-            }
-        }
-        usbInterface.setEndpoints(endpoints);
-        return usbInterface;
-    }
-
-    @Nullable
-    private static native ByteBuffer nativeGetInterfaceDescriptor(@NotNull ByteBuffer nativeObject, int index);
-
-    @Nullable
-    private static native ByteBuffer nativeGetEndpoint(@NotNull ByteBuffer nativeDescriptor, int index);
 }
\ No newline at end of file
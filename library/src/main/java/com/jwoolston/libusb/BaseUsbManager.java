@@ -20,9 +20,10 @@ import com.toxicbakery.logging.Arbor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * This class allows you to access the state of USB and communicate with USB devices.
@@ -38,45 +39,210 @@ public class BaseUsbManager {
         System.loadLibrary("wrapper_libusb");
     }
 
+    /**
+     * Serializes device registration and the async thread lifecycle. Lookups go through {@link #deviceRegistry} and
+     * never take this lock.
+     */
     final Object cacheLock = new Object();
 
-    final HashMap<String, BaseUsbDevice> localDeviceCache = new HashMap<>();
-    final HashMap<String, BaseUsbDeviceConnection> localConnectionCache = new HashMap<>();
+    final DeviceRegistry deviceRegistry = new DeviceRegistry();
+    final List<HotplugRegistration> hotplugRegistrations = new ArrayList<>();
     final LibUsbContext libUsbContext;
 
-    private volatile AsyncUSBThread asyncUsbThread;
+    /**
+     * Devices returned by {@link #getDeviceList(DeviceFilter)} which may still hold a {@code libusb_device}
+     * reference. Guarded by cacheLock.
+     */
+    private final List<BaseUsbDevice> enumeratedDevices = new ArrayList<>();
+
+    /**
+     * Whether this manager currently holds a reference to the event loop of {@link #libUsbContext}.
+     */
+    private volatile boolean usingEventLoop;
 
-    private DeviceList nativeDeviceList;
+    // Guarded by cacheLock
+    private boolean destroyed;
 
-    @Nullable
-    private native ByteBuffer nativeInitialize();
+    private volatile boolean lazyPopulation;
+
+    private volatile boolean asyncBlockingTransfers = true;
+
+    final BusBandwidthGovernor busGovernor = new BusBandwidthGovernor();
 
-    private native void nativeSetLoggingLevel(@NotNull ByteBuffer nativeContext, int level);
+    final PeriodicBandwidth periodicBandwidth = new PeriodicBandwidth();
 
-    private native void nativeDestroy(@NotNull ByteBuffer context);
+    private native void nativeSetLoggingLevel(long nativeContext, int level);
 
     public BaseUsbManager() {
-        libUsbContext = new LibUsbContext(nativeInitialize());
-        BaseUsbDeviceConnection.initialize();
+        this(false);
+    }
+
+    /**
+     * @param sharedContext {@code true} to use the process wide {@link LibUsbContext#acquireShared() shared context}
+     *                      rather than creating a private one. Managers on the shared context share a single libusb
+     *                      instance and a single event thread.
+     */
+    public BaseUsbManager(boolean sharedContext) {
+        libUsbContext = sharedContext ? LibUsbContext.acquireShared() : LibUsbContext.create();
+    }
+
+    /**
+     * Stops libusb from scanning the system for devices when a context is created. This removes the scan from startup
+     * for callers which only wrap file descriptors obtained elsewhere, such as from the Android USB service, where the
+     * scan is slow and typically denied anyway. Enumeration and hotplug will not report any devices afterwards.
+     * <p>
+     * libusb applies this option process wide. It must be called before the first manager is created and can not be
+     * undone.
+     *
+     * @return {@link LibusbError#LIBUSB_SUCCESS} if the option was applied.
+     */
+    @NotNull
+    public static LibusbError disableDeviceDiscovery() {
+        return LibUsbContext.disableDeviceDiscovery();
     }
 
     public void setNativeLogLevel(@NotNull LoggingLevel level) {
         nativeSetLoggingLevel(libUsbContext.getNativeObject(), level.ordinal());
     }
 
+    /**
+     * Enables or disables lazy population of registered and enumerated devices. When enabled, only the device
+     * descriptor is read when a device is registered or returned by {@link #getDeviceList(DeviceFilter)}. The
+     * configuration/interface/endpoint tree and the string descriptors are read on first access, which avoids the
+     * cost entirely for callers that only inspect the vendor/product IDs or class fields. Disabled by default.
+     *
+     * @param lazy {@code true} to defer population until first access.
+     */
+    public void setLazyPopulation(boolean lazy) {
+        lazyPopulation = lazy;
+    }
+
+    /**
+     * @return {@code true} if registered devices are populated on first access rather than on registration.
+     */
+    public boolean isLazyPopulation() {
+        return lazyPopulation;
+    }
+
+    /**
+     * Controls how the blocking transfer methods of connections from this manager wait for completion. When enabled,
+     * which is the default, transfers are submitted asynchronously and the calling thread parks until the event thread
+     * completes them, so virtual threads release their carrier while waiting. When disabled libusb's synchronous
+     * functions are called directly, pinning the calling thread for the duration of the transfer.
+     *
+     * @param async {@code true} to implement blocking transfers on asynchronous submission.
+     */
+    public void setAsyncBlockingTransfers(boolean async) {
+        asyncBlockingTransfers = async;
+    }
+
+    /**
+     * @return {@code true} if blocking transfers park the calling thread rather than blocking in native code.
+     */
+    public boolean isAsyncBlockingTransfers() {
+        return asyncBlockingTransfers;
+    }
+
+    /**
+     * Limits the bytes of asynchronous bulk and interrupt transfers in flight across all devices of this manager on a
+     * bus, and shares the limit between them by {@link #setDeviceWeight(BaseUsbDevice, int) weight}. Transfers beyond
+     * a device's share are held back and submitted as earlier ones complete, so one device submitting as deep as it can
+     * no longer starves the others behind the same host controller. Control and isochronous transfers are not
+     * limited.
+     *
+     * @param busNumber        {@code int} The bus to limit, as reported by {@link BaseUsbDevice#getBusNumber()}.
+     * @param maxInFlightBytes {@code long} The limit in bytes, 0 to remove it.
+     */
+    public void setBusInFlightLimit(int busNumber, long maxInFlightBytes) {
+        busGovernor.setLimit(busNumber, maxInFlightBytes);
+    }
+
+    /**
+     * Sets a device's weight when sharing its bus's in flight limit. Devices default to a weight of 1. The weight
+     * follows the device's port, so it also applies if the device is reconnected to the same port.
+     *
+     * @param device {@link BaseUsbDevice} to weight.
+     * @param weight {@code int} The positive weight.
+     */
+    public void setDeviceWeight(@NotNull BaseUsbDevice device, int weight) {
+        final String busPath = device.getBusPath();
+        if (busPath == null) {
+            Arbor.w("Bus path of %s is unknown, weight is not applied.", device);
+            return;
+        }
+        busGovernor.setWeight(busPath, weight);
+    }
+
+    /**
+     * @param busNumber {@code int} The bus to report on.
+     *
+     * @return {@link BusUtilization} for the bus, or {@code null} if no limit is set for it.
+     */
+    @Nullable
+    public BusUtilization getBusUtilization(int busNumber) {
+        return busGovernor.getUtilization(busNumber);
+    }
+
+    /**
+     * Returns the periodic bus time taken by the isochronous streams reserved through this manager's connections.
+     *
+     * @param busNumber {@code int} The bus to report on.
+     * @param speed     {@link LibusbSpeed} The speed the streams run at.
+     *
+     * @return {@code int} The reserved load in bytes per bus interval, out of
+     * {@link #getPeriodicBudget(LibusbSpeed)}.
+     */
+    public int getReservedPeriodicBandwidth(int busNumber, @NotNull LibusbSpeed speed) {
+        return periodicBandwidth.getReserved(busNumber, speed);
+    }
+
+    /**
+     * @param speed {@link LibusbSpeed} The bus speed.
+     *
+     * @return {@code int} The bytes per bus interval available to isochronous streams at the speed.
+     */
+    public static int getPeriodicBudget(@NotNull LibusbSpeed speed) {
+        return PeriodicBandwidth.getBudget(speed);
+    }
+
+    /**
+     * Releases this manager's hotplug listeners, event loop and reference to its {@link LibUsbContext}, along with
+     * any enumerated device which has not been {@link BaseUsbDevice#release() released}. Calling this more than once
+     * has no further effect, so a shared context is never released twice by the same manager.
+     */
     public void destroy() {
-        if (libUsbContext != null) {
-            nativeDestroy(libUsbContext.getNativeObject());
+        final List<HotplugRegistration> registrations;
+        final List<BaseUsbDevice> devices;
+        synchronized (cacheLock) {
+            if (destroyed) {
+                return;
+            }
+            destroyed = true;
+            registrations = new ArrayList<>(hotplugRegistrations);
+            hotplugRegistrations.clear();
+            devices = new ArrayList<>(enumeratedDevices);
+            enumeratedDevices.clear();
+        }
+        for (HotplugRegistration registration : registrations) {
+            registration.release();
         }
+        for (BaseUsbDevice device : devices) {
+            device.release();
+        }
+        synchronized (cacheLock) {
+            if (usingEventLoop) {
+                libUsbContext.releaseEventLoop();
+                usingEventLoop = false;
+            }
+        }
+        libUsbContext.release();
     }
 
     void unregisterDevice(@NotNull BaseUsbDevice device) {
         synchronized (cacheLock) {
-            final String key = device.getDeviceName();
-            localConnectionCache.remove(key);
-            localDeviceCache.remove(key);
-            onDeviceClosed();
+            deviceRegistry.unregister(device.getDeviceName());
         }
+        onDeviceClosed();
     }
 
     /**
@@ -87,44 +253,218 @@ public class BaseUsbManager {
      * @return {@link HashMap} containing all connected USB devices.
      */
     public HashMap<String, BaseUsbDevice> getConnectedDeviceList() {
-        synchronized (cacheLock) {
-            final HashMap<String, BaseUsbDevice> map = new HashMap<>();
-            for (Entry<String, BaseUsbDevice> entry : localDeviceCache.entrySet()) {
-                map.put(entry.getKey(), entry.getValue());
+        final HashMap<String, BaseUsbDevice> map = new HashMap<>();
+        for (BaseUsbDevice device : deviceRegistry.getDevices()) {
+            map.put(device.getDeviceName(), device);
+        }
+        return map;
+    }
+
+    /**
+     * Returns the USB devices currently opened through this manager. The returned list is an immutable snapshot, so
+     * it can be iterated freely without copying or locking and will not reflect later changes.
+     *
+     * @return {@link List} of the connected USB devices.
+     */
+    @NotNull
+    public List<BaseUsbDevice> getConnectedDevices() {
+        return deviceRegistry.getDevices();
+    }
+
+    /**
+     * @param name the device name, as returned by {@link BaseUsbDevice#getDeviceName()}
+     *
+     * @return the connected device with that name, or {@code null} if there is none
+     */
+    @Nullable
+    public BaseUsbDevice findDeviceByName(@NotNull String name) {
+        return deviceRegistry.getDevice(name);
+    }
+
+    /**
+     * @param serialNumber the serial number, as returned by {@link BaseUsbDevice#getSerialNumber()}
+     *
+     * @return the connected device with that serial number, or {@code null} if there is none
+     */
+    @Nullable
+    public BaseUsbDevice findDeviceBySerial(@NotNull String serialNumber) {
+        return deviceRegistry.getDeviceBySerial(serialNumber);
+    }
+
+    /**
+     * @param busPath the bus path, as returned by {@link BaseUsbDevice#getBusPath()}
+     *
+     * @return the connected device at that location, or {@code null} if there is none
+     */
+    @Nullable
+    public BaseUsbDevice findDeviceByBusPath(@NotNull String busPath) {
+        return deviceRegistry.getDeviceByBusPath(busPath);
+    }
+
+    /**
+     * @param vendorId  the vendor ID to match
+     * @param productId the product ID to match
+     *
+     * @return immutable {@link List} of the connected devices with that vendor and product ID
+     */
+    @NotNull
+    public List<BaseUsbDevice> findDevices(int vendorId, int productId) {
+        return deviceRegistry.getDevices(vendorId, productId);
+    }
+
+    /**
+     * Scans the bus for devices matching the provided filter. The filter is evaluated in native code against the
+     * descriptors cached by libusb, so only matching devices have Java objects created for them. Unless
+     * {@link #setLazyPopulation(boolean) lazy population} is enabled, the configuration tree of every returned device
+     * is built before this returns. Each device holds a reference to libusb's record of it until it is
+     * {@link BaseUsbDevice#release() released} or this manager is destroyed.
+     *
+     * @param filter {@link DeviceFilter} to apply, or {@code null} to return every device on the bus.
+     *
+     * @return {@link List} of the matching devices.
+     */
+    @NotNull
+    public List<BaseUsbDevice> getDeviceList(@Nullable DeviceFilter filter) {
+        final DeviceList deviceList = DeviceList.getDeviceList(libUsbContext, filter);
+        final List<BaseUsbDevice> devices;
+        try {
+            devices = deviceList.getDevices();
+        } finally {
+            deviceList.release();
+        }
+        trackEnumerated(devices);
+        if (!lazyPopulation) {
+            for (BaseUsbDevice device : devices) {
+                try {
+                    device.populate();
+                } catch (IllegalStateException e) {
+                    // Left unpopulated, so the read is retried on first access
+                    Arbor.w("Failed to populate %s: %s", device.getDeviceName(), e.getMessage());
+                }
             }
-            return map;
         }
+        return devices;
     }
 
-    void onClosingDevice() {
+    /**
+     * Registers a listener to be notified when devices are attached or detached. Events are delivered from the
+     * libusb event loop on the async USB thread, which is kept running for as long as any listener is registered, so
+     * no polling enumeration is needed.
+     *
+     * @param listener  {@link HotplugListener} to notify.
+     * @param filter    {@link DeviceFilter} selecting the devices of interest, or {@code null} for every device.
+     *                  Exact vendor/product IDs are matched by libusb itself, the remaining criteria are evaluated
+     *                  in native code before any Java object is created.
+     * @param enumerate {@code true} to receive an attached event for each matching device already on the bus. These
+     *                  are delivered on the calling thread before this method returns.
+     *
+     * @return {@link LibusbError#LIBUSB_SUCCESS} if the listener was registered,
+     * {@link LibusbError#LIBUSB_ERROR_NOT_SUPPORTED} if the platform cannot deliver hotplug events, or
+     * {@link LibusbError#LIBUSB_ERROR_OTHER} if libusb rejected the registration.
+     */
+    @NotNull
+    public LibusbError registerHotplugListener(@NotNull HotplugListener listener, @Nullable DeviceFilter filter,
+                                               boolean enumerate) {
+        if (!HotplugRegistration.isSupported()) {
+            return LibusbError.LIBUSB_ERROR_NOT_SUPPORTED;
+        }
+        final HotplugRegistration registration = HotplugRegistration.register(libUsbContext, listener, filter,
+            enumerate);
+        if (registration == null) {
+            return LibusbError.LIBUSB_ERROR_OTHER;
+        }
         synchronized (cacheLock) {
-            if (localConnectionCache.size() == 1) {
-                // We need to shutdown the async communication thread if it is running
-                if (asyncUsbThread != null) {
-                    asyncUsbThread.shutdown();
+            hotplugRegistrations.add(registration);
+            startAsyncIfNeeded();
+        }
+        return LibusbError.LIBUSB_SUCCESS;
+    }
+
+    /**
+     * Removes every registration of the provided listener. No further events are delivered to it once this returns.
+     *
+     * @param listener {@link HotplugListener} to remove.
+     */
+    public void unregisterHotplugListener(@NotNull HotplugListener listener) {
+        final List<HotplugRegistration> removed = new ArrayList<>();
+        synchronized (cacheLock) {
+            final Iterator<HotplugRegistration> iterator = hotplugRegistrations.iterator();
+            while (iterator.hasNext()) {
+                final HotplugRegistration registration = iterator.next();
+                if (registration.getListener() == listener) {
+                    removed.add(registration);
+                    iterator.remove();
                 }
             }
         }
+        for (HotplugRegistration registration : removed) {
+            registration.release();
+        }
+        synchronized (cacheLock) {
+            releaseEventLoopIfIdle(deviceRegistry.getConnectionCount());
+        }
+        onDeviceClosed();
     }
 
-    void onDeviceClosed() {
+    private void trackEnumerated(@NotNull List<BaseUsbDevice> devices) {
+        boolean release = false;
         synchronized (cacheLock) {
-            if (localConnectionCache.size() == 0) {
-                try {
-                    asyncUsbThread.join();
-                    asyncUsbThread = null;
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+            if (destroyed) {
+                release = true;
+            } else {
+                final Iterator<BaseUsbDevice> iterator = enumeratedDevices.iterator();
+                while (iterator.hasNext()) {
+                    if (!iterator.next().isReferenced()) {
+                        iterator.remove();
+                    }
                 }
+                enumeratedDevices.addAll(devices);
+            }
+        }
+        if (release) {
+            for (BaseUsbDevice device : devices) {
+                device.release();
             }
         }
     }
 
+    void onClosingDevice() {
+        synchronized (cacheLock) {
+            // The closing connection is still registered at this point
+            releaseEventLoopIfIdle(deviceRegistry.getConnectionCount() - 1);
+        }
+    }
+
+    /**
+     * Waits for the event thread to stop once this manager no longer uses it. Must be called without
+     * {@link #cacheLock} held, as the event thread may be running a callback which needs it.
+     */
+    void onDeviceClosed() {
+        if (!usingEventLoop) {
+            libUsbContext.awaitEventLoopStopped();
+        }
+    }
+
     void startAsyncIfNeeded() {
-        if (asyncUsbThread == null) {
-            Arbor.d("Starting async usb thread.");
-            asyncUsbThread = new AsyncUSBThread(libUsbContext);
-            asyncUsbThread.start();
+        if (!usingEventLoop) {
+            synchronized (cacheLock) {
+                if (!usingEventLoop) {
+                    libUsbContext.acquireEventLoop();
+                    usingEventLoop = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives up this manager's reference to the event loop once it has no open connections and no hotplug listeners.
+     * The event thread itself keeps running while other managers on a shared context still need it. Must be called
+     * with {@link #cacheLock} held.
+     */
+    private void releaseEventLoopIfIdle(int connectionCount) {
+        if (usingEventLoop && connectionCount <= 0 && hotplugRegistrations.isEmpty()) {
+            libUsbContext.releaseEventLoop();
+            usingEventLoop = false;
         }
     }
 
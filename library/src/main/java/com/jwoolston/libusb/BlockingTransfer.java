@@ -0,0 +1,46 @@
+package com.jwoolston.libusb;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Completion state for a blocking transfer which was submitted asynchronously. The calling thread parks until the
+ * event thread reports the result, so a virtual thread waiting here releases its carrier rather than pinning it inside
+ * a native call.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+final class BlockingTransfer extends DirectTransfer {
+
+    private final Thread waiter = Thread.currentThread();
+
+    private volatile boolean complete;
+
+    private int result;
+
+    @Override
+    public void onComplete(int result) {
+        this.result = result;
+        complete = true;
+        LockSupport.unpark(waiter);
+    }
+
+    /**
+     * Parks the submitting thread until the transfer completes. The transfer can not be abandoned once submitted
+     * since native code still owns the buffer, so interrupts are deferred until it finishes and then restored.
+     *
+     * @return {@code int} The transferred length or a negative libusb error code.
+     */
+    int await() {
+        boolean interrupted = false;
+        while (!complete) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            waiter.interrupt();
+        }
+        return result;
+    }
+}
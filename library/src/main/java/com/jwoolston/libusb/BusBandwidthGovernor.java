@@ -0,0 +1,325 @@
+package com.jwoolston.libusb;
+
+import com.jwoolston.libusb.util.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares a limit on bytes in flight per bus between the devices on it. Each device is entitled to a share of the
+ * limit in proportion to its weight among the devices currently active on the bus. A device may exceed its share while
+ * no other device is waiting, so the limit is never left idle, but once others wait it only submits again after
+ * dropping back within its share. Transfers which do not fit are queued and submitted as completions free up capacity,
+ * always for the device furthest below its share first.
+ * <p>
+ * Buses without a limit are not tracked and cost a single map lookup per submission.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+final class BusBandwidthGovernor {
+
+    /**
+     * A transfer held back by the governor. It is submitted later from whichever thread frees up capacity and must
+     * report its own submission failure, after {@link #release(BaseUsbDevice, long)}.
+     */
+    interface Submission {
+
+        /**
+         * Called under the governor's lock when the transfer is queued, before
+         * {@link BusBandwidthGovernor#admit(BaseUsbDevice, long, Submission)} returns. The caller regains its memory
+         * at that point, so anything the submission still refers to must be copied here.
+         */
+        void onHeld();
+
+        void submit();
+
+        /**
+         * Reports that the transfer will never be submitted. Its bytes were never charged, so it must not call
+         * {@link #release(BaseUsbDevice, long)}.
+         *
+         * @param result {@code int} The libusb error code to complete the transfer with.
+         */
+        void fail(int result);
+    }
+
+    private static final int DEFAULT_WEIGHT = 1;
+
+    private final Object lock = new Object();
+
+    private final ConcurrentMap<Integer, Bus> buses = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> weights = new HashMap<>();
+
+    /**
+     * Sets the limit of a bus. Removing the limit submits every transfer still held back on the bus.
+     */
+    void setLimit(int busNumber, long maxInFlightBytes) {
+        final List<Submission> ready = new ArrayList<>();
+        synchronized (lock) {
+            if (maxInFlightBytes <= 0) {
+                final Bus bus = buses.remove(busNumber);
+                if (bus != null) {
+                    for (DeviceShare share : bus.devices.values()) {
+                        for (Pending pending : share.queue) {
+                            ready.add(pending.submission);
+                        }
+                        share.queue.clear();
+                    }
+                }
+            } else {
+                Bus bus = buses.get(busNumber);
+                if (bus == null) {
+                    bus = new Bus();
+                    buses.put(busNumber, bus);
+                }
+                bus.limit = maxInFlightBytes;
+                // A raised limit may fit transfers which are waiting
+                bus.pollReady(ready);
+            }
+        }
+        for (Submission submission : ready) {
+            submission.submit();
+        }
+    }
+
+    void setWeight(@NotNull String busPath, int weight) {
+        Preconditions.checkArgument(weight > 0, "Weight must be positive.");
+        synchronized (lock) {
+            weights.put(busPath, weight);
+            for (Bus bus : buses.values()) {
+                final DeviceShare share = bus.devices.get(busPath);
+                if (share != null) {
+                    share.weight = weight;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if submissions for the device are subject to a bus limit.
+     */
+    boolean isGoverned(@NotNull BaseUsbDevice device) {
+        return device.getBusPath() != null && buses.containsKey(device.getBusNumber());
+    }
+
+    /**
+     * Charges a transfer against the device's bus if it fits, otherwise queues it.
+     *
+     * @return {@code true} if the caller should submit now, {@code false} if the governor will submit it later.
+     */
+    boolean admit(@NotNull BaseUsbDevice device, long bytes, @NotNull Submission submission) {
+        synchronized (lock) {
+            final Bus bus = buses.get(device.getBusNumber());
+            if (bus == null) {
+                return true;
+            }
+            final DeviceShare share = bus.share(device.getBusPath());
+            if (share.queue.isEmpty() && bus.fits(share, bytes)) {
+                bus.charge(share, bytes);
+                return true;
+            }
+            submission.onHeld();
+            share.queue.add(new Pending(bytes, submission));
+            return false;
+        }
+    }
+
+    /**
+     * Returns the bytes of a finished transfer to its bus and submits whatever now fits.
+     */
+    void release(@NotNull BaseUsbDevice device, long bytes) {
+        final List<Submission> ready = new ArrayList<>();
+        synchronized (lock) {
+            final Bus bus = buses.get(device.getBusNumber());
+            if (bus == null) {
+                return;
+            }
+            final DeviceShare share = bus.devices.get(device.getBusPath());
+            if (share != null) {
+                // Clamped as a transfer admitted before the limit was removed and set again was never charged here
+                share.inFlight = Math.max(0, share.inFlight - bytes);
+                bus.inFlight = Math.max(0, bus.inFlight - bytes);
+                bus.completedBytes += bytes;
+            }
+            bus.pollReady(ready);
+        }
+        for (Submission submission : ready) {
+            submission.submit();
+        }
+    }
+
+    /**
+     * Fails every transfer of a device still held back, for a device which is being closed. The transfers are
+     * completed with {@link LibusbError#LIBUSB_ERROR_NO_DEVICE} and never reach libusb.
+     */
+    void purge(@NotNull BaseUsbDevice device) {
+        if (device.getBusPath() == null) {
+            return;
+        }
+        final List<Submission> failed = new ArrayList<>();
+        final List<Submission> ready = new ArrayList<>();
+        synchronized (lock) {
+            final Bus bus = buses.get(device.getBusNumber());
+            if (bus == null) {
+                return;
+            }
+            final DeviceShare share = bus.devices.get(device.getBusPath());
+            if (share == null) {
+                return;
+            }
+            for (Pending pending : share.queue) {
+                failed.add(pending.submission);
+            }
+            share.queue.clear();
+            // Other devices may have been waiting on this one's share
+            bus.pollReady(ready);
+        }
+        for (Submission submission : failed) {
+            submission.fail(LibusbError.LIBUSB_ERROR_NO_DEVICE.getCode());
+        }
+        for (Submission submission : ready) {
+            submission.submit();
+        }
+    }
+
+    @Nullable
+    BusUtilization getUtilization(int busNumber) {
+        synchronized (lock) {
+            final Bus bus = buses.get(busNumber);
+            if (bus == null) {
+                return null;
+            }
+            int queued = 0;
+            final Map<String, Long> byDevice = new HashMap<>();
+            for (DeviceShare share : bus.devices.values()) {
+                queued += share.queue.size();
+                byDevice.put(share.busPath, share.inFlight);
+            }
+            return new BusUtilization(busNumber, bus.limit, bus.inFlight, queued, bus.completedBytes, byDevice);
+        }
+    }
+
+    private final class Bus {
+
+        final Map<String, DeviceShare> devices = new HashMap<>();
+
+        long limit;
+
+        long inFlight;
+
+        long completedBytes;
+
+        @NotNull
+        DeviceShare share(@NotNull String busPath) {
+            DeviceShare share = devices.get(busPath);
+            if (share == null) {
+                final Integer weight = weights.get(busPath);
+                share = new DeviceShare(busPath, weight != null ? weight : DEFAULT_WEIGHT);
+                devices.put(busPath, share);
+            }
+            return share;
+        }
+
+        boolean fits(@NotNull DeviceShare share, long bytes) {
+            if (inFlight == 0) {
+                // A transfer larger than the limit must still be allowed through on an idle bus
+                return true;
+            }
+            if (inFlight + bytes > limit) {
+                return false;
+            }
+            if (share.inFlight == 0 || share.inFlight + bytes <= fairShare(share)) {
+                return true;
+            }
+            // Over its share, which is only allowed while nobody else is waiting
+            for (DeviceShare other : devices.values()) {
+                if (other != share && !other.queue.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long fairShare(@NotNull DeviceShare share) {
+            long activeWeight = 0;
+            for (DeviceShare device : devices.values()) {
+                if (device == share || device.inFlight > 0 || !device.queue.isEmpty()) {
+                    activeWeight += device.weight;
+                }
+            }
+            return limit * share.weight / activeWeight;
+        }
+
+        void charge(@NotNull DeviceShare share, long bytes) {
+            share.inFlight += bytes;
+            inFlight += bytes;
+        }
+
+        /**
+         * Charges and dequeues every waiting transfer which now fits, adding them to {@code ready}.
+         */
+        void pollReady(@NotNull List<Submission> ready) {
+            DeviceShare next;
+            while ((next = nextWaiting()) != null) {
+                final Pending pending = next.queue.poll();
+                charge(next, pending.bytes);
+                ready.add(pending.submission);
+            }
+        }
+
+        /**
+         * @return The waiting device furthest below its weighted share whose next transfer fits, or {@code null}.
+         */
+        @Nullable
+        DeviceShare nextWaiting() {
+            DeviceShare best = null;
+            for (DeviceShare share : devices.values()) {
+                if (share.queue.isEmpty()) {
+                    continue;
+                }
+                if (best == null || share.inFlight * best.weight < best.inFlight * share.weight) {
+                    best = share;
+                }
+            }
+            return best != null && fits(best, best.queue.peek().bytes) ? best : null;
+        }
+    }
+
+    private static final class DeviceShare {
+
+        @NotNull
+        final String busPath;
+
+        final ArrayDeque<Pending> queue = new ArrayDeque<>();
+
+        int weight;
+
+        long inFlight;
+
+        DeviceShare(@NotNull String busPath, int weight) {
+            this.busPath = busPath;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Pending {
+
+        final long bytes;
+
+        @NotNull
+        final Submission submission;
+
+        Pending(long bytes, @NotNull Submission submission) {
+            this.bytes = bytes;
+            this.submission = submission;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.jwoolston.libusb;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A snapshot of the asynchronous traffic on one bus, as tracked by the {@link BaseUsbManager} once an in flight limit
+ * has been set for the bus.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class BusUtilization {
+
+    private final int busNumber;
+
+    private final long limitBytes;
+
+    private final long inFlightBytes;
+
+    private final int queuedTransfers;
+
+    private final long completedBytes;
+
+    @NotNull
+    private final Map<String, Long> inFlightBytesByDevice;
+
+    BusUtilization(int busNumber, long limitBytes, long inFlightBytes, int queuedTransfers, long completedBytes,
+                   @NotNull Map<String, Long> inFlightBytesByDevice) {
+        this.busNumber = busNumber;
+        this.limitBytes = limitBytes;
+        this.inFlightBytes = inFlightBytes;
+        this.queuedTransfers = queuedTransfers;
+        this.completedBytes = completedBytes;
+        this.inFlightBytesByDevice = Collections.unmodifiableMap(inFlightBytesByDevice);
+    }
+
+    public int getBusNumber() {
+        return busNumber;
+    }
+
+    /**
+     * @return {@code long} The configured limit on bytes in flight across the bus.
+     */
+    public long getLimitBytes() {
+        return limitBytes;
+    }
+
+    /**
+     * @return {@code long} The bytes currently submitted across all devices on the bus.
+     */
+    public long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    /**
+     * @return {@code float} The fraction of the in flight limit currently in use.
+     */
+    public float getUtilization() {
+        return limitBytes > 0 ? (float) inFlightBytes / limitBytes : 0;
+    }
+
+    /**
+     * @return {@code int} The number of transfers held back waiting for their device's share of the bus.
+     */
+    public int getQueuedTransfers() {
+        return queuedTransfers;
+    }
+
+    /**
+     * @return {@code long} The total bytes requested by transfers which have completed since the limit was set.
+     * Sampling this periodically gives the bus throughput.
+     */
+    public long getCompletedBytes() {
+        return completedBytes;
+    }
+
+    /**
+     * @return The bytes in flight per device, keyed by {@link BaseUsbDevice#getBusPath() bus path}.
+     */
+    @NotNull
+    public Map<String, Long> getInFlightBytesByDevice() {
+        return inFlightBytesByDevice;
+    }
+
+    @Override
+    public String toString() {
+        return "BusUtilization{bus=" + busNumber + ", inFlightBytes=" + inFlightBytes + "/" + limitBytes
+               + ", queuedTransfers=" + queuedTransfers + ", completedBytes=" + completedBytes + '}';
+    }
+}
@@ -0,0 +1,164 @@
+package com.jwoolston.libusb;
+
+import com.jwoolston.libusb.async.BulkTransferCallback;
+import com.jwoolston.libusb.async.ControlTransferCallback;
+import com.jwoolston.libusb.async.InterruptTransferCallback;
+import com.jwoolston.libusb.async.IsochronousTransferCallback;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Stands in for a user callback when completions are handed off to an {@link Executor}. Native code notifies this
+ * object on the event thread, it records the outcome and submits itself to the executor, which then calls the user's
+ * callback. Instances are pooled per connection so the handoff does not allocate once the pool is warm.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+final class CompletionDispatch implements ControlTransferCallback, BulkTransferCallback, InterruptTransferCallback,
+                                          IsochronousTransferCallback, Runnable {
+
+    static final int CONTROL = 0;
+    static final int BULK = 1;
+    static final int INTERRUPT = 2;
+    static final int ISOCHRONOUS = 3;
+
+    @NotNull
+    private final Queue<CompletionDispatch> pool;
+
+    private Executor executor;
+
+    /**
+     * Which callback interface to notify. A user callback may implement several of them.
+     */
+    private int kind;
+
+    private Object callback;
+
+    private ByteBuffer data;
+
+    private int result;
+
+    /**
+     * Set when the transfer counts against a bus limit, its bytes are returned before the callback is dispatched.
+     */
+    @Nullable
+    private BusBandwidthGovernor governor;
+
+    private BaseUsbDevice governedDevice;
+
+    private long governedBytes;
+
+    CompletionDispatch(@NotNull Queue<CompletionDispatch> pool) {
+        this.pool = pool;
+    }
+
+    @NotNull
+    CompletionDispatch prepare(@NotNull Executor executor, int kind, @NotNull Object callback) {
+        this.executor = executor;
+        this.kind = kind;
+        this.callback = callback;
+        return this;
+    }
+
+    @NotNull
+    CompletionDispatch govern(@NotNull BusBandwidthGovernor governor, @NotNull BaseUsbDevice device, long bytes) {
+        this.governor = governor;
+        governedDevice = device;
+        governedBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Forgets a bus limit charge which was never made, for a transfer which was held back and then dropped.
+     */
+    @NotNull
+    CompletionDispatch ungovern() {
+        governor = null;
+        governedDevice = null;
+        return this;
+    }
+
+    /**
+     * Reports a transfer which could not be submitted as if it had completed with the error.
+     */
+    void fail(int result) {
+        dispatch(null, result);
+    }
+
+    @Override
+    public void onControlTransferComplete(@Nullable ByteBuffer data, int result) {
+        dispatch(data, result);
+    }
+
+    @Override
+    public void onBulkTransferComplete(@Nullable ByteBuffer data, int result) {
+        dispatch(data, result);
+    }
+
+    @Override
+    public void onInterruptTransferComplete(@Nullable ByteBuffer data, int result) {
+        dispatch(data, result);
+    }
+
+    @Override
+    public void onIsochronousTransferComplete(@Nullable ByteBuffer data, int result) {
+        dispatch(data, result);
+    }
+
+    private void dispatch(@Nullable ByteBuffer data, int result) {
+        this.data = data;
+        this.result = result;
+        if (governor != null) {
+            governor.release(governedDevice, governedBytes);
+        }
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            // Typically an executor which has been shut down. The completion is still delivered, here on the event
+            // thread, so the callback is not lost and this instance returns to the pool
+            Arbor.w("Executor rejected a transfer completion, running it inline: %s", e.getMessage());
+            run();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            switch (kind) {
+                case CONTROL:
+                    ((ControlTransferCallback) callback).onControlTransferComplete(data, result);
+                    break;
+                case BULK:
+                    ((BulkTransferCallback) callback).onBulkTransferComplete(data, result);
+                    break;
+                case INTERRUPT:
+                    ((InterruptTransferCallback) callback).onInterruptTransferComplete(data, result);
+                    break;
+                case ISOCHRONOUS:
+                    ((IsochronousTransferCallback) callback).onIsochronousTransferComplete(data, result);
+                    break;
+            }
+        } catch (Exception e) {
+            // Runs on the event thread for inline executors, where an exception must not reach native code
+            Arbor.e(e, "Transfer callback threw an exception.");
+        } finally {
+            recycle();
+        }
+    }
+
+    void recycle() {
+        executor = null;
+        callback = null;
+        data = null;
+        governor = null;
+        governedDevice = null;
+        pool.offer(this);
+    }
+}
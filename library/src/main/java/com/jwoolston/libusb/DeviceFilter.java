@@ -0,0 +1,219 @@
+package com.jwoolston.libusb;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Criteria used to select devices during enumeration. Filters are evaluated in native code against the descriptors
+ * libusb cached while scanning the bus, so devices which do not match never have a Java object created for them.
+ * <p>
+ * Every criterion is optional, a filter with nothing set matches every device. The class/subclass/protocol criteria
+ * match either the device descriptor fields or the fields of any interface in the device's first configuration, so
+ * composite devices which declare their class per interface are matched as expected.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class DeviceFilter {
+
+    /**
+     * Value used for criteria which should match anything.
+     */
+    public static final int ANY = -1;
+
+    // Layout of the array passed to native. Must be kept in sync with device_filter.h
+    private static final int INDEX_VENDOR_MIN = 0;
+    private static final int INDEX_VENDOR_MAX = 1;
+    private static final int INDEX_PRODUCT_MIN = 2;
+    private static final int INDEX_PRODUCT_MAX = 3;
+    private static final int INDEX_CLASS = 4;
+    private static final int INDEX_SUBCLASS = 5;
+    private static final int INDEX_PROTOCOL = 6;
+    private static final int INDEX_BUS = 7;
+    private static final int INDEX_PORT_COUNT = 8;
+    private static final int HEADER_SIZE = 9;
+
+    private final int vendorIdMin;
+    private final int vendorIdMax;
+    private final int productIdMin;
+    private final int productIdMax;
+    private final int deviceClass;
+    private final int subclass;
+    private final int protocol;
+    private final int busNumber;
+    @Nullable
+    private final int[] portPath;
+
+    private DeviceFilter(@NotNull Builder builder) {
+        vendorIdMin = builder.vendorIdMin;
+        vendorIdMax = builder.vendorIdMax;
+        productIdMin = builder.productIdMin;
+        productIdMax = builder.productIdMax;
+        deviceClass = builder.deviceClass;
+        subclass = builder.subclass;
+        protocol = builder.protocol;
+        busNumber = builder.busNumber;
+        portPath = builder.portPath;
+    }
+
+    /**
+     * Checks a device against the vendor, product, device class and topology criteria of this filter. Unlike the
+     * native evaluation, interface classes are only considered if the device's configuration tree is already
+     * populated.
+     *
+     * @param device {@link BaseUsbDevice} to check.
+     *
+     * @return {@code true} if the device matches.
+     */
+    public boolean matches(@NotNull BaseUsbDevice device) {
+        if (!matchesIdentity(device.getVendorId(), device.getProductId())) {
+            return false;
+        }
+        if (busNumber != ANY && busNumber != device.getBusNumber()) {
+            return false;
+        }
+        if (portPath != null && !Arrays.equals(portPath, device.getPortPath())) {
+            return false;
+        }
+        if (matchesClass(device.getDeviceClass(), device.getDeviceSubclass(), device.getDeviceProtocol())) {
+            return true;
+        }
+        final BaseUsbConfiguration[] configurations = device.configurations;
+        if (configurations != null) {
+            for (BaseUsbConfiguration configuration : configurations) {
+                for (int i = 0; i < configuration.getInterfaceCount(); ++i) {
+                    final BaseUsbInterface usbInterface = configuration.getInterface(i);
+                    if (matchesClass(usbInterface.getInterfaceClass(), usbInterface.getInterfaceSubclass(),
+                        usbInterface.getInterfaceProtocol())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    boolean matchesIdentity(int vendorId, int productId) {
+        return (vendorIdMin == ANY || vendorId >= vendorIdMin) && (vendorIdMax == ANY || vendorId <= vendorIdMax)
+               && (productIdMin == ANY || productId >= productIdMin)
+               && (productIdMax == ANY || productId <= productIdMax);
+    }
+
+    boolean matchesClass(int usbClass, int usbSubclass, int usbProtocol) {
+        return (deviceClass == ANY || deviceClass == usbClass) && (subclass == ANY || subclass == usbSubclass)
+               && (protocol == ANY || protocol == usbProtocol);
+    }
+
+    /**
+     * Encodes this filter for evaluation in native code.
+     *
+     * @return {@code int[]} The encoded filter.
+     */
+    @NotNull
+    int[] toNative() {
+        final int portCount = portPath != null ? portPath.length : 0;
+        final int[] encoded = new int[HEADER_SIZE + portCount];
+        encoded[INDEX_VENDOR_MIN] = vendorIdMin;
+        encoded[INDEX_VENDOR_MAX] = vendorIdMax;
+        encoded[INDEX_PRODUCT_MIN] = productIdMin;
+        encoded[INDEX_PRODUCT_MAX] = productIdMax;
+        encoded[INDEX_CLASS] = deviceClass;
+        encoded[INDEX_SUBCLASS] = subclass;
+        encoded[INDEX_PROTOCOL] = protocol;
+        encoded[INDEX_BUS] = busNumber;
+        encoded[INDEX_PORT_COUNT] = portPath != null ? portCount : ANY;
+        for (int i = 0; i < portCount; ++i) {
+            encoded[HEADER_SIZE + i] = portPath[i];
+        }
+        return encoded;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceFilter[vendorId=" + vendorIdMin + ".." + vendorIdMax + ",productId=" + productIdMin + ".."
+               + productIdMax + ",class=" + deviceClass + ",subclass=" + subclass + ",protocol=" + protocol
+               + ",bus=" + busNumber + ",portPath=" + Arrays.toString(portPath) + "]";
+    }
+
+    public static class Builder {
+
+        private int vendorIdMin = ANY;
+        private int vendorIdMax = ANY;
+        private int productIdMin = ANY;
+        private int productIdMax = ANY;
+        private int deviceClass = ANY;
+        private int subclass = ANY;
+        private int protocol = ANY;
+        private int busNumber = ANY;
+        @Nullable
+        private int[] portPath;
+
+        @NotNull
+        public Builder vendorId(int vendorId) {
+            return vendorIdRange(vendorId, vendorId);
+        }
+
+        @NotNull
+        public Builder vendorIdRange(int min, int max) {
+            vendorIdMin = min;
+            vendorIdMax = max;
+            return this;
+        }
+
+        @NotNull
+        public Builder productId(int productId) {
+            return productIdRange(productId, productId);
+        }
+
+        @NotNull
+        public Builder productIdRange(int min, int max) {
+            productIdMin = min;
+            productIdMax = max;
+            return this;
+        }
+
+        /**
+         * @param deviceClass the device or interface class to match. Some useful constants for USB classes can be
+         *                    found in {@link UsbConstants}.
+         */
+        @NotNull
+        public Builder deviceClass(int deviceClass) {
+            this.deviceClass = deviceClass;
+            return this;
+        }
+
+        @NotNull
+        public Builder subclass(int subclass) {
+            this.subclass = subclass;
+            return this;
+        }
+
+        @NotNull
+        public Builder protocol(int protocol) {
+            this.protocol = protocol;
+            return this;
+        }
+
+        @NotNull
+        public Builder busNumber(int busNumber) {
+            this.busNumber = busNumber;
+            return this;
+        }
+
+        /**
+         * @param portPath the exact port numbers from the root hub to the device, as reported by
+         *                 {@link BaseUsbDevice#getPortPath()}.
+         */
+        @NotNull
+        public Builder portPath(@Nullable int[] portPath) {
+            this.portPath = portPath != null ? portPath.clone() : null;
+            return this;
+        }
+
+        @NotNull
+        public DeviceFilter build() {
+            return new DeviceFilter(this);
+        }
+    }
+}
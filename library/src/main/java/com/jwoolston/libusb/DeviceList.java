@@ -1,31 +1,50 @@
 package com.jwoolston.libusb;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 class DeviceList {
 
-    static {
-        if (!nativeInitialize()) {
-            throw new RuntimeException("Failed to initialize native layer for DeviceList.");
-        }
-    }
-
     private long nativeObject;
 
     private List<BaseUsbDevice> devices = new ArrayList<>();
 
+    /**
+     * Scans the bus and creates Java objects for the devices which match the provided filter. Non matching devices
+     * are rejected in native code before any Java object is created for them.
+     *
+     * @param context {@link LibUsbContext} to enumerate devices on.
+     * @param filter  {@link DeviceFilter} to apply, or {@code null} to accept every device.
+     *
+     * @return The {@link DeviceList}. Must be released with {@link #release()}.
+     */
+    @NotNull
+    public static DeviceList getDeviceList(@NotNull LibUsbContext context, @Nullable DeviceFilter filter) {
+        return new DeviceList(nativeGetDeviceList(context.getNativeObject()), context, filter);
+    }
+
     @NotNull
     public static DeviceList fromNativeObject(long nativeObject) {
-        return new DeviceList(nativeObject);
+        return new DeviceList(nativeObject, null, null);
     }
 
-    private DeviceList(long nativeObject) {
+    private DeviceList(long nativeObject, @Nullable LibUsbContext context, @Nullable DeviceFilter filter) {
         this.nativeObject = nativeObject;
-        nativePopulateDeviceList(nativeObject, devices);
+        nativePopulateDeviceList(nativeObject, devices, filter != null ? filter.toNative() : null);
+        if (context != null) {
+            // Each device holds its own libusb_device reference, which must not outlive the context
+            for (BaseUsbDevice device : devices) {
+                device.attachContext(context);
+            }
+        }
+    }
+
+    @NotNull
+    public List<BaseUsbDevice> getDevices() {
+        return devices;
     }
 
     public void release() {
@@ -33,12 +52,10 @@ class DeviceList {
         nativeObject = 0;
     }
 
-    private static native boolean nativeInitialize();
-
-    private static native void nativeGetDeviceList(@NotNull ByteBuffer nativeContext);
+    private static native long nativeGetDeviceList(long nativeContext);
 
-    private static native void nativePopulateDeviceList(long nativeObject,
-                                                        @NotNull List<BaseUsbDevice> devices);
+    private static native void nativePopulateDeviceList(long nativeObject, @NotNull List<BaseUsbDevice> devices,
+                                                        @Nullable int[] filter);
 
     private native void nativeRelease(long nativeObject);
 }
@@ -0,0 +1,160 @@
+package com.jwoolston.libusb;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the devices and connections opened through a {@link BaseUsbManager}. Lookups by device name, serial
+ * number, vendor/product ID and bus path are single hash lookups and never lock. Iteration is served from an
+ * immutable snapshot which is replaced, rather than modified, whenever the registry changes, so readers always see a
+ * consistent view without copying.
+ * <p>
+ * Writers are serialized among themselves but never block readers.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+class DeviceRegistry {
+
+    private final Object writeLock = new Object();
+
+    private final ConcurrentHashMap<String, BaseUsbDevice> devicesByName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, BaseUsbDeviceConnection> connectionsByName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, BaseUsbDevice> devicesBySerial = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, BaseUsbDevice> devicesByBusPath = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, List<BaseUsbDevice>> devicesByIdentity = new ConcurrentHashMap<>();
+
+    @NotNull
+    private volatile List<BaseUsbDevice> snapshot = Collections.emptyList();
+
+    /**
+     * Adds a device and its connection to the registry, replacing any previous registration under the same name.
+     *
+     * @param device     {@link BaseUsbDevice} to register.
+     * @param connection {@link BaseUsbDeviceConnection} opened for the device.
+     */
+    void register(@NotNull BaseUsbDevice device, @NotNull BaseUsbDeviceConnection connection) {
+        synchronized (writeLock) {
+            final BaseUsbDevice previous = devicesByName.get(device.getDeviceName());
+            if (previous != null) {
+                removeIndices(previous);
+            }
+            devicesByName.put(device.getDeviceName(), device);
+            connectionsByName.put(device.getDeviceName(), connection);
+            addIndices(device);
+            rebuildSnapshot();
+        }
+    }
+
+    /**
+     * Removes a device and its connection from the registry.
+     *
+     * @param name {@link String} The device name.
+     *
+     * @return The removed {@link BaseUsbDevice}, or {@code null} if it was not registered.
+     */
+    @Nullable
+    BaseUsbDevice unregister(@NotNull String name) {
+        synchronized (writeLock) {
+            connectionsByName.remove(name);
+            final BaseUsbDevice device = devicesByName.remove(name);
+            if (device != null) {
+                removeIndices(device);
+                rebuildSnapshot();
+            }
+            return device;
+        }
+    }
+
+    @Nullable
+    BaseUsbDevice getDevice(@NotNull String name) {
+        return devicesByName.get(name);
+    }
+
+    @Nullable
+    BaseUsbDeviceConnection getConnection(@NotNull String name) {
+        return connectionsByName.get(name);
+    }
+
+    @Nullable
+    BaseUsbDevice getDeviceBySerial(@NotNull String serialNumber) {
+        return devicesBySerial.get(serialNumber);
+    }
+
+    @Nullable
+    BaseUsbDevice getDeviceByBusPath(@NotNull String busPath) {
+        return devicesByBusPath.get(busPath);
+    }
+
+    /**
+     * @return Immutable {@link List} of the devices registered with the given vendor and product ID.
+     */
+    @NotNull
+    List<BaseUsbDevice> getDevices(int vendorId, int productId) {
+        final List<BaseUsbDevice> devices = devicesByIdentity.get(identity(vendorId, productId));
+        return devices != null ? devices : Collections.<BaseUsbDevice>emptyList();
+    }
+
+    /**
+     * @return Immutable {@link List} of every registered device. The list is a snapshot and does not change.
+     */
+    @NotNull
+    List<BaseUsbDevice> getDevices() {
+        return snapshot;
+    }
+
+    int getConnectionCount() {
+        return connectionsByName.size();
+    }
+
+    private void addIndices(@NotNull BaseUsbDevice device) {
+        if (device.serialNumber != null) {
+            devicesBySerial.put(device.serialNumber, device);
+        }
+        final String busPath = device.getBusPath();
+        if (busPath != null) {
+            devicesByBusPath.put(busPath, device);
+        }
+        final Integer identity = identity(device.getVendorId(), device.getProductId());
+        final List<BaseUsbDevice> previous = devicesByIdentity.get(identity);
+        final List<BaseUsbDevice> devices = previous != null ? new ArrayList<>(previous)
+            : new ArrayList<BaseUsbDevice>(1);
+        devices.add(device);
+        devicesByIdentity.put(identity, Collections.unmodifiableList(devices));
+    }
+
+    private void removeIndices(@NotNull BaseUsbDevice device) {
+        if (device.serialNumber != null) {
+            // Only drop the entry if a newer device has not taken over the key
+            devicesBySerial.remove(device.serialNumber, device);
+        }
+        final String busPath = device.getBusPath();
+        if (busPath != null) {
+            devicesByBusPath.remove(busPath, device);
+        }
+        final Integer identity = identity(device.getVendorId(), device.getProductId());
+        final List<BaseUsbDevice> previous = devicesByIdentity.get(identity);
+        if (previous != null) {
+            final List<BaseUsbDevice> devices = new ArrayList<>(previous);
+            devices.remove(device);
+            if (devices.isEmpty()) {
+                devicesByIdentity.remove(identity);
+            } else {
+                devicesByIdentity.put(identity, Collections.unmodifiableList(devices));
+            }
+        }
+    }
+
+    private void rebuildSnapshot() {
+        snapshot = Collections.unmodifiableList(new ArrayList<>(devicesByName.values()));
+    }
+
+    @NotNull
+    private static Integer identity(int vendorId, int productId) {
+        return ((0xFFFF & vendorId) << 16) | (0xFFFF & productId);
+    }
+}
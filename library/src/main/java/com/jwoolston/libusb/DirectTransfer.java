@@ -0,0 +1,123 @@
+package com.jwoolston.libusb;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A transfer submitted into a direct {@link java.nio.ByteBuffer} owned by the Java side. Native code fills the
+ * transfer from the buffer's address and notifies the instance once libusb completes it. Nothing is copied or
+ * allocated per transfer on the Java side, so instances can be reused for streaming.
+ *
+ * @see BaseUsbDeviceConnection#submitDirectTransfer(BaseUsbEndpoint, java.nio.ByteBuffer, int, int, DirectTransfer)
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public abstract class DirectTransfer {
+
+    private final Object lock = new Object();
+
+    // Guarded by lock. The libusb_transfer while this instance is in flight, 0 otherwise
+    private long nativeTransfer;
+
+    private volatile int actualLength;
+
+    /**
+     * Set while the transfer counts against a bus limit, its bytes are returned before the owner is notified.
+     */
+    @Nullable
+    private BusBandwidthGovernor governor;
+
+    private BaseUsbDevice governedDevice;
+
+    private long governedBytes;
+
+    /**
+     * Reused to hold the transfer back while its bus is over the limit, so governed transfers do not allocate.
+     */
+    @Nullable
+    BusBandwidthGovernor.Submission heldSubmission;
+
+    /**
+     * Called on the event thread once the transfer has finished. The buffer may be accessed again from this point.
+     * A transfer which timed out reports {@link LibusbError#LIBUSB_ERROR_TIMEOUT} and one which was cancelled
+     * reports {@link LibusbError#LIBUSB_ERROR_INTERRUPTED}. Either may still have moved {@link #getActualLength()}
+     * bytes.
+     *
+     * @param result {@code int} The transferred length or a negative libusb error code.
+     */
+    public abstract void onComplete(int result);
+
+    /**
+     * @return {@code int} The number of bytes moved by the last completed transfer, including a partial transfer
+     * which timed out or was cancelled. Valid from {@link #onComplete(int)} until the instance is submitted again.
+     */
+    public int getActualLength() {
+        return actualLength;
+    }
+
+    /**
+     * Asynchronously cancels the transfer if it has been handed to libusb. Completion is still reported through
+     * {@link #onComplete(int)}, with {@link LibusbError#LIBUSB_ERROR_INTERRUPTED} unless the transfer finished first.
+     * A transfer held back by a bus limit has not reached libusb yet and can not be cancelled here.
+     *
+     * @return {@code true} if cancellation was requested, {@code false} if the transfer was not in flight.
+     */
+    public boolean cancel() {
+        synchronized (lock) {
+            return nativeTransfer != 0 && nativeCancel(nativeTransfer) == LibusbError.LIBUSB_SUCCESS.getCode();
+        }
+    }
+
+    /**
+     * Charges the transfer against a bus limit until it completes.
+     */
+    void govern(@NotNull BusBandwidthGovernor governor, @NotNull BaseUsbDevice device, long bytes) {
+        this.governor = governor;
+        governedDevice = device;
+        governedBytes = bytes;
+    }
+
+    /**
+     * Forgets a bus limit charge which was never made, for a transfer which was held back and then dropped.
+     */
+    void ungovern() {
+        governor = null;
+        governedDevice = null;
+    }
+
+    /**
+     * Returns the transfer's bytes to its bus, if it was charged against a limit.
+     */
+    void releaseGovernor() {
+        final BusBandwidthGovernor governor = this.governor;
+        if (governor != null) {
+            this.governor = null;
+            governor.release(governedDevice, governedBytes);
+            governedDevice = null;
+        }
+    }
+
+    /**
+     * Called from native with the {@code libusb_transfer} about to be submitted, or 0 if submission failed.
+     */
+    final void attach(long transfer) {
+        synchronized (lock) {
+            nativeTransfer = transfer;
+        }
+    }
+
+    /**
+     * Called from native on the event thread once libusb completes the transfer. The native transfer is freed after
+     * this returns.
+     */
+    final void complete(int result, int actualLength) {
+        synchronized (lock) {
+            nativeTransfer = 0;
+        }
+        this.actualLength = actualLength;
+        releaseGovernor();
+        onComplete(result);
+    }
+
+    private static native int nativeCancel(long transfer);
+}
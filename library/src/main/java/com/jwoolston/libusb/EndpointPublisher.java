@@ -0,0 +1,327 @@
+package com.jwoolston.libusb;
+
+import com.jwoolston.libusb.async.Flow;
+import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Publishes the data received on a bulk or interrupt IN endpoint with end to end backpressure. Transfers are only
+ * submitted to satisfy outstanding subscriber demand, and each transfer reads into one of a fixed set of direct
+ * buffers.
+ * A buffer delivered through {@link Flow.Subscriber#onNext(Object)} belongs to the subscriber until it is handed back
+ * with {@link #recycle(ByteBuffer)}; while every buffer is held no further transfers are submitted, regardless of
+ * demand, so a slow consumer throttles the endpoint rather than growing a queue.
+ * <p>
+ * Items are delivered on the libusb event thread, as for the other asynchronous callbacks, and should be handed off
+ * rather than processed in place. A publisher supports a single subscriber. Cancelling the subscription cancels the
+ * transfers in flight.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class EndpointPublisher implements Flow.Publisher<ByteBuffer> {
+
+    /**
+     * Timeout applied to each transfer. Timeouts are not reported to the subscriber, an empty timed out transfer is
+     * simply resubmitted.
+     */
+    private static final int DEFAULT_TIMEOUT = 1000;
+
+    private static final int DEFAULT_BUFFER_COUNT = 4;
+
+    @NotNull
+    private final BaseUsbDeviceConnection connection;
+
+    @NotNull
+    private final BaseUsbEndpoint endpoint;
+
+    private final int transferSize;
+
+    private final int timeout;
+
+    private final List<StreamTransfer> transfers;
+
+    private final ArrayDeque<StreamTransfer> freeTransfers;
+
+    private final Object lock = new Object();
+
+    /**
+     * Serializes the signals to the subscriber without exposing the lock to it.
+     */
+    private final Object signalLock = new Object();
+
+    private Flow.Subscriber<? super ByteBuffer> subscriber;
+
+    private long demand;
+
+    private int inFlight;
+
+    private boolean cancelled;
+
+    private boolean terminated;
+
+    /**
+     * Creates a publisher with {@value #DEFAULT_BUFFER_COUNT} buffers, each one max packet of the endpoint in size.
+     *
+     * @param connection {@link BaseUsbDeviceConnection} to the device owning the endpoint.
+     * @param endpoint   {@link BaseUsbEndpoint} The bulk or interrupt IN endpoint to read from.
+     */
+    public EndpointPublisher(@NotNull BaseUsbDeviceConnection connection, @NotNull BaseUsbEndpoint endpoint) {
+        this(connection, endpoint, endpoint.getMaxPacketSize(), DEFAULT_BUFFER_COUNT, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param connection   {@link BaseUsbDeviceConnection} to the device owning the endpoint.
+     * @param endpoint     {@link BaseUsbEndpoint} The bulk or interrupt IN endpoint to read from.
+     * @param transferSize {@code int} The size of each transfer and buffer in bytes. Should be a multiple of the
+     *                     endpoint's max packet size.
+     * @param bufferCount  {@code int} The number of buffers, which is also the maximum number of transfers in flight.
+     * @param timeout      {@code int} Timeout of each transfer in milliseconds, 0 is infinite. Data received before a
+     *                     timeout is delivered, empty timed out transfers are resubmitted silently.
+     */
+    public EndpointPublisher(@NotNull BaseUsbDeviceConnection connection, @NotNull BaseUsbEndpoint endpoint,
+                             int transferSize, int bufferCount, int timeout) {
+        Preconditions.checkArgument(endpoint.getDirection() == UsbConstants.USB_DIR_IN,
+            "Endpoint %s is not an IN endpoint.", endpoint);
+        Preconditions.checkArgument(endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_BULK
+                                    || endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_INT,
+            "Endpoint %s is not a bulk or interrupt endpoint.", endpoint);
+        Preconditions.checkArgument(transferSize > 0, "Transfer size must be positive.");
+        Preconditions.checkArgument(bufferCount > 0, "Buffer count must be positive.");
+        this.connection = connection;
+        this.endpoint = endpoint;
+        this.transferSize = transferSize;
+        this.timeout = timeout;
+        transfers = new ArrayList<>(bufferCount);
+        freeTransfers = new ArrayDeque<>(bufferCount);
+        for (int i = 0; i < bufferCount; ++i) {
+            final StreamTransfer transfer = new StreamTransfer(ByteBuffer.allocateDirect(transferSize));
+            transfers.add(transfer);
+            freeTransfers.add(transfer);
+        }
+    }
+
+    @Override
+    public void subscribe(@NotNull Flow.Subscriber<? super ByteBuffer> subscriber) {
+        final boolean accepted;
+        synchronized (lock) {
+            accepted = this.subscriber == null;
+            if (accepted) {
+                this.subscriber = subscriber;
+            }
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("EndpointPublisher supports a single subscriber."));
+            return;
+        }
+        synchronized (signalLock) {
+            subscriber.onSubscribe(new EndpointSubscription());
+        }
+    }
+
+    /**
+     * Returns a buffer delivered to the subscriber so it can be reused for a following transfer. The buffer must not be
+     * accessed after it is recycled.
+     *
+     * @param buffer {@link ByteBuffer} previously delivered by this publisher.
+     */
+    public void recycle(@NotNull ByteBuffer buffer) {
+        synchronized (lock) {
+            final StreamTransfer transfer = findTransfer(buffer);
+            if (transfer == null || transfer.inFlight || freeTransfers.contains(transfer)) {
+                throw new IllegalArgumentException("Buffer was not delivered by this publisher.");
+            }
+            freeTransfers.add(transfer);
+        }
+        submitToDemand();
+    }
+
+    // Guarded by lock
+    @Nullable
+    private StreamTransfer findTransfer(@NotNull ByteBuffer buffer) {
+        for (StreamTransfer transfer : transfers) {
+            if (transfer.buffer == buffer) {
+                return transfer;
+            }
+        }
+        return null;
+    }
+
+    private void submitToDemand() {
+        while (true) {
+            final StreamTransfer transfer;
+            synchronized (lock) {
+                // Every transfer in flight already answers one unit of demand
+                if (cancelled || terminated || inFlight >= demand || freeTransfers.isEmpty()) {
+                    return;
+                }
+                transfer = freeTransfers.poll();
+                transfer.inFlight = true;
+                ++inFlight;
+            }
+            final ByteBuffer buffer = transfer.buffer;
+            buffer.clear();
+            final int result = connection.submitDirect(endpoint.getType(), endpoint.getAddress(), buffer,
+                transferSize, timeout, transfer);
+            if (result < 0) {
+                synchronized (lock) {
+                    transfer.inFlight = false;
+                    --inFlight;
+                    freeTransfers.add(transfer);
+                }
+                fail(new IOException("Failed to submit transfer: " + LibusbError.fromNative(result)));
+                return;
+            }
+            final boolean cancel;
+            synchronized (lock) {
+                // A cancel which ran before the transfer reached libusb could not cancel it
+                cancel = cancelled && transfer.inFlight;
+            }
+            if (cancel) {
+                transfer.cancel();
+                return;
+            }
+        }
+    }
+
+    private void onTransferComplete(@NotNull StreamTransfer transfer, int result, int actualLength) {
+        final ByteBuffer buffer = transfer.buffer;
+        final boolean timedOut = result == LibusbError.LIBUSB_ERROR_TIMEOUT.getCode();
+        // Data received before a timeout is delivered like any other, only an empty timeout is retried silently
+        final int length = timedOut ? actualLength : result;
+        final Flow.Subscriber<? super ByteBuffer> target;
+        final boolean deliver;
+        synchronized (lock) {
+            transfer.inFlight = false;
+            --inFlight;
+            // Decided under the same lock as cancel(), so a buffer is either delivered or back in the free list
+            deliver = length >= 0 && !(timedOut && length == 0) && !cancelled && !terminated;
+            if (deliver) {
+                --demand;
+            } else {
+                freeTransfers.add(transfer);
+            }
+            target = subscriber;
+        }
+        if (deliver) {
+            buffer.limit(length);
+            try {
+                synchronized (signalLock) {
+                    target.onNext(buffer);
+                }
+            } catch (RuntimeException e) {
+                // A subscriber which throws is considered cancelled, the exception must not reach native code
+                Arbor.e(e, "Subscriber threw from onNext, cancelling.");
+                cancelTransfers();
+                synchronized (lock) {
+                    if (!freeTransfers.contains(transfer)) {
+                        freeTransfers.add(transfer);
+                    }
+                }
+                return;
+            }
+            submitToDemand();
+        } else if (timedOut) {
+            submitToDemand();
+        } else if (result < 0) {
+            fail(new IOException("Transfer failed: " + LibusbError.fromNative(result)));
+        }
+    }
+
+    /**
+     * Marks the publisher cancelled and cancels the transfers libusb is holding. Each still completes on the event
+     * thread, returning its buffer to the free list.
+     */
+    private void cancelTransfers() {
+        final List<StreamTransfer> pending = new ArrayList<>(transfers.size());
+        synchronized (lock) {
+            cancelled = true;
+            for (StreamTransfer transfer : transfers) {
+                if (transfer.inFlight) {
+                    pending.add(transfer);
+                }
+            }
+        }
+        for (StreamTransfer transfer : pending) {
+            transfer.cancel();
+        }
+    }
+
+    private void fail(@NotNull Throwable throwable) {
+        final Flow.Subscriber<? super ByteBuffer> target;
+        synchronized (lock) {
+            if (cancelled || terminated) {
+                return;
+            }
+            terminated = true;
+            target = subscriber;
+        }
+        try {
+            synchronized (signalLock) {
+                target.onError(throwable);
+            }
+        } catch (RuntimeException e) {
+            // Usually called on the event thread, the exception must not reach native code
+            Arbor.e(e, "Subscriber threw from onError.");
+        }
+    }
+
+    private final class EndpointSubscription implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " items, demand must be positive."));
+                return;
+            }
+            synchronized (lock) {
+                demand += n;
+                if (demand < 0) {
+                    // Overflowed, treat as unbounded
+                    demand = Long.MAX_VALUE;
+                }
+            }
+            submitToDemand();
+        }
+
+        @Override
+        public void cancel() {
+            cancelTransfers();
+        }
+    }
+
+    private final class StreamTransfer extends DirectTransfer {
+
+        @NotNull
+        final ByteBuffer buffer;
+
+        // Guarded by lock. Set from submission until completion
+        boolean inFlight;
+
+        StreamTransfer(@NotNull ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void onComplete(int result) {
+            onTransferComplete(this, result, getActualLength());
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.jwoolston.libusb;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives device arrival and departure notifications registered through
+ * {@link BaseUsbManager#registerHotplugListener(HotplugListener, DeviceFilter, boolean)}. Callbacks are made on the
+ * async USB thread, so implementations should hand off any lengthy work and must not block.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public interface HotplugListener {
+
+    /**
+     * Called when a matching device has been attached and is ready to be opened. The device holds a reference to
+     * libusb's record of it until it is {@link BaseUsbDevice#release() released} or reported as detached.
+     *
+     * @param device {@link BaseUsbDevice} describing the attached device.
+     */
+    void onDeviceAttached(@NotNull BaseUsbDevice device);
+
+    /**
+     * Called when a matching device has been detached. The device can no longer be communicated with, but its
+     * descriptor fields remain available. The device is {@link BaseUsbDevice#release() released} once this returns.
+     *
+     * @param device {@link BaseUsbDevice} describing the detached device.
+     */
+    void onDeviceDetached(@NotNull BaseUsbDevice device);
+}
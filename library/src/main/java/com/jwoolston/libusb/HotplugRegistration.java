@@ -0,0 +1,122 @@
+package com.jwoolston.libusb;
+
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link HotplugListener} registered with libusb. The filter is evaluated in native code from the libusb hotplug
+ * callback, so events for devices which do not match never reach Java.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+class HotplugRegistration {
+
+    @NotNull
+    private final LibUsbContext context;
+
+    @NotNull
+    private final HotplugListener listener;
+
+    // Guarded by this
+    private long nativeObject;
+
+    // Guarded by this
+    private boolean released;
+
+    /**
+     * @return {@code true} if libusb on this platform can deliver hotplug events.
+     */
+    static boolean isSupported() {
+        return nativeHasHotplug();
+    }
+
+    /**
+     * Registers a listener with libusb. Events are dispatched while the async USB thread is handling events.
+     *
+     * @param context   {@link LibUsbContext} to register on.
+     * @param listener  {@link HotplugListener} to notify.
+     * @param filter    {@link DeviceFilter} to apply, or {@code null} to be notified about every device.
+     * @param enumerate {@code true} to receive an arrival event for every matching device already attached. These
+     *                  are delivered on the calling thread before this method returns.
+     *
+     * @return The {@link HotplugRegistration}, or {@code null} if libusb rejected the registration.
+     */
+    @Nullable
+    static HotplugRegistration register(@NotNull LibUsbContext context, @NotNull HotplugListener listener,
+                                        @Nullable DeviceFilter filter, boolean enumerate) {
+        final HotplugRegistration registration = new HotplugRegistration(context, listener);
+        registration.nativeObject = nativeRegister(context.getNativeObject(), registration,
+            filter != null ? filter.toNative() : null, enumerate);
+        return registration.nativeObject != 0 ? registration : null;
+    }
+
+    private HotplugRegistration(@NotNull LibUsbContext context, @NotNull HotplugListener listener) {
+        this.context = context;
+        this.listener = listener;
+    }
+
+    @NotNull
+    HotplugListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Removes the registration from libusb. No further events will be delivered once this returns, other than one
+     * already being dispatched on the event thread. The native holder is freed by the {@link LibUsbContext} once that
+     * can no longer happen.
+     */
+    void release() {
+        synchronized (this) {
+            if (released || nativeObject == 0) {
+                return;
+            }
+            released = true;
+            nativeDeregister(nativeObject);
+        }
+        context.retireRegistration(this);
+    }
+
+    /**
+     * Frees the native holder of a released registration.
+     */
+    synchronized void free() {
+        if (nativeObject != 0) {
+            nativeFree(nativeObject);
+            nativeObject = 0;
+        }
+    }
+
+    /**
+     * Called from native for each matching hotplug event.
+     */
+    @SuppressWarnings("unused")
+    void onHotplugEvent(@NotNull BaseUsbDevice device, boolean arrived) {
+        device.attachContext(context);
+        try {
+            if (arrived) {
+                listener.onDeviceAttached(device);
+            } else {
+                listener.onDeviceDetached(device);
+            }
+        } catch (Exception e) {
+            // Never let a listener exception propagate into the libusb event loop
+            Arbor.e(e, "Hotplug listener threw an exception.");
+        } finally {
+            if (!arrived) {
+                // A departed device can not be opened again, so its libusb_device is of no further use
+                device.release();
+            }
+        }
+    }
+
+    private static native boolean nativeHasHotplug();
+
+    private static native long nativeRegister(long context, @NotNull HotplugRegistration registration,
+                                              @Nullable int[] filter, boolean enumerate);
+
+    private static native void nativeDeregister(long nativeObject);
+
+    private static native void nativeFree(long nativeObject);
+}
@@ -0,0 +1,219 @@
+package com.jwoolston.libusb;
+
+import com.jwoolston.libusb.async.InterruptReportCallback;
+import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Continuously polls an interrupt IN endpoint. A ring of transfers is kept armed on the endpoint so the host
+ * controller always has one queued for the endpoint's next polling interval, and each transfer is resubmitted from the
+ * native completion callback without a round trip through Java. Reports are collected with their native completion
+ * timestamps and delivered to the {@link InterruptReportCallback} in batches, either every N reports or once the oldest
+ * report in the batch is T microseconds old, whichever comes first.
+ * <p>
+ * The time bound is checked as transfers complete. Ring transfers are armed without a timeout, so a quiet endpoint
+ * costs nothing while no batch is pending. While one is, a single transfer carries the time remaining until the batch
+ * is T old (rounded up to a millisecond) and its expiry flushes the partial batch.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class InterruptPoller {
+
+    /**
+     * How long the default ring keeps the endpoint armed without the event thread running, in microseconds.
+     */
+    private static final long DEFAULT_ARMED_MICROS = 8000;
+
+    private static final int MIN_RING_SIZE = 2;
+
+    private static final int MAX_RING_SIZE = 64;
+
+    @NotNull
+    private final BaseUsbDeviceConnection connection;
+
+    @NotNull
+    private final BaseUsbEndpoint endpoint;
+
+    @NotNull
+    private final InterruptReportCallback callback;
+
+    private final int ringSize;
+
+    private final int batchReports;
+
+    private final long batchIntervalMicros;
+
+    @NotNull
+    private final InterruptReports reports;
+
+    @NotNull
+    private final StreamTimingStats timingStats;
+
+    private long nativeObject;
+
+    /**
+     * Creates a poller with a ring sized to cover {@value #DEFAULT_ARMED_MICROS} microseconds of the endpoint's polling
+     * interval.
+     *
+     * @param connection          {@link BaseUsbDeviceConnection} to the device owning the endpoint.
+     * @param endpoint            {@link BaseUsbEndpoint} The interrupt IN endpoint to poll.
+     * @param batchReports        {@code int} The maximum number of reports per batch.
+     * @param batchIntervalMicros {@code long} The maximum age of a batch in microseconds, 0 to batch by count only.
+     * @param callback            {@link InterruptReportCallback} to deliver batches to.
+     */
+    public InterruptPoller(@NotNull BaseUsbDeviceConnection connection, @NotNull BaseUsbEndpoint endpoint,
+                           int batchReports, long batchIntervalMicros, @NotNull InterruptReportCallback callback) {
+        this(connection, endpoint, defaultRingSize(endpoint, connection.getDevice().getDeviceSpeed()), batchReports,
+            batchIntervalMicros, callback);
+    }
+
+    /**
+     * @param connection          {@link BaseUsbDeviceConnection} to the device owning the endpoint.
+     * @param endpoint            {@link BaseUsbEndpoint} The interrupt IN endpoint to poll.
+     * @param ringSize            {@code int} The number of transfers kept armed on the endpoint.
+     * @param batchReports        {@code int} The maximum number of reports per batch.
+     * @param batchIntervalMicros {@code long} The maximum age of a batch in microseconds, 0 to batch by count only.
+     * @param callback            {@link InterruptReportCallback} to deliver batches to.
+     */
+    public InterruptPoller(@NotNull BaseUsbDeviceConnection connection, @NotNull BaseUsbEndpoint endpoint,
+                           int ringSize, int batchReports, long batchIntervalMicros,
+                           @NotNull InterruptReportCallback callback) {
+        Preconditions.checkArgument(endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_INT
+                                    && endpoint.getDirection() == UsbConstants.USB_DIR_IN,
+            "Endpoint %s is not an interrupt IN endpoint.", endpoint);
+        Preconditions.checkArgument(ringSize > 0, "Ring size must be positive.");
+        Preconditions.checkArgument(batchReports > 0, "Batch size must be positive.");
+        Preconditions.checkArgument(batchIntervalMicros >= 0, "Batch interval must not be negative.");
+        this.connection = connection;
+        this.endpoint = endpoint;
+        this.callback = callback;
+        this.ringSize = ringSize;
+        this.batchReports = batchReports;
+        this.batchIntervalMicros = batchIntervalMicros;
+        reports = new InterruptReports(endpoint.getMaxPacketSize(), batchReports);
+        timingStats = new StreamTimingStats(
+            getPollingPeriodMicros(endpoint, connection.getDevice().getDeviceSpeed()) * 1000);
+    }
+
+    /**
+     * Returns the interval at which the host controller polls the endpoint.
+     *
+     * @param endpoint {@link BaseUsbEndpoint} The interrupt endpoint.
+     * @param speed    {@link LibusbSpeed} The speed the device is operating at.
+     *
+     * @return {@code long} The polling period in microseconds.
+     */
+    public static long getPollingPeriodMicros(@NotNull BaseUsbEndpoint endpoint, @NotNull LibusbSpeed speed) {
+        final int interval = endpoint.getInterval();
+        switch (speed) {
+            case LIBUSB_SPEED_HIGH:
+            case LIBUSB_SPEED_SUPER:
+                // bInterval is an exponent of 125us microframes
+                return 125L << (Math.min(Math.max(interval, 1), 16) - 1);
+            default:
+                // bInterval is in 1ms frames
+                return 1000L * Math.max(interval, 1);
+        }
+    }
+
+    private static int defaultRingSize(@NotNull BaseUsbEndpoint endpoint, @NotNull LibusbSpeed speed) {
+        final long period = getPollingPeriodMicros(endpoint, speed);
+        final long size = (DEFAULT_ARMED_MICROS + period - 1) / period;
+        return (int) Math.min(MAX_RING_SIZE, Math.max(MIN_RING_SIZE, size));
+    }
+
+    /**
+     * @return {@code int} The number of transfers kept armed on the endpoint.
+     */
+    public int getRingSize() {
+        return ringSize;
+    }
+
+    /**
+     * Returns the timing of the reports received, measured by their native completion timestamps. Missed intervals are
+     * only meaningful for devices which report on every poll, an endpoint which reports on change is idle in between.
+     *
+     * @return {@link StreamTimingStats} of the poller.
+     */
+    @NotNull
+    public StreamTimingStats getTimingStats() {
+        return timingStats;
+    }
+
+    /**
+     * Arms the ring and starts delivering batches.
+     *
+     * @throws IOException if the poller is already running or no transfer could be submitted.
+     */
+    public synchronized void start() throws IOException {
+        if (nativeObject != 0) {
+            throw new IOException("Interrupt poller is already running.");
+        }
+        connection.startAsyncIfNeeded();
+        nativeObject = nativeStart(connection.getDevice().getNativeObject(), endpoint.getAddress(),
+            endpoint.getMaxPacketSize(), ringSize, reports.getBatchBuffer(), batchReports, batchIntervalMicros * 1000);
+        if (nativeObject == 0) {
+            throw new IOException("Failed to start polling endpoint " + endpoint);
+        }
+    }
+
+    /**
+     * Cancels the armed transfers. Any partial batch is delivered, followed by
+     * {@link InterruptReportCallback#onInterruptPollerStopped(int)}, once every transfer has been retired.
+     */
+    public synchronized void stop() {
+        if (nativeObject != 0) {
+            nativeStop(nativeObject);
+        }
+    }
+
+    /**
+     * @return {@code true} if the poller has been started and has not yet reported that it stopped.
+     */
+    public synchronized boolean isRunning() {
+        return nativeObject != 0;
+    }
+
+    /**
+     * Called from native with the number of reports written to the batch buffer.
+     */
+    @SuppressWarnings("unused")
+    void onBatch(int count) {
+        reports.setCount(count);
+        for (int i = 0; i < count; ++i) {
+            timingStats.recordCompletion(reports.getTimestampNanos(i), 1, 0);
+        }
+        try {
+            callback.onInterruptReports(reports);
+        } catch (Exception e) {
+            // Never let a callback exception propagate into the libusb event loop
+            Arbor.e(e, "Interrupt report callback threw an exception.");
+        }
+    }
+
+    /**
+     * Called from native once the last transfer has been retired. The native poller is released when this returns.
+     */
+    @SuppressWarnings("unused")
+    void onStopped(int result) {
+        synchronized (this) {
+            nativeObject = 0;
+        }
+        try {
+            callback.onInterruptPollerStopped(result);
+        } catch (Exception e) {
+            Arbor.e(e, "Interrupt report callback threw an exception.");
+        }
+    }
+
+    private native long nativeStart(long device, int endpoint, int reportSize, int transferCount,
+                                    @NotNull ByteBuffer batchBuffer, int batchReports,
+                                    long batchIntervalNanos);
+
+    private native void nativeStop(long nativeObject);
+}
@@ -0,0 +1,112 @@
+package com.jwoolston.libusb;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A batch of reports received by an {@link InterruptPoller}. Reports are stored back to back in a single direct buffer
+ * written by native code, each behind a header carrying its completion timestamp and length, so a batch is delivered
+ * without allocating anything per report.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class InterruptReports {
+
+    static final int RECORD_HEADER_SIZE = 16;
+
+    private static final int LENGTH_OFFSET = 8;
+
+    @NotNull
+    private final ByteBuffer batch;
+
+    private final int recordStride;
+
+    private int count;
+
+    InterruptReports(int reportSize, int capacity) {
+        recordStride = recordStride(reportSize);
+        batch = ByteBuffer.allocateDirect(recordStride * capacity).order(ByteOrder.nativeOrder());
+    }
+
+    static int recordStride(int reportSize) {
+        return RECORD_HEADER_SIZE + ((reportSize + 7) & ~7);
+    }
+
+    @NotNull
+    ByteBuffer getBatchBuffer() {
+        return batch;
+    }
+
+    void setCount(int count) {
+        this.count = count;
+    }
+
+    /**
+     * @return {@code int} The number of reports in this batch.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the time the report's transfer completed, taken from {@code CLOCK_MONOTONIC} in the event thread's
+     * completion callback. On Linux and Android this is the clock behind {@link System#nanoTime()}.
+     *
+     * @param index {@code int} The index of the report within this batch.
+     *
+     * @return {@code long} The completion time in nanoseconds.
+     */
+    public long getTimestampNanos(int index) {
+        return batch.getLong(recordOffset(index));
+    }
+
+    /**
+     * @param index {@code int} The index of the report within this batch.
+     *
+     * @return {@code int} The length of the report in bytes.
+     */
+    public int getLength(int index) {
+        return batch.getInt(recordOffset(index) + LENGTH_OFFSET);
+    }
+
+    /**
+     * Returns a view of the report's data. The view is only valid until the batch callback returns.
+     *
+     * @param index {@code int} The index of the report within this batch.
+     *
+     * @return {@link ByteBuffer} positioned at the start of the report and limited to its length.
+     */
+    @NotNull
+    public ByteBuffer getReport(int index) {
+        final int start = recordOffset(index) + RECORD_HEADER_SIZE;
+        final ByteBuffer view = batch.duplicate();
+        view.limit(start + getLength(index)).position(start);
+        return view.slice();
+    }
+
+    /**
+     * Copies the report's data into the provided array.
+     *
+     * @param index  {@code int} The index of the report within this batch.
+     * @param dst    {@code byte[]} The destination array.
+     * @param offset {@code int} The offset in {@code dst} to copy to.
+     *
+     * @return {@code int} The number of bytes copied.
+     */
+    public int copyReport(int index, @NotNull byte[] dst, int offset) {
+        final int length = getLength(index);
+        final ByteBuffer view = batch.duplicate();
+        view.position(recordOffset(index) + RECORD_HEADER_SIZE);
+        view.get(dst, offset, length);
+        return length;
+    }
+
+    private int recordOffset(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Report " + index + " of " + count);
+        }
+        return index * recordStride;
+    }
+}
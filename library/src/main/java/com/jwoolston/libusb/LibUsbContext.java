@@ -1,25 +1,260 @@
 package com.jwoolston.libusb;
 
 import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
+ * Wrapper around a native {@code libusb_context} and the thread which handles its events.
+ * <p>
+ * A context is either owned by a single {@link BaseUsbManager}, or is the process wide shared context returned by
+ * {@link #acquireShared()}. Contexts are reference counted: every manager using the shared context shares one libusb
+ * instance, one device scan and one event thread, and devices found by enumeration hold a reference to the context
+ * they came from. The context is only destroyed when the last user releases it.
+ *
  * @author Jared Woolston (Jared.Woolston@gmail.com)
  */
 public class LibUsbContext {
 
-    private final ByteBuffer nativeObject;
+    private static final Object sharedLock = new Object();
 
-    LibUsbContext(ByteBuffer nativeObject) {
-        Preconditions.checkNotNull(nativeObject, "LibUSB Initialization failed.");
-        this.nativeObject = nativeObject;
+    private static final long JOIN_POLL_MS = 100;
+
+    @Nullable
+    private static LibUsbContext sharedContext;
+
+    private final long nativeObject;
+
+    private final boolean shared;
+
+    // Guarded by sharedLock
+    private int references = 1;
+
+    // Guarded by this
+    private int eventLoopUsers;
+
+    // Written with this held
+    @Nullable
+    private volatile AsyncUSBThread eventThread;
+
+    private final Object retiredLock = new Object();
+
+    // Guarded by retiredLock
+    private final List<HotplugRegistration> retiredRegistrations = new ArrayList<>();
+
+    /**
+     * Creates a new context owned by the caller.
+     *
+     * @return The new {@link LibUsbContext}.
+     */
+    @NotNull
+    static LibUsbContext create() {
+        return new LibUsbContext(nativeInitialize(), false);
     }
 
+    /**
+     * Retrieves the process wide shared context, creating it if needed. Every call must be balanced by a call to
+     * {@link #release()}.
+     *
+     * @return The shared {@link LibUsbContext}.
+     */
     @NotNull
-    public ByteBuffer getNativeObject() {
+    static LibUsbContext acquireShared() {
+        synchronized (sharedLock) {
+            if (sharedContext == null) {
+                sharedContext = new LibUsbContext(nativeInitialize(), true);
+            } else {
+                ++sharedContext.references;
+            }
+            return sharedContext;
+        }
+    }
+
+    private LibUsbContext(long nativeObject, boolean shared) {
+        Preconditions.checkArgument(nativeObject != 0, "LibUSB Initialization failed.");
+        this.nativeObject = nativeObject;
+        this.shared = shared;
+    }
+
+    /**
+     * @return {@code long} Pointer to the {@code libusb_context} instance in native.
+     */
+    public long getNativeObject() {
         return nativeObject;
     }
+
+    /**
+     * @return {@code true} if this is the process wide shared context.
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Adds a reference to this context, which must be balanced by a call to {@link #release()}.
+     */
+    void retain() {
+        synchronized (sharedLock) {
+            Preconditions.checkState(references > 0, "Context has already been destroyed.");
+            ++references;
+        }
+    }
+
+    /**
+     * Releases a reference to this context. The native context is destroyed once no references remain, after which
+     * it must not be used. Releasing a destroyed context is ignored rather than destroying it again.
+     */
+    void release() {
+        synchronized (sharedLock) {
+            if (references <= 0) {
+                Arbor.w("Ignoring release of a destroyed context.");
+                return;
+            }
+            if (--references > 0) {
+                return;
+            }
+            if (shared) {
+                sharedContext = null;
+            }
+        }
+        stopEventLoop();
+        nativeDestroy(nativeObject);
+    }
+
+    /**
+     * Registers a user of the event loop, starting the event thread if this is the first.
+     */
+    synchronized void acquireEventLoop() {
+        if (eventLoopUsers++ == 0) {
+            // A thread told to stop is kept if it is still in its loop. It is never joined here, as it may be running
+            // a callback which is waiting on the caller.
+            if (eventThread != null && eventThread.revive()) {
+                return;
+            }
+            Arbor.d("Starting async usb thread.");
+            eventThread = new AsyncUSBThread(this);
+            eventThread.start();
+        }
+    }
+
+    /**
+     * Removes a user of the event loop. When no users remain the event thread is told to stop. It is joined by
+     * {@link #awaitEventLoopStopped()}.
+     */
+    synchronized void releaseEventLoop() {
+        if (eventLoopUsers > 0 && --eventLoopUsers == 0 && eventThread != null) {
+            eventThread.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the event thread to exit if it has been told to stop. Returns early if the event loop is acquired
+     * again in the meantime. Must not be called with any lock held which a callback could need.
+     */
+    void awaitEventLoopStopped() {
+        final AsyncUSBThread thread;
+        synchronized (this) {
+            if (eventLoopUsers != 0 || eventThread == null || eventThread == Thread.currentThread()) {
+                return;
+            }
+            thread = eventThread;
+        }
+        joinEventThread(thread);
+    }
+
+    private void stopEventLoop() {
+        final AsyncUSBThread thread;
+        synchronized (this) {
+            eventLoopUsers = 0;
+            thread = eventThread;
+            if (thread != null) {
+                thread.shutdown();
+            }
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            joinEventThread(thread);
+        }
+    }
+
+    private void joinEventThread(@NotNull AsyncUSBThread thread) {
+        try {
+            while (thread.isAlive()) {
+                thread.join(JOIN_POLL_MS);
+                synchronized (this) {
+                    if (eventLoopUsers != 0) {
+                        // Revived by acquireEventLoop()
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        synchronized (this) {
+            if (eventThread == thread) {
+                eventThread = null;
+            }
+        }
+        freeRetiredRegistrations();
+    }
+
+    /**
+     * Frees a deregistered hotplug callback once libusb can no longer be running it. libusb does not wait for a
+     * callback in progress when deregistering, and callbacks only run inside {@code libusb_handle_events} on the event
+     * thread, so the native holder is kept until that thread finishes its current pass. It is freed straight away
+     * when no event thread is running.
+     *
+     * @param registration {@link HotplugRegistration} which has been deregistered from libusb.
+     */
+    void retireRegistration(@NotNull HotplugRegistration registration) {
+        synchronized (retiredLock) {
+            final AsyncUSBThread thread = eventThread;
+            if (thread != null && thread.isAlive()) {
+                retiredRegistrations.add(registration);
+                return;
+            }
+        }
+        registration.free();
+    }
+
+    /**
+     * Frees the registrations retired before the event thread's last pass. Called from the event thread between
+     * passes and once it has stopped.
+     */
+    void freeRetiredRegistrations() {
+        final List<HotplugRegistration> retired;
+        synchronized (retiredLock) {
+            if (retiredRegistrations.isEmpty()) {
+                return;
+            }
+            retired = new ArrayList<>(retiredRegistrations);
+            retiredRegistrations.clear();
+        }
+        for (HotplugRegistration registration : retired) {
+            registration.free();
+        }
+    }
+
+    /**
+     * Disables device discovery for every context created afterwards. See
+     * {@link BaseUsbManager#disableDeviceDiscovery()}.
+     *
+     * @return {@link LibusbError} The result of setting the option.
+     */
+    @NotNull
+    static LibusbError disableDeviceDiscovery() {
+        return LibusbError.fromNative(nativeDisableDeviceDiscovery());
+    }
+
+    private static native long nativeInitialize();
+
+    private static native int nativeDisableDeviceDiscovery();
+
+    private static native void nativeDestroy(long context);
 }
@@ -5,16 +5,34 @@ import com.jwoolston.libusb.util.Preconditions;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.nio.ByteBuffer;
-
 /**
+ * Snapshot of a USB device descriptor. The 18 byte descriptor is copied out of libusb's cache with a single native
+ * call and all fields are decoded in Java, so instances hold no native memory and need no cleanup.
+ *
  * @author Jared Woolston (Jared.Woolston@gmail.com)
  */
 public class LibUsbDeviceDescriptor {
 
-    private final ByteBuffer nativeObject;
-
-    private boolean isValid = true;
+    /**
+     * Size in bytes of a standard USB device descriptor.
+     */
+    public static final int DESCRIPTOR_SIZE = 18;
+
+    private static final int INDEX_DESCRIPTOR_TYPE = 1;
+    private static final int INDEX_USB_VERSION = 2;
+    private static final int INDEX_DEVICE_CLASS = 4;
+    private static final int INDEX_DEVICE_SUBCLASS = 5;
+    private static final int INDEX_DEVICE_PROTOCOL = 6;
+    private static final int INDEX_MAX_PACKET_SIZE_0 = 7;
+    private static final int INDEX_VENDOR_ID = 8;
+    private static final int INDEX_PRODUCT_ID = 10;
+    private static final int INDEX_DEVICE_VERSION = 12;
+    private static final int INDEX_MANUFACTURER_STRING_INDEX = 14;
+    private static final int INDEX_PRODUCT_STRING_INDEX = 15;
+    private static final int INDEX_SERIAL_STRING_INDEX = 16;
+    private static final int INDEX_NUM_CONFIGURATIONS = 17;
+
+    private final byte[] raw;
 
     @NotNull
     static LibUsbDeviceDescriptor getDeviceDescriptor(@NotNull BaseUsbDevice device) {
@@ -26,68 +44,106 @@ public class LibUsbDeviceDescriptor {
         return new LibUsbDeviceDescriptor(nativeGetDeviceDescriptorFromDevice(nativePointer));
     }
 
-    private LibUsbDeviceDescriptor(ByteBuffer nativeObject) {
-        Preconditions.checkNotNull(nativeObject, "LibUsbDeviceDescriptor Initialization failed.");
-        this.nativeObject = nativeObject;
+    /**
+     * Creates a descriptor snapshot from raw descriptor bytes, for example those returned by
+     * {@link #getRawDescriptor()} or read from a usbfs device node.
+     *
+     * @param raw {@code byte[]} The raw device descriptor. Only the first {@link #DESCRIPTOR_SIZE} bytes are used.
+     *
+     * @return The decoded {@link LibUsbDeviceDescriptor}.
+     */
+    @NotNull
+    public static LibUsbDeviceDescriptor fromRawDescriptor(@NotNull byte[] raw) {
+        return new LibUsbDeviceDescriptor(raw);
     }
 
+    private LibUsbDeviceDescriptor(@Nullable byte[] raw) {
+        Preconditions.checkNotNull(raw, "LibUsbDeviceDescriptor Initialization failed.");
+        Preconditions.checkArgument(raw.length >= DESCRIPTOR_SIZE
+                                    && raw[INDEX_DESCRIPTOR_TYPE] == UsbConstants.USB_DT_DEVICE,
+            "Invalid device descriptor.");
+        this.raw = raw.length == DESCRIPTOR_SIZE ? raw : copyOf(raw);
+    }
+
+    /**
+     * @return {@code byte[]} A copy of the raw 18 byte device descriptor.
+     */
     @NotNull
-    ByteBuffer getNativeObject() {
-        if (isValid) {
-            return nativeObject;
-        } else {
-            throw new IllegalStateException("Descriptor is no longer valid.");
-        }
+    public byte[] getRawDescriptor() {
+        return copyOf(raw);
     }
 
-    public void destroy() {
-        nativeDestroy(nativeObject);
-        isValid = false;
+    /**
+     * @return The bcdUSB field. 0x0200 indicates USB 2.0, 0x0110 indicates USB 1.1, etc.
+     */
+    public int getUsbVersion() {
+        return readShort(INDEX_USB_VERSION);
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        if (isValid) {
-            destroy();
-        }
-        super.finalize();
+    public int getDeviceClass() {
+        return 0xFF & raw[INDEX_DEVICE_CLASS];
     }
 
-    public int getVendorId() {
-        return nativeGetVendorId(getNativeObject());
+    public int getDeviceSubclass() {
+        return 0xFF & raw[INDEX_DEVICE_SUBCLASS];
     }
 
-    public int getProductId() {
-        return nativeGetProductId(getNativeObject());
+    public int getDeviceProtocol() {
+        return 0xFF & raw[INDEX_DEVICE_PROTOCOL];
     }
 
-    public int getDeviceClass() {
-        return nativeGetDeviceClass(getNativeObject());
+    /**
+     * @return The maximum packet size for endpoint zero.
+     */
+    public int getMaxPacketSize0() {
+        return 0xFF & raw[INDEX_MAX_PACKET_SIZE_0];
     }
 
-    public int getDeviceSubclass() {
-        return nativeGetDeviceSubclass(getNativeObject());
+    public int getVendorId() {
+        return readShort(INDEX_VENDOR_ID);
     }
 
-    public int getDeviceProtocol() {
-        return nativeGetDeviceProtocol(getNativeObject());
+    public int getProductId() {
+        return readShort(INDEX_PRODUCT_ID);
     }
 
-    @Nullable
-    private static native ByteBuffer nativeGetDeviceDescriptorFromHandle(@NotNull ByteBuffer device);
+    /**
+     * @return The bcdDevice field, the device release number in binary coded decimal.
+     */
+    public int getDeviceVersion() {
+        return readShort(INDEX_DEVICE_VERSION);
+    }
 
-    @Nullable
-    private static native ByteBuffer nativeGetDeviceDescriptorFromDevice(long nativePointer);
+    public int getManufacturerStringIndex() {
+        return 0xFF & raw[INDEX_MANUFACTURER_STRING_INDEX];
+    }
+
+    public int getProductStringIndex() {
+        return 0xFF & raw[INDEX_PRODUCT_STRING_INDEX];
+    }
 
-    private static native void nativeDestroy(@NotNull ByteBuffer descriptor);
+    public int getSerialNumberStringIndex() {
+        return 0xFF & raw[INDEX_SERIAL_STRING_INDEX];
+    }
 
-    private static native int nativeGetVendorId(@NotNull ByteBuffer descriptor);
+    public int getNumConfigurations() {
+        return 0xFF & raw[INDEX_NUM_CONFIGURATIONS];
+    }
 
-    private static native int nativeGetProductId(@NotNull ByteBuffer descriptor);
+    private int readShort(int index) {
+        return (0xFF & raw[index]) | ((0xFF & raw[index + 1]) << 8);
+    }
 
-    private static native int nativeGetDeviceClass(@NotNull ByteBuffer descriptor);
+    @NotNull
+    private static byte[] copyOf(@NotNull byte[] source) {
+        final byte[] copy = new byte[DESCRIPTOR_SIZE];
+        System.arraycopy(source, 0, copy, 0, DESCRIPTOR_SIZE);
+        return copy;
+    }
 
-    private static native int nativeGetDeviceSubclass(@NotNull ByteBuffer descriptor);
+    @Nullable
+    private static native byte[] nativeGetDeviceDescriptorFromHandle(long device);
 
-    private static native int nativeGetDeviceProtocol(@NotNull ByteBuffer descriptor);
+    @Nullable
+    private static native byte[] nativeGetDeviceDescriptorFromDevice(long nativePointer);
 }
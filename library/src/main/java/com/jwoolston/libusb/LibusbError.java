@@ -57,6 +57,13 @@ public enum LibusbError {
         this.code = code;
     }
 
+    /**
+     * @return {@code int} The native libusb error code.
+     */
+    public int getCode() {
+        return code;
+    }
+
     @Override
     public String toString() {
         return getDescriptionString(code);
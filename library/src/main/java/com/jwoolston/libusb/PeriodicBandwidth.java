@@ -0,0 +1,83 @@
+package com.jwoolston.libusb;
+
+import com.jwoolston.libusb.async.IsochronousStreamConfig;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the isochronous streams reserved on each bus against the share of bus time the USB specifications allow for
+ * periodic transfers: 90% of a 1ms full speed frame, 80% of a 125us high speed microframe and 90% of a SuperSpeed bus
+ * interval. Every stream is charged its full load in every bus interval, even if its service interval is longer, so the
+ * accounting errs towards rejecting a stream the host controller could have scheduled rather than admitting one it
+ * cannot. Streams are accounted per bus and speed, which also pools full speed devices behind different transaction
+ * translators.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+final class PeriodicBandwidth {
+
+    private static final int FULL_SPEED_BUDGET = 1500 * 90 / 100;
+    private static final int HIGH_SPEED_BUDGET = 7500 * 80 / 100;
+    private static final int SUPER_SPEED_BUDGET = 62500 * 90 / 100;
+
+    private final Map<String, Integer> reserved = new HashMap<>();
+
+    static int getBudget(@NotNull LibusbSpeed speed) {
+        switch (speed) {
+            case LIBUSB_SPEED_FULL:
+                return FULL_SPEED_BUDGET;
+            case LIBUSB_SPEED_HIGH:
+                return HIGH_SPEED_BUDGET;
+            case LIBUSB_SPEED_SUPER:
+                return SUPER_SPEED_BUDGET;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Charges a stream against its bus.
+     *
+     * @throws IOException if the stream does not fit in what remains of the bus's periodic budget.
+     */
+    synchronized void reserve(int busNumber, @NotNull IsochronousStreamConfig config) throws IOException {
+        final String key = key(busNumber, config.getSpeed());
+        final int budget = getBudget(config.getSpeed());
+        final int current = getReserved(key);
+        final int load = config.getBusIntervalLoad();
+        if (current + load > budget) {
+            throw new IOException("Isochronous stream " + config + " needs " + load
+                                  + " bytes per bus interval but only " + Math.max(0, budget - current) + " of "
+                                  + budget + " remain on bus " + busNumber);
+        }
+        reserved.put(key, current + load);
+    }
+
+    synchronized void release(int busNumber, @NotNull IsochronousStreamConfig config) {
+        final String key = key(busNumber, config.getSpeed());
+        final int remaining = getReserved(key) - config.getBusIntervalLoad();
+        if (remaining > 0) {
+            reserved.put(key, remaining);
+        } else {
+            reserved.remove(key);
+        }
+    }
+
+    synchronized int getReserved(int busNumber, @NotNull LibusbSpeed speed) {
+        return getReserved(key(busNumber, speed));
+    }
+
+    private int getReserved(@NotNull String key) {
+        final Integer current = reserved.get(key);
+        return current != null ? current : 0;
+    }
+
+    @NotNull
+    private static String key(int busNumber, @NotNull LibusbSpeed speed) {
+        return busNumber + ":" + speed.code;
+    }
+}
@@ -0,0 +1,297 @@
+package com.jwoolston.libusb;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timing of the completions on a streaming endpoint, recorded on the libusb event thread as each completion is handled.
+ * The interval between consecutive completions is kept in a histogram and compared with the interval the endpoint's
+ * descriptor promises; every whole service interval a completion arrives late by is counted as missed. A steady
+ * stream shows a narrow histogram around its expected interval, while a starved event thread shows up as a spread of
+ * long intervals followed by short ones as the backlog is drained.
+ * <p>
+ * Counters are plain longs written by a single thread and published with ordered stores, so recording costs no more
+ * than a few memory writes and a {@link #snapshot()} can be taken at any time without stopping the stream. A snapshot
+ * is not atomic across counters and may be one completion behind on some of them.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class StreamTimingStats {
+
+    /**
+     * Number of histogram buckets. Bucket 0 counts intervals under 1us, bucket {@code i} intervals from
+     * {@code 2^(i-1)} up to {@code 2^i} microseconds and the last bucket everything longer.
+     */
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    private static final int COMPLETIONS = 0;
+    private static final int PACKETS = 1;
+    private static final int PACKET_ERRORS = 2;
+    private static final int LATE_COMPLETIONS = 3;
+    private static final int MISSED_INTERVALS = 4;
+    private static final int INTERVAL_SUM = 5;
+    private static final int INTERVAL_MIN = 6;
+    private static final int INTERVAL_MAX = 7;
+    private static final int LAST_TIMESTAMP = 8;
+    private static final int HISTOGRAM = 9;
+    private static final int SIZE = HISTOGRAM + HISTOGRAM_BUCKETS;
+
+    private final long serviceIntervalNanos;
+
+    private final AtomicLongArray counters = new AtomicLongArray(SIZE);
+
+    /**
+     * @param serviceIntervalNanos {@code long} The interval at which the endpoint is serviced, each packet is expected
+     *                             to take one.
+     */
+    StreamTimingStats(long serviceIntervalNanos) {
+        this.serviceIntervalNanos = Math.max(1, serviceIntervalNanos);
+        counters.set(INTERVAL_MIN, Long.MAX_VALUE);
+    }
+
+    /**
+     * Records a completion. Must only be called from one thread at a time, normally the event thread.
+     *
+     * @param timestampNanos {@code long} The completion time on the {@link System#nanoTime()} or CLOCK_MONOTONIC
+     *                       clock.
+     * @param packets        {@code int} The number of service intervals the completion covers.
+     * @param packetErrors   {@code int} The number of those packets which failed.
+     */
+    void recordCompletion(long timestampNanos, int packets, int packetErrors) {
+        final long last = counters.get(LAST_TIMESTAMP);
+        counters.lazySet(LAST_TIMESTAMP, timestampNanos);
+        increment(COMPLETIONS, 1);
+        increment(PACKETS, packets);
+        if (packetErrors > 0) {
+            increment(PACKET_ERRORS, packetErrors);
+        }
+        if (last == 0) {
+            return;
+        }
+        final long interval = Math.max(0, timestampNanos - last);
+        increment(INTERVAL_SUM, interval);
+        if (interval < counters.get(INTERVAL_MIN)) {
+            counters.lazySet(INTERVAL_MIN, interval);
+        }
+        if (interval > counters.get(INTERVAL_MAX)) {
+            counters.lazySet(INTERVAL_MAX, interval);
+        }
+        increment(HISTOGRAM + bucket(interval / 1000), 1);
+
+        // Anything more than half a service interval beyond what the completion covers is a late arrival
+        final long late = interval - packets * serviceIntervalNanos;
+        final long missed = (late + serviceIntervalNanos / 2) / serviceIntervalNanos;
+        if (missed > 0) {
+            increment(LATE_COMPLETIONS, 1);
+            increment(MISSED_INTERVALS, missed);
+        }
+    }
+
+    private void increment(int index, long delta) {
+        counters.lazySet(index, counters.get(index) + delta);
+    }
+
+    private static int bucket(long micros) {
+        if (micros <= 0) {
+            return 0;
+        }
+        return Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @return {@code long} The service interval of the endpoint in nanoseconds.
+     */
+    public long getServiceIntervalNanos() {
+        return serviceIntervalNanos;
+    }
+
+    /**
+     * @return {@link Snapshot} of the counters as they are now.
+     */
+    @NotNull
+    public Snapshot snapshot() {
+        final long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+            histogram[i] = counters.get(HISTOGRAM + i);
+        }
+        final long min = counters.get(INTERVAL_MIN);
+        return new Snapshot(serviceIntervalNanos, counters.get(COMPLETIONS), counters.get(PACKETS),
+            counters.get(PACKET_ERRORS), counters.get(LATE_COMPLETIONS), counters.get(MISSED_INTERVALS),
+            counters.get(INTERVAL_SUM), min == Long.MAX_VALUE ? 0 : min, counters.get(INTERVAL_MAX), histogram);
+    }
+
+    /**
+     * A point in time copy of a stream's timing counters. Counters only ever grow, so the activity over a period is
+     * the difference of two snapshots, see {@link #since(Snapshot)}.
+     */
+    public static final class Snapshot {
+
+        private final long serviceIntervalNanos;
+        private final long completions;
+        private final long packets;
+        private final long packetErrors;
+        private final long lateCompletions;
+        private final long missedIntervals;
+        private final long intervalSumNanos;
+        private final long minIntervalNanos;
+        private final long maxIntervalNanos;
+
+        @NotNull
+        private final long[] histogram;
+
+        Snapshot(long serviceIntervalNanos, long completions, long packets, long packetErrors, long lateCompletions,
+                 long missedIntervals, long intervalSumNanos, long minIntervalNanos, long maxIntervalNanos,
+                 @NotNull long[] histogram) {
+            this.serviceIntervalNanos = serviceIntervalNanos;
+            this.completions = completions;
+            this.packets = packets;
+            this.packetErrors = packetErrors;
+            this.lateCompletions = lateCompletions;
+            this.missedIntervals = missedIntervals;
+            this.intervalSumNanos = intervalSumNanos;
+            this.minIntervalNanos = minIntervalNanos;
+            this.maxIntervalNanos = maxIntervalNanos;
+            this.histogram = histogram;
+        }
+
+        public long getCompletions() {
+            return completions;
+        }
+
+        public long getPackets() {
+            return packets;
+        }
+
+        public long getPacketErrors() {
+            return packetErrors;
+        }
+
+        /**
+         * @return {@code double} The fraction of packets which failed, 0 if none were recorded.
+         */
+        public double getPacketErrorRate() {
+            return packets == 0 ? 0 : (double) packetErrors / packets;
+        }
+
+        /**
+         * @return {@code long} The number of completions which arrived at least one service interval late.
+         */
+        public long getLateCompletions() {
+            return lateCompletions;
+        }
+
+        /**
+         * @return {@code long} The total number of service intervals completions arrived late by.
+         */
+        public long getMissedIntervals() {
+            return missedIntervals;
+        }
+
+        /**
+         * @return {@code long} The shortest interval between completions in nanoseconds, 0 if none were recorded.
+         * Only meaningful on a snapshot taken directly from the stream.
+         */
+        public long getMinIntervalNanos() {
+            return minIntervalNanos;
+        }
+
+        /**
+         * @return {@code long} The longest interval between completions in nanoseconds. Only meaningful on a
+         * snapshot taken directly from the stream.
+         */
+        public long getMaxIntervalNanos() {
+            return maxIntervalNanos;
+        }
+
+        /**
+         * @return {@code long} The mean interval between completions in nanoseconds, 0 if none were recorded.
+         */
+        public long getMeanIntervalNanos() {
+            final long intervals = getIntervalCount();
+            return intervals == 0 ? 0 : intervalSumNanos / intervals;
+        }
+
+        /**
+         * @return {@code long} The number of intervals in the histogram.
+         */
+        public long getIntervalCount() {
+            long count = 0;
+            for (long bucket : histogram) {
+                count += bucket;
+            }
+            return count;
+        }
+
+        /**
+         * @param bucket {@code int} The bucket index, below {@link #HISTOGRAM_BUCKETS}.
+         *
+         * @return {@code long} The number of intervals which fell into the bucket.
+         */
+        public long getHistogramCount(int bucket) {
+            return histogram[bucket];
+        }
+
+        /**
+         * @param bucket {@code int} The bucket index, below {@link #HISTOGRAM_BUCKETS}.
+         *
+         * @return {@code long} The exclusive upper bound of the bucket in microseconds, {@link Long#MAX_VALUE} for
+         * the last.
+         */
+        public static long getBucketUpperBoundMicros(int bucket) {
+            return bucket == HISTOGRAM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+        }
+
+        /**
+         * Estimates a percentile of the completion interval from the histogram.
+         *
+         * @param percentile {@code double} The percentile, between 0 and 100.
+         *
+         * @return {@code long} The upper bound in microseconds of the bucket holding the percentile, 0 if no intervals
+         * were recorded.
+         */
+        public long getIntervalPercentileMicros(double percentile) {
+            final long total = getIntervalCount();
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+            long seen = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) {
+                    return getBucketUpperBoundMicros(i);
+                }
+            }
+            return getBucketUpperBoundMicros(HISTOGRAM_BUCKETS - 1);
+        }
+
+        /**
+         * Returns the activity between an earlier snapshot of the same stream and this one. The minimum and maximum
+         * are carried over from this snapshot as they can not be separated by period.
+         *
+         * @param earlier {@link Snapshot} taken before this one.
+         *
+         * @return {@link Snapshot} of the difference.
+         */
+        @NotNull
+        public Snapshot since(@NotNull Snapshot earlier) {
+            final long[] difference = new long[HISTOGRAM_BUCKETS];
+            for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+                difference[i] = histogram[i] - earlier.histogram[i];
+            }
+            return new Snapshot(serviceIntervalNanos, completions - earlier.completions, packets - earlier.packets,
+                packetErrors - earlier.packetErrors, lateCompletions - earlier.lateCompletions,
+                missedIntervals - earlier.missedIntervals, intervalSumNanos - earlier.intervalSumNanos,
+                minIntervalNanos, maxIntervalNanos, difference);
+        }
+
+        @Override
+        public String toString() {
+            return "StreamTimingStats.Snapshot[completions=" + completions + ",packets=" + packets + ",packetErrors="
+                   + packetErrors + ",missedIntervals=" + missedIntervals + ",meanIntervalNanos="
+                   + getMeanIntervalNanos() + ",maxIntervalNanos=" + maxIntervalNanos + ",expectedIntervalNanos="
+                   + serviceIntervalNanos + "]";
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.jwoolston.libusb;
+
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the string descriptors of a single physical device, keyed by string index and LANGID. Every string
+ * descriptor costs a control transfer on the bus, so strings are fetched at most once and the cache is kept across
+ * reconnects of the same physical device (same vendor ID, product ID and serial number). Devices without a serial
+ * number can not be told apart from other units of the same model, so their strings are only kept for the lifetime
+ * of the device instance. Failed reads are not cached and are retried on the next lookup.
+ * <p>
+ * The LANGID used for lookups is negotiated on first use from the device's string descriptor zero. The default
+ * language ({@link #LANGID_ENGLISH_US}) is used when the device supports it, otherwise the first language the device
+ * reports.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class StringDescriptorCache {
+
+    /**
+     * LANGID for English (United States), the language virtually all devices provide.
+     */
+    public static final int LANGID_ENGLISH_US = 0x0409;
+
+    private static final int MAX_CACHED_DEVICES = 64;
+
+    private static final int INDEX_LENGTH = 0;
+    private static final int INDEX_DESCRIPTOR_TYPE = 1;
+    private static final int HEADER_SIZE = 2;
+
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    private static final Map<String, StringDescriptorCache> caches = new LinkedHashMap<String, StringDescriptorCache>(
+        16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, StringDescriptorCache> eldest) {
+            return size() > MAX_CACHED_DEVICES;
+        }
+    };
+
+    private final Map<Integer, String> strings = new HashMap<>();
+
+    @Nullable
+    private int[] languageIds;
+
+    private int languageId = -1;
+
+    /**
+     * Retrieves the cache for a physical device, registering {@code candidate} if this device has not been seen
+     * before.
+     *
+     * @param key       {@link String} key uniquely identifying the physical device.
+     * @param candidate {@link StringDescriptorCache} already holding the strings read to build the key.
+     *
+     * @return The {@link StringDescriptorCache} for the device.
+     */
+    @NotNull
+    static StringDescriptorCache forDevice(@NotNull String key, @NotNull StringDescriptorCache candidate) {
+        synchronized (caches) {
+            final StringDescriptorCache cache = caches.get(key);
+            if (cache != null) {
+                return cache;
+            }
+            caches.put(key, candidate);
+            return candidate;
+        }
+    }
+
+    /**
+     * Drops the cached strings of every device. Subsequent lookups will go to the bus again.
+     */
+    public static void clearAll() {
+        synchronized (caches) {
+            caches.clear();
+        }
+    }
+
+    StringDescriptorCache() {
+    }
+
+    /**
+     * Returns the LANGIDs supported by the device, fetching string descriptor zero if needed.
+     *
+     * @param device {@code long} Pointer to a {@code libusb_device_handle} instance in native.
+     *
+     * @return {@code int[]} The supported LANGIDs. Empty if the device does not provide string descriptors.
+     */
+    @NotNull
+    synchronized int[] getLanguageIds(long device) {
+        if (languageIds == null) {
+            final byte[][] raw = nativeGetRawStringDescriptors(device, new int[]{0}, 0);
+            final byte[] descriptor = (raw != null && raw.length > 0) ? raw[0] : null;
+            if (!isValid(descriptor)) {
+                Arbor.w("Device did not provide a LANGID list.");
+                return new int[0];
+            }
+            final int count = (length(descriptor) - HEADER_SIZE) / 2;
+            languageIds = new int[count];
+            for (int i = 0; i < count; ++i) {
+                final int offset = HEADER_SIZE + 2 * i;
+                languageIds[i] = (0xFF & descriptor[offset]) | ((0xFF & descriptor[offset + 1]) << 8);
+            }
+        }
+        return languageIds.clone();
+    }
+
+    /**
+     * Returns the LANGID used for string lookups which do not specify one.
+     *
+     * @param device {@code long} Pointer to a {@code libusb_device_handle} instance in native.
+     *
+     * @return {@code int} The negotiated LANGID.
+     */
+    synchronized int getLanguageId(long device) {
+        if (languageId < 0) {
+            final int[] supported = getLanguageIds(device);
+            if (supported.length == 0) {
+                // Not negotiated, so the LANGID list is requested again next time
+                return LANGID_ENGLISH_US;
+            }
+            languageId = supported[0];
+            for (int id : supported) {
+                if (id == LANGID_ENGLISH_US) {
+                    languageId = id;
+                    break;
+                }
+            }
+        }
+        return languageId;
+    }
+
+    /**
+     * Retrieves a string in the negotiated language, going to the device only if it has not been cached.
+     *
+     * @param device {@code long} Pointer to a {@code libusb_device_handle} instance in native.
+     * @param index  {@code int} The string index. A value of 0 will cause {@code null} to be returned.
+     *
+     * @return {@link String} The string or {@code null} if it is not present on the device.
+     */
+    @Nullable
+    String getString(long device, int index) {
+        return index > 0 ? getString(device, index, getLanguageId(device)) : null;
+    }
+
+    /**
+     * Retrieves a string in the given language, going to the device only if it has not been cached.
+     *
+     * @param device     {@code long} Pointer to a {@code libusb_device_handle} instance in native.
+     * @param index      {@code int} The string index. A value of 0 will cause {@code null} to be returned.
+     * @param languageId {@code int} The LANGID to request.
+     *
+     * @return {@link String} The string or {@code null} if it is not present on the device.
+     */
+    @Nullable
+    synchronized String getString(long device, int index, int languageId) {
+        if (index <= 0) {
+            return null;
+        }
+        final Integer key = key(index, languageId);
+        if (!strings.containsKey(key)) {
+            prefetch(device, new int[]{index}, languageId);
+        }
+        return strings.get(key);
+    }
+
+    /**
+     * Fetches all of the provided string indices which are not yet cached in a single native call.
+     *
+     * @param device  {@code long} Pointer to a {@code libusb_device_handle} instance in native.
+     * @param indices {@code int[]} The string indices to fetch. Zero and duplicate entries are ignored.
+     */
+    void prefetch(long device, @NotNull int[] indices) {
+        prefetch(device, indices, getLanguageId(device));
+    }
+
+    private synchronized void prefetch(long device, @NotNull int[] indices, int languageId) {
+        final List<Integer> missing = new ArrayList<>();
+        for (int index : indices) {
+            if (index > 0 && !missing.contains(index) && !strings.containsKey(key(index, languageId))) {
+                missing.add(index);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        final int[] request = new int[missing.size()];
+        for (int i = 0; i < request.length; ++i) {
+            request[i] = missing.get(i);
+        }
+        final byte[][] raw = nativeGetRawStringDescriptors(device, request, languageId);
+        for (int i = 0; i < request.length; ++i) {
+            final byte[] descriptor = (raw != null && i < raw.length) ? raw[i] : null;
+            if (isValid(descriptor)) {
+                strings.put(key(request[i], languageId),
+                    new String(descriptor, HEADER_SIZE, (length(descriptor) - HEADER_SIZE) & ~1, UTF_16LE));
+            }
+        }
+    }
+
+    private static boolean isValid(@Nullable byte[] descriptor) {
+        return descriptor != null && descriptor.length >= HEADER_SIZE
+               && (0xFF & descriptor[INDEX_LENGTH]) >= HEADER_SIZE
+               && (0xFF & descriptor[INDEX_DESCRIPTOR_TYPE]) == UsbConstants.USB_DT_STRING;
+    }
+
+    private static int length(@NotNull byte[] descriptor) {
+        return Math.min(descriptor.length, 0xFF & descriptor[INDEX_LENGTH]);
+    }
+
+    @NotNull
+    private static Integer key(int index, int languageId) {
+        return ((0xFFFF & languageId) << 8) | (0xFF & index);
+    }
+
+    /**
+     * Retrieves a number of string descriptors from the device in a single call.
+     *
+     * @param device     {@code long} Pointer to a {@code libusb_device_handle} instance in native.
+     * @param indices    {@code int[]} The string indices to retrieve.
+     * @param languageId {@code int} The LANGID to request.
+     *
+     * @return {@code byte[][]} The raw string descriptors in the order requested. Entries are {@code null} for any
+     * request which failed.
+     */
+    @Nullable
+    private static native byte[][] nativeGetRawStringDescriptors(long device, @NotNull int[] indices,
+                                                                 int languageId);
+}
@@ -0,0 +1,507 @@
+package com.jwoolston.libusb;
+
+import com.jwoolston.libusb.async.BulkTransferCallback;
+import com.jwoolston.libusb.async.ControlTransferCallback;
+import com.jwoolston.libusb.async.InterruptTransferCallback;
+import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Orders asynchronous transfers on a connection by priority class. Each class has a quota of transfers it may have in
+ * flight, and the connection as a whole has a limit. Requests wait in a queue per class, and whenever capacity frees
+ * up the highest priority class with a waiting request and spare quota submits next. A deep queue of low priority bulk
+ * transfers therefore never delays a high priority control or interrupt request by more than the completion of one
+ * transfer, and the bulk quota bounds how much of the host controller's schedule bulk traffic can occupy.
+ * <p>
+ * Requests are submitted to the connection later, possibly from the event thread, so submission failures are
+ * reported through the request's callback with a {@code null} buffer and the libusb error, just as transfers which
+ * fail once submitted are. Either way the request's slot is freed for the next one.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class TransferScheduler {
+
+    /**
+     * A priority class with its in flight quota. Higher priorities are served first.
+     */
+    public static final class PriorityClass {
+
+        @NotNull
+        private final String name;
+
+        private final int priority;
+
+        private final int maxInFlight;
+
+        /**
+         * @param name        {@link String} used in logs and {@link #toString()}.
+         * @param priority    {@code int} Classes with a higher value are served first.
+         * @param maxInFlight {@code int} The maximum number of transfers of this class in flight at once.
+         */
+        public PriorityClass(@NotNull String name, int priority, int maxInFlight) {
+            Preconditions.checkArgument(maxInFlight > 0, "In flight quota must be positive.");
+            this.name = name;
+            this.priority = priority;
+            this.maxInFlight = maxInFlight;
+        }
+
+        @NotNull
+        public String getName() {
+            return name;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        @Override
+        public String toString() {
+            return "PriorityClass{" + name + ", priority=" + priority + ", maxInFlight=" + maxInFlight + '}';
+        }
+    }
+
+    /**
+     * A snapshot of a priority class's queue and the time its requests spent waiting to be submitted.
+     */
+    public static final class Stats {
+
+        public final int queued;
+
+        public final int inFlight;
+
+        public final long submitted;
+
+        public final long totalWaitNanos;
+
+        public final long maxWaitNanos;
+
+        Stats(int queued, int inFlight, long submitted, long totalWaitNanos, long maxWaitNanos) {
+            this.queued = queued;
+            this.inFlight = inFlight;
+            this.submitted = submitted;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        /**
+         * @return {@code long} The mean time between a request being scheduled and submitted, in nanoseconds.
+         */
+        public long getMeanWaitNanos() {
+            return submitted > 0 ? totalWaitNanos / submitted : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{queued=" + queued + ", inFlight=" + inFlight + ", submitted=" + submitted
+                   + ", meanWaitNanos=" + getMeanWaitNanos() + ", maxWaitNanos=" + maxWaitNanos + '}';
+        }
+    }
+
+    /**
+     * The asynchronous submissions of a connection, separated out so the scheduling can be exercised without a device.
+     */
+    interface Transport {
+
+        int controlTransferAsync(@NotNull ControlTransferCallback callback, int requestType, int request, int value,
+                                 int index, byte[] buffer, int offset, int length, int timeout);
+
+        int bulkTransferAsync(@NotNull BulkTransferCallback callback, @NotNull BaseUsbEndpoint endpoint, byte[] buffer,
+                              int offset, int length, int timeout);
+
+        int interruptTransferAsync(@NotNull InterruptTransferCallback callback, @NotNull BaseUsbEndpoint endpoint,
+                                   byte[] buffer, int offset, int length, int timeout);
+    }
+
+    @NotNull
+    private final Transport transport;
+
+    private final int maxInFlight;
+
+    /**
+     * Class states ordered from highest to lowest priority.
+     */
+    @NotNull
+    private final ClassState[] states;
+
+    private final ConcurrentMap<Integer, PriorityClass> endpointClasses = new ConcurrentHashMap<>();
+
+    @NotNull
+    private volatile PriorityClass controlClass;
+
+    @NotNull
+    private volatile PriorityClass defaultClass;
+
+    private final Object lock = new Object();
+
+    private int totalInFlight;
+
+    /**
+     * Control transfers default to the highest priority class and endpoints which have not been
+     * {@link #assign(BaseUsbEndpoint, PriorityClass) assigned} to the lowest.
+     *
+     * @param connection  {@link BaseUsbDeviceConnection} to submit transfers on.
+     * @param maxInFlight {@code int} The maximum number of transfers in flight across all classes.
+     * @param classes     {@link PriorityClass} The classes requests can be scheduled in.
+     */
+    public TransferScheduler(@NotNull final BaseUsbDeviceConnection connection, int maxInFlight,
+                             @NotNull PriorityClass... classes) {
+        this(new Transport() {
+            @Override
+            public int controlTransferAsync(@NotNull ControlTransferCallback callback, int requestType, int request,
+                                            int value, int index, byte[] buffer, int offset, int length,
+                                            int timeout) {
+                return connection.controlTransferAsync(callback, requestType, request, value, index, buffer, offset,
+                    length, timeout);
+            }
+
+            @Override
+            public int bulkTransferAsync(@NotNull BulkTransferCallback callback, @NotNull BaseUsbEndpoint endpoint,
+                                         byte[] buffer, int offset, int length, int timeout) {
+                return connection.bulkTransferAsync(callback, endpoint, buffer, offset, length, timeout).getCode();
+            }
+
+            @Override
+            public int interruptTransferAsync(@NotNull InterruptTransferCallback callback,
+                                              @NotNull BaseUsbEndpoint endpoint, byte[] buffer, int offset,
+                                              int length, int timeout) {
+                return connection.interruptTransferAsync(callback, endpoint, buffer, offset, length, timeout);
+            }
+        }, maxInFlight, classes);
+    }
+
+    TransferScheduler(@NotNull Transport transport, int maxInFlight, @NotNull PriorityClass... classes) {
+        Preconditions.checkArgument(maxInFlight > 0, "In flight limit must be positive.");
+        Preconditions.checkArgument(classes.length > 0, "At least one priority class is required.");
+        this.transport = transport;
+        this.maxInFlight = maxInFlight;
+        final PriorityClass[] sorted = Arrays.copyOf(classes, classes.length);
+        Arrays.sort(sorted, new Comparator<PriorityClass>() {
+            @Override
+            public int compare(PriorityClass lhs, PriorityClass rhs) {
+                return Integer.compare(rhs.priority, lhs.priority);
+            }
+        });
+        states = new ClassState[sorted.length];
+        for (int i = 0; i < sorted.length; ++i) {
+            states[i] = new ClassState(sorted[i]);
+        }
+        controlClass = sorted[0];
+        defaultClass = sorted[sorted.length - 1];
+    }
+
+    /**
+     * Schedules transfers on an endpoint in the given class unless a request names its own.
+     *
+     * @param endpoint      {@link BaseUsbEndpoint} to assign.
+     * @param priorityClass {@link PriorityClass} one of the classes this scheduler was created with.
+     */
+    public void assign(@NotNull BaseUsbEndpoint endpoint, @NotNull PriorityClass priorityClass) {
+        stateFor(priorityClass);
+        endpointClasses.put(endpoint.getAddress(), priorityClass);
+    }
+
+    /**
+     * Schedules control transfers in the given class unless a request names its own.
+     *
+     * @param priorityClass {@link PriorityClass} one of the classes this scheduler was created with.
+     */
+    public void assignControl(@NotNull PriorityClass priorityClass) {
+        stateFor(priorityClass);
+        controlClass = priorityClass;
+    }
+
+    /**
+     * Schedules a control transfer in the class assigned to control transfers.
+     *
+     * @see BaseUsbDeviceConnection#controlTransferAsync(ControlTransferCallback, int, int, int, int, byte[], int, int,
+     * int)
+     */
+    public void controlTransfer(@NotNull ControlTransferCallback callback, int requestType, int request, int value,
+                                int index, byte[] buffer, int offset, int length, int timeout) {
+        controlTransfer(controlClass, callback, requestType, request, value, index, buffer, offset, length, timeout);
+    }
+
+    /**
+     * Schedules a control transfer in the given class.
+     *
+     * @see BaseUsbDeviceConnection#controlTransferAsync(ControlTransferCallback, int, int, int, int, byte[], int, int,
+     * int)
+     */
+    public void controlTransfer(@NotNull PriorityClass priorityClass, @NotNull ControlTransferCallback callback,
+                                int requestType, int request, int value, int index, byte[] buffer, int offset,
+                                int length, int timeout) {
+        final Request scheduled = new Request(stateFor(priorityClass), Request.CONTROL, callback, null, buffer, offset,
+            length, timeout);
+        scheduled.requestType = requestType;
+        scheduled.request = request;
+        scheduled.value = value;
+        scheduled.index = index;
+        enqueue(scheduled);
+    }
+
+    /**
+     * Schedules a bulk transfer in the class assigned to the endpoint.
+     *
+     * @see BaseUsbDeviceConnection#bulkTransferAsync(BulkTransferCallback, BaseUsbEndpoint, byte[], int, int, int)
+     */
+    public void bulkTransfer(@NotNull BulkTransferCallback callback, @NotNull BaseUsbEndpoint endpoint, byte[] buffer,
+                             int offset, int length, int timeout) {
+        bulkTransfer(classFor(endpoint), callback, endpoint, buffer, offset, length, timeout);
+    }
+
+    /**
+     * Schedules a bulk transfer in the given class.
+     *
+     * @see BaseUsbDeviceConnection#bulkTransferAsync(BulkTransferCallback, BaseUsbEndpoint, byte[], int, int, int)
+     */
+    public void bulkTransfer(@NotNull PriorityClass priorityClass, @NotNull BulkTransferCallback callback,
+                             @NotNull BaseUsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
+        enqueue(new Request(stateFor(priorityClass), Request.BULK, callback, endpoint, buffer, offset, length,
+            timeout));
+    }
+
+    /**
+     * Schedules an interrupt transfer in the class assigned to the endpoint.
+     *
+     * @see BaseUsbDeviceConnection#interruptTransferAsync(InterruptTransferCallback, BaseUsbEndpoint, byte[], int,
+     * int, int)
+     */
+    public void interruptTransfer(@NotNull InterruptTransferCallback callback, @NotNull BaseUsbEndpoint endpoint,
+                                  byte[] buffer, int offset, int length, int timeout) {
+        interruptTransfer(classFor(endpoint), callback, endpoint, buffer, offset, length, timeout);
+    }
+
+    /**
+     * Schedules an interrupt transfer in the given class.
+     *
+     * @see BaseUsbDeviceConnection#interruptTransferAsync(InterruptTransferCallback, BaseUsbEndpoint, byte[], int,
+     * int, int)
+     */
+    public void interruptTransfer(@NotNull PriorityClass priorityClass, @NotNull InterruptTransferCallback callback,
+                                  @NotNull BaseUsbEndpoint endpoint, byte[] buffer, int offset, int length,
+                                  int timeout) {
+        enqueue(new Request(stateFor(priorityClass), Request.INTERRUPT, callback, endpoint, buffer, offset, length,
+            timeout));
+    }
+
+    /**
+     * @param priorityClass {@link PriorityClass} one of the classes this scheduler was created with.
+     *
+     * @return {@link Stats} for the class at the time of the call.
+     */
+    @NotNull
+    public Stats getStats(@NotNull PriorityClass priorityClass) {
+        final ClassState state = stateFor(priorityClass);
+        synchronized (lock) {
+            return new Stats(state.queue.size(), state.inFlight, state.submitted, state.totalWaitNanos,
+                state.maxWaitNanos);
+        }
+    }
+
+    @NotNull
+    private PriorityClass classFor(@NotNull BaseUsbEndpoint endpoint) {
+        final PriorityClass assigned = endpointClasses.get(endpoint.getAddress());
+        return assigned != null ? assigned : defaultClass;
+    }
+
+    @NotNull
+    private ClassState stateFor(@NotNull PriorityClass priorityClass) {
+        for (ClassState state : states) {
+            if (state.priorityClass == priorityClass) {
+                return state;
+            }
+        }
+        throw new IllegalArgumentException(priorityClass + " is not a class of this scheduler.");
+    }
+
+    private void enqueue(@NotNull Request request) {
+        synchronized (lock) {
+            request.state.queue.add(request);
+        }
+        drain();
+    }
+
+    /**
+     * Submits requests while there is capacity, always taking the next one from the highest priority class which has
+     * both a waiting request and spare quota.
+     */
+    private void drain() {
+        Request next;
+        while ((next = poll()) != null) {
+            final int result = next.submit();
+            if (result < 0) {
+                onComplete(next);
+                next.complete(null, result);
+            }
+        }
+    }
+
+    @Nullable
+    private Request poll() {
+        synchronized (lock) {
+            if (totalInFlight >= maxInFlight) {
+                return null;
+            }
+            for (ClassState state : states) {
+                if (state.inFlight < state.priorityClass.maxInFlight && !state.queue.isEmpty()) {
+                    final Request request = state.queue.poll();
+                    final long wait = System.nanoTime() - request.scheduledNanos;
+                    ++state.inFlight;
+                    ++state.submitted;
+                    state.totalWaitNanos += wait;
+                    state.maxWaitNanos = Math.max(state.maxWaitNanos, wait);
+                    ++totalInFlight;
+                    return request;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void onComplete(@NotNull Request request) {
+        synchronized (lock) {
+            --request.state.inFlight;
+            --totalInFlight;
+        }
+    }
+
+    private static final class ClassState {
+
+        @NotNull
+        final PriorityClass priorityClass;
+
+        final ArrayDeque<Request> queue = new ArrayDeque<>();
+
+        int inFlight;
+
+        long submitted;
+
+        long totalWaitNanos;
+
+        long maxWaitNanos;
+
+        ClassState(@NotNull PriorityClass priorityClass) {
+            this.priorityClass = priorityClass;
+        }
+    }
+
+    /**
+     * A scheduled transfer. It stands in for the user's callback so the scheduler learns of completion first.
+     */
+    private final class Request implements ControlTransferCallback, BulkTransferCallback, InterruptTransferCallback {
+
+        static final int CONTROL = 0;
+        static final int BULK = 1;
+        static final int INTERRUPT = 2;
+
+        @NotNull
+        final ClassState state;
+
+        final int kind;
+
+        @NotNull
+        final Object callback;
+
+        @Nullable
+        final BaseUsbEndpoint endpoint;
+
+        final byte[] buffer;
+
+        final int offset;
+
+        final int length;
+
+        final int timeout;
+
+        final long scheduledNanos = System.nanoTime();
+
+        int requestType;
+
+        int request;
+
+        int value;
+
+        int index;
+
+        Request(@NotNull ClassState state, int kind, @NotNull Object callback, @Nullable BaseUsbEndpoint endpoint,
+                byte[] buffer, int offset, int length, int timeout) {
+            this.state = state;
+            this.kind = kind;
+            this.callback = callback;
+            this.endpoint = endpoint;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            this.timeout = timeout;
+        }
+
+        int submit() {
+            switch (kind) {
+                case CONTROL:
+                    return transport.controlTransferAsync(this, requestType, request, value, index, buffer, offset,
+                        length, timeout);
+                case BULK:
+                    return transport.bulkTransferAsync(this, endpoint, buffer, offset, length, timeout);
+                default:
+                    return transport.interruptTransferAsync(this, endpoint, buffer, offset, length, timeout);
+            }
+        }
+
+        void complete(@Nullable ByteBuffer data, int result) {
+            try {
+                switch (kind) {
+                    case CONTROL:
+                        ((ControlTransferCallback) callback).onControlTransferComplete(data, result);
+                        break;
+                    case BULK:
+                        ((BulkTransferCallback) callback).onBulkTransferComplete(data, result);
+                        break;
+                    default:
+                        ((InterruptTransferCallback) callback).onInterruptTransferComplete(data, result);
+                }
+            } catch (Exception e) {
+                // Must not stop the scheduler from draining, nor reach native code on the event thread
+                Arbor.e(e, "Transfer callback threw an exception.");
+            }
+        }
+
+        private void onTransferComplete(@Nullable ByteBuffer data, int result) {
+            onComplete(this);
+            try {
+                complete(data, result);
+            } finally {
+                // The slot this request held is free again whatever the callback did
+                drain();
+            }
+        }
+
+        @Override
+        public void onControlTransferComplete(@Nullable ByteBuffer data, int result) {
+            onTransferComplete(data, result);
+        }
+
+        @Override
+        public void onBulkTransferComplete(@Nullable ByteBuffer data, int result) {
+            onTransferComplete(data, result);
+        }
+
+        @Override
+        public void onInterruptTransferComplete(@Nullable ByteBuffer data, int result) {
+            onTransferComplete(data, result);
+        }
+    }
+}
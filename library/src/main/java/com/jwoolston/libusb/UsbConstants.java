@@ -179,4 +179,24 @@ public final class UsbConstants {
      * Vendor specific USB subclass.
      */
     public static final int USB_SUBCLASS_VENDOR_SPEC = 0xff;
+    /**
+     * Descriptor type for device descriptors.
+     */
+    public static final int USB_DT_DEVICE = 0x01;
+    /**
+     * Descriptor type for configuration descriptors.
+     */
+    public static final int USB_DT_CONFIG = 0x02;
+    /**
+     * Descriptor type for string descriptors.
+     */
+    public static final int USB_DT_STRING = 0x03;
+    /**
+     * Descriptor type for interface descriptors.
+     */
+    public static final int USB_DT_INTERFACE = 0x04;
+    /**
+     * Descriptor type for endpoint descriptors.
+     */
+    public static final int USB_DT_ENDPOINT = 0x05;
 }
\ No newline at end of file
@@ -3,9 +3,6 @@ package com.jwoolston.libusb.async;
 import com.jwoolston.libusb.BaseUsbEndpoint;
 
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
-
-import java.nio.ByteBuffer;
 
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
@@ -14,24 +11,23 @@ public abstract class AsyncTransfer {
 
     private final BaseUsbEndpoint endpoint;
 
-    private ByteBuffer nativeObject;
+    private long nativeObject;
 
     public AsyncTransfer(@NotNull BaseUsbEndpoint endpoint) {
         this.endpoint = endpoint;
     }
 
-    protected void setNativeObject(@Nullable ByteBuffer nativeObject) {
-        if (this.nativeObject != null) {
+    protected void setNativeObject(long nativeObject) {
+        if (this.nativeObject != 0) {
             throw new IllegalStateException("The native object may only be set once!");
         }
-        if (nativeObject == null) {
+        if (nativeObject == 0) {
             throw new IllegalArgumentException("The native object may not be null!");
         }
         this.nativeObject = nativeObject;
     }
 
-    @NotNull
-    public ByteBuffer getNativeObject() {
+    public long getNativeObject() {
         return nativeObject;
     }
 
@@ -42,9 +38,11 @@ public abstract class AsyncTransfer {
 
     @Override
     protected void finalize() throws Throwable {
-        nativeDestroy(nativeObject);
+        if (nativeObject != 0) {
+            nativeDestroy(nativeObject);
+        }
         super.finalize();
     }
 
-    private native void nativeDestroy(@NotNull ByteBuffer nativeObject);
+    private native void nativeDestroy(long nativeObject);
 }
@@ -10,5 +10,12 @@ import java.nio.ByteBuffer;
  */
 public interface BulkTransferCallback {
 
+    /**
+     * Called once the transfer has finished, including when it failed, timed out or was cancelled.
+     *
+     * @param data   {@link ByteBuffer} holding the data received by an IN transfer, or {@code null} for an OUT
+     *               transfer or one which failed.
+     * @param result {@code int} The transferred length or a negative libusb error code.
+     */
     void onBulkTransferComplete(@Nullable ByteBuffer data, int result) throws IOException;
 }
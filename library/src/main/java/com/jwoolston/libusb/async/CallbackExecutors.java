@@ -0,0 +1,61 @@
+package com.jwoolston.libusb.async;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executors for asynchronous transfer callbacks. Callbacks run inline on the libusb event thread unless a connection
+ * or endpoint is configured otherwise, in which case a slow callback only delays its own executor rather than every
+ * completion on the context.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class CallbackExecutors {
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Runs callbacks directly on the libusb event thread. This is the default and adds no latency, but the callback
+     * must return quickly.
+     */
+    public static final Executor INLINE = new Executor() {
+        @Override
+        public void execute(@NotNull Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public String toString() {
+            return "INLINE";
+        }
+    };
+
+    private CallbackExecutors() {
+    }
+
+    /**
+     * Creates an executor with a single dedicated thread. Callbacks are run in completion order.
+     *
+     * @param name {@link String} The name of the worker thread.
+     *
+     * @return The new {@link QueuedCallbackExecutor}.
+     */
+    @NotNull
+    public static QueuedCallbackExecutor singleThreaded(@NotNull String name) {
+        return new QueuedCallbackExecutor(name, 1, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates an executor with a pool of threads. Callbacks may run concurrently and out of completion order.
+     *
+     * @param name    {@link String} The prefix of the worker thread names.
+     * @param threads {@code int} The number of worker threads.
+     *
+     * @return The new {@link QueuedCallbackExecutor}.
+     */
+    @NotNull
+    public static QueuedCallbackExecutor pooled(@NotNull String name, int threads) {
+        return new QueuedCallbackExecutor(name, threads, DEFAULT_QUEUE_CAPACITY);
+    }
+}
@@ -0,0 +1,65 @@
+package com.jwoolston.libusb.async;
+
+/**
+ * Reactive Streams interfaces with the same shape and contract as {@code java.util.concurrent.Flow}, which is not
+ * available at the language level this library targets. On Java 9 and later an instance can be bridged to the JDK
+ * interfaces by forwarding each method one to one.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /**
+     * A producer of items which are delivered to a {@link Subscriber} only as it requests them.
+     *
+     * @param <T> The type of item published.
+     */
+    public interface Publisher<T> {
+
+        /**
+         * Adds the subscriber. {@link Subscriber#onSubscribe(Subscription)} is always called first, a publisher which
+         * refuses the subscription follows it with {@link Subscriber#onError(Throwable)}.
+         *
+         * @param subscriber {@link Subscriber} to deliver items to.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items. Calls to a subscriber are made serially but not necessarily from the same thread.
+     *
+     * @param <T> The type of item received.
+     */
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * The link between a {@link Publisher} and a {@link Subscriber} through which demand is signalled.
+     */
+    public interface Subscription {
+
+        /**
+         * Adds {@code n} items to the outstanding demand. A non positive {@code n} terminates the subscription with
+         * an {@link IllegalArgumentException}.
+         *
+         * @param n {@code long} The number of additional items wanted.
+         */
+        void request(long n);
+
+        /**
+         * Stops delivery. Items may still be delivered for a short time afterwards.
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,28 @@
+package com.jwoolston.libusb.async;
+
+import com.jwoolston.libusb.InterruptReports;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public interface InterruptReportCallback {
+
+    /**
+     * Called on the event thread with a batch of reports. The batch and its buffers are reused for the next batch once
+     * this returns.
+     *
+     * @param reports {@link InterruptReports} received since the previous batch.
+     */
+    void onInterruptReports(@NotNull InterruptReports reports) throws IOException;
+
+    /**
+     * Called once the poller has stopped and every transfer has been retired.
+     *
+     * @param result {@code int} 0 if the poller was stopped on request, otherwise the libusb error which stopped it.
+     */
+    void onInterruptPollerStopped(int result);
+}
@@ -5,7 +5,6 @@ import com.jwoolston.libusb.BaseUsbEndpoint;
 import com.jwoolston.libusb.LibusbError;
 
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -22,6 +21,22 @@ public class IsochronousAsyncTransfer extends AsyncTransfer {
     private final int                         packetCount;
     private final int                         packetSize;
 
+    /**
+     * Creates a transfer laid out by a stream configuration, typically one reserved with
+     * {@link BaseUsbDeviceConnection#reserveIsochronousStream(BaseUsbEndpoint, long)}.
+     *
+     * @param callback   {@link IsochronousTransferCallback} to notify of completions.
+     * @param connection {@link BaseUsbDeviceConnection} to the device owning the endpoint.
+     * @param config     {@link IsochronousStreamConfig} providing the endpoint, packet size and packet count.
+     *
+     * @throws IOException if the packets could not be set up.
+     */
+    public IsochronousAsyncTransfer(@NotNull IsochronousTransferCallback callback,
+                                    @NotNull BaseUsbDeviceConnection connection,
+                                    @NotNull IsochronousStreamConfig config) throws IOException {
+        this(callback, config.getEndpoint(), connection, config.getPacketSize(), config.getPacketsPerTransfer());
+    }
+
     public IsochronousAsyncTransfer(@NotNull IsochronousTransferCallback callback, @NotNull BaseUsbEndpoint endpoint,
                                     @NotNull BaseUsbDeviceConnection connection, int packetSize, int packetCount)
             throws IOException {
@@ -39,6 +54,66 @@ public class IsochronousAsyncTransfer extends AsyncTransfer {
         this.packetSize = packetSize;
     }
 
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    public int getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * Counts the packets of the last completed submission which did not complete successfully. Only valid from the
+     * completion callback, before the transfer is submitted again.
+     *
+     * @return {@code int} The number of failed packets.
+     */
+    public int getPacketErrorCount() {
+        return nativeCountPacketErrors(getNativeObject());
+    }
+
+    /**
+     * Reads the result of each packet of the last completed submission. Packet {@code i} starts at
+     * {@code i * getPacketSize()} in the transfer buffer, whatever the length of the packets before it. Only valid
+     * from the completion callback, before the transfer is submitted again.
+     *
+     * @param lengths {@code int[]} Receives the actual length of each packet, or a negative {@link LibusbError} code
+     *                for a packet which failed. Must hold at least {@link #getPacketCount()} entries.
+     *
+     * @return {@code int} The number of packets written.
+     */
+    public int getPacketLengths(@NotNull int[] lengths) {
+        if (lengths.length < packetCount) {
+            throw new IllegalArgumentException("Packet length array must hold " + packetCount + " entries.");
+        }
+        return nativeGetPacketLengths(getNativeObject(), lengths);
+    }
+
+    /**
+     * Sets the length of each packet for the next submission, for OUT streams whose packets vary in size. The packets
+     * are packed back to back in the transfer buffer, packet {@code i} starting at the sum of the lengths before it.
+     * Every length must be within {@link #getPacketSize()}.
+     *
+     * @param lengths {@code int[]} The length of each packet, {@link #getPacketCount()} entries are used.
+     *
+     * @return {@code int} The total length of the packets.
+     */
+    public int setPacketLengths(@NotNull int[] lengths) {
+        if (lengths.length < packetCount) {
+            throw new IllegalArgumentException("Packet length array must hold " + packetCount + " entries.");
+        }
+        int total = 0;
+        for (int i = 0; i < packetCount; ++i) {
+            if (lengths[i] < 0 || lengths[i] > packetSize) {
+                throw new IllegalArgumentException("Packet length " + lengths[i] + " exceeds the packet size "
+                                                   + packetSize);
+            }
+            total += lengths[i];
+        }
+        nativeSetPacketLengths(getNativeObject(), lengths);
+        return total;
+    }
+
     public void submit(@NotNull ByteBuffer buffer, int timeout) throws IllegalStateException {
         if (!buffer.isDirect()) {
             throw new IllegalArgumentException("ByteBuffers passed to this method must be direct allocations.");
@@ -57,10 +132,15 @@ public class IsochronousAsyncTransfer extends AsyncTransfer {
         }
     }
 
-    @Nullable
-    private native ByteBuffer nativeAllocate(int numberPackets);
+    private native long nativeAllocate(int numberPackets);
 
-    private native int nativeSetupPackets(@NotNull ByteBuffer nativeDevice, @NotNull ByteBuffer nativeObject,
+    private native int nativeSetupPackets(long nativeDevice, long nativeObject,
                                           int endpoint, int packetSize);
 
+    private native int nativeCountPacketErrors(long nativeObject);
+
+    private native int nativeGetPacketLengths(long nativeObject, @NotNull int[] lengths);
+
+    private native void nativeSetPacketLengths(long nativeObject, @NotNull int[] lengths);
+
 }
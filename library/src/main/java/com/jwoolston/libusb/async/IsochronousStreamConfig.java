@@ -0,0 +1,258 @@
+package com.jwoolston.libusb.async;
+
+import com.jwoolston.libusb.BaseUsbEndpoint;
+import com.jwoolston.libusb.LibusbSpeed;
+import com.jwoolston.libusb.UsbConstants;
+import com.jwoolston.libusb.util.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The packet layout of an isochronous stream, derived from the endpoint descriptor rather than guessed by the caller.
+ * Each isochronous packet carries one service interval of data, so the packet size is the most the endpoint may move
+ * in one interval: {@code wMaxPacketSize} for full speed, {@code wMaxPacketSize} times the additional transaction
+ * multiplier for high speed high bandwidth endpoints, and {@code wBytesPerInterval} from the endpoint companion
+ * descriptor for SuperSpeed. The number of packets per transfer is chosen so one transfer spans the requested latency.
+ * <p>
+ * A configuration only describes the stream, it is admitted against the bus's periodic budget with
+ * {@link com.jwoolston.libusb.BaseUsbDeviceConnection#reserveIsochronousStream(BaseUsbEndpoint, long)}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class IsochronousStreamConfig {
+
+    /**
+     * The most packets the Linux usbfs driver accepts in a single isochronous URB.
+     */
+    public static final int MAX_PACKETS_PER_TRANSFER = 128;
+
+    private static final int FRAME_MICROS = 1000;
+
+    private static final int MICROFRAME_MICROS = 125;
+
+    private static final int MAX_PACKET_SIZE_MASK = 0x07FF;
+
+    private static final int DT_SS_ENDPOINT_COMPANION = 0x30;
+
+    private static final int SS_ENDPOINT_COMPANION_LENGTH = 6;
+
+    /**
+     * Protocol overhead of a single isochronous transaction in bytes, as given by the USB 2.0 bus time formulas and
+     * approximated for SuperSpeed by the packet and data packet headers.
+     */
+    private static final int FULL_SPEED_OVERHEAD = 9;
+    private static final int HIGH_SPEED_OVERHEAD = 38;
+    private static final int SUPER_SPEED_OVERHEAD = 36;
+
+    @NotNull
+    private final BaseUsbEndpoint endpoint;
+
+    @NotNull
+    private final LibusbSpeed speed;
+
+    private final int packetSize;
+
+    private final int transactionsPerInterval;
+
+    private final long intervalMicros;
+
+    private final int packetsPerTransfer;
+
+    private IsochronousStreamConfig(@NotNull BaseUsbEndpoint endpoint, @NotNull LibusbSpeed speed, int packetSize,
+                                    int transactionsPerInterval, long intervalMicros, int packetsPerTransfer) {
+        this.endpoint = endpoint;
+        this.speed = speed;
+        this.packetSize = packetSize;
+        this.transactionsPerInterval = transactionsPerInterval;
+        this.intervalMicros = intervalMicros;
+        this.packetsPerTransfer = packetsPerTransfer;
+    }
+
+    /**
+     * Computes the stream layout for an isochronous endpoint.
+     *
+     * @param endpoint            {@link BaseUsbEndpoint} The isochronous endpoint, from the currently selected
+     *                            alternate setting.
+     * @param speed               {@link LibusbSpeed} The speed the device is operating at.
+     * @param targetLatencyMicros {@code long} The time one transfer should span in microseconds. It is rounded up to
+     *                            a whole number of service intervals and limited to
+     *                            {@value #MAX_PACKETS_PER_TRANSFER} packets.
+     *
+     * @return {@link IsochronousStreamConfig} The computed configuration.
+     */
+    @NotNull
+    public static IsochronousStreamConfig forEndpoint(@NotNull BaseUsbEndpoint endpoint, @NotNull LibusbSpeed speed,
+                                                      long targetLatencyMicros) {
+        Preconditions.checkArgument(endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_ISOC,
+            "Endpoint %s is not an isochronous endpoint.", endpoint);
+        Preconditions.checkArgument(targetLatencyMicros > 0, "Target latency must be positive.");
+
+        final int maxPacketSize = endpoint.getMaxPacketSize();
+        final int basePacketSize = maxPacketSize & MAX_PACKET_SIZE_MASK;
+        final int packetSize;
+        final int transactions;
+        switch (speed) {
+            case LIBUSB_SPEED_FULL:
+                packetSize = basePacketSize;
+                transactions = 1;
+                break;
+            case LIBUSB_SPEED_HIGH: {
+                final int additional = (maxPacketSize >> 11) & 0x03;
+                Preconditions.checkArgument(additional < 3,
+                    "Endpoint %s uses a reserved additional transaction count.", endpoint);
+                transactions = 1 + additional;
+                packetSize = basePacketSize * transactions;
+                break;
+            }
+            case LIBUSB_SPEED_SUPER: {
+                final ByteBuffer companion = findSuperSpeedCompanion(endpoint);
+                if (companion == null) {
+                    packetSize = basePacketSize;
+                    transactions = 1;
+                } else {
+                    final int maxBurst = 1 + (0xFF & companion.get(2));
+                    final int mult = 1 + (0x03 & companion.get(3));
+                    final int bytesPerInterval = 0xFFFF & companion.getShort(4);
+                    transactions = maxBurst * mult;
+                    packetSize = bytesPerInterval > 0 ? bytesPerInterval : basePacketSize * transactions;
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Isochronous transfers are not supported at " + speed);
+        }
+        Preconditions.checkArgument(packetSize > 0, "Endpoint %s has no isochronous bandwidth in this alternate "
+                                                    + "setting.", endpoint);
+
+        final long intervalMicros = getServiceIntervalMicros(endpoint, speed);
+        final long packets = (targetLatencyMicros + intervalMicros - 1) / intervalMicros;
+        final int packetsPerTransfer = (int) Math.min(MAX_PACKETS_PER_TRANSFER, Math.max(1, packets));
+        return new IsochronousStreamConfig(endpoint, speed, packetSize, transactions, intervalMicros,
+            packetsPerTransfer);
+    }
+
+    /**
+     * Returns the interval at which the host controller services an isochronous endpoint. Unlike interrupt endpoints,
+     * {@code bInterval} is an exponent at every speed.
+     *
+     * @param endpoint {@link BaseUsbEndpoint} The isochronous endpoint.
+     * @param speed    {@link LibusbSpeed} The speed the device is operating at.
+     *
+     * @return {@code long} The service interval in microseconds.
+     */
+    public static long getServiceIntervalMicros(@NotNull BaseUsbEndpoint endpoint, @NotNull LibusbSpeed speed) {
+        final int exponent = Math.min(Math.max(endpoint.getInterval(), 1), 16) - 1;
+        final long unit = speed == LibusbSpeed.LIBUSB_SPEED_HIGH || speed == LibusbSpeed.LIBUSB_SPEED_SUPER
+                          ? MICROFRAME_MICROS : FRAME_MICROS;
+        return unit << exponent;
+    }
+
+    @Nullable
+    private static ByteBuffer findSuperSpeedCompanion(@NotNull BaseUsbEndpoint endpoint) {
+        final ByteBuffer descriptors = endpoint.getClassSpecificDescriptors();
+        if (descriptors == null) {
+            return null;
+        }
+        int offset = descriptors.position();
+        while (offset + 2 <= descriptors.limit()) {
+            final int length = 0xFF & descriptors.get(offset);
+            if (length < 2 || offset + length > descriptors.limit()) {
+                return null;
+            }
+            if ((0xFF & descriptors.get(offset + 1)) == DT_SS_ENDPOINT_COMPANION
+                && length >= SS_ENDPOINT_COMPANION_LENGTH) {
+                descriptors.position(offset);
+                descriptors.limit(offset + length);
+                return descriptors.slice().order(descriptors.order());
+            }
+            offset += length;
+        }
+        return null;
+    }
+
+    @NotNull
+    public BaseUsbEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    @NotNull
+    public LibusbSpeed getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return {@code int} The size of each isochronous packet in bytes, one service interval's worth of data.
+     */
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    /**
+     * @return {@code int} The number of bus transactions the endpoint may use in each service interval.
+     */
+    public int getTransactionsPerInterval() {
+        return transactionsPerInterval;
+    }
+
+    /**
+     * @return {@code long} The endpoint's service interval in microseconds.
+     */
+    public long getIntervalMicros() {
+        return intervalMicros;
+    }
+
+    /**
+     * @return {@code int} The number of packets in each transfer.
+     */
+    public int getPacketsPerTransfer() {
+        return packetsPerTransfer;
+    }
+
+    /**
+     * @return {@code int} The buffer size each transfer needs in bytes.
+     */
+    public int getTransferSize() {
+        return packetSize * packetsPerTransfer;
+    }
+
+    /**
+     * @return {@code long} The time one transfer spans in microseconds.
+     */
+    public long getTransferLatencyMicros() {
+        return intervalMicros * packetsPerTransfer;
+    }
+
+    /**
+     * @return {@code long} The most data the stream can move per second.
+     */
+    public long getBytesPerSecond() {
+        return packetSize * 1000000L / intervalMicros;
+    }
+
+    /**
+     * Returns the bus time the stream occupies in each frame (full speed) or microframe (high speed and SuperSpeed) it
+     * is scheduled in, as bytes including protocol overhead. This is what is charged against the bus's periodic
+     * budget.
+     *
+     * @return {@code int} The periodic load in bytes per bus interval.
+     */
+    public int getBusIntervalLoad() {
+        switch (speed) {
+            case LIBUSB_SPEED_FULL:
+                return packetSize + FULL_SPEED_OVERHEAD;
+            case LIBUSB_SPEED_HIGH:
+                return packetSize + HIGH_SPEED_OVERHEAD * transactionsPerInterval;
+            default:
+                return packetSize + SUPER_SPEED_OVERHEAD * transactionsPerInterval;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IsochronousStreamConfig[endpoint=" + endpoint.getAddress() + ",speed=" + speed + ",packetSize="
+               + packetSize + ",packetsPerTransfer=" + packetsPerTransfer + ",intervalMicros=" + intervalMicros + "]";
+    }
+}
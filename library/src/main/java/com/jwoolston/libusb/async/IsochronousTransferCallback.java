@@ -10,5 +10,11 @@ import java.nio.ByteBuffer;
  */
 public interface IsochronousTransferCallback {
 
+    /**
+     * Called once the transfer has finished, including when it failed, so its buffer can be reused or released.
+     *
+     * @param data   {@link ByteBuffer} holding the transfer's packets.
+     * @param result {@code int} Non negative on success or a negative libusb error code.
+     */
     void onIsochronousTransferComplete(@Nullable ByteBuffer data, int result) throws IOException;
 }
@@ -0,0 +1,153 @@
+package com.jwoolston.libusb.async;
+
+import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands callbacks off from the libusb event thread to worker threads through a bounded array backed queue, which
+ * allocates nothing per task. If the queue is full the callback runs on the submitting thread instead, so a consumer
+ * which can not keep up slows the event thread rather than growing memory without bound.
+ * <p>
+ * The queue depth, its high water mark and the number of callbacks which had to run on the submitting thread are
+ * exposed for spotting slow consumers.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class QueuedCallbackExecutor implements Executor {
+
+    private static final long POLL_INTERVAL_MS = 100;
+
+    @NotNull
+    private final BlockingQueue<Runnable> queue;
+
+    @NotNull
+    private final Thread[] workers;
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    private final AtomicLong completedCount = new AtomicLong();
+
+    private final AtomicLong callerRunsCount = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param name     {@link String} The name of the worker threads. Threads are numbered when there is more than one.
+     * @param threads  {@code int} The number of worker threads.
+     * @param capacity {@code int} The maximum number of queued callbacks.
+     */
+    public QueuedCallbackExecutor(@NotNull String name, int threads, int capacity) {
+        Preconditions.checkArgument(threads > 0, "Thread count must be positive.");
+        Preconditions.checkArgument(capacity > 0, "Queue capacity must be positive.");
+        queue = new ArrayBlockingQueue<>(capacity);
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Thread(new Worker(), threads == 1 ? name : name + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    @Override
+    public void execute(@NotNull Runnable command) {
+        if (!running || !queue.offer(command)) {
+            callerRunsCount.incrementAndGet();
+            runSafely(command);
+            return;
+        }
+        final int depth = queue.size();
+        int max;
+        while (depth > (max = maxQueueDepth.get())) {
+            if (maxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads once the queued callbacks have run. Callbacks submitted afterwards run on the
+     * submitting thread.
+     */
+    public void shutdown() {
+        running = false;
+    }
+
+    /**
+     * @return {@code int} The number of callbacks currently waiting for a worker.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return {@code int} The deepest the queue has been since creation or the last {@link #resetMaxQueueDepth()}.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Resets the queue depth high water mark, for example at the start of each sampling period.
+     */
+    public void resetMaxQueueDepth() {
+        maxQueueDepth.set(0);
+    }
+
+    /**
+     * @return {@code int} The maximum number of queued callbacks.
+     */
+    public int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    /**
+     * @return {@code long} The number of callbacks run by the worker threads.
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * @return {@code long} The number of callbacks which ran on the submitting thread because the queue was full or the
+     * executor had been shut down. A non zero value indicates a consumer which can not keep up.
+     */
+    public long getCallerRunsCount() {
+        return callerRunsCount.get();
+    }
+
+    private static void runSafely(@NotNull Runnable command) {
+        try {
+            command.run();
+        } catch (RuntimeException e) {
+            Arbor.e(e, "Transfer callback threw an exception.");
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                final Runnable command;
+                try {
+                    command = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (command != null) {
+                    runSafely(command);
+                    completedCount.incrementAndGet();
+                }
+            }
+        }
+    }
+}
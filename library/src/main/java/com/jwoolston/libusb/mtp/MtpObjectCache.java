@@ -0,0 +1,119 @@
+package com.jwoolston.libusb.mtp;
+
+import com.jwoolston.libusb.util.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the object handles listed under each folder and the ObjectInfo of each handle, so browsing a device only
+ * queries it for what has not been seen. Object infos are evicted least recently used beyond a capacity, listings are
+ * kept until invalidated. {@link MtpSession#pollEvent(int)} invalidates the cache from the device's events; a device
+ * which does not report changes can be refreshed with {@link #clear()}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class MtpObjectCache {
+
+    private static final int DEFAULT_CAPACITY = 16384;
+
+    @NotNull
+    private final Map<Integer, MtpObjectInfo> infos;
+
+    @NotNull
+    private final Map<Long, int[]> listings = new HashMap<>();
+
+    private long hits;
+
+    private long misses;
+
+    public MtpObjectCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity {@code int} The most object infos to keep.
+     */
+    public MtpObjectCache(final int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive.");
+        infos = new LinkedHashMap<Integer, MtpObjectInfo>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, MtpObjectInfo> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    private static long listingKey(int storageId, int parent) {
+        return (long) storageId << 32 | (0xFFFFFFFFL & parent);
+    }
+
+    @Nullable
+    public synchronized MtpObjectInfo getInfo(int handle) {
+        final MtpObjectInfo info = infos.get(handle);
+        if (info != null) {
+            ++hits;
+        } else {
+            ++misses;
+        }
+        return info;
+    }
+
+    public synchronized void putInfo(@NotNull MtpObjectInfo info) {
+        infos.put(info.getHandle(), info);
+    }
+
+    /**
+     * @return {@code int[]} The cached handles under a folder, or {@code null} if the folder has not been listed.
+     */
+    @Nullable
+    public synchronized int[] getListing(int storageId, int parent) {
+        final int[] handles = listings.get(listingKey(storageId, parent));
+        if (handles != null) {
+            ++hits;
+        } else {
+            ++misses;
+        }
+        return handles;
+    }
+
+    public synchronized void putListing(int storageId, int parent, @NotNull int[] handles) {
+        listings.put(listingKey(storageId, parent), handles);
+    }
+
+    /**
+     * Drops the info of an object which changed or was removed, along with every listing, which may include it.
+     */
+    public synchronized void invalidate(int handle) {
+        infos.remove(handle);
+        listings.clear();
+    }
+
+    /**
+     * Drops every listing, for when an object is added to an unknown folder.
+     */
+    public synchronized void invalidateListings() {
+        listings.clear();
+    }
+
+    public synchronized void clear() {
+        infos.clear();
+        listings.clear();
+    }
+
+    public synchronized int getInfoCount() {
+        return infos.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,153 @@
+package com.jwoolston.libusb.mtp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The ObjectInfo dataset of an object (PTP 1.1 section 5.5.2), as returned by GetObjectInfo. Only the fields needed for
+ * browsing and transferring objects are kept.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class MtpObjectInfo {
+
+    public static final int FORMAT_ASSOCIATION = 0x3001;
+
+    /** The compressed size of objects of 4GB or more, whose real size must be read from the ObjectSize property */
+    public static final long SIZE_UNKNOWN = 0xFFFFFFFFL;
+
+    private final int handle;
+
+    private final int storageId;
+
+    private final int format;
+
+    private final long compressedSize;
+
+    private final int parent;
+
+    @NotNull
+    private final String filename;
+
+    @NotNull
+    private final String captureDate;
+
+    @NotNull
+    private final String modificationDate;
+
+    private MtpObjectInfo(int handle, int storageId, int format, long compressedSize, int parent,
+                          @NotNull String filename, @NotNull String captureDate, @NotNull String modificationDate) {
+        this.handle = handle;
+        this.storageId = storageId;
+        this.format = format;
+        this.compressedSize = compressedSize;
+        this.parent = parent;
+        this.filename = filename;
+        this.captureDate = captureDate;
+        this.modificationDate = modificationDate;
+    }
+
+    /**
+     * @param handle  {@code int} The handle the dataset was requested for.
+     * @param dataset {@link ByteBuffer} holding the dataset from its position.
+     *
+     * @throws IllegalArgumentException if the dataset is truncated.
+     */
+    @NotNull
+    static MtpObjectInfo parse(int handle, @NotNull ByteBuffer dataset) {
+        final ByteBuffer buffer = dataset.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            final int storageId = buffer.getInt();
+            final int format = 0xFFFF & buffer.getShort();
+            buffer.getShort(); // ProtectionStatus
+            final long compressedSize = 0xFFFFFFFFL & buffer.getInt();
+            // ThumbFormat, ThumbCompressedSize, ThumbPixWidth, ThumbPixHeight, ImagePixWidth, ImagePixHeight,
+            // ImageBitDepth
+            buffer.position(buffer.position() + 2 + 4 * 6);
+            final int parent = buffer.getInt();
+            // AssociationType, AssociationDesc, SequenceNumber
+            buffer.position(buffer.position() + 2 + 4 + 4);
+            final String filename = readString(buffer);
+            final String captureDate = readString(buffer);
+            final String modificationDate = readString(buffer);
+            return new MtpObjectInfo(handle, storageId, format, compressedSize, parent, filename, captureDate,
+                modificationDate);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Truncated ObjectInfo dataset for handle " + handle + ".");
+        }
+    }
+
+    /**
+     * Reads a PTP string: a count of UTF-16 code units including the terminator, followed by the code units.
+     */
+    @NotNull
+    static String readString(@NotNull ByteBuffer buffer) {
+        final int count = 0xFF & buffer.get();
+        if (count == 0) {
+            return "";
+        }
+        final char[] chars = new char[count];
+        for (int i = 0; i < count; ++i) {
+            chars[i] = buffer.getChar();
+        }
+        final int length = chars[count - 1] == 0 ? count - 1 : count;
+        return new String(chars, 0, length);
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+
+    public int getStorageId() {
+        return storageId;
+    }
+
+    /**
+     * @return {@code int} The PTP object format code.
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * @return {@code long} The size in bytes, or {@link #SIZE_UNKNOWN} if the object is 4GB or larger.
+     */
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * @return {@code int} The handle of the containing folder, 0 for the root of its storage.
+     */
+    public int getParent() {
+        return parent;
+    }
+
+    @NotNull
+    public String getFilename() {
+        return filename;
+    }
+
+    @NotNull
+    public String getCaptureDate() {
+        return captureDate;
+    }
+
+    @NotNull
+    public String getModificationDate() {
+        return modificationDate;
+    }
+
+    public boolean isFolder() {
+        return format == FORMAT_ASSOCIATION;
+    }
+
+    @Override
+    public String toString() {
+        return "MtpObjectInfo[handle=" + handle + ",filename=" + filename + ",format=0x" + Integer.toHexString(format)
+               + ",size=" + compressedSize + ",parent=" + parent + "]";
+    }
+}
@@ -0,0 +1,983 @@
+package com.jwoolston.libusb.mtp;
+
+import com.jwoolston.libusb.BaseUsbDevice;
+import com.jwoolston.libusb.BaseUsbDeviceConnection;
+import com.jwoolston.libusb.BaseUsbEndpoint;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.DirectTransfer;
+import com.jwoolston.libusb.LibusbError;
+import com.jwoolston.libusb.UsbConstants;
+import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An MTP or PTP session over the bulk pipes of a still image interface. Operations are run as single transactions of
+ * command, optional data and response containers (PTP 1.1 section 7), one at a time.
+ * <p>
+ * Object data is streamed straight into a {@link FileChannel}: once the length of the data phase is known from its
+ * first container, several bulk IN transfers into direct buffers are kept in flight, and the calling thread writes
+ * each completed buffer to the channel while the following ones fill. Objects of 4GB or more are fetched in chunks
+ * with GetPartialObject64 when the device supports it. Listings and object infos are served from a
+ * {@link MtpObjectCache}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class MtpSession implements Closeable {
+
+    private static final int SUBCLASS_STILL_IMAGE_CAPTURE = 0x01;
+    private static final int PROTOCOL_PIMA_15740 = 0x01;
+    private static final String MTP_INTERFACE_NAME = "MTP";
+
+    private static final int CONTAINER_COMMAND = 1;
+    private static final int CONTAINER_DATA = 2;
+    private static final int CONTAINER_RESPONSE = 3;
+    private static final int CONTAINER_EVENT = 4;
+
+    private static final int HEADER_LENGTH = 12;
+
+    private static final int MAX_PARAMETERS = 5;
+
+    public static final int OPERATION_GET_DEVICE_INFO = 0x1001;
+    public static final int OPERATION_OPEN_SESSION = 0x1002;
+    public static final int OPERATION_CLOSE_SESSION = 0x1003;
+    public static final int OPERATION_GET_STORAGE_IDS = 0x1004;
+    public static final int OPERATION_GET_OBJECT_HANDLES = 0x1007;
+    public static final int OPERATION_GET_OBJECT_INFO = 0x1008;
+    public static final int OPERATION_GET_OBJECT = 0x1009;
+    public static final int OPERATION_GET_PARTIAL_OBJECT_64 = 0x95C1;
+    public static final int OPERATION_GET_OBJECT_PROP_VALUE = 0x9803;
+
+    public static final int RESPONSE_OK = 0x2001;
+    private static final int RESPONSE_SESSION_ALREADY_OPEN = 0x201E;
+
+    public static final int EVENT_OBJECT_ADDED = 0x4002;
+    public static final int EVENT_OBJECT_REMOVED = 0x4003;
+    public static final int EVENT_STORE_ADDED = 0x4004;
+    public static final int EVENT_STORE_REMOVED = 0x4005;
+    public static final int EVENT_OBJECT_INFO_CHANGED = 0x4007;
+    public static final int EVENT_STORAGE_INFO_CHANGED = 0x400C;
+
+    private static final int PROPERTY_OBJECT_SIZE = 0xDC04;
+
+    private static final int RECIPIENT_INTERFACE = 0x01;
+
+    private static final int REQUEST_TYPE_CLASS_OUT = UsbConstants.USB_DIR_OUT | UsbConstants.USB_TYPE_CLASS
+                                                      | RECIPIENT_INTERFACE;
+
+    /** Still Image class Cancel Request and its cancellation code (Still Image Capture Device Definition 5.2.1) */
+    private static final int CANCEL_REQUEST = 0x64;
+    private static final int CANCELLATION_CODE = 0x4001;
+
+    private static final int CONTROL_TIMEOUT = 1000;
+
+    /** Lists objects in every storage, or of every format */
+    public static final int ALL = 0;
+
+    /** The parent handle of objects at the root of a storage */
+    public static final int ROOT = 0xFFFFFFFF;
+
+    private static final int SESSION_ID = 1;
+
+    private static final int TRANSFER_TIMEOUT = 5000;
+
+    private static final int STREAM_TRANSFER_COUNT = 4;
+
+    private static final int STREAM_TRANSFER_SIZE = 256 * 1024;
+
+    /** Bytes requested per GetPartialObject64, which keeps every data phase's length within its container header */
+    private static final long PARTIAL_CHUNK_SIZE = 256L * 1024 * 1024;
+
+    /** Read size for containers held in memory, large enough for most datasets in one transfer */
+    private static final int DATASET_READ_SIZE = 16 * 1024;
+
+    @NotNull
+    private final MtpTransport transport;
+
+    @NotNull
+    private final BaseUsbInterface intf;
+
+    @NotNull
+    private final BaseUsbEndpoint inEndpoint;
+
+    @NotNull
+    private final BaseUsbEndpoint outEndpoint;
+
+    @Nullable
+    private final BaseUsbEndpoint eventEndpoint;
+
+    @NotNull
+    private final MtpObjectCache cache;
+
+    private final Object lock = new Object();
+
+    private final Object streamLock = new Object();
+
+    @NotNull
+    private final byte[] commandBuffer = new byte[HEADER_LENGTH + 4 * MAX_PARAMETERS];
+
+    @NotNull
+    private final byte[] readBuffer = new byte[DATASET_READ_SIZE];
+
+    @Nullable
+    private StreamSlot[] streamSlots;
+
+    @NotNull
+    private int[] operationsSupported = new int[0];
+
+    private int transactionId;
+
+    private boolean open;
+
+    /**
+     * @param connection {@link BaseUsbDeviceConnection} to the device.
+     * @param intf       {@link BaseUsbInterface} The interface with the bulk pipes and, optionally, the interrupt
+     *                   event pipe.
+     * @param cache      {@link MtpObjectCache} for listings and object infos, which may be shared across sessions with
+     *                   the same device.
+     */
+    public MtpSession(@NotNull final BaseUsbDeviceConnection connection, @NotNull BaseUsbInterface intf,
+                      @NotNull MtpObjectCache cache) {
+        this(new MtpTransport() {
+            @NotNull
+            @Override
+            public LibusbError claimInterface(@NotNull BaseUsbInterface intf, boolean force) {
+                return connection.claimInterface(intf, force);
+            }
+
+            @NotNull
+            @Override
+            public LibusbError releaseInterface(@NotNull BaseUsbInterface intf) {
+                return connection.releaseInterface(intf);
+            }
+
+            @Override
+            public int controlTransfer(int requestType, int request, int value, int index, @NotNull byte[] buffer,
+                                       int length, int timeout) {
+                return connection.controlTransfer(requestType, request, value, index, buffer, length, timeout);
+            }
+
+            @Override
+            public int bulkTransfer(@NotNull BaseUsbEndpoint endpoint, @NotNull byte[] buffer, int offset, int length,
+                                    int timeout) {
+                return connection.bulkTransfer(endpoint, buffer, offset, length, timeout);
+            }
+
+            @Override
+            public int interruptTransfer(@NotNull BaseUsbEndpoint endpoint, @NotNull byte[] buffer, int length,
+                                         int timeout) {
+                return connection.interruptTransfer(endpoint, buffer, length, timeout);
+            }
+
+            @NotNull
+            @Override
+            public LibusbError clearStall(@NotNull BaseUsbEndpoint endpoint) {
+                return connection.clearStall(endpoint);
+            }
+
+            @Override
+            public int submitDirectTransfer(@NotNull BaseUsbEndpoint endpoint, @NotNull ByteBuffer buffer, int length,
+                                            int timeout, @NotNull DirectTransfer transfer) {
+                return connection.submitDirectTransfer(endpoint, buffer, length, timeout, transfer);
+            }
+        }, intf, cache);
+    }
+
+    MtpSession(@NotNull MtpTransport transport, @NotNull BaseUsbInterface intf, @NotNull MtpObjectCache cache) {
+        this.transport = transport;
+        this.intf = intf;
+        this.cache = cache;
+        BaseUsbEndpoint in = null;
+        BaseUsbEndpoint out = null;
+        BaseUsbEndpoint event = null;
+        for (int i = 0; i < intf.getEndpointCount(); ++i) {
+            final BaseUsbEndpoint endpoint = intf.getEndpoint(i);
+            if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_BULK) {
+                if (endpoint.getDirection() == UsbConstants.USB_DIR_IN) {
+                    in = in != null ? in : endpoint;
+                } else {
+                    out = out != null ? out : endpoint;
+                }
+            } else if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_INT
+                       && endpoint.getDirection() == UsbConstants.USB_DIR_IN) {
+                event = endpoint;
+            }
+        }
+        Preconditions.checkArgument(in != null && out != null, "Interface %d lacks bulk IN and OUT endpoints.",
+            intf.getId());
+        inEndpoint = in;
+        outEndpoint = out;
+        eventEndpoint = event;
+    }
+
+    /**
+     * Finds the still image interface of a device, or the vendor specific interface named "MTP" which many phones use.
+     *
+     * @param connection {@link BaseUsbDeviceConnection} to the device.
+     *
+     * @return {@link MtpSession} not yet opened, or {@code null} if the device has no such interface.
+     */
+    @Nullable
+    public static MtpSession find(@NotNull BaseUsbDeviceConnection connection) {
+        final BaseUsbDevice device = connection.getDevice();
+        for (int i = 0; i < device.getInterfaceCount(); ++i) {
+            final BaseUsbInterface candidate = device.getInterface(i);
+            final boolean stillImage = candidate.getInterfaceClass() == UsbConstants.USB_CLASS_STILL_IMAGE
+                                       && candidate.getInterfaceSubclass() == SUBCLASS_STILL_IMAGE_CAPTURE
+                                       && candidate.getInterfaceProtocol() == PROTOCOL_PIMA_15740;
+            final boolean vendorMtp = candidate.getInterfaceClass() == UsbConstants.USB_CLASS_VENDOR_SPEC
+                                      && MTP_INTERFACE_NAME.equals(candidate.getName());
+            if ((stillImage || vendorMtp) && candidate.getEndpointCount() >= 2) {
+                return new MtpSession(connection, candidate, new MtpObjectCache());
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    public MtpObjectCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Claims the interface, reads the operations the device supports and opens the session.
+     *
+     * @throws IOException if the interface could not be claimed or the session opened.
+     */
+    public void open() throws IOException {
+        synchronized (lock) {
+            if (open) {
+                return;
+            }
+            final LibusbError claimed = transport.claimInterface(intf, true);
+            if (claimed != LibusbError.LIBUSB_SUCCESS) {
+                throw new IOException("Failed to claim interface " + intf.getId() + ": " + claimed);
+            }
+            try {
+                // Session-less operations use transaction ID 0
+                transactionId = 0;
+                operationsSupported = parseOperationsSupported(request(OPERATION_GET_DEVICE_INFO));
+                transactionId = 0;
+                final Response response = execute(OPERATION_OPEN_SESSION, null, SESSION_ID);
+                if (response.code != RESPONSE_OK && response.code != RESPONSE_SESSION_ALREADY_OPEN) {
+                    throw new IOException(describe(OPERATION_OPEN_SESSION, response.code));
+                }
+                transactionId = 1;
+                open = true;
+            } catch (IOException e) {
+                transport.releaseInterface(intf);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Closes the session and releases the interface.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            try {
+                final Response response = execute(OPERATION_CLOSE_SESSION, null);
+                if (response.code != RESPONSE_OK) {
+                    Arbor.w("%s", describe(OPERATION_CLOSE_SESSION, response.code));
+                }
+            } finally {
+                transport.releaseInterface(intf);
+            }
+        }
+    }
+
+    /**
+     * Reads the OperationsSupported array of the DeviceInfo dataset (PTP 1.1 section 5.5.1).
+     */
+    @NotNull
+    private static int[] parseOperationsSupported(@NotNull ByteBuffer deviceInfo) {
+        deviceInfo.position(deviceInfo.position() + 2 + 4 + 2); // StandardVersion, VendorExtensionID and Version
+        MtpObjectInfo.readString(deviceInfo); // VendorExtensionDesc
+        deviceInfo.getShort(); // FunctionalMode
+        final int count = deviceInfo.getInt();
+        final int[] operations = new int[Math.min(count, deviceInfo.remaining() / 2)];
+        for (int i = 0; i < operations.length; ++i) {
+            operations[i] = 0xFFFF & deviceInfo.getShort();
+        }
+        Arrays.sort(operations);
+        return operations;
+    }
+
+    /**
+     * @param operation {@code int} An operation code.
+     *
+     * @return {@code boolean} {@code true} if the device listed the operation in its DeviceInfo.
+     */
+    public boolean supportsOperation(int operation) {
+        synchronized (lock) {
+            return Arrays.binarySearch(operationsSupported, operation) >= 0;
+        }
+    }
+
+    /**
+     * @return {@code int[]} The IDs of the device's storages.
+     */
+    @NotNull
+    public int[] getStorageIds() throws IOException {
+        return readArray(request(OPERATION_GET_STORAGE_IDS));
+    }
+
+    /**
+     * Lists the handles of objects in a folder, from the cache when it has been listed before.
+     *
+     * @param storageId {@code int} The storage to list, or {@link #ALL}.
+     * @param parent    {@code int} The handle of the folder, {@link #ROOT} for the root of the storage or {@link #ALL}
+     *                  for every object in the storage.
+     *
+     * @return {@code int[]} The object handles, a copy which the caller may modify.
+     */
+    @NotNull
+    public int[] getObjectHandles(int storageId, int parent) throws IOException {
+        final int[] cached = cache.getListing(storageId, parent);
+        if (cached != null) {
+            return cached.clone();
+        }
+        final int[] handles = readArray(request(OPERATION_GET_OBJECT_HANDLES, storageId, ALL, parent));
+        cache.putListing(storageId, parent, handles);
+        return handles.clone();
+    }
+
+    /**
+     * @param handle {@code int} The handle of the object.
+     *
+     * @return {@link MtpObjectInfo} of the object, from the cache when it has been read before.
+     */
+    @NotNull
+    public MtpObjectInfo getObjectInfo(int handle) throws IOException {
+        final MtpObjectInfo cached = cache.getInfo(handle);
+        if (cached != null) {
+            return cached;
+        }
+        final MtpObjectInfo info;
+        try {
+            info = MtpObjectInfo.parse(handle, request(OPERATION_GET_OBJECT_INFO, handle));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        cache.putInfo(info);
+        return info;
+    }
+
+    /**
+     * Lists the objects in a folder with their infos. Only handles and infos missing from the cache are requested.
+     *
+     * @see #getObjectHandles(int, int)
+     */
+    @NotNull
+    public List<MtpObjectInfo> listObjects(int storageId, int parent) throws IOException {
+        final int[] handles = getObjectHandles(storageId, parent);
+        final List<MtpObjectInfo> objects = new ArrayList<>(handles.length);
+        for (int handle : handles) {
+            objects.add(getObjectInfo(handle));
+        }
+        return objects;
+    }
+
+    /**
+     * @return {@code long} The size of the object in bytes, read from its ObjectSize property when its info only says
+     * it is 4GB or more, or {@link MtpObjectInfo#SIZE_UNKNOWN} if the device can not tell.
+     */
+    public long getObjectSize(int handle) throws IOException {
+        final long size = getObjectInfo(handle).getCompressedSize();
+        if (size != MtpObjectInfo.SIZE_UNKNOWN || !supportsOperation(OPERATION_GET_OBJECT_PROP_VALUE)) {
+            return size;
+        }
+        final ByteBuffer value = request(OPERATION_GET_OBJECT_PROP_VALUE, handle, PROPERTY_OBJECT_SIZE);
+        return value.remaining() >= 8 ? value.getLong() : MtpObjectInfo.SIZE_UNKNOWN;
+    }
+
+    /**
+     * Streams an object into a channel. Objects of 4GB or more are fetched in chunks with GetPartialObject64 when the
+     * device supports it.
+     *
+     * @param handle   {@code int} The handle of the object.
+     * @param channel  {@link FileChannel} to write to.
+     * @param position {@code long} The channel position to write the object's first byte at.
+     *
+     * @return {@code long} The number of bytes written.
+     *
+     * @throws IOException if the transfer or a write failed.
+     */
+    public long getObject(int handle, @NotNull FileChannel channel, long position) throws IOException {
+        final long size = getObjectSize(handle);
+        if (size != MtpObjectInfo.SIZE_UNKNOWN && size >= MtpObjectInfo.SIZE_UNKNOWN - HEADER_LENGTH
+            && supportsOperation(OPERATION_GET_PARTIAL_OBJECT_64)) {
+            long offset = 0;
+            while (offset < size) {
+                final long chunk = Math.min(PARTIAL_CHUNK_SIZE, size - offset);
+                final long written = getPartialObject64(handle, offset, chunk, channel, position + offset);
+                offset += written;
+                if (written < chunk) {
+                    break;
+                }
+            }
+            return offset;
+        }
+        synchronized (lock) {
+            checkOpen();
+            final long[] written = new long[1];
+            final Response response = execute(OPERATION_GET_OBJECT, new ChannelSink(channel, position, written),
+                handle);
+            checkResponse(OPERATION_GET_OBJECT, response);
+            return written[0];
+        }
+    }
+
+    /**
+     * Streams part of an object into a channel with the MTP GetPartialObject64 operation.
+     *
+     * @param handle   {@code int} The handle of the object.
+     * @param offset   {@code long} The offset in the object of the first byte.
+     * @param length   {@code long} The most bytes to transfer, less than 4GB.
+     * @param channel  {@link FileChannel} to write to.
+     * @param position {@code long} The channel position to write the first byte at.
+     *
+     * @return {@code long} The number of bytes written, fewer than requested at the end of the object.
+     *
+     * @throws IOException if the device does not support the operation, or the transfer or a write failed.
+     */
+    public long getPartialObject64(int handle, long offset, long length, @NotNull FileChannel channel, long position)
+        throws IOException {
+        Preconditions.checkArgument(length > 0 && length < MtpObjectInfo.SIZE_UNKNOWN - HEADER_LENGTH,
+            "Length %d is out of range.", length);
+        if (!supportsOperation(OPERATION_GET_PARTIAL_OBJECT_64)) {
+            throw new IOException("Device does not support GetPartialObject64.");
+        }
+        synchronized (lock) {
+            checkOpen();
+            final long[] written = new long[1];
+            final Response response = execute(OPERATION_GET_PARTIAL_OBJECT_64,
+                new ChannelSink(channel, position, written), handle, (int) offset, (int) (offset >>> 32),
+                (int) length);
+            checkResponse(OPERATION_GET_PARTIAL_OBJECT_64, response);
+            return written[0];
+        }
+    }
+
+    /**
+     * Waits for an event on the interrupt pipe and applies it to the cache.
+     *
+     * @param timeoutMillis {@code int} The longest to wait.
+     *
+     * @return {@code int} The event code, or 0 if none arrived or the interface has no event pipe.
+     */
+    public int pollEvent(int timeoutMillis) {
+        if (eventEndpoint == null) {
+            return 0;
+        }
+        final byte[] event = new byte[Math.max(eventEndpoint.getMaxPacketSize(), HEADER_LENGTH + 12)];
+        final int result = transport.interruptTransfer(eventEndpoint, event, event.length, timeoutMillis);
+        if (result < HEADER_LENGTH) {
+            return 0;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(event, 0, result).order(ByteOrder.LITTLE_ENDIAN);
+        if ((0xFFFF & buffer.getShort(4)) != CONTAINER_EVENT) {
+            return 0;
+        }
+        final int code = 0xFFFF & buffer.getShort(6);
+        final int parameter = result >= HEADER_LENGTH + 4 ? buffer.getInt(HEADER_LENGTH) : 0;
+        switch (code) {
+            case EVENT_OBJECT_ADDED:
+                cache.invalidateListings();
+                break;
+            case EVENT_OBJECT_REMOVED:
+            case EVENT_OBJECT_INFO_CHANGED:
+                cache.invalidate(parameter);
+                break;
+            case EVENT_STORE_ADDED:
+            case EVENT_STORE_REMOVED:
+            case EVENT_STORAGE_INFO_CHANGED:
+                cache.clear();
+                break;
+            default:
+                break;
+        }
+        return code;
+    }
+
+    private void checkOpen() throws IOException {
+        if (!open) {
+            throw new IOException("MTP session is not open.");
+        }
+    }
+
+    private static void checkResponse(int operation, @NotNull Response response) throws IOException {
+        if (response.code != RESPONSE_OK) {
+            throw new IOException(describe(operation, response.code));
+        }
+    }
+
+    @NotNull
+    private static String describe(int operation, int response) {
+        return String.format("MTP operation 0x%04x failed with response 0x%04x", operation, response);
+    }
+
+    /**
+     * Runs an operation with a data phase from the device and returns the data.
+     */
+    @NotNull
+    private ByteBuffer request(int operation, int... parameters) throws IOException {
+        synchronized (lock) {
+            if (operation != OPERATION_GET_DEVICE_INFO) {
+                checkOpen();
+            }
+            final MemorySink sink = new MemorySink();
+            checkResponse(operation, execute(operation, sink, parameters));
+            return sink.getData();
+        }
+    }
+
+    @NotNull
+    private static int[] readArray(@NotNull ByteBuffer data) {
+        final int count = data.remaining() >= 4 ? data.getInt() : 0;
+        final int[] values = new int[Math.min(count, data.remaining() / 4)];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = data.getInt();
+        }
+        return values;
+    }
+
+    /**
+     * Runs one transaction: the command, the data phase into {@code sink} if the device sends one, and the response.
+     * If the data phase fails the transaction is cancelled on the device before the failure is thrown, so the pipes
+     * are left ready for the next one. Called holding the lock.
+     */
+    @NotNull
+    private Response execute(int operation, @Nullable DataSink sink, int... parameters) throws IOException {
+        Preconditions.checkArgument(parameters.length <= MAX_PARAMETERS, "Too many parameters.");
+        final int transaction = transactionId++;
+        final int length = HEADER_LENGTH + 4 * parameters.length;
+        final ByteBuffer command = ByteBuffer.wrap(commandBuffer).order(ByteOrder.LITTLE_ENDIAN);
+        command.putInt(length).putShort((short) CONTAINER_COMMAND).putShort((short) operation).putInt(transaction);
+        for (int parameter : parameters) {
+            command.putInt(parameter);
+        }
+        final int sent = transport.bulkTransfer(outEndpoint, commandBuffer, 0, length, TRANSFER_TIMEOUT);
+        if (sent != length) {
+            throw new IOException("Failed to send MTP command: " + LibusbError.fromNative(Math.min(sent, 0)));
+        }
+        if (sink != null) {
+            final Response early;
+            try {
+                early = sink.receive();
+            } catch (IOException | RuntimeException e) {
+                sink.abort();
+                cancelTransaction(transaction);
+                throw e;
+            }
+            if (early != null) {
+                return early;
+            }
+        }
+        return readResponse();
+    }
+
+    /**
+     * Asks the device to abandon a transaction with the Still Image class Cancel Request and clears the halt the
+     * device may have left on the IN pipe.
+     */
+    private void cancelTransaction(int transaction) {
+        final byte[] data = {(byte) CANCELLATION_CODE, (byte) (CANCELLATION_CODE >> 8), (byte) transaction,
+                             (byte) (transaction >> 8), (byte) (transaction >> 16), (byte) (transaction >> 24)};
+        final int result = transport.controlTransfer(REQUEST_TYPE_CLASS_OUT, CANCEL_REQUEST, 0, intf.getId(), data,
+            data.length, CONTROL_TIMEOUT);
+        if (result < 0) {
+            Arbor.w("Failed to cancel MTP transaction %d: %s", transaction, LibusbError.fromNative(result));
+        }
+        transport.clearStall(inEndpoint);
+    }
+
+    /**
+     * Reads the response container, skipping the zero length packet which ends a data phase filling whole packets.
+     */
+    @NotNull
+    private Response readResponse() throws IOException {
+        int result;
+        do {
+            result = transport.bulkTransfer(inEndpoint, readBuffer, 0, readBuffer.length, TRANSFER_TIMEOUT);
+        } while (result == 0);
+        if (result < HEADER_LENGTH) {
+            throw new IOException("Failed to read MTP response: " + LibusbError.fromNative(Math.min(result, 0)));
+        }
+        final Response response = Response.parse(ByteBuffer.wrap(readBuffer, 0, result));
+        if (response == null) {
+            throw new IOException("Expected an MTP response container.");
+        }
+        return response;
+    }
+
+    /**
+     * @return {@code long} The length of a data container from its header, or -1 if it is 4GB or more.
+     */
+    private static long getContainerLength(@NotNull ByteBuffer header) {
+        final long length = 0xFFFFFFFFL & header.order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+        return length == MtpObjectInfo.SIZE_UNKNOWN ? -1 : length;
+    }
+
+    private int roundToPacket(long length) {
+        final int packet = inEndpoint.getMaxPacketSize();
+        return (int) ((length + packet - 1) / packet * packet);
+    }
+
+    private static final class Response {
+
+        final int code;
+
+        Response(int code) {
+            this.code = code;
+        }
+
+        /**
+         * @return {@link Response} parsed from a container, or {@code null} if it is not a response.
+         */
+        @Nullable
+        static Response parse(@NotNull ByteBuffer container) {
+            container.order(ByteOrder.LITTLE_ENDIAN);
+            final int start = container.position();
+            if ((0xFFFF & container.getShort(start + 4)) != CONTAINER_RESPONSE) {
+                return null;
+            }
+            return new Response(0xFFFF & container.getShort(start + 6));
+        }
+    }
+
+    /**
+     * Receives the data phase of a transaction.
+     */
+    private interface DataSink {
+
+        /**
+         * @return {@link Response} if the device answered with a response instead of data, else {@code null}.
+         */
+        @Nullable
+        Response receive() throws IOException;
+
+        /**
+         * Called after {@link #receive()} failed, to retire any transfer it left in flight.
+         */
+        void abort();
+    }
+
+    /**
+     * Gathers a data phase in memory, for datasets.
+     */
+    private final class MemorySink implements DataSink {
+
+        @Nullable
+        private ByteBuffer data;
+
+        @Nullable
+        @Override
+        public Response receive() throws IOException {
+            int result = transport.bulkTransfer(inEndpoint, readBuffer, 0, readBuffer.length, TRANSFER_TIMEOUT);
+            if (result < HEADER_LENGTH) {
+                throw new IOException("Failed to read MTP data: " + LibusbError.fromNative(Math.min(result, 0)));
+            }
+            final ByteBuffer first = ByteBuffer.wrap(readBuffer, 0, result);
+            final Response response = Response.parse(first);
+            if (response != null) {
+                return response;
+            }
+            final long length = getContainerLength(first);
+            if (length < HEADER_LENGTH || length > Integer.MAX_VALUE) {
+                throw new IOException("Unsupported MTP dataset length " + length + ".");
+            }
+            final byte[] container = new byte[Math.max(roundToPacket(length), result)];
+            System.arraycopy(readBuffer, 0, container, 0, result);
+            int received = result;
+            boolean shortPacket = result < readBuffer.length;
+            while (!shortPacket && received < length) {
+                final int requested = container.length - received;
+                result = transport.bulkTransfer(inEndpoint, container, received, requested, TRANSFER_TIMEOUT);
+                if (result < 0) {
+                    throw new IOException("Failed to read MTP data: " + LibusbError.fromNative(result));
+                }
+                received += result;
+                shortPacket = result < requested;
+            }
+            data = ByteBuffer.wrap(container, HEADER_LENGTH, Math.max(0, (int) Math.min(received, length)
+                                                                          - HEADER_LENGTH)).slice()
+                             .order(ByteOrder.LITTLE_ENDIAN);
+            return null;
+        }
+
+        @Override
+        public void abort() {
+            // Every read is blocking, nothing is left in flight
+        }
+
+        @NotNull
+        ByteBuffer getData() {
+            return data != null ? data : ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Streams a data phase into a file channel with several transfers in flight. The first transfer gives the length
+     * of the container, after which transfers are only armed for the bytes still to come, so none is left pending to
+     * swallow the response.
+     */
+    private final class ChannelSink implements DataSink {
+
+        @NotNull
+        private final FileChannel channel;
+
+        private long position;
+
+        @NotNull
+        private final long[] written;
+
+        @Nullable
+        private Response late;
+
+        @Nullable
+        private StreamSlot[] slots;
+
+        ChannelSink(@NotNull FileChannel channel, long position, @NotNull long[] written) {
+            this.channel = channel;
+            this.position = position;
+            this.written = written;
+        }
+
+        @Nullable
+        @Override
+        public Response receive() throws IOException {
+            final StreamSlot[] slots = getStreamSlots();
+            this.slots = slots;
+            final StreamSlot first = slots[0];
+            first.submit(STREAM_TRANSFER_SIZE);
+            final int result = first.await();
+            if (result < HEADER_LENGTH) {
+                throw new IOException("Failed to read MTP data: " + LibusbError.fromNative(Math.min(result, 0)));
+            }
+            first.buffer.clear();
+            final Response response = Response.parse(first.buffer);
+            if (response != null) {
+                return response;
+            }
+            final long length = getContainerLength(first.buffer);
+            write(first.buffer, HEADER_LENGTH, result);
+            if (result < STREAM_TRANSFER_SIZE) {
+                return null;
+            }
+            if (length < 0) {
+                // Unknown length, so only one transfer may be pending at a time
+                int count;
+                do {
+                    first.submit(STREAM_TRANSFER_SIZE);
+                    count = first.await();
+                    if (count < 0) {
+                        throw new IOException("Failed to read MTP data: " + LibusbError.fromNative(count));
+                    }
+                    write(first.buffer, 0, count);
+                } while (count == STREAM_TRANSFER_SIZE);
+                return null;
+            }
+            stream(slots, length - result);
+            return late;
+        }
+
+        private void stream(@NotNull StreamSlot[] slots, long remaining) throws IOException {
+            long unrequested = remaining;
+            int submitted = 0;
+            int completed = 0;
+            int failure = 0;
+            boolean ended = false;
+            while (unrequested > 0 && submitted - completed < slots.length) {
+                final int size = (int) Math.min(STREAM_TRANSFER_SIZE, unrequested);
+                slots[submitted % slots.length].submit(roundToPacket(size));
+                unrequested -= size;
+                ++submitted;
+            }
+            while (completed < submitted) {
+                final StreamSlot slot = slots[completed % slots.length];
+                final int result = slot.await();
+                ++completed;
+                if (failure != 0) {
+                    continue;
+                }
+                if (ended) {
+                    // A transfer armed past an early end catches the response instead, the rest would only time out
+                    if (late == null && result >= HEADER_LENGTH) {
+                        slot.buffer.clear();
+                        late = Response.parse(slot.buffer);
+                        if (late != null) {
+                            for (int i = completed; i < submitted; ++i) {
+                                slots[i % slots.length].cancel();
+                            }
+                        }
+                    }
+                    continue;
+                }
+                if (result < 0) {
+                    // Let the transfers still in flight retire before failing
+                    failure = result;
+                    continue;
+                }
+                write(slot.buffer, 0, result);
+                if (result < slot.requested && (unrequested > 0 || completed < submitted)) {
+                    Arbor.w("MTP data phase ended early after %d bytes.", written[0]);
+                    ended = true;
+                    continue;
+                }
+                if (unrequested > 0) {
+                    final int size = (int) Math.min(STREAM_TRANSFER_SIZE, unrequested);
+                    slots[submitted % slots.length].submit(roundToPacket(size));
+                    unrequested -= size;
+                    ++submitted;
+                }
+            }
+            if (failure != 0) {
+                throw new IOException("Failed to read MTP data: " + LibusbError.fromNative(failure));
+            }
+        }
+
+        /**
+         * Cancels the transfers still in flight and waits for them, so none is left to swallow the data of the next
+         * transaction. Should one fail to retire, the slots are abandoned to it and the next stream allocates new
+         * ones.
+         */
+        @Override
+        public void abort() {
+            if (slots == null) {
+                return;
+            }
+            final long deadline = System.nanoTime() + TRANSFER_TIMEOUT * 1000000L;
+            boolean idle = true;
+            for (StreamSlot slot : slots) {
+                idle &= slot.retire(deadline);
+            }
+            if (!idle) {
+                Arbor.w("MTP read failed to retire, discarding the stream buffers.");
+                streamSlots = null;
+            }
+        }
+
+        private void write(@NotNull ByteBuffer buffer, int from, int to) throws IOException {
+            buffer.clear();
+            buffer.position(from).limit(to);
+            while (buffer.hasRemaining()) {
+                final int count = channel.write(buffer, position);
+                position += count;
+                written[0] += count;
+            }
+        }
+    }
+
+    @NotNull
+    private StreamSlot[] getStreamSlots() {
+        if (streamSlots == null) {
+            streamSlots = new StreamSlot[STREAM_TRANSFER_COUNT];
+            for (int i = 0; i < streamSlots.length; ++i) {
+                streamSlots[i] = new StreamSlot();
+            }
+        }
+        return streamSlots;
+    }
+
+    /**
+     * A reusable bulk IN transfer into a direct buffer whose completion the calling thread waits for.
+     */
+    private final class StreamSlot extends DirectTransfer {
+
+        @NotNull
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(STREAM_TRANSFER_SIZE);
+
+        int requested;
+
+        /** Clear only while the transfer is in flight */
+        private boolean done = true;
+
+        private int result;
+
+        void submit(int length) throws IOException {
+            synchronized (streamLock) {
+                done = false;
+            }
+            requested = length;
+            final int submitted = transport.submitDirectTransfer(inEndpoint, buffer, length, TRANSFER_TIMEOUT, this);
+            if (submitted < 0) {
+                synchronized (streamLock) {
+                    result = submitted;
+                    done = true;
+                }
+                throw new IOException("Failed to submit MTP read: " + LibusbError.fromNative(submitted));
+            }
+        }
+
+        /**
+         * Cancels the transfer if it is in flight and waits until it completes or the deadline passes, through any
+         * interrupt, which is restored afterwards.
+         *
+         * @return {@code boolean} {@code true} if the transfer is no longer in flight.
+         */
+        boolean retire(long deadline) {
+            boolean interrupted = false;
+            final boolean retired;
+            synchronized (streamLock) {
+                if (!done) {
+                    cancel();
+                }
+                long remaining;
+                while (!done && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        streamLock.wait(Math.max(1, remaining / 1000000L));
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                retired = done;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return retired;
+        }
+
+        int await() throws InterruptedIOException {
+            synchronized (streamLock) {
+                while (!done) {
+                    try {
+                        streamLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while reading MTP data.");
+                    }
+                }
+                return result;
+            }
+        }
+
+        @Override
+        public void onComplete(int result) {
+            synchronized (streamLock) {
+                this.result = result;
+                done = true;
+                streamLock.notifyAll();
+            }
+        }
+    }
+}
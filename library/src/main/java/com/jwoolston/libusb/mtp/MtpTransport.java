@@ -0,0 +1,51 @@
+package com.jwoolston.libusb.mtp;
+
+import com.jwoolston.libusb.BaseUsbEndpoint;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.DirectTransfer;
+import com.jwoolston.libusb.LibusbError;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The pipes an {@link MtpSession} runs its transactions over. Implemented over a
+ * {@link com.jwoolston.libusb.BaseUsbDeviceConnection} by the session, and by a simulated device in tests. Each method
+ * has the contract of the connection method of the same name.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+interface MtpTransport {
+
+    @NotNull
+    LibusbError claimInterface(@NotNull BaseUsbInterface intf, boolean force);
+
+    @NotNull
+    LibusbError releaseInterface(@NotNull BaseUsbInterface intf);
+
+    /**
+     * @return {@code int} The transferred length or a negative libusb error code.
+     */
+    int controlTransfer(int requestType, int request, int value, int index, @NotNull byte[] buffer, int length,
+                        int timeout);
+
+    /**
+     * @return {@code int} The transferred length or a negative libusb error code.
+     */
+    int bulkTransfer(@NotNull BaseUsbEndpoint endpoint, @NotNull byte[] buffer, int offset, int length, int timeout);
+
+    /**
+     * @return {@code int} The transferred length or a negative libusb error code.
+     */
+    int interruptTransfer(@NotNull BaseUsbEndpoint endpoint, @NotNull byte[] buffer, int length, int timeout);
+
+    @NotNull
+    LibusbError clearStall(@NotNull BaseUsbEndpoint endpoint);
+
+    /**
+     * @return {@code int} 0 if the transfer was submitted or a negative libusb error code.
+     */
+    int submitDirectTransfer(@NotNull BaseUsbEndpoint endpoint, @NotNull ByteBuffer buffer, int length, int timeout,
+                             @NotNull DirectTransfer transfer);
+}
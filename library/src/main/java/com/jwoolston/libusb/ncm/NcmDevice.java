@@ -0,0 +1,767 @@
+package com.jwoolston.libusb.ncm;
+
+import com.jwoolston.libusb.AsyncUSBThread;
+import com.jwoolston.libusb.BaseUsbDevice;
+import com.jwoolston.libusb.BaseUsbDeviceConnection;
+import com.jwoolston.libusb.BaseUsbEndpoint;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.DirectTransfer;
+import com.jwoolston.libusb.LibusbError;
+import com.jwoolston.libusb.UsbConstants;
+import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A CDC Network Control Model network adapter. Outgoing frames are aggregated into NTBs and incoming NTBs are
+ * de-aggregated in the transfer buffers they were received in, so each direction costs one bulk transfer per block
+ * rather than per frame.
+ * <p>
+ * Several bulk IN transfers are kept armed while the device is open and each received frame is handed to a
+ * {@link NcmPacketListener} on the event thread as a view into its block. Frames sent are copied once into the NTB
+ * being filled, which is sent when it is full, when its aggregation timeout expires, or with no timeout, as soon as
+ * fewer than two blocks are in flight. Larger blocks and longer timeouts favour throughput, smaller ones latency.
+ * <p>
+ * The notification endpoint is not polled, so link state changes are not reported.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class NcmDevice {
+
+    private static final int RECIPIENT_INTERFACE = 0x01;
+
+    private static final int REQUEST_TYPE_GET = UsbConstants.USB_DIR_IN | UsbConstants.USB_TYPE_CLASS
+                                                | RECIPIENT_INTERFACE;
+    private static final int REQUEST_TYPE_SET = UsbConstants.USB_DIR_OUT | UsbConstants.USB_TYPE_CLASS
+                                                | RECIPIENT_INTERFACE;
+
+    private static final int GET_NTB_PARAMETERS = 0x80;
+    private static final int SET_NTB_FORMAT = 0x84;
+    private static final int SET_NTB_INPUT_SIZE = 0x86;
+
+    private static final int NTB_FORMAT_16 = 0x00;
+    private static final int NTB_FORMAT_32 = 0x01;
+
+    private static final int SUBCLASS_NCM = 0x0D;
+
+    private static final int CS_INTERFACE = 0x24;
+    private static final int UNION_FUNCTIONAL = 0x06;
+    private static final int ETHERNET_FUNCTIONAL = 0x0F;
+
+    private static final int CONTROL_TIMEOUT = 1000;
+
+    private static final int OUT_TIMEOUT = 1000;
+
+    private static final int IN_TRANSFER_COUNT = 4;
+
+    private static final int OUT_TRANSFER_COUNT = 4;
+
+    /** With no aggregation timeout, a block is sent as soon as fewer than this many are in flight */
+    private static final int MIN_OUT_IN_FLIGHT = 2;
+
+    private static final int DEFAULT_NTB_SIZE = 16 * 1024;
+
+    private static final int MAX_NTB16_SIZE = 0xFFFF;
+
+    @NotNull
+    private final BaseUsbDeviceConnection connection;
+
+    @NotNull
+    private final BaseUsbInterface controlInterface;
+
+    @NotNull
+    private final BaseUsbInterface dataInterface;
+
+    @Nullable
+    private final BaseUsbInterface dataIdleSetting;
+
+    @NotNull
+    private final BaseUsbEndpoint inEndpoint;
+
+    @NotNull
+    private final BaseUsbEndpoint outEndpoint;
+
+    private final Object lock = new Object();
+
+    @NotNull
+    private final ArrayDeque<OutSlot> idleOut = new ArrayDeque<>();
+
+    /** The block frames are being added to, {@code null} until the next frame is sent */
+    @Nullable
+    private OutSlot filling;
+
+    private long fillDeadline;
+
+    private int sequence;
+
+    private int inInFlight;
+
+    private int outInFlight;
+
+    /** Set from a successful open until close, while the interfaces are claimed */
+    private boolean claimed;
+
+    private boolean running;
+
+    private int error;
+
+    @Nullable
+    private NtbParameters parameters;
+
+    private boolean ntb32;
+
+    @Nullable
+    private NcmPacketListener listener;
+
+    private int maxNtbSize = DEFAULT_NTB_SIZE;
+
+    private int ntbInputSize = DEFAULT_NTB_SIZE;
+
+    private boolean preferNtb32;
+
+    private volatile long aggregationTimeoutNanos;
+
+    private volatile long datagramsSent;
+
+    private volatile long ntbsSent;
+
+    private volatile long datagramsDropped;
+
+    private volatile long datagramsReceived;
+
+    private volatile long ntbsReceived;
+
+    private volatile long malformedNtbs;
+
+    @NotNull
+    private final NcmPacketListener dispatcher = new NcmPacketListener() {
+        @Override
+        public void onPacket(@NotNull ByteBuffer frame) {
+            final NcmPacketListener target = listener;
+            if (target == null) {
+                return;
+            }
+            try {
+                target.onPacket(frame);
+            } catch (RuntimeException e) {
+                Arbor.e(e, "NCM packet listener failed.");
+            }
+        }
+    };
+
+    /**
+     * @param connection       {@link BaseUsbDeviceConnection} to the device.
+     * @param controlInterface {@link BaseUsbInterface} The NCM communications interface.
+     * @param dataInterface    {@link BaseUsbInterface} The alternate setting of the data interface with the bulk
+     *                         endpoints.
+     * @param dataIdleSetting  {@link BaseUsbInterface} The data interface's setting without endpoints, or {@code null}
+     *                         if it has none.
+     */
+    public NcmDevice(@NotNull BaseUsbDeviceConnection connection, @NotNull BaseUsbInterface controlInterface,
+                     @NotNull BaseUsbInterface dataInterface, @Nullable BaseUsbInterface dataIdleSetting) {
+        this.connection = connection;
+        this.controlInterface = controlInterface;
+        this.dataInterface = dataInterface;
+        this.dataIdleSetting = dataIdleSetting;
+        inEndpoint = requireBulkEndpoint(dataInterface, UsbConstants.USB_DIR_IN);
+        outEndpoint = requireBulkEndpoint(dataInterface, UsbConstants.USB_DIR_OUT);
+    }
+
+    /**
+     * Finds the first NCM function of a device.
+     *
+     * @param connection {@link BaseUsbDeviceConnection} to the device.
+     *
+     * @return {@link NcmDevice} The function, not yet opened, or {@code null} if the device has none.
+     */
+    @Nullable
+    public static NcmDevice find(@NotNull BaseUsbDeviceConnection connection) {
+        final BaseUsbDevice device = connection.getDevice();
+        for (int i = 0; i < device.getInterfaceCount(); ++i) {
+            final BaseUsbInterface control = device.getInterface(i);
+            if (control.getInterfaceClass() != UsbConstants.USB_CLASS_COMM
+                || control.getInterfaceSubclass() != SUBCLASS_NCM || control.getAlternateSetting() != 0) {
+                continue;
+            }
+            final ByteBuffer union = findFunctionalDescriptor(control, UNION_FUNCTIONAL, 5);
+            final int dataId = union != null ? 0xFF & union.get(union.position() + 4) : control.getId() + 1;
+            BaseUsbInterface data = null;
+            BaseUsbInterface idle = null;
+            for (int j = 0; j < device.getInterfaceCount(); ++j) {
+                final BaseUsbInterface intf = device.getInterface(j);
+                if (intf.getId() != dataId) {
+                    continue;
+                }
+                if (intf.getEndpointCount() == 0) {
+                    idle = intf;
+                } else if (data == null && findBulkEndpoint(intf, UsbConstants.USB_DIR_IN) != null
+                           && findBulkEndpoint(intf, UsbConstants.USB_DIR_OUT) != null) {
+                    data = intf;
+                }
+            }
+            if (data != null) {
+                return new NcmDevice(connection, control, data, idle);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return {@link ByteBuffer} positioned at the first class specific descriptor of the subtype which is at least
+     * {@code minLength} long, or {@code null}.
+     */
+    @Nullable
+    private static ByteBuffer findFunctionalDescriptor(@NotNull BaseUsbInterface intf, int subtype, int minLength) {
+        final ByteBuffer descriptors = intf.getClassSpecificDescriptors();
+        if (descriptors == null) {
+            return null;
+        }
+        int offset = descriptors.position();
+        while (offset + 3 <= descriptors.limit()) {
+            final int length = 0xFF & descriptors.get(offset);
+            if (length < 3 || offset + length > descriptors.limit()) {
+                break;
+            }
+            if ((0xFF & descriptors.get(offset + 1)) == CS_INTERFACE
+                && (0xFF & descriptors.get(offset + 2)) == subtype && length >= minLength) {
+                final ByteBuffer found = descriptors.duplicate();
+                found.position(offset);
+                return found;
+            }
+            offset += length;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static BaseUsbEndpoint findBulkEndpoint(@NotNull BaseUsbInterface intf, int direction) {
+        for (int i = 0; i < intf.getEndpointCount(); ++i) {
+            final BaseUsbEndpoint endpoint = intf.getEndpoint(i);
+            if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_BULK && endpoint.getDirection() == direction) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    private static BaseUsbEndpoint requireBulkEndpoint(@NotNull BaseUsbInterface intf, int direction) {
+        final BaseUsbEndpoint endpoint = findBulkEndpoint(intf, direction);
+        Preconditions.checkArgument(endpoint != null, "Interface %d has no bulk %s endpoint.", intf.getId(),
+            direction == UsbConstants.USB_DIR_IN ? "IN" : "OUT");
+        return endpoint;
+    }
+
+    /**
+     * @return {@link String} The MAC address from the Ethernet networking functional descriptor as 12 hex digits, or
+     * {@code null} if it could not be read.
+     */
+    @Nullable
+    public String getMacAddress() {
+        final ByteBuffer ethernet = findFunctionalDescriptor(controlInterface, ETHERNET_FUNCTIONAL, 4);
+        if (ethernet == null) {
+            return null;
+        }
+        return connection.getDevice().getStringDescriptor(0xFF & ethernet.get(ethernet.position() + 3));
+    }
+
+    /**
+     * Sets the largest NTB to send, limited to what the device accepts. Takes effect when the device is next opened.
+     *
+     * @param bytes {@code int} The NTB size in bytes.
+     */
+    public void setMaxNtbSize(int bytes) {
+        Preconditions.checkArgument(bytes > 0, "NTB size must be positive.");
+        synchronized (lock) {
+            maxNtbSize = bytes;
+        }
+    }
+
+    /**
+     * Sets the largest NTB the device should send, limited to what it supports. Takes effect when the device is next
+     * opened.
+     *
+     * @param bytes {@code int} The NTB size in bytes.
+     */
+    public void setNtbInputSize(int bytes) {
+        Preconditions.checkArgument(bytes > 0, "NTB size must be positive.");
+        synchronized (lock) {
+            ntbInputSize = bytes;
+        }
+    }
+
+    /**
+     * Selects NTB32 blocks when the device supports them, which allows blocks larger than 64KB. Takes effect when the
+     * device is next opened.
+     */
+    public void setPreferNtb32(boolean preferNtb32) {
+        synchronized (lock) {
+            this.preferNtb32 = preferNtb32;
+        }
+    }
+
+    /**
+     * Sets the longest a frame waits in a block which is not full. With 0, blocks are sent as soon as fewer than
+     * {@value #MIN_OUT_IN_FLIGHT} are in flight, so frames only aggregate while the bus is busy.
+     *
+     * @param micros {@code long} The timeout in microseconds.
+     */
+    public void setAggregationTimeout(long micros) {
+        Preconditions.checkArgument(micros >= 0, "Aggregation timeout must not be negative.");
+        aggregationTimeoutNanos = micros * 1000L;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return {@link NtbParameters} read from the device when it was opened, or {@code null} before then.
+     */
+    @Nullable
+    public NtbParameters getNtbParameters() {
+        synchronized (lock) {
+            return parameters;
+        }
+    }
+
+    public boolean isNtb32() {
+        synchronized (lock) {
+            return ntb32;
+        }
+    }
+
+    /**
+     * Claims the interfaces, configures the NTB format and sizes, selects the data setting and arms the IN transfers.
+     *
+     * @param listener {@link NcmPacketListener} to receive frames on the event thread.
+     *
+     * @throws IOException if the device is already open or could not be configured.
+     */
+    public void open(@NotNull NcmPacketListener listener) throws IOException {
+        final int maxOutSize;
+        final int inputSize;
+        final boolean wantNtb32;
+        synchronized (lock) {
+            if (claimed || inInFlight > 0 || outInFlight > 0) {
+                throw new IOException("NCM device is already open or still closing.");
+            }
+            maxOutSize = maxNtbSize;
+            inputSize = ntbInputSize;
+            wantNtb32 = preferNtb32;
+        }
+        claim(controlInterface);
+        try {
+            claim(dataInterface);
+        } catch (IOException e) {
+            connection.releaseInterface(controlInterface);
+            throw e;
+        }
+        final NtbParameters ntbParameters;
+        final boolean useNtb32;
+        final int inSize;
+        try {
+            ntbParameters = readNtbParameters();
+            useNtb32 = wantNtb32 && ntbParameters.supportsNtb32();
+            // The format and input size may only be changed while the data interface is idle
+            if (dataIdleSetting != null) {
+                selectSetting(dataIdleSetting);
+            }
+            if (ntbParameters.supportsNtb32()) {
+                controlOut(SET_NTB_FORMAT, useNtb32 ? NTB_FORMAT_32 : NTB_FORMAT_16, null);
+            }
+            inSize = Math.min(Math.min(inputSize, ntbParameters.getInMaxSize()),
+                useNtb32 ? Integer.MAX_VALUE : MAX_NTB16_SIZE);
+            if (inSize != ntbParameters.getInMaxSize()) {
+                controlOut(SET_NTB_INPUT_SIZE, 0, new byte[]{(byte) inSize, (byte) (inSize >> 8),
+                                                             (byte) (inSize >> 16), (byte) (inSize >> 24)});
+            }
+            selectSetting(dataInterface);
+        } catch (IOException e) {
+            releaseInterfaces();
+            throw e;
+        }
+        synchronized (lock) {
+            parameters = ntbParameters;
+            ntb32 = useNtb32;
+            this.listener = listener;
+            error = 0;
+            filling = null;
+            idleOut.clear();
+            for (int i = 0; i < OUT_TRANSFER_COUNT; ++i) {
+                idleOut.add(new OutSlot(new NtbWriter(ntbParameters, maxOutSize, useNtb32)));
+            }
+            running = true;
+            for (int i = 0; i < IN_TRANSFER_COUNT; ++i) {
+                final InSlot slot = new InSlot(inSize);
+                final int result = slot.submit();
+                if (result < 0) {
+                    Arbor.w("NCM device running with %d of %d IN transfers: %s", i, IN_TRANSFER_COUNT,
+                        LibusbError.fromNative(result));
+                    break;
+                }
+                ++inInFlight;
+            }
+            if (inInFlight == 0) {
+                running = false;
+            } else {
+                claimed = true;
+            }
+        }
+        if (!isRunning()) {
+            if (dataIdleSetting != null) {
+                connection.setInterface(dataIdleSetting);
+            }
+            releaseInterfaces();
+            throw new IOException("Failed to arm NCM IN transfers.");
+        }
+        final Thread flusher = new Thread(new Flusher(), "NcmAggregator");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @NotNull
+    private NtbParameters readNtbParameters() throws IOException {
+        final byte[] data = new byte[NtbParameters.LENGTH];
+        final int result = connection.controlTransfer(REQUEST_TYPE_GET, GET_NTB_PARAMETERS, 0,
+            controlInterface.getId(), data, data.length, CONTROL_TIMEOUT);
+        if (result < NtbParameters.LENGTH) {
+            throw new IOException("Failed to read NTB parameters: " + LibusbError.fromNative(Math.min(result, 0)));
+        }
+        return NtbParameters.parse(data);
+    }
+
+    private void controlOut(int request, int value, @Nullable byte[] data) throws IOException {
+        final int length = data != null ? data.length : 0;
+        final int result = connection.controlTransfer(REQUEST_TYPE_SET, request, value, controlInterface.getId(), data,
+            length, CONTROL_TIMEOUT);
+        if (result < 0) {
+            throw new IOException(String.format("NCM request 0x%02x failed: %s", request,
+                LibusbError.fromNative(result)));
+        }
+    }
+
+    private void claim(@NotNull BaseUsbInterface intf) throws IOException {
+        final LibusbError result = connection.claimInterface(intf, true);
+        if (result != LibusbError.LIBUSB_SUCCESS) {
+            throw new IOException("Failed to claim interface " + intf.getId() + ": " + result);
+        }
+    }
+
+    private void selectSetting(@NotNull BaseUsbInterface setting) throws IOException {
+        final LibusbError result = connection.setInterface(setting);
+        if (result != LibusbError.LIBUSB_SUCCESS) {
+            throw new IOException("Failed to select alternate setting " + setting.getAlternateSetting() + ": "
+                                  + result);
+        }
+    }
+
+    private void releaseInterfaces() {
+        connection.releaseInterface(dataInterface);
+        connection.releaseInterface(controlInterface);
+    }
+
+    public boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * Adds a frame to the block being filled, advancing the frame's position. Blocks only while every OUT transfer is
+     * in flight. May be called from any thread, including an {@link NcmPacketListener}, but on the event thread it can
+     * not wait for an OUT transfer to complete as completions need that thread. There the frame is dropped instead,
+     * and counted in {@link #getDatagramsDropped()}, when every block is in flight.
+     *
+     * @param frame {@link ByteBuffer} holding an Ethernet frame between its position and limit.
+     *
+     * @throws IOException              if the device is not open or has failed.
+     * @throws IllegalArgumentException if the frame can never fit in an NTB.
+     */
+    public void send(@NotNull ByteBuffer frame) throws IOException {
+        Preconditions.checkArgument(frame.hasRemaining(), "Frame is empty.");
+        synchronized (lock) {
+            while (true) {
+                checkRunning();
+                if (filling == null) {
+                    filling = idleOut.poll();
+                    if (filling == null) {
+                        if (Thread.currentThread() instanceof AsyncUSBThread) {
+                            ++datagramsDropped;
+                            frame.position(frame.limit());
+                            return;
+                        }
+                        awaitLock();
+                        continue;
+                    }
+                    filling.writer.reset(sequence++);
+                }
+                if (filling.writer.add(frame)) {
+                    break;
+                }
+                Preconditions.checkArgument(!filling.writer.isEmpty(), "Frame of %d bytes does not fit in an NTB.",
+                    frame.remaining());
+                submitFilling();
+            }
+            if (filling.writer.getDatagramCount() == 1) {
+                fillDeadline = System.nanoTime() + aggregationTimeoutNanos;
+            }
+            if (filling.writer.isFull() || (aggregationTimeoutNanos == 0 && outInFlight < MIN_OUT_IN_FLIGHT)) {
+                submitFilling();
+            } else {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Sends the block being filled without waiting for it to fill or time out.
+     *
+     * @throws IOException if the device is not open or has failed.
+     */
+    public void flush() throws IOException {
+        synchronized (lock) {
+            checkRunning();
+            if (filling != null && !filling.writer.isEmpty()) {
+                submitFilling();
+            }
+        }
+    }
+
+    private void checkRunning() throws IOException {
+        if (error != 0) {
+            throw new IOException("NCM device failed: " + LibusbError.fromNative(error));
+        }
+        if (!running) {
+            throw new IOException("NCM device is not open.");
+        }
+    }
+
+    private void awaitLock() throws InterruptedIOException {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending.");
+        }
+    }
+
+    /**
+     * Finishes and submits the block being filled. Called holding the lock.
+     */
+    private void submitFilling() {
+        final OutSlot slot = filling;
+        filling = null;
+        if (slot == null) {
+            return;
+        }
+        final int length = slot.writer.finish(outEndpoint.getMaxPacketSize());
+        slot.datagrams = slot.writer.getDatagramCount();
+        ++outInFlight;
+        final int result = connection.submitDirectTransfer(outEndpoint, slot.writer.getBuffer(), length, OUT_TIMEOUT,
+            slot);
+        if (result < 0) {
+            Arbor.e("Failed to submit NTB: %s", LibusbError.fromNative(result));
+            --outInFlight;
+            datagramsDropped += slot.datagrams;
+            idleOut.add(slot);
+        }
+    }
+
+    /**
+     * Sends the block being filled, stops resubmitting IN transfers and returns the data interface to its idle setting,
+     * which retires them, then releases the interfaces. The interfaces are also released if the device already stopped
+     * on an error. Must not be called from the event thread.
+     *
+     * @param timeoutMillis {@code long} The longest to wait for transfers to retire.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void close(long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        synchronized (lock) {
+            if (!claimed) {
+                return;
+            }
+            claimed = false;
+            if (running && filling != null && !filling.writer.isEmpty()) {
+                submitFilling();
+            }
+            awaitRetired(deadline, false);
+            running = false;
+            lock.notifyAll();
+        }
+        // Outside the lock, a blocking transfer may need the event thread which a late completion could be holding
+        if (dataIdleSetting != null) {
+            connection.setInterface(dataIdleSetting);
+        }
+        synchronized (lock) {
+            awaitRetired(deadline, true);
+            if (inInFlight > 0 || outInFlight > 0) {
+                Arbor.w("NCM device closed with %d IN and %d OUT transfers in flight.", inInFlight, outInFlight);
+            }
+            listener = null;
+        }
+        releaseInterfaces();
+    }
+
+    private void awaitRetired(long deadline, boolean includeIn) throws InterruptedException {
+        long remaining;
+        while ((outInFlight > 0 || (includeIn && inInFlight > 0))
+               && (remaining = deadline - System.nanoTime()) > 0) {
+            lock.wait(Math.max(1, remaining / 1000000L));
+        }
+    }
+
+    public long getDatagramsSent() {
+        return datagramsSent;
+    }
+
+    public long getNtbsSent() {
+        return ntbsSent;
+    }
+
+    /**
+     * @return {@code long} The frames lost because the block carrying them failed to transfer, or because they were
+     * sent from the event thread while no block was free.
+     */
+    public long getDatagramsDropped() {
+        return datagramsDropped;
+    }
+
+    public long getDatagramsReceived() {
+        return datagramsReceived;
+    }
+
+    public long getNtbsReceived() {
+        return ntbsReceived;
+    }
+
+    /**
+     * @return {@code long} The number of received blocks which were not valid NTBs.
+     */
+    public long getMalformedNtbs() {
+        return malformedNtbs;
+    }
+
+    private final class OutSlot extends DirectTransfer {
+
+        @NotNull
+        final NtbWriter writer;
+
+        int datagrams;
+
+        OutSlot(@NotNull NtbWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void onComplete(int result) {
+            synchronized (lock) {
+                --outInFlight;
+                idleOut.add(this);
+                if (result < 0) {
+                    Arbor.w("NTB of %d datagrams failed: %s", datagrams, LibusbError.fromNative(result));
+                    datagramsDropped += datagrams;
+                    if (result == LibusbError.LIBUSB_ERROR_NO_DEVICE.getCode() && running) {
+                        error = result;
+                        running = false;
+                    }
+                } else {
+                    datagramsSent += datagrams;
+                    ++ntbsSent;
+                }
+                if (running && aggregationTimeoutNanos == 0 && filling != null && !filling.writer.isEmpty()) {
+                    submitFilling();
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private final class InSlot extends DirectTransfer {
+
+        @NotNull
+        private final ByteBuffer buffer;
+
+        @NotNull
+        private final NtbParser parser;
+
+        InSlot(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+            parser = new NtbParser(buffer);
+        }
+
+        int submit() {
+            return connection.submitDirectTransfer(inEndpoint, buffer, buffer.capacity(), 0, this);
+        }
+
+        @Override
+        public void onComplete(int result) {
+            if (result > 0 && isRunning()) {
+                ++ntbsReceived;
+                final int delivered = parser.parse(result, dispatcher);
+                if (delivered < 0) {
+                    ++malformedNtbs;
+                } else {
+                    datagramsReceived += delivered;
+                }
+            }
+            synchronized (lock) {
+                if (result < 0 && result != LibusbError.LIBUSB_ERROR_TIMEOUT.getCode() && running) {
+                    Arbor.e("NCM receive stopped: %s", LibusbError.fromNative(result));
+                    error = result;
+                    running = false;
+                }
+                if (running) {
+                    final int submitted = submit();
+                    if (submitted >= 0) {
+                        return;
+                    }
+                    Arbor.e("Failed to resubmit NCM IN transfer: %s", LibusbError.fromNative(submitted));
+                    error = submitted;
+                    running = false;
+                }
+                --inInFlight;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Sends blocks whose aggregation timeout has expired.
+     */
+    private final class Flusher implements Runnable {
+
+        @Override
+        public void run() {
+            synchronized (lock) {
+                try {
+                    while (running) {
+                        final long timeout = aggregationTimeoutNanos;
+                        if (filling != null && !filling.writer.isEmpty()
+                            && (timeout > 0 || outInFlight < MIN_OUT_IN_FLIGHT)) {
+                            // A block left pending when the timeout was removed is sent like any other untimed one
+                            final long remaining = timeout > 0 ? fillDeadline - System.nanoTime() : 0;
+                            if (remaining <= 0) {
+                                submitFilling();
+                            } else {
+                                lock.wait(remaining / 1000000L, (int) (remaining % 1000000L));
+                            }
+                        } else {
+                            lock.wait();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
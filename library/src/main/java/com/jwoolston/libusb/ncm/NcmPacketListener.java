@@ -0,0 +1,21 @@
+package com.jwoolston.libusb.ncm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the Ethernet frames de-aggregated from incoming NTBs.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public interface NcmPacketListener {
+
+    /**
+     * Called on the libusb event thread for each frame, in the order received.
+     *
+     * @param frame {@link ByteBuffer} A view of the frame inside the transfer buffer, between its position and limit.
+     *              The view and its contents are only valid for the duration of the call; copy what must be kept.
+     */
+    void onPacket(@NotNull ByteBuffer frame);
+}
@@ -0,0 +1,125 @@
+package com.jwoolston.libusb.ncm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The NTB parameter structure returned by GET_NTB_PARAMETERS (CDC NCM 1.0 section 6.2.1), which bounds the size of the
+ * transfer blocks in each direction and fixes how datagrams are aligned inside them.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class NtbParameters {
+
+    static final int LENGTH = 28;
+
+    private static final int FORMAT_NTB32 = 0x02;
+
+    private final int formatsSupported;
+
+    private final int inMaxSize;
+
+    private final int inDivisor;
+
+    private final int inRemainder;
+
+    private final int inAlignment;
+
+    private final int outMaxSize;
+
+    private final int outDivisor;
+
+    private final int outRemainder;
+
+    private final int outAlignment;
+
+    private final int outMaxDatagrams;
+
+    private NtbParameters(@NotNull ByteBuffer buffer) {
+        formatsSupported = 0xFFFF & buffer.getShort(2);
+        inMaxSize = buffer.getInt(4);
+        inDivisor = 0xFFFF & buffer.getShort(8);
+        inRemainder = 0xFFFF & buffer.getShort(10);
+        inAlignment = 0xFFFF & buffer.getShort(12);
+        outMaxSize = buffer.getInt(16);
+        outDivisor = 0xFFFF & buffer.getShort(20);
+        outRemainder = 0xFFFF & buffer.getShort(22);
+        outAlignment = 0xFFFF & buffer.getShort(24);
+        outMaxDatagrams = 0xFFFF & buffer.getShort(26);
+    }
+
+    /**
+     * @param data {@code byte[]} holding the {@value #LENGTH} byte structure.
+     */
+    @NotNull
+    static NtbParameters parse(@NotNull byte[] data) {
+        return new NtbParameters(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    public boolean supportsNtb32() {
+        return (formatsSupported & FORMAT_NTB32) != 0;
+    }
+
+    /**
+     * @return {@code int} The largest NTB the device will send.
+     */
+    public int getInMaxSize() {
+        return inMaxSize;
+    }
+
+    public int getInDivisor() {
+        return inDivisor;
+    }
+
+    public int getInRemainder() {
+        return inRemainder;
+    }
+
+    public int getInAlignment() {
+        return inAlignment;
+    }
+
+    /**
+     * @return {@code int} The largest NTB the device will accept.
+     */
+    public int getOutMaxSize() {
+        return outMaxSize;
+    }
+
+    /**
+     * @return {@code int} The modulus datagram offsets in an OUT NTB are aligned to, at least 1.
+     */
+    public int getOutDivisor() {
+        return Math.max(1, outDivisor);
+    }
+
+    /**
+     * @return {@code int} The remainder of datagram offsets in an OUT NTB modulo {@link #getOutDivisor()}.
+     */
+    public int getOutRemainder() {
+        return outRemainder % getOutDivisor();
+    }
+
+    /**
+     * @return {@code int} The alignment of NDPs in an OUT NTB, at least 4.
+     */
+    public int getOutAlignment() {
+        return Math.max(4, outAlignment);
+    }
+
+    /**
+     * @return {@code int} The most datagrams the device accepts in one OUT NTB, 0 if it does not limit them.
+     */
+    public int getOutMaxDatagrams() {
+        return outMaxDatagrams;
+    }
+
+    @Override
+    public String toString() {
+        return "NtbParameters[ntb32=" + supportsNtb32() + ",inMaxSize=" + inMaxSize + ",outMaxSize=" + outMaxSize
+               + ",outDivisor=" + outDivisor + ",outRemainder=" + outRemainder + ",outAlignment=" + outAlignment
+               + ",outMaxDatagrams=" + outMaxDatagrams + "]";
+    }
+}
@@ -0,0 +1,119 @@
+package com.jwoolston.libusb.ncm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * De-aggregates NTB16 and NTB32 transfer blocks in place. The format of each block is told by its signature, every
+ * datagram pointer table in the chain is followed, and each datagram is handed to the listener as a view into the
+ * block without copying. Offsets and lengths are checked against the block, so a malformed block never exposes
+ * memory outside it; datagrams up to the first malformed entry are still delivered. A table chain which loops back on
+ * itself is malformed, so no datagram is delivered twice.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class NtbParser {
+
+    /** CRC variants of the datagram pointer table signatures, the CRC itself is not checked */
+    private static final int NDP16_CRC_SIGNATURE = 0x314D434E;
+    private static final int NDP32_CRC_SIGNATURE = 0x316D636E;
+
+    /** The most datagram pointer tables followed in one block */
+    private static final int MAX_NDP_CHAIN = 16;
+
+    @NotNull
+    private final ByteBuffer view;
+
+    /** The tables already walked in the block being parsed */
+    @NotNull
+    private final int[] walked = new int[MAX_NDP_CHAIN];
+
+    /**
+     * @param buffer {@link ByteBuffer} The buffer blocks are received into. Blocks are read from its start.
+     */
+    public NtbParser(@NotNull ByteBuffer buffer) {
+        view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Delivers the datagrams of the block at the start of the buffer.
+     *
+     * @param length   {@code int} The number of bytes received.
+     * @param listener {@link NcmPacketListener} to deliver datagrams to.
+     *
+     * @return {@code int} The number of datagrams delivered, or -1 if the block was malformed.
+     */
+    public int parse(int length, @NotNull NcmPacketListener listener) {
+        view.clear();
+        if (length < NtbWriter.NTH16_LENGTH) {
+            return -1;
+        }
+        final int signature = view.getInt(0);
+        final boolean ntb32;
+        final long blockLength;
+        long ndpIndex;
+        if (signature == NtbWriter.NTH16_SIGNATURE) {
+            ntb32 = false;
+            blockLength = 0xFFFF & view.getShort(8);
+            ndpIndex = 0xFFFF & view.getShort(10);
+        } else if (signature == NtbWriter.NTH32_SIGNATURE && length >= NtbWriter.NTH32_LENGTH) {
+            ntb32 = true;
+            blockLength = 0xFFFFFFFFL & view.getInt(8);
+            ndpIndex = 0xFFFFFFFFL & view.getInt(12);
+        } else {
+            return -1;
+        }
+        // Some devices report a zero block length, the received length bounds the block either way
+        final int limit = (int) (blockLength > 0 ? Math.min(blockLength, length) : length);
+        final int ndpHeader = ntb32 ? NtbWriter.NDP32_HEADER_LENGTH : NtbWriter.NDP16_HEADER_LENGTH;
+        final int entrySize = ntb32 ? 8 : 4;
+        int delivered = 0;
+        for (int chain = 0; ndpIndex != 0; ++chain) {
+            if (chain == MAX_NDP_CHAIN || ndpIndex + ndpHeader > limit) {
+                return -1;
+            }
+            final int ndp = (int) ndpIndex;
+            for (int i = 0; i < chain; ++i) {
+                if (walked[i] == ndp) {
+                    return -1;
+                }
+            }
+            walked[chain] = ndp;
+            final int ndpSignature = view.getInt(ndp);
+            if (ntb32 ? ndpSignature != NtbWriter.NDP32_SIGNATURE && ndpSignature != NDP32_CRC_SIGNATURE
+                      : ndpSignature != NtbWriter.NDP16_SIGNATURE && ndpSignature != NDP16_CRC_SIGNATURE) {
+                return -1;
+            }
+            final int ndpLength = 0xFFFF & view.getShort(ndp + 4);
+            if (ndpLength < ndpHeader || ndp + ndpLength > limit) {
+                return -1;
+            }
+            for (int entry = ndp + ndpHeader; entry + entrySize <= ndp + ndpLength; entry += entrySize) {
+                final long offset;
+                final long datagramLength;
+                if (ntb32) {
+                    offset = 0xFFFFFFFFL & view.getInt(entry);
+                    datagramLength = 0xFFFFFFFFL & view.getInt(entry + 4);
+                } else {
+                    offset = 0xFFFF & view.getShort(entry);
+                    datagramLength = 0xFFFF & view.getShort(entry + 2);
+                }
+                if (offset == 0 || datagramLength == 0) {
+                    break;
+                }
+                if (offset + datagramLength > limit) {
+                    return -1;
+                }
+                view.limit((int) (offset + datagramLength));
+                view.position((int) offset);
+                listener.onPacket(view);
+                view.clear();
+                ++delivered;
+            }
+            ndpIndex = ntb32 ? 0xFFFFFFFFL & view.getInt(ndp + 8) : 0xFFFF & view.getShort(ndp + 6);
+        }
+        return delivered;
+    }
+}
@@ -0,0 +1,227 @@
+package com.jwoolston.libusb.ncm;
+
+import com.jwoolston.libusb.util.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Aggregates datagrams into an NTB16 or NTB32 transfer block in a direct buffer (CDC NCM 1.0 section 3). The transfer
+ * header goes first, each datagram is copied once to the next offset satisfying the device's divisor and remainder,
+ * and the single datagram pointer table is written after the last datagram when the block is finished, so nothing is
+ * moved once placed.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class NtbWriter {
+
+    static final int NTH16_SIGNATURE = 0x484D434E;
+    static final int NDP16_SIGNATURE = 0x304D434E;
+    static final int NTH32_SIGNATURE = 0x686D636E;
+    static final int NDP32_SIGNATURE = 0x306D636E;
+
+    static final int NTH16_LENGTH = 12;
+    static final int NTH32_LENGTH = 16;
+    static final int NDP16_HEADER_LENGTH = 8;
+    static final int NDP32_HEADER_LENGTH = 16;
+
+    /** Used when the device does not limit the datagrams per NTB */
+    private static final int DEFAULT_MAX_DATAGRAMS = 64;
+
+    private static final int MAX_NTB16_SIZE = 0xFFFF;
+
+    @NotNull
+    private final ByteBuffer buffer;
+
+    private final boolean ntb32;
+
+    private final int maxSize;
+
+    private final int divisor;
+
+    private final int remainder;
+
+    private final int ndpAlignment;
+
+    @NotNull
+    private final int[] offsets;
+
+    @NotNull
+    private final int[] lengths;
+
+    private int count;
+
+    private int payloadEnd;
+
+    private int sequence;
+
+    /**
+     * @param maxSize      {@code int} The largest NTB to build, no more than the device's maximum OUT size.
+     * @param ntb32        {@code boolean} {@code true} to build NTB32 rather than NTB16 blocks.
+     * @param divisor      {@code int} The datagram offset modulus.
+     * @param remainder    {@code int} The datagram offset remainder.
+     * @param ndpAlignment {@code int} The alignment of the datagram pointer table.
+     * @param maxDatagrams {@code int} The most datagrams per NTB, 0 for no device limit.
+     */
+    public NtbWriter(int maxSize, boolean ntb32, int divisor, int remainder, int ndpAlignment, int maxDatagrams) {
+        Preconditions.checkArgument(ntb32 || maxSize <= MAX_NTB16_SIZE, "NTB16 blocks are limited to 64KB.");
+        Preconditions.checkArgument(divisor > 0 && ndpAlignment > 0, "Divisor and alignment must be positive.");
+        this.maxSize = maxSize;
+        this.ntb32 = ntb32;
+        this.divisor = divisor;
+        this.remainder = remainder;
+        this.ndpAlignment = ndpAlignment;
+        final int datagrams = maxDatagrams > 0 ? maxDatagrams : DEFAULT_MAX_DATAGRAMS;
+        offsets = new int[datagrams];
+        lengths = new int[datagrams];
+        buffer = ByteBuffer.allocateDirect(maxSize).order(ByteOrder.LITTLE_ENDIAN);
+        reset(0);
+    }
+
+    /**
+     * @param parameters {@link NtbParameters} of the device.
+     * @param maxSize    {@code int} The largest NTB to build, limited to the device's maximum OUT size.
+     * @param ntb32      {@code boolean} {@code true} to build NTB32 rather than NTB16 blocks.
+     */
+    public NtbWriter(@NotNull NtbParameters parameters, int maxSize, boolean ntb32) {
+        this(Math.min(Math.min(maxSize, parameters.getOutMaxSize()), ntb32 ? Integer.MAX_VALUE : MAX_NTB16_SIZE),
+            ntb32, parameters.getOutDivisor(), parameters.getOutRemainder(), parameters.getOutAlignment(),
+            parameters.getOutMaxDatagrams());
+    }
+
+    /**
+     * Empties the block.
+     *
+     * @param sequence {@code int} The sequence number of the next block.
+     */
+    public void reset(int sequence) {
+        this.sequence = sequence;
+        count = 0;
+        payloadEnd = ntb32 ? NTH32_LENGTH : NTH16_LENGTH;
+    }
+
+    /**
+     * Copies the remaining bytes of {@code datagram} into the block, advancing its position, if the block has room.
+     *
+     * @return {@code boolean} {@code true} if the datagram was added, {@code false} if the block is full.
+     */
+    public boolean add(@NotNull ByteBuffer datagram) {
+        if (count == offsets.length) {
+            return false;
+        }
+        final int length = datagram.remaining();
+        final int offset = align(payloadEnd);
+        final int end = offset + length;
+        if (alignUp(end, ndpAlignment) + getNdpLength(count + 1) > maxSize) {
+            return false;
+        }
+        buffer.clear();
+        buffer.position(offset);
+        buffer.put(datagram);
+        offsets[count] = offset;
+        lengths[count] = length;
+        ++count;
+        payloadEnd = end;
+        return true;
+    }
+
+    /**
+     * @return {@code boolean} {@code true} if a datagram of {@code length} bytes could ever fit in an empty block.
+     */
+    public boolean fits(int length) {
+        final int offset = align(ntb32 ? NTH32_LENGTH : NTH16_LENGTH);
+        return alignUp(offset + length, ndpAlignment) + getNdpLength(1) <= maxSize;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public boolean isFull() {
+        return count == offsets.length;
+    }
+
+    public int getDatagramCount() {
+        return count;
+    }
+
+    /**
+     * Writes the datagram pointer table and the transfer header.
+     *
+     * @param maxPacketSize {@code int} The packet size of the bulk OUT endpoint. A block shorter than the maximum which
+     *                      fills a whole number of packets is padded by a byte, so it ends with a short packet.
+     *
+     * @return {@code int} The length of the block to transfer from the start of {@link #getBuffer()}.
+     */
+    public int finish(int maxPacketSize) {
+        final int ndpIndex = alignUp(payloadEnd, ndpAlignment);
+        final int ndpLength = getNdpLength(count);
+        int blockLength = ndpIndex + ndpLength;
+        if (blockLength < maxSize && maxPacketSize > 0 && blockLength % maxPacketSize == 0) {
+            buffer.put(blockLength, (byte) 0);
+            ++blockLength;
+        }
+        if (ntb32) {
+            buffer.putInt(0, NTH32_SIGNATURE);
+            buffer.putShort(4, (short) NTH32_LENGTH);
+            buffer.putShort(6, (short) sequence);
+            buffer.putInt(8, blockLength);
+            buffer.putInt(12, ndpIndex);
+            buffer.putInt(ndpIndex, NDP32_SIGNATURE);
+            buffer.putShort(ndpIndex + 4, (short) ndpLength);
+            buffer.putShort(ndpIndex + 6, (short) 0);
+            buffer.putInt(ndpIndex + 8, 0);
+            buffer.putInt(ndpIndex + 12, 0);
+            int entry = ndpIndex + NDP32_HEADER_LENGTH;
+            for (int i = 0; i < count; ++i, entry += 8) {
+                buffer.putInt(entry, offsets[i]);
+                buffer.putInt(entry + 4, lengths[i]);
+            }
+            buffer.putLong(entry, 0);
+        } else {
+            buffer.putInt(0, NTH16_SIGNATURE);
+            buffer.putShort(4, (short) NTH16_LENGTH);
+            buffer.putShort(6, (short) sequence);
+            buffer.putShort(8, (short) blockLength);
+            buffer.putShort(10, (short) ndpIndex);
+            buffer.putInt(ndpIndex, NDP16_SIGNATURE);
+            buffer.putShort(ndpIndex + 4, (short) ndpLength);
+            buffer.putShort(ndpIndex + 6, (short) 0);
+            int entry = ndpIndex + NDP16_HEADER_LENGTH;
+            for (int i = 0; i < count; ++i, entry += 4) {
+                buffer.putShort(entry, (short) offsets[i]);
+                buffer.putShort(entry + 2, (short) lengths[i]);
+            }
+            buffer.putInt(entry, 0);
+        }
+        return blockLength;
+    }
+
+    /**
+     * @return {@link ByteBuffer} The direct buffer the block is built in.
+     */
+    @NotNull
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return {@code int} The length of a datagram pointer table for {@code datagrams} entries and its terminator.
+     */
+    private int getNdpLength(int datagrams) {
+        return ntb32 ? NDP32_HEADER_LENGTH + 8 * (datagrams + 1) : NDP16_HEADER_LENGTH + 4 * (datagrams + 1);
+    }
+
+    /**
+     * @return {@code int} The first offset from {@code offset} which leaves {@code remainder} modulo {@code divisor}.
+     */
+    private int align(int offset) {
+        return offset + ((remainder - offset % divisor) % divisor + divisor) % divisor;
+    }
+
+    private static int alignUp(int offset, int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+}
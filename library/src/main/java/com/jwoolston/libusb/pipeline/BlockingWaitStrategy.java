@@ -0,0 +1,52 @@
+package com.jwoolston.libusb.pipeline;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Parks consumers on a condition until the producer publishes. Uses the least CPU at the cost of a wake up on every
+ * publish, which the producer only pays while a consumer is actually waiting.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition published = lock.newCondition();
+
+    private volatile int waiters;
+
+    @Override
+    public long waitFor(long sequence, @NotNull Sequence cursor) throws InterruptedException {
+        long available = cursor.get();
+        if (available >= sequence) {
+            return available;
+        }
+        lock.lock();
+        try {
+            ++waiters;
+            while ((available = cursor.get()) < sequence) {
+                published.await();
+            }
+        } finally {
+            --waiters;
+            lock.unlock();
+        }
+        return available;
+    }
+
+    @Override
+    public void signalAllWhenBlocking() {
+        if (waiters > 0) {
+            lock.lock();
+            try {
+                published.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
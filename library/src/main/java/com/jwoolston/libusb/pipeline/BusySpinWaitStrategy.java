@@ -0,0 +1,27 @@
+package com.jwoolston.libusb.pipeline;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Spins on the cursor. Lowest latency, but occupies a core per consumer and should only be used with consumer threads
+ * pinned to otherwise idle cores.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public long waitFor(long sequence, @NotNull Sequence cursor) throws InterruptedException {
+        long available;
+        while ((available = cursor.get()) < sequence) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return available;
+    }
+
+    @Override
+    public void signalAllWhenBlocking() {
+    }
+}
@@ -0,0 +1,148 @@
+package com.jwoolston.libusb.pipeline;
+
+import com.jwoolston.libusb.util.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A fixed ring of {@link CompletionSlot}s shared by a single producer, an {@link EndpointPipeline}, and any number of
+ * {@link RingConsumer}s. Every consumer sees every slot. Slots are claimed by sequence number, the producer publishes
+ * by advancing its cursor and never overwrites a slot until all consumers have released it, so a slow consumer stalls
+ * the endpoint rather than losing data. All slots and their buffers are allocated up front.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class CompletionRing {
+
+    @NotNull
+    private final CompletionSlot[] slots;
+
+    private final int mask;
+
+    private final int slotCapacity;
+
+    @NotNull
+    private final WaitStrategy waitStrategy;
+
+    private final Sequence cursor = new Sequence();
+
+    @NotNull
+    private volatile Sequence[] gatingSequences = new Sequence[0];
+
+    @Nullable
+    private volatile Runnable releaseListener;
+
+    /**
+     * @param size         {@code int} The number of slots, a power of 2.
+     * @param slotCapacity {@code int} The size of each slot's buffer in bytes, the maximum length of one transfer.
+     * @param waitStrategy {@link WaitStrategy} consumers use to wait for the producer.
+     */
+    public CompletionRing(int size, int slotCapacity, @NotNull WaitStrategy waitStrategy) {
+        Preconditions.checkArgument(size > 0 && Integer.bitCount(size) == 1, "Ring size must be a power of 2.");
+        Preconditions.checkArgument(slotCapacity > 0, "Slot capacity must be positive.");
+        slots = new CompletionSlot[size];
+        for (int i = 0; i < size; ++i) {
+            slots[i] = new CompletionSlot(slotCapacity);
+        }
+        mask = size - 1;
+        this.slotCapacity = slotCapacity;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * @return {@code int} The number of slots.
+     */
+    public int getSize() {
+        return slots.length;
+    }
+
+    /**
+     * @return {@code int} The size of each slot's buffer in bytes.
+     */
+    public int getSlotCapacity() {
+        return slotCapacity;
+    }
+
+    /**
+     * @return {@code long} The highest published sequence, -1 if nothing has been published.
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * Adds a consumer which starts after the currently published sequence.
+     *
+     * @return The new {@link RingConsumer}.
+     */
+    @NotNull
+    public synchronized RingConsumer newConsumer() {
+        final RingConsumer consumer = new RingConsumer(this, new Sequence(cursor.get()));
+        final Sequence[] current = gatingSequences;
+        final Sequence[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = consumer.sequence;
+        gatingSequences = updated;
+        return consumer;
+    }
+
+    /**
+     * Removes a consumer so it no longer holds back the producer.
+     *
+     * @param consumer {@link RingConsumer} to remove.
+     */
+    public synchronized void removeConsumer(@NotNull RingConsumer consumer) {
+        final Sequence[] current = gatingSequences;
+        for (int i = 0; i < current.length; ++i) {
+            if (current[i] == consumer.sequence) {
+                final Sequence[] updated = new Sequence[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                gatingSequences = updated;
+                break;
+            }
+        }
+        notifyReleased();
+    }
+
+    @NotNull
+    CompletionSlot slot(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    long waitFor(long sequence) throws InterruptedException {
+        return waitStrategy.waitFor(sequence, cursor);
+    }
+
+    /**
+     * @return {@code true} if the slot for {@code sequence} has been released by every consumer.
+     */
+    boolean isAvailable(long sequence) {
+        final long wrapPoint = sequence - slots.length;
+        for (Sequence gating : gatingSequences) {
+            if (gating.get() < wrapPoint) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void publish(long sequence) {
+        // A full fence so blocked consumers registering as waiters can not miss the signal
+        cursor.setVolatile(sequence);
+        waitStrategy.signalAllWhenBlocking();
+    }
+
+    void setReleaseListener(@Nullable Runnable listener) {
+        releaseListener = listener;
+    }
+
+    void notifyReleased() {
+        final Runnable listener = releaseListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.jwoolston.libusb.pipeline;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A preallocated entry of a {@link CompletionRing}. The transfer for the slot's sequence reads directly into its
+ * buffer, and the completion's length, status and timestamp are recorded alongside. Slots are reused once every
+ * consumer has released them, so nothing from a slot may be retained past {@link RingConsumer#release(long)}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class CompletionSlot {
+
+    @NotNull
+    private final ByteBuffer buffer;
+
+    private int length;
+
+    private int status;
+
+    private long timestampNanos;
+
+    CompletionSlot(int capacity) {
+        buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    @NotNull
+    ByteBuffer getTransferBuffer() {
+        return buffer;
+    }
+
+    void set(int length, int status, long timestampNanos) {
+        this.length = length;
+        this.status = status;
+        this.timestampNanos = timestampNanos;
+        buffer.limit(length).position(0);
+    }
+
+    /**
+     * @return {@link ByteBuffer} The received data, positioned at 0 and limited to {@link #getLength()}. Consumers
+     * should read through absolute accessors or a duplicate so other consumers of the same slot are unaffected.
+     */
+    @NotNull
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return {@code int} The number of bytes received, which may be non zero for a transfer which timed out.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return {@code int} 0 if the transfer succeeded, otherwise the libusb error code it failed with.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return {@code long} The {@link System#nanoTime()} at which the transfer completed.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+}
@@ -0,0 +1,188 @@
+package com.jwoolston.libusb.pipeline;
+
+import com.jwoolston.libusb.BaseUsbDeviceConnection;
+import com.jwoolston.libusb.BaseUsbEndpoint;
+import com.jwoolston.libusb.DirectTransfer;
+import com.jwoolston.libusb.LibusbError;
+import com.jwoolston.libusb.UsbConstants;
+import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Streams a bulk or interrupt IN endpoint into a {@link CompletionRing}. Transfers read directly into the buffers of
+ * the slots they will be published in, up to a fixed number in flight, and completions are published in sequence
+ * order from the event thread. Nothing is allocated per transfer on the Java side.
+ * <p>
+ * When the ring is full the pipeline stops submitting and resumes as soon as a consumer releases a slot, so the
+ * endpoint is throttled to the slowest consumer. Failed transfers are published with their error status and whatever
+ * data they received before failing; any error other than a timeout also stops the pipeline.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class EndpointPipeline {
+
+    @NotNull
+    private final BaseUsbDeviceConnection connection;
+
+    @NotNull
+    private final BaseUsbEndpoint endpoint;
+
+    @NotNull
+    private final CompletionRing ring;
+
+    private final int maxInFlight;
+
+    private final int timeout;
+
+    @NotNull
+    private final SlotTransfer[] transfers;
+
+    private final boolean[] completed;
+
+    /**
+     * The next sequence to submit a transfer for.
+     */
+    private long nextSubmit;
+
+    /**
+     * The highest sequence published to the ring.
+     */
+    private long published = Sequence.INITIAL_VALUE;
+
+    private int inFlight;
+
+    private volatile boolean running;
+
+    private volatile boolean stalled;
+
+    /**
+     * @param connection  {@link BaseUsbDeviceConnection} to the device owning the endpoint.
+     * @param endpoint    {@link BaseUsbEndpoint} The bulk or interrupt IN endpoint to stream from.
+     * @param ring        {@link CompletionRing} to publish completions to. A ring has a single producer.
+     * @param maxInFlight {@code int} The maximum number of transfers submitted at once.
+     * @param timeout     {@code int} Timeout of each transfer in milliseconds, 0 is infinite.
+     */
+    public EndpointPipeline(@NotNull BaseUsbDeviceConnection connection, @NotNull BaseUsbEndpoint endpoint,
+                            @NotNull CompletionRing ring, int maxInFlight, int timeout) {
+        Preconditions.checkArgument(endpoint.getDirection() == UsbConstants.USB_DIR_IN,
+            "Endpoint %s is not an IN endpoint.", endpoint);
+        Preconditions.checkArgument(maxInFlight > 0 && maxInFlight <= ring.getSize(),
+            "Transfers in flight must be between 1 and the ring size.");
+        this.connection = connection;
+        this.endpoint = endpoint;
+        this.ring = ring;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+        transfers = new SlotTransfer[ring.getSize()];
+        for (int i = 0; i < transfers.length; ++i) {
+            transfers[i] = new SlotTransfer();
+        }
+        completed = new boolean[ring.getSize()];
+        nextSubmit = ring.getCursor() + 1;
+        published = ring.getCursor();
+    }
+
+    /**
+     * Starts streaming into the ring.
+     *
+     * @throws IOException if the first transfer could not be submitted.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        running = true;
+        ring.setReleaseListener(new Runnable() {
+            @Override
+            public void run() {
+                if (stalled) {
+                    fill();
+                }
+            }
+        });
+        final int result = fill();
+        if (result < 0 && inFlight == 0) {
+            running = false;
+            throw new IOException("Failed to start pipeline on " + endpoint + ": " + LibusbError.fromNative(result));
+        }
+    }
+
+    /**
+     * Stops submitting transfers. Transfers already in flight still complete and are published.
+     */
+    public void stop() {
+        running = false;
+        ring.setReleaseListener(null);
+    }
+
+    /**
+     * @return {@code true} if the pipeline is submitting transfers.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Submits transfers until the in flight limit is reached or the ring is full.
+     *
+     * @return {@code int} 0, or the libusb error of the last failed submission.
+     */
+    private synchronized int fill() {
+        while (running && inFlight < maxInFlight) {
+            if (!ring.isAvailable(nextSubmit)) {
+                stalled = true;
+                // Re-check after publishing the flag, a consumer may have released in between
+                if (!ring.isAvailable(nextSubmit)) {
+                    return LibusbError.LIBUSB_SUCCESS.getCode();
+                }
+            }
+            stalled = false;
+            final long sequence = nextSubmit;
+            final SlotTransfer transfer = transfers[(int) sequence & (transfers.length - 1)];
+            transfer.sequence = sequence;
+            final int result = connection.submitDirectTransfer(endpoint, ring.slot(sequence).getTransferBuffer(),
+                ring.getSlotCapacity(), timeout, transfer);
+            if (result < 0) {
+                Arbor.e("Failed to submit transfer on %s: %s", endpoint, LibusbError.fromNative(result));
+                running = false;
+                return result;
+            }
+            ++nextSubmit;
+            ++inFlight;
+        }
+        return LibusbError.LIBUSB_SUCCESS.getCode();
+    }
+
+    private synchronized void onTransferComplete(long sequence, int result, int actualLength) {
+        --inFlight;
+        final int index = (int) sequence & (completed.length - 1);
+        // A failed transfer, timed out in particular, may still have received data before it ended
+        ring.slot(sequence).set(result >= 0 ? result : actualLength, Math.min(result, 0), System.nanoTime());
+        completed[index] = true;
+        // libusb completes an endpoint's transfers in order, but publish strictly by sequence regardless
+        while (completed[(int) (published + 1) & (completed.length - 1)]) {
+            completed[(int) (published + 1) & (completed.length - 1)] = false;
+            ring.publish(++published);
+        }
+        if (result < 0 && result != LibusbError.LIBUSB_ERROR_TIMEOUT.getCode()) {
+            Arbor.w("Transfer on %s failed, stopping pipeline: %s", endpoint, LibusbError.fromNative(result));
+            running = false;
+            return;
+        }
+        fill();
+    }
+
+    private final class SlotTransfer extends DirectTransfer {
+
+        private long sequence;
+
+        @Override
+        public void onComplete(int result) {
+            onTransferComplete(sequence, result, getActualLength());
+        }
+    }
+}
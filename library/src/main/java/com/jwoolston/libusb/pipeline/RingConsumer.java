@@ -0,0 +1,75 @@
+package com.jwoolston.libusb.pipeline;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A consumer's position in a {@link CompletionRing}. A typical consumer thread processes every available slot and then
+ * releases them together:
+ * <pre>
+ * long next = consumer.getSequence() + 1;
+ * while (running) {
+ *     final long available = consumer.waitFor(next);
+ *     for (; next &lt;= available; ++next) {
+ *         handle(consumer.get(next));
+ *     }
+ *     consumer.release(available);
+ * }
+ * </pre>
+ * A consumer must only be used from one thread.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class RingConsumer {
+
+    @NotNull
+    private final CompletionRing ring;
+
+    @NotNull
+    final Sequence sequence;
+
+    RingConsumer(@NotNull CompletionRing ring, @NotNull Sequence sequence) {
+        this.ring = ring;
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return {@code long} The last sequence this consumer released.
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Waits, according to the ring's {@link WaitStrategy}, until {@code sequence} has been published.
+     *
+     * @param sequence {@code long} The next sequence to consume.
+     *
+     * @return {@code long} The highest published sequence, which may be greater than {@code sequence}.
+     *
+     * @throws InterruptedException if the waiting thread is interrupted.
+     */
+    public long waitFor(long sequence) throws InterruptedException {
+        return ring.waitFor(sequence);
+    }
+
+    /**
+     * @param sequence {@code long} A published sequence not yet released by this consumer.
+     *
+     * @return {@link CompletionSlot} holding the completion for {@code sequence}.
+     */
+    @NotNull
+    public CompletionSlot get(long sequence) {
+        return ring.slot(sequence);
+    }
+
+    /**
+     * Releases every slot up to and including {@code sequence} so the producer may reuse them.
+     *
+     * @param sequence {@code long} The last consumed sequence.
+     */
+    public void release(long sequence) {
+        // A full fence, pairing with the producer's check after it marks itself stalled
+        this.sequence.setVolatile(sequence);
+        ring.notifyReleased();
+    }
+}
@@ -0,0 +1,70 @@
+package com.jwoolston.libusb.pipeline;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A sequence number shared between threads, padded on both sides so that sequences updated by different threads never
+ * share a cache line.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class Sequence extends RhsPadding {
+
+    static final long INITIAL_VALUE = -1L;
+
+    public Sequence() {
+        this(INITIAL_VALUE);
+    }
+
+    public Sequence(long initialValue) {
+        UPDATER.set(this, initialValue);
+    }
+
+    /**
+     * @return {@code long} The current value, with volatile read semantics.
+     */
+    public long get() {
+        return value;
+    }
+
+    /**
+     * Sets the value with release semantics. Writes made before this call are visible to a thread which observes the
+     * new value.
+     *
+     * @param value {@code long} The new value.
+     */
+    public void set(long value) {
+        UPDATER.lazySet(this, value);
+    }
+
+    /**
+     * Sets the value with volatile semantics, ordering it before any subsequent read by this thread.
+     *
+     * @param value {@code long} The new value.
+     */
+    public void setVolatile(long value) {
+        UPDATER.set(this, value);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
+
+class LhsPadding {
+    @SuppressWarnings("unused")
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class Value extends LhsPadding {
+
+    static final AtomicLongFieldUpdater<Value> UPDATER = AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+
+    protected volatile long value;
+}
+
+class RhsPadding extends Value {
+    @SuppressWarnings("unused")
+    protected long p9, p10, p11, p12, p13, p14, p15;
+}
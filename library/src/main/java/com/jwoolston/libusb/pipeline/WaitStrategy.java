@@ -0,0 +1,28 @@
+package com.jwoolston.libusb.pipeline;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Determines how a consumer waits for the producer to publish a sequence.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public interface WaitStrategy {
+
+    /**
+     * Waits until {@code cursor} reaches at least {@code sequence}.
+     *
+     * @param sequence {@code long} The sequence to wait for.
+     * @param cursor   {@link Sequence} The producer's published sequence.
+     *
+     * @return {@code long} The highest published sequence, which may be greater than {@code sequence}.
+     *
+     * @throws InterruptedException if the waiting thread is interrupted.
+     */
+    long waitFor(long sequence, @NotNull Sequence cursor) throws InterruptedException;
+
+    /**
+     * Called by the producer after publishing, to wake consumers which block rather than spin.
+     */
+    void signalAllWhenBlocking();
+}
@@ -0,0 +1,35 @@
+package com.jwoolston.libusb.pipeline;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Spins on the cursor for a bounded number of attempts and then yields the thread between checks. A compromise between
+ * latency and CPU use when consumers outnumber idle cores.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+
+    private static final int SPIN_TRIES = 100;
+
+    @Override
+    public long waitFor(long sequence, @NotNull Sequence cursor) throws InterruptedException {
+        long available;
+        int counter = SPIN_TRIES;
+        while ((available = cursor.get()) < sequence) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (counter > 0) {
+                --counter;
+            } else {
+                Thread.yield();
+            }
+        }
+        return available;
+    }
+
+    @Override
+    public void signalAllWhenBlocking() {
+    }
+}
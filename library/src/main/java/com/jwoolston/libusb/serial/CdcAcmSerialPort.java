@@ -0,0 +1,91 @@
+package com.jwoolston.libusb.serial;
+
+import com.jwoolston.libusb.BaseUsbDeviceConnection;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.UsbConstants;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * A CDC Abstract Control Model serial port. Line coding and the control lines are set on the communications interface,
+ * data flows over the bulk endpoints of its data interface. Devices which put the bulk endpoints on the communications
+ * interface itself are also handled.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class CdcAcmSerialPort extends UsbSerialPort {
+
+    private static final int REQUEST_TYPE = UsbConstants.USB_DIR_OUT | UsbConstants.USB_TYPE_CLASS
+                                            | RECIPIENT_INTERFACE;
+
+    private static final int SET_LINE_CODING = 0x20;
+    private static final int SET_CONTROL_LINE_STATE = 0x22;
+
+    private static final int CONTROL_LINE_DTR = 0x01;
+    private static final int CONTROL_LINE_RTS = 0x02;
+
+    @Nullable
+    private final BaseUsbInterface controlInterface;
+
+    /**
+     * @param connection       {@link BaseUsbDeviceConnection} to the device.
+     * @param controlInterface {@link BaseUsbInterface} The communications interface, or {@code null} if the device
+     *                         only has a data interface, in which case line coding requests go to it.
+     * @param dataInterface    {@link BaseUsbInterface} The interface with the bulk endpoints.
+     */
+    public CdcAcmSerialPort(@NotNull BaseUsbDeviceConnection connection, @Nullable BaseUsbInterface controlInterface,
+                            @NotNull BaseUsbInterface dataInterface) {
+        super(connection, dataInterface);
+        this.controlInterface = controlInterface != null && controlInterface.getId() != dataInterface.getId()
+                                ? controlInterface : null;
+    }
+
+    private int getControlIndex() {
+        return controlInterface != null ? controlInterface.getId() : dataInterface.getId();
+    }
+
+    @Override
+    protected void claimInterfaces() throws IOException {
+        if (controlInterface != null) {
+            claim(controlInterface);
+        }
+        try {
+            super.claimInterfaces();
+        } catch (IOException e) {
+            if (controlInterface != null) {
+                connection.releaseInterface(controlInterface);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    protected void releaseInterfaces() {
+        super.releaseInterfaces();
+        if (controlInterface != null) {
+            connection.releaseInterface(controlInterface);
+        }
+    }
+
+    @Override
+    protected void onOpen() throws IOException {
+    }
+
+    @Override
+    public void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
+        checkParameters(baudRate, dataBits, stopBits, parity);
+        // dwDTERate, bCharFormat, bParityType and bDataBits use the same codes as this class
+        final byte[] coding = {(byte) baudRate, (byte) (baudRate >> 8), (byte) (baudRate >> 16),
+                               (byte) (baudRate >> 24), (byte) stopBits, (byte) parity, (byte) dataBits};
+        controlOut(REQUEST_TYPE, SET_LINE_CODING, 0, getControlIndex(), coding);
+    }
+
+    @Override
+    public void setControlLines(boolean dtr, boolean rts) throws IOException {
+        final int state = (dtr ? CONTROL_LINE_DTR : 0) | (rts ? CONTROL_LINE_RTS : 0);
+        controlOut(REQUEST_TYPE, SET_CONTROL_LINE_STATE, state, getControlIndex());
+    }
+}
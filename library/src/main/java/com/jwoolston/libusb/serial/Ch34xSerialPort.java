@@ -0,0 +1,163 @@
+package com.jwoolston.libusb.serial;
+
+import com.jwoolston.libusb.BaseUsbDeviceConnection;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.LibusbError;
+import com.jwoolston.libusb.UsbConstants;
+import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * A WCH CH340/CH341 bridge. The chips are undocumented; the requests follow those of the Linux {@code ch341} driver.
+ * The baud rate is a prescaler and divisor of a 48MHz clock. Chips older than version 0x30 only run 8N1 and ignore
+ * the line control register.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class Ch34xSerialPort extends UsbSerialPort {
+
+    private static final int REQUEST_TYPE_OUT = UsbConstants.USB_DIR_OUT | UsbConstants.USB_TYPE_VENDOR;
+    private static final int REQUEST_TYPE_IN = UsbConstants.USB_DIR_IN | UsbConstants.USB_TYPE_VENDOR;
+
+    private static final int READ_VERSION = 0x5F;
+    private static final int WRITE_REGISTER = 0x9A;
+    private static final int SERIAL_INIT = 0xA1;
+    private static final int MODEM_CONTROL = 0xA4;
+
+    /** Prescaler and divisor registers, written together */
+    private static final int REGISTER_BAUD = 0x1312;
+
+    /** Line control registers, written together */
+    private static final int REGISTER_LCR = 0x2518;
+
+    private static final int LCR_ENABLE_RX = 0x80;
+    private static final int LCR_ENABLE_TX = 0x40;
+    private static final int LCR_MARK_SPACE = 0x20;
+    private static final int LCR_PARITY_EVEN = 0x10;
+    private static final int LCR_ENABLE_PARITY = 0x08;
+    private static final int LCR_STOP_BITS_2 = 0x04;
+
+    private static final int MODEM_DTR = 0x20;
+    private static final int MODEM_RTS = 0x40;
+
+    private static final int CLOCK_RATE = 48000000;
+
+    /** Chips from this version on take a line control register */
+    private static final int VERSION_LCR = 0x30;
+
+    /** Chips after this version need bit 7 of the baud rate registers set */
+    private static final int VERSION_BAUD_QUIRK = 0x27;
+
+    private static final int DEFAULT_BAUD_RATE = 9600;
+
+    private int version;
+
+    public Ch34xSerialPort(@NotNull BaseUsbDeviceConnection connection, @NotNull BaseUsbInterface dataInterface) {
+        super(connection, dataInterface);
+    }
+
+    @Override
+    protected void onOpen() throws IOException {
+        final byte[] buffer = new byte[2];
+        final int result = connection.controlTransfer(REQUEST_TYPE_IN, READ_VERSION, 0, 0, buffer, buffer.length,
+            CONTROL_TIMEOUT);
+        if (result < 2) {
+            throw new IOException("Failed to read CH34x version: " + LibusbError.fromNative(Math.min(result, 0)));
+        }
+        version = 0xFF & buffer[0];
+        controlOut(REQUEST_TYPE_OUT, SERIAL_INIT, 0, 0);
+        setParameters(DEFAULT_BAUD_RATE, DATA_BITS_8, STOP_BITS_1, PARITY_NONE);
+    }
+
+    /**
+     * @return {@code int} The chip version read when the port was opened.
+     */
+    public int getChipVersion() {
+        return version;
+    }
+
+    @Override
+    public void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
+        checkParameters(baudRate, dataBits, stopBits, parity);
+        Preconditions.checkArgument(stopBits != STOP_BITS_1_5, "CH34x ports do not support 1.5 stop bits.");
+        int baud = encodeBaudRate(baudRate);
+        if (version > VERSION_BAUD_QUIRK) {
+            baud |= 0x80;
+        }
+        controlOut(REQUEST_TYPE_OUT, WRITE_REGISTER, REGISTER_BAUD, baud);
+        int lcr = LCR_ENABLE_RX | LCR_ENABLE_TX | (dataBits - DATA_BITS_5);
+        if (stopBits == STOP_BITS_2) {
+            lcr |= LCR_STOP_BITS_2;
+        }
+        switch (parity) {
+            case PARITY_ODD:
+                lcr |= LCR_ENABLE_PARITY;
+                break;
+            case PARITY_EVEN:
+                lcr |= LCR_ENABLE_PARITY | LCR_PARITY_EVEN;
+                break;
+            case PARITY_MARK:
+                lcr |= LCR_ENABLE_PARITY | LCR_MARK_SPACE;
+                break;
+            case PARITY_SPACE:
+                lcr |= LCR_ENABLE_PARITY | LCR_MARK_SPACE | LCR_PARITY_EVEN;
+                break;
+            default:
+                break;
+        }
+        if (version >= VERSION_LCR) {
+            controlOut(REQUEST_TYPE_OUT, WRITE_REGISTER, REGISTER_LCR, lcr);
+        } else if (dataBits != DATA_BITS_8 || stopBits != STOP_BITS_1 || parity != PARITY_NONE) {
+            Arbor.w("CH34x version 0x%02x only supports 8N1.", version);
+        }
+    }
+
+    /**
+     * Finds the prescaler and divisor closest to a baud rate, encoded as the value of the baud rate registers. The
+     * rate is first clamped to the 46 to 3000000 baud the divisor can reach.
+     */
+    static int encodeBaudRate(int baudRate) {
+        // Rounded up, as the slowest rate the largest divisor reaches is 45.8 baud
+        final int slowest = clockDivisor(0, 0) * 256;
+        final int minRate = (CLOCK_RATE + slowest - 1) / slowest;
+        final int maxRate = CLOCK_RATE / (clockDivisor(3, 0) * 2);
+        final int rate = Math.max(minRate, Math.min(maxRate, baudRate));
+        int prescaler = 3;
+        while (prescaler > 0 && rate <= CLOCK_RATE / (clockDivisor(prescaler, 1) * 512)) {
+            --prescaler;
+        }
+        int factor = 1;
+        int clockDivisor = clockDivisor(prescaler, factor);
+        int divisor = CLOCK_RATE / (clockDivisor * rate);
+        if (divisor < 9 || divisor > 255) {
+            divisor /= 2;
+            clockDivisor *= 2;
+            factor = 0;
+        }
+        // Round to the nearer of the two divisors
+        if (16L * CLOCK_RATE / (clockDivisor * divisor) - 16L * rate
+            >= 16L * rate - 16L * CLOCK_RATE / (clockDivisor * (divisor + 1))) {
+            ++divisor;
+        }
+        if (factor == 1 && divisor % 2 == 0) {
+            divisor /= 2;
+            factor = 0;
+        }
+        return (0x100 - divisor) << 8 | factor << 2 | prescaler;
+    }
+
+    private static int clockDivisor(int prescaler, int factor) {
+        return 1 << (12 - 3 * prescaler - factor);
+    }
+
+    @Override
+    public void setControlLines(boolean dtr, boolean rts) throws IOException {
+        // The lines are active low
+        final int control = (dtr ? MODEM_DTR : 0) | (rts ? MODEM_RTS : 0);
+        controlOut(REQUEST_TYPE_OUT, MODEM_CONTROL, ~control & 0xFF, 0);
+    }
+}
@@ -0,0 +1,67 @@
+package com.jwoolston.libusb.serial;
+
+import com.jwoolston.libusb.BaseUsbDeviceConnection;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.UsbConstants;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * A port of a Silicon Labs CP210x bridge. Every request is a vendor request to the port's interface (AN571), which
+ * also makes multi-port parts such as the CP2105 and CP2108 work one interface per port.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class Cp210xSerialPort extends UsbSerialPort {
+
+    private static final int REQUEST_TYPE = UsbConstants.USB_DIR_OUT | UsbConstants.USB_TYPE_VENDOR
+                                            | RECIPIENT_INTERFACE;
+
+    private static final int IFC_ENABLE = 0x00;
+    private static final int SET_LINE_CTL = 0x03;
+    private static final int SET_MHS = 0x07;
+    private static final int PURGE = 0x12;
+    private static final int SET_BAUDRATE = 0x1E;
+
+    private static final int UART_ENABLE = 0x0001;
+    private static final int UART_DISABLE = 0x0000;
+
+    private static final int PURGE_ALL = 0x000F;
+
+    private static final int MHS_DTR = 0x0001;
+    private static final int MHS_RTS = 0x0002;
+    private static final int MHS_DTR_MASK = 0x0100;
+    private static final int MHS_RTS_MASK = 0x0200;
+
+    public Cp210xSerialPort(@NotNull BaseUsbDeviceConnection connection, @NotNull BaseUsbInterface dataInterface) {
+        super(connection, dataInterface);
+    }
+
+    @Override
+    protected void onOpen() throws IOException {
+        controlOut(REQUEST_TYPE, IFC_ENABLE, UART_ENABLE, dataInterface.getId());
+        controlOut(REQUEST_TYPE, PURGE, PURGE_ALL, dataInterface.getId());
+    }
+
+    @Override
+    protected void onClose() throws IOException {
+        controlOut(REQUEST_TYPE, IFC_ENABLE, UART_DISABLE, dataInterface.getId());
+    }
+
+    @Override
+    public void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
+        checkParameters(baudRate, dataBits, stopBits, parity);
+        final byte[] rate = {(byte) baudRate, (byte) (baudRate >> 8), (byte) (baudRate >> 16),
+                             (byte) (baudRate >> 24)};
+        controlOut(REQUEST_TYPE, SET_BAUDRATE, 0, dataInterface.getId(), rate);
+        controlOut(REQUEST_TYPE, SET_LINE_CTL, stopBits | parity << 4 | dataBits << 8, dataInterface.getId());
+    }
+
+    @Override
+    public void setControlLines(boolean dtr, boolean rts) throws IOException {
+        final int value = MHS_DTR_MASK | MHS_RTS_MASK | (dtr ? MHS_DTR : 0) | (rts ? MHS_RTS : 0);
+        controlOut(REQUEST_TYPE, SET_MHS, value, dataInterface.getId());
+    }
+}
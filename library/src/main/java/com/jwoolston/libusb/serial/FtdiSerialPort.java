@@ -0,0 +1,142 @@
+package com.jwoolston.libusb.serial;
+
+import com.jwoolston.libusb.BaseUsbDeviceConnection;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.LibUsbDeviceDescriptor;
+import com.jwoolston.libusb.UsbConstants;
+import com.jwoolston.libusb.util.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A port of an FTDI bridge. Every bulk IN packet starts with two modem status bytes, which are stripped before the data
+ * is delivered. Baud rates are set as a divisor of the chip's 3MHz clock with a fractional part in eighths; the H
+ * series use their finer grained 12MHz clock instead for all but the slowest rates (AN232B-05, AN_120).
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class FtdiSerialPort extends UsbSerialPort {
+
+    private static final int REQUEST_TYPE = UsbConstants.USB_DIR_OUT | UsbConstants.USB_TYPE_VENDOR;
+
+    private static final int SIO_RESET = 0x00;
+    private static final int SIO_MODEM_CTRL = 0x01;
+    private static final int SIO_SET_BAUD_RATE = 0x03;
+    private static final int SIO_SET_DATA = 0x04;
+    private static final int SIO_SET_LATENCY_TIMER = 0x09;
+
+    private static final int RESET_SIO = 0x00;
+
+    private static final int MODEM_DTR = 0x0001;
+    private static final int MODEM_RTS = 0x0002;
+    private static final int MODEM_DTR_ENABLE = 0x0100;
+    private static final int MODEM_RTS_ENABLE = 0x0200;
+
+    private static final int STATUS_LENGTH = 2;
+
+    private static final int BCD_FT2232C = 0x0500;
+    private static final int BCD_FT2232H = 0x0700;
+    private static final int BCD_FT4232H = 0x0800;
+    private static final int BCD_FT232H = 0x0900;
+
+    private static final int BASE_CLOCK = 3000000;
+    private static final int HIGH_CLOCK = 12000000;
+
+    /** Selects the 12MHz clock on the H series */
+    private static final int HIGH_CLOCK_BIT = 0x20000;
+
+    /** The slowest rate the 12MHz clock reaches with the largest divisor */
+    private static final int MIN_HIGH_CLOCK_RATE = 1200;
+
+    private static final int MAX_DIVISOR = 0x1FFFF;
+
+    /** Encodings of the fractional eighths of a divisor */
+    private static final int[] FRACTION_CODES = {0, 3, 2, 4, 1, 5, 6, 7};
+
+    private final int portIndex;
+
+    private final boolean multiPort;
+
+    private final boolean highSpeed;
+
+    private final int packetSize;
+
+    public FtdiSerialPort(@NotNull BaseUsbDeviceConnection connection, @NotNull BaseUsbInterface dataInterface) {
+        super(connection, dataInterface);
+        final LibUsbDeviceDescriptor descriptor = connection.getDevice().getDeviceDescriptor();
+        final int bcdDevice = descriptor != null ? descriptor.getDeviceVersion() : 0;
+        portIndex = dataInterface.getId() + 1;
+        multiPort = bcdDevice == BCD_FT2232C || bcdDevice == BCD_FT2232H || bcdDevice == BCD_FT4232H;
+        highSpeed = bcdDevice == BCD_FT2232H || bcdDevice == BCD_FT4232H || bcdDevice == BCD_FT232H;
+        packetSize = readEndpoint.getMaxPacketSize();
+    }
+
+    @Override
+    protected void onOpen() throws IOException {
+        controlOut(REQUEST_TYPE, SIO_RESET, RESET_SIO, portIndex);
+    }
+
+    @Override
+    protected void onReadComplete(@NotNull ByteBuffer buffer, int length) {
+        for (int offset = 0; offset < length; offset += packetSize) {
+            final int packet = Math.min(packetSize, length - offset);
+            if (packet > STATUS_LENGTH) {
+                deliver(buffer, offset + STATUS_LENGTH, packet - STATUS_LENGTH);
+            }
+        }
+    }
+
+    @Override
+    public void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
+        checkParameters(baudRate, dataBits, stopBits, parity);
+        Preconditions.checkArgument(dataBits >= DATA_BITS_7, "FTDI ports support 7 or 8 data bits, not %d.", dataBits);
+        final int encoded = encodeBaudRate(baudRate);
+        final int index = multiPort ? (encoded >> 8 & 0xFF00) | portIndex : encoded >> 16;
+        controlOut(REQUEST_TYPE, SIO_SET_BAUD_RATE, encoded & 0xFFFF, index);
+        controlOut(REQUEST_TYPE, SIO_SET_DATA, dataBits | parity << 8 | stopBits << 11, portIndex);
+    }
+
+    /**
+     * Encodes the divisor closest to a baud rate.
+     */
+    private int encodeBaudRate(int baudRate) {
+        final boolean highClock = highSpeed && baudRate >= MIN_HIGH_CLOCK_RATE;
+        final long clock = highClock ? HIGH_CLOCK : BASE_CLOCK;
+        // Divisor in eighths, rounded to nearest
+        int divisor = (int) Math.min(MAX_DIVISOR, (clock * 16 / baudRate + 1) / 2);
+        final int encoded;
+        if (divisor < 10) {
+            // Divisor 1, the full clock rate
+            encoded = 0;
+        } else if (divisor < 14) {
+            // Divisor 1.5, the only other value below 2
+            encoded = 1;
+        } else {
+            divisor = Math.max(divisor, 16);
+            encoded = divisor >> 3 | FRACTION_CODES[divisor & 7] << 14;
+        }
+        return highClock ? encoded | HIGH_CLOCK_BIT : encoded;
+    }
+
+    @Override
+    public void setControlLines(boolean dtr, boolean rts) throws IOException {
+        final int value = MODEM_DTR_ENABLE | MODEM_RTS_ENABLE | (dtr ? MODEM_DTR : 0) | (rts ? MODEM_RTS : 0);
+        controlOut(REQUEST_TYPE, SIO_MODEM_CTRL, value, portIndex);
+    }
+
+    /**
+     * Sets how long the chip waits before sending a partially filled packet. Lower values reduce latency for small
+     * exchanges at the cost of more transfers, the default of 16ms suits streaming.
+     *
+     * @param millis {@code int} The latency in milliseconds, from 1 to 255.
+     *
+     * @throws IOException if the device rejected the request.
+     */
+    public void setLatencyTimer(int millis) throws IOException {
+        Preconditions.checkArgument(millis >= 1 && millis <= 255, "Latency timer must be from 1 to 255ms.");
+        controlOut(REQUEST_TYPE, SIO_SET_LATENCY_TIMER, millis, portIndex);
+    }
+}
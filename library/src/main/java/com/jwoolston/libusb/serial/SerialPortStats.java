@@ -0,0 +1,114 @@
+package com.jwoolston.libusb.serial;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A snapshot of a {@link UsbSerialPort}'s throughput counters. Counters are not captured atomically with each other and
+ * may be one transfer apart. Two snapshots give the throughput over the time between them, see
+ * {@link #since(SerialPortStats)}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class SerialPortStats {
+
+    private final long timestampNanos;
+
+    private final long bytesRead;
+
+    private final long bytesWritten;
+
+    private final long readTransfers;
+
+    private final long writeTransfers;
+
+    private final long readStalls;
+
+    SerialPortStats(long timestampNanos, long bytesRead, long bytesWritten, long readTransfers, long writeTransfers,
+                    long readStalls) {
+        this.timestampNanos = timestampNanos;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.readTransfers = readTransfers;
+        this.writeTransfers = writeTransfers;
+        this.readStalls = readStalls;
+    }
+
+    /**
+     * @return {@code long} The {@link System#nanoTime()} the snapshot was taken at.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return {@code long} The payload bytes received, without any vendor status bytes.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return {@code long} The number of bulk IN transfers completed.
+     */
+    public long getReadTransfers() {
+        return readTransfers;
+    }
+
+    /**
+     * @return {@code long} The number of bulk OUT transfers completed. Fewer than the writes made when writes are
+     * batched.
+     */
+    public long getWriteTransfers() {
+        return writeTransfers;
+    }
+
+    /**
+     * @return {@code long} The number of times a read transfer was held back because the receive buffer was too full to
+     * take its data.
+     */
+    public long getReadStalls() {
+        return readStalls;
+    }
+
+    /**
+     * @return {@code double} The mean receive rate in bytes per second over the period since {@code earlier}.
+     */
+    public double getReadBytesPerSecond(@NotNull SerialPortStats earlier) {
+        return rate(bytesRead - earlier.bytesRead, earlier);
+    }
+
+    /**
+     * @return {@code double} The mean transmit rate in bytes per second over the period since {@code earlier}.
+     */
+    public double getWriteBytesPerSecond(@NotNull SerialPortStats earlier) {
+        return rate(bytesWritten - earlier.bytesWritten, earlier);
+    }
+
+    /**
+     * @param earlier {@link SerialPortStats} A snapshot of the same port taken before this one.
+     *
+     * @return {@link SerialPortStats} holding the counts accumulated between the two snapshots, with the time elapsed
+     * between them as its timestamp.
+     */
+    @NotNull
+    public SerialPortStats since(@NotNull SerialPortStats earlier) {
+        return new SerialPortStats(timestampNanos - earlier.timestampNanos, bytesRead - earlier.bytesRead,
+            bytesWritten - earlier.bytesWritten, readTransfers - earlier.readTransfers,
+            writeTransfers - earlier.writeTransfers, readStalls - earlier.readStalls);
+    }
+
+    private double rate(long bytes, @NotNull SerialPortStats earlier) {
+        final long elapsed = timestampNanos - earlier.timestampNanos;
+        return elapsed > 0 ? bytes * 1e9 / elapsed : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SerialPortStats[bytesRead=" + bytesRead + ",bytesWritten=" + bytesWritten + ",readTransfers="
+               + readTransfers + ",writeTransfers=" + writeTransfers + ",readStalls=" + readStalls + "]";
+    }
+}
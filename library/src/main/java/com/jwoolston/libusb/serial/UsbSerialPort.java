@@ -0,0 +1,850 @@
+package com.jwoolston.libusb.serial;
+
+import com.jwoolston.libusb.BaseUsbDeviceConnection;
+import com.jwoolston.libusb.BaseUsbEndpoint;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.DirectTransfer;
+import com.jwoolston.libusb.LibusbError;
+import com.jwoolston.libusb.UsbConstants;
+import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.util.ArrayDeque;
+
+/**
+ * A serial port carried over a pair of bulk endpoints. Subclasses implement the line coding and modem control of a
+ * particular protocol, this class does the streaming.
+ * <p>
+ * While the port is open several bulk IN transfers are kept armed into direct buffers, so the device is never left
+ * without a transfer to send into, and their data is copied into a receive buffer from the event thread. When the
+ * receive buffer can not take another full transfer the transfer is held back until the application reads, which
+ * throttles the device rather than losing data. Writes are batched: while one bulk OUT transfer is in flight, further
+ * writes are gathered into a second buffer and sent as one transfer when the first completes.
+ * <p>
+ * The port can be used directly or through its {@link InputStream}, {@link OutputStream} and {@link ByteChannel} views.
+ * Reads may be made from one thread and writes from another.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public abstract class UsbSerialPort implements Closeable {
+
+    public static final int DATA_BITS_5 = 5;
+    public static final int DATA_BITS_6 = 6;
+    public static final int DATA_BITS_7 = 7;
+    public static final int DATA_BITS_8 = 8;
+
+    public static final int STOP_BITS_1 = 0;
+    public static final int STOP_BITS_1_5 = 1;
+    public static final int STOP_BITS_2 = 2;
+
+    public static final int PARITY_NONE = 0;
+    public static final int PARITY_ODD = 1;
+    public static final int PARITY_EVEN = 2;
+    public static final int PARITY_MARK = 3;
+    public static final int PARITY_SPACE = 4;
+
+    protected static final int RECIPIENT_INTERFACE = 0x01;
+
+    protected static final int CONTROL_TIMEOUT = 1000;
+
+    private static final int READ_TRANSFER_COUNT = 4;
+
+    /**
+     * A multiple of every bulk packet size, large enough that a busy port completes few transfers. Bulk IN transfers
+     * also complete on the first short packet, so a quiet port still delivers promptly.
+     */
+    private static final int READ_TRANSFER_SIZE = 16 * 1024;
+
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+    private static final int RECEIVE_BUFFER_SIZE = 256 * 1024;
+
+    private static final int DEFAULT_WRITE_TIMEOUT = 5000;
+
+    private static final int CLOSE_TIMEOUT = 1000;
+
+    /**
+     * How often close cancels the transfers again, to catch one which was being submitted as it was first cancelled.
+     */
+    private static final int CANCEL_RETRY_MILLIS = 50;
+
+    @NotNull
+    protected final BaseUsbDeviceConnection connection;
+
+    @NotNull
+    protected final BaseUsbInterface dataInterface;
+
+    @NotNull
+    protected final BaseUsbEndpoint readEndpoint;
+
+    @NotNull
+    protected final BaseUsbEndpoint writeEndpoint;
+
+    private final Object readLock = new Object();
+
+    private final byte[] receiveBuffer = new byte[RECEIVE_BUFFER_SIZE];
+
+    @NotNull
+    private final ReadTransfer[] reads = new ReadTransfer[READ_TRANSFER_COUNT];
+
+    @NotNull
+    private final ArrayDeque<ReadTransfer> idleReads = new ArrayDeque<>();
+
+    /** Total bytes put in the receive buffer */
+    private long received;
+
+    /** Total bytes taken from the receive buffer */
+    private long consumed;
+
+    private int readsInFlight;
+
+    private int readError;
+
+    private final Object writeLock = new Object();
+
+    @NotNull
+    private final WriteTransfer[] writeTransfers = {new WriteTransfer(), new WriteTransfer()};
+
+    /** Index of the write transfer whose buffer is accepting writes */
+    private int filling;
+
+    private boolean writing;
+
+    private int writeError;
+
+    private int writeTimeout = DEFAULT_WRITE_TIMEOUT;
+
+    private volatile int readTimeout;
+
+    private volatile boolean open;
+
+    private volatile long bytesRead;
+
+    private volatile long bytesWritten;
+
+    private volatile long readTransferCount;
+
+    private volatile long writeTransferCount;
+
+    private volatile long readStallCount;
+
+    @NotNull
+    private final InputStream inputStream = new PortInputStream();
+
+    @NotNull
+    private final OutputStream outputStream = new PortOutputStream();
+
+    @NotNull
+    private final ByteChannel channel = new PortChannel();
+
+    /**
+     * @param connection    {@link BaseUsbDeviceConnection} to the device.
+     * @param dataInterface {@link BaseUsbInterface} The interface carrying the bulk endpoints.
+     *
+     * @throws IllegalArgumentException if the interface lacks a bulk IN or bulk OUT endpoint.
+     */
+    protected UsbSerialPort(@NotNull BaseUsbDeviceConnection connection, @NotNull BaseUsbInterface dataInterface) {
+        this.connection = connection;
+        this.dataInterface = dataInterface;
+        readEndpoint = requireBulkEndpoint(dataInterface, UsbConstants.USB_DIR_IN);
+        writeEndpoint = requireBulkEndpoint(dataInterface, UsbConstants.USB_DIR_OUT);
+        for (int i = 0; i < READ_TRANSFER_COUNT; ++i) {
+            reads[i] = new ReadTransfer();
+            idleReads.add(reads[i]);
+        }
+    }
+
+    /**
+     * @param intf      {@link BaseUsbInterface} to search.
+     * @param direction {@code int} {@link UsbConstants#USB_DIR_IN} or {@link UsbConstants#USB_DIR_OUT}.
+     *
+     * @return {@link BaseUsbEndpoint} The first bulk endpoint of the interface in the direction, or {@code null}.
+     */
+    @Nullable
+    static BaseUsbEndpoint findBulkEndpoint(@NotNull BaseUsbInterface intf, int direction) {
+        for (int i = 0; i < intf.getEndpointCount(); ++i) {
+            final BaseUsbEndpoint endpoint = intf.getEndpoint(i);
+            if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_BULK && endpoint.getDirection() == direction) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    private static BaseUsbEndpoint requireBulkEndpoint(@NotNull BaseUsbInterface intf, int direction) {
+        final BaseUsbEndpoint endpoint = findBulkEndpoint(intf, direction);
+        Preconditions.checkArgument(endpoint != null, "Interface %d has no bulk %s endpoint.", intf.getId(),
+            direction == UsbConstants.USB_DIR_IN ? "IN" : "OUT");
+        return endpoint;
+    }
+
+    /**
+     * Checks line parameters against the ranges common to every protocol.
+     */
+    protected static void checkParameters(int baudRate, int dataBits, int stopBits, int parity) {
+        Preconditions.checkArgument(baudRate > 0, "Invalid baud rate %d.", baudRate);
+        Preconditions.checkArgument(dataBits >= DATA_BITS_5 && dataBits <= DATA_BITS_8, "Invalid data bits %d.",
+            dataBits);
+        Preconditions.checkArgument(stopBits >= STOP_BITS_1 && stopBits <= STOP_BITS_2, "Invalid stop bits %d.",
+            stopBits);
+        Preconditions.checkArgument(parity >= PARITY_NONE && parity <= PARITY_SPACE, "Invalid parity %d.", parity);
+    }
+
+    /**
+     * Issues a host to device control request without a data stage, failing with an {@link IOException}.
+     */
+    protected void controlOut(int requestType, int request, int value, int index) throws IOException {
+        controlOut(requestType, request, value, index, null);
+    }
+
+    /**
+     * Issues a host to device control request, failing with an {@link IOException}.
+     */
+    protected void controlOut(int requestType, int request, int value, int index, @Nullable byte[] data)
+        throws IOException {
+        final int length = data != null ? data.length : 0;
+        final int result = connection.controlTransfer(requestType, request, value, index, data, length,
+            CONTROL_TIMEOUT);
+        if (result < 0) {
+            throw new IOException(String.format("Control request 0x%02x failed: %s", request,
+                LibusbError.fromNative(result)));
+        }
+    }
+
+    /**
+     * Claims the interfaces of the port. Ports spanning more than the data interface override this and
+     * {@link #releaseInterfaces()}.
+     *
+     * @throws IOException if an interface could not be claimed.
+     */
+    protected void claimInterfaces() throws IOException {
+        claim(dataInterface);
+    }
+
+    protected void releaseInterfaces() {
+        connection.releaseInterface(dataInterface);
+    }
+
+    protected final void claim(@NotNull BaseUsbInterface intf) throws IOException {
+        final LibusbError result = connection.claimInterface(intf, true);
+        if (result != LibusbError.LIBUSB_SUCCESS) {
+            throw new IOException("Failed to claim interface " + intf.getId() + ": " + result);
+        }
+    }
+
+    /**
+     * Initializes the device once its interfaces are claimed, before any transfer is armed.
+     *
+     * @throws IOException if the device could not be initialized.
+     */
+    protected abstract void onOpen() throws IOException;
+
+    /**
+     * Shuts the device down before its interfaces are released. Does nothing by default.
+     *
+     * @throws IOException if the device rejected a request.
+     */
+    protected void onClose() throws IOException {
+    }
+
+    /**
+     * Sets the line coding.
+     *
+     * @param baudRate {@code int} The baud rate.
+     * @param dataBits {@code int} One of the {@code DATA_BITS_} constants.
+     * @param stopBits {@code int} One of the {@code STOP_BITS_} constants.
+     * @param parity   {@code int} One of the {@code PARITY_} constants.
+     *
+     * @throws IOException              if the device rejected the request.
+     * @throws IllegalArgumentException if the protocol does not support the parameters.
+     */
+    public abstract void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException;
+
+    /**
+     * Sets the DTR and RTS modem control lines.
+     *
+     * @throws IOException if the device rejected the request.
+     */
+    public abstract void setControlLines(boolean dtr, boolean rts) throws IOException;
+
+    /**
+     * Called on the event thread with the data of each completed read transfer, which is passed on to
+     * {@link #deliver(ByteBuffer, int, int)}. Protocols which frame their data with status bytes override this to
+     * deliver only the payload.
+     *
+     * @param buffer {@link ByteBuffer} The transfer buffer, which is only valid for the duration of the call.
+     * @param length {@code int} The number of bytes received.
+     */
+    protected void onReadComplete(@NotNull ByteBuffer buffer, int length) {
+        deliver(buffer, 0, length);
+    }
+
+    /**
+     * Copies received bytes from a read transfer's buffer into the receive buffer.
+     */
+    protected final void deliver(@NotNull ByteBuffer buffer, int offset, int length) {
+        synchronized (readLock) {
+            final int free = receiveBuffer.length - (int) (received - consumed);
+            if (length > free) {
+                // Unreachable while reads are only armed with room for their whole transfer
+                Arbor.e("Serial receive buffer overflow, dropped %d bytes.", length - free);
+                length = free;
+            }
+            final int start = (int) (received % receiveBuffer.length);
+            final int first = Math.min(length, receiveBuffer.length - start);
+            buffer.clear();
+            buffer.position(offset);
+            buffer.get(receiveBuffer, start, first);
+            if (first < length) {
+                buffer.get(receiveBuffer, 0, length - first);
+            }
+            received += length;
+            bytesRead += length;
+            readLock.notifyAll();
+        }
+    }
+
+    /**
+     * Claims the port's interfaces, initializes the device and arms the read transfers.
+     *
+     * @throws IOException if the port is already open or could not be opened.
+     */
+    public void open() throws IOException {
+        synchronized (readLock) {
+            if (open || readsInFlight > 0) {
+                throw new IOException("Port is already open or still closing.");
+            }
+            received = 0;
+            consumed = 0;
+            readError = 0;
+        }
+        synchronized (writeLock) {
+            writeError = 0;
+            writing = false;
+            writeTransfers[filling].buffer.clear();
+        }
+        claimInterfaces();
+        try {
+            onOpen();
+        } catch (IOException e) {
+            releaseInterfaces();
+            throw e;
+        }
+        open = true;
+        armReads();
+        synchronized (readLock) {
+            if (readsInFlight == 0) {
+                open = false;
+                releaseInterfaces();
+                throw new IOException("Failed to arm reads: " + LibusbError.fromNative(readError));
+            }
+        }
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Submits idle read transfers for as long as the receive buffer has room for everything in flight.
+     */
+    private void armReads() {
+        while (true) {
+            final ReadTransfer transfer;
+            synchronized (readLock) {
+                if (!open || readError != 0 || idleReads.isEmpty()) {
+                    return;
+                }
+                final long committed = received - consumed + (long) (readsInFlight + 1) * READ_TRANSFER_SIZE;
+                if (committed > receiveBuffer.length) {
+                    ++readStallCount;
+                    return;
+                }
+                transfer = idleReads.poll();
+                ++readsInFlight;
+            }
+            final int result = connection.submitDirectTransfer(readEndpoint, transfer.buffer, READ_TRANSFER_SIZE, 0,
+                transfer);
+            if (result < 0) {
+                Arbor.e("Failed to submit serial read: %s", LibusbError.fromNative(result));
+                synchronized (readLock) {
+                    --readsInFlight;
+                    idleReads.add(transfer);
+                    readError = result;
+                    readLock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads received bytes, waiting for at least one.
+     *
+     * @param dst           {@code byte[]} to read into.
+     * @param offset        {@code int} The offset in {@code dst}.
+     * @param length        {@code int} The most bytes to read.
+     * @param timeoutMillis {@code int} The longest to wait, 0 to wait indefinitely.
+     *
+     * @return {@code int} The number of bytes read, 0 if the wait timed out or -1 once the port is closed.
+     *
+     * @throws IOException if reading from the device failed.
+     */
+    public int read(@NotNull byte[] dst, int offset, int length, int timeoutMillis) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > dst.length) {
+            throw new IndexOutOfBoundsException("Buffer offset or length out of bounds.");
+        }
+        if (length == 0) {
+            return 0;
+        }
+        final int count;
+        synchronized (readLock) {
+            if (!awaitReceived(timeoutMillis)) {
+                return open ? 0 : -1;
+            }
+            count = Math.min(length, (int) (received - consumed));
+            final int start = (int) (consumed % receiveBuffer.length);
+            final int first = Math.min(count, receiveBuffer.length - start);
+            System.arraycopy(receiveBuffer, start, dst, offset, first);
+            if (first < count) {
+                System.arraycopy(receiveBuffer, 0, dst, offset + first, count - first);
+            }
+            consumed += count;
+        }
+        armReads();
+        return count;
+    }
+
+    /**
+     * Reads received bytes into the remaining space of {@code dst}, waiting for at least one.
+     *
+     * @param dst           {@link ByteBuffer} to read into, whose position is advanced.
+     * @param timeoutMillis {@code int} The longest to wait, 0 to wait indefinitely.
+     *
+     * @return {@code int} The number of bytes read, 0 if the wait timed out or -1 once the port is closed.
+     *
+     * @throws IOException if reading from the device failed.
+     */
+    public int read(@NotNull ByteBuffer dst, int timeoutMillis) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        final int count;
+        synchronized (readLock) {
+            if (!awaitReceived(timeoutMillis)) {
+                return open ? 0 : -1;
+            }
+            count = Math.min(dst.remaining(), (int) (received - consumed));
+            final int start = (int) (consumed % receiveBuffer.length);
+            final int first = Math.min(count, receiveBuffer.length - start);
+            dst.put(receiveBuffer, start, first);
+            if (first < count) {
+                dst.put(receiveBuffer, 0, count - first);
+            }
+            consumed += count;
+        }
+        armReads();
+        return count;
+    }
+
+    /**
+     * Waits on the read lock until bytes are received. Buffered bytes are still returned after the port closes or
+     * fails.
+     *
+     * @return {@code boolean} {@code true} if bytes are available.
+     */
+    private boolean awaitReceived(int timeoutMillis) throws IOException {
+        final long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        while (received == consumed) {
+            if (!open) {
+                return false;
+            }
+            if (readError != 0) {
+                throw new IOException("Serial read failed: " + LibusbError.fromNative(readError));
+            }
+            try {
+                if (timeoutMillis > 0) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    readLock.wait(Math.max(1, remaining / 1000000L));
+                } else {
+                    readLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading.");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code int} The number of received bytes which can be read without waiting.
+     */
+    public int getAvailable() {
+        synchronized (readLock) {
+            return (int) (received - consumed);
+        }
+    }
+
+    /**
+     * Writes all of {@code src}. The bytes are sent immediately if no write is in flight, otherwise they are batched
+     * with other writes into the next transfer. Blocks only while both transfer buffers are full.
+     *
+     * @throws IOException if the port is closed or a previous write failed.
+     */
+    public void write(@NotNull byte[] src, int offset, int length) throws IOException {
+        write(ByteBuffer.wrap(src, offset, length));
+    }
+
+    /**
+     * Writes all remaining bytes of {@code src}, advancing its position.
+     *
+     * @return {@code int} The number of bytes written.
+     *
+     * @throws IOException if the port is closed or a previous write failed.
+     * @see #write(byte[], int, int)
+     */
+    public int write(@NotNull ByteBuffer src) throws IOException {
+        final int total = src.remaining();
+        synchronized (writeLock) {
+            while (src.hasRemaining()) {
+                checkWritable();
+                final ByteBuffer fill = writeTransfers[filling].buffer;
+                if (!fill.hasRemaining()) {
+                    if (writing) {
+                        awaitWrite();
+                    } else {
+                        submitWrite();
+                    }
+                    continue;
+                }
+                final int count = Math.min(fill.remaining(), src.remaining());
+                final int limit = src.limit();
+                src.limit(src.position() + count);
+                fill.put(src);
+                src.limit(limit);
+            }
+            if (!writing) {
+                submitWrite();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Waits until every byte written has been transferred to the device.
+     *
+     * @throws IOException if the port is closed or a write failed.
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            while (true) {
+                checkWritable();
+                if (writing) {
+                    awaitWrite();
+                } else if (writeTransfers[filling].buffer.position() > 0) {
+                    submitWrite();
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the timeout of each bulk OUT transfer, after which the write fails.
+     *
+     * @param timeoutMillis {@code int} The timeout in milliseconds, 0 is infinite.
+     */
+    public void setWriteTimeout(int timeoutMillis) {
+        synchronized (writeLock) {
+            writeTimeout = timeoutMillis;
+        }
+    }
+
+    /**
+     * Sets the timeout of reads made through the stream and channel views.
+     *
+     * @param timeoutMillis {@code int} The timeout in milliseconds, 0 is infinite.
+     */
+    public void setReadTimeout(int timeoutMillis) {
+        readTimeout = timeoutMillis;
+    }
+
+    private void checkWritable() throws IOException {
+        if (!open) {
+            throw new IOException("Port is closed.");
+        }
+        if (writeError != 0) {
+            final int error = writeError;
+            writeError = 0;
+            throw new IOException("Serial write failed: " + LibusbError.fromNative(error));
+        }
+    }
+
+    private void awaitWrite() throws InterruptedIOException {
+        try {
+            writeLock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing.");
+        }
+    }
+
+    /**
+     * Submits the filling buffer and swaps to the other one. Called holding the write lock with no write in flight.
+     */
+    private void submitWrite() {
+        final WriteTransfer transfer = writeTransfers[filling];
+        final int length = transfer.buffer.position();
+        if (length == 0) {
+            return;
+        }
+        filling ^= 1;
+        writeTransfers[filling].buffer.clear();
+        writing = true;
+        final int result = connection.submitDirectTransfer(writeEndpoint, transfer.buffer, length, writeTimeout,
+            transfer);
+        if (result < 0) {
+            writing = false;
+            writeError = result;
+        }
+    }
+
+    /**
+     * @return {@link SerialPortStats} A snapshot of the port's throughput counters.
+     */
+    @NotNull
+    public SerialPortStats getStats() {
+        return new SerialPortStats(System.nanoTime(), bytesRead, bytesWritten, readTransferCount, writeTransferCount,
+            readStallCount);
+    }
+
+    @NotNull
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @NotNull
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * @return {@link ByteChannel} view of the port. Reads wait up to the read timeout and return 0 if it expires.
+     */
+    @NotNull
+    public ByteChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Flushes pending writes and shuts the device down, then cancels the armed reads and waits for them to complete
+     * before releasing the interfaces. Bytes already received can still be read.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            Arbor.w("Discarding unsent serial data: %s", e.getMessage());
+        }
+        try {
+            onClose();
+        } catch (IOException e) {
+            Arbor.w("Failed to shut down serial port: %s", e.getMessage());
+        }
+        synchronized (readLock) {
+            open = false;
+            readLock.notifyAll();
+        }
+        synchronized (writeLock) {
+            writeLock.notifyAll();
+        }
+        retireTransfers();
+        releaseInterfaces();
+    }
+
+    /**
+     * Cancels the reads and any write still in flight and waits for them to complete, so the interfaces are never
+     * released under a live transfer. Nothing is submitted once the port is closed, but a transfer which was being
+     * submitted as it was cancelled is only caught by cancelling again.
+     */
+    private void retireTransfers() {
+        final long deadline = System.nanoTime() + CLOSE_TIMEOUT * 1000000L;
+        long remaining;
+        try {
+            synchronized (readLock) {
+                while (readsInFlight > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                    for (ReadTransfer transfer : reads) {
+                        transfer.cancel();
+                    }
+                    readLock.wait(Math.max(1, Math.min(CANCEL_RETRY_MILLIS, remaining / 1000000L)));
+                }
+                if (readsInFlight > 0) {
+                    Arbor.w("Serial port closed with %d reads still in flight.", readsInFlight);
+                }
+            }
+            synchronized (writeLock) {
+                while (writing && (remaining = deadline - System.nanoTime()) > 0) {
+                    for (WriteTransfer transfer : writeTransfers) {
+                        transfer.cancel();
+                    }
+                    writeLock.wait(Math.max(1, Math.min(CANCEL_RETRY_MILLIS, remaining / 1000000L)));
+                }
+                if (writing) {
+                    Arbor.w("Serial port closed with a write still in flight.");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class ReadTransfer extends DirectTransfer {
+
+        @NotNull
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_TRANSFER_SIZE);
+
+        @Override
+        public void onComplete(int result) {
+            if (result >= 0) {
+                ++readTransferCount;
+            }
+            // A read which was cancelled or failed still delivers whatever it received
+            final int length = result >= 0 ? result : getActualLength();
+            if (length > 0) {
+                onReadComplete(buffer, length);
+            }
+            synchronized (readLock) {
+                --readsInFlight;
+                idleReads.add(this);
+                if (result < 0 && open && readError == 0) {
+                    Arbor.e("Serial read failed: %s", LibusbError.fromNative(result));
+                    readError = result;
+                }
+                readLock.notifyAll();
+            }
+            armReads();
+        }
+    }
+
+    private final class WriteTransfer extends DirectTransfer {
+
+        @NotNull
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+        @Override
+        public void onComplete(int result) {
+            synchronized (writeLock) {
+                writing = false;
+                if (result < 0) {
+                    writeError = result;
+                } else {
+                    bytesWritten += result;
+                    ++writeTransferCount;
+                    if (open && writeError == 0) {
+                        submitWrite();
+                    }
+                }
+                writeLock.notifyAll();
+            }
+        }
+    }
+
+    private final class PortInputStream extends InputStream {
+
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            final int count = read(single, 0, 1);
+            return count < 0 ? -1 : 0xFF & single[0];
+        }
+
+        @Override
+        public int read(@NotNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final int count = UsbSerialPort.this.read(b, off, len, readTimeout);
+            if (count == 0) {
+                throw new InterruptedIOException("Serial read timed out.");
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return getAvailable();
+        }
+
+        @Override
+        public void close() throws IOException {
+            UsbSerialPort.this.close();
+        }
+    }
+
+    private final class PortOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            UsbSerialPort.this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) throws IOException {
+            UsbSerialPort.this.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            UsbSerialPort.this.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            UsbSerialPort.this.close();
+        }
+    }
+
+    private final class PortChannel implements ByteChannel {
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return UsbSerialPort.this.read(dst, readTimeout);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return UsbSerialPort.this.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            UsbSerialPort.this.close();
+        }
+    }
+}
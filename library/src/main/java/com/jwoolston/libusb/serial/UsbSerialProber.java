@@ -0,0 +1,173 @@
+package com.jwoolston.libusb.serial;
+
+import com.jwoolston.libusb.BaseUsbDevice;
+import com.jwoolston.libusb.BaseUsbDeviceConnection;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.UsbConstants;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the serial ports of a device. Known FTDI, Silicon Labs and WCH bridges are matched by vendor and product
+ * ID, with a port for each of their interfaces carrying bulk endpoints; any other device gets a CDC-ACM port for each
+ * of its ACM communications interfaces, paired with a data interface through its union functional descriptor.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class UsbSerialProber {
+
+    private static final int VENDOR_FTDI = 0x0403;
+    private static final int VENDOR_SILABS = 0x10C4;
+    private static final int VENDOR_WCH = 0x1A86;
+    private static final int VENDOR_WCH_LEGACY = 0x4348;
+
+    private static final int[] FTDI_PRODUCTS = {0x6001, 0x6010, 0x6011, 0x6014, 0x6015};
+    private static final int[] SILABS_PRODUCTS = {0xEA60, 0xEA61, 0xEA63, 0xEA70, 0xEA71, 0xEA80};
+    private static final int[] WCH_PRODUCTS = {0x5523, 0x7522, 0x7523};
+
+    private static final int SUBCLASS_ACM = 0x02;
+
+    private static final int CS_INTERFACE = 0x24;
+    private static final int UNION_FUNCTIONAL = 0x06;
+
+    private static final int DRIVER_NONE = 0;
+    private static final int DRIVER_FTDI = 1;
+    private static final int DRIVER_CP210X = 2;
+    private static final int DRIVER_CH34X = 3;
+
+    private UsbSerialProber() {
+    }
+
+    /**
+     * @param device {@link BaseUsbDevice} to check.
+     *
+     * @return {@code boolean} {@code true} if the device is a known bridge or has a CDC-ACM interface.
+     */
+    public static boolean isSupported(@NotNull BaseUsbDevice device) {
+        if (getVendorDriver(device) != DRIVER_NONE) {
+            return true;
+        }
+        for (int i = 0; i < device.getInterfaceCount(); ++i) {
+            if (isAcmControl(device.getInterface(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the serial ports of a device. The ports are not opened.
+     *
+     * @param connection {@link BaseUsbDeviceConnection} to the device.
+     *
+     * @return {@link List} of the device's ports, empty if it has none.
+     */
+    @NotNull
+    public static List<UsbSerialPort> findPorts(@NotNull BaseUsbDeviceConnection connection) {
+        final BaseUsbDevice device = connection.getDevice();
+        final int driver = getVendorDriver(device);
+        final List<UsbSerialPort> ports = new ArrayList<>();
+        for (int i = 0; i < device.getInterfaceCount(); ++i) {
+            final BaseUsbInterface intf = device.getInterface(i);
+            if (intf.getAlternateSetting() != 0) {
+                continue;
+            }
+            if (driver != DRIVER_NONE) {
+                if (hasBulkPair(intf)) {
+                    ports.add(createVendorPort(driver, connection, intf));
+                }
+            } else if (isAcmControl(intf)) {
+                final BaseUsbInterface data = findDataInterface(device, intf);
+                if (data != null) {
+                    ports.add(new CdcAcmSerialPort(connection, intf, data));
+                }
+            }
+        }
+        return ports;
+    }
+
+    private static int getVendorDriver(@NotNull BaseUsbDevice device) {
+        final int vendor = device.getVendorId();
+        final int product = device.getProductId();
+        if (vendor == VENDOR_FTDI && contains(FTDI_PRODUCTS, product)) {
+            return DRIVER_FTDI;
+        } else if (vendor == VENDOR_SILABS && contains(SILABS_PRODUCTS, product)) {
+            return DRIVER_CP210X;
+        } else if ((vendor == VENDOR_WCH && contains(WCH_PRODUCTS, product))
+                   || (vendor == VENDOR_WCH_LEGACY && product == 0x5523)) {
+            return DRIVER_CH34X;
+        }
+        return DRIVER_NONE;
+    }
+
+    @NotNull
+    private static UsbSerialPort createVendorPort(int driver, @NotNull BaseUsbDeviceConnection connection,
+                                                  @NotNull BaseUsbInterface intf) {
+        switch (driver) {
+            case DRIVER_FTDI:
+                return new FtdiSerialPort(connection, intf);
+            case DRIVER_CP210X:
+                return new Cp210xSerialPort(connection, intf);
+            default:
+                return new Ch34xSerialPort(connection, intf);
+        }
+    }
+
+    private static boolean isAcmControl(@NotNull BaseUsbInterface intf) {
+        return intf.getInterfaceClass() == UsbConstants.USB_CLASS_COMM
+               && intf.getInterfaceSubclass() == SUBCLASS_ACM;
+    }
+
+    private static boolean hasBulkPair(@NotNull BaseUsbInterface intf) {
+        return UsbSerialPort.findBulkEndpoint(intf, UsbConstants.USB_DIR_IN) != null
+               && UsbSerialPort.findBulkEndpoint(intf, UsbConstants.USB_DIR_OUT) != null;
+    }
+
+    /**
+     * Finds the data interface of an ACM communications interface: the first subordinate interface of its union
+     * functional descriptor, else the following interface, else the communications interface itself if it has the
+     * bulk endpoints.
+     */
+    @Nullable
+    private static BaseUsbInterface findDataInterface(@NotNull BaseUsbDevice device,
+                                                      @NotNull BaseUsbInterface control) {
+        int dataId = control.getId() + 1;
+        final ByteBuffer descriptors = control.getClassSpecificDescriptors();
+        if (descriptors != null) {
+            int offset = descriptors.position();
+            while (offset + 3 <= descriptors.limit()) {
+                final int length = 0xFF & descriptors.get(offset);
+                if (length < 3 || offset + length > descriptors.limit()) {
+                    break;
+                }
+                if ((0xFF & descriptors.get(offset + 1)) == CS_INTERFACE
+                    && (0xFF & descriptors.get(offset + 2)) == UNION_FUNCTIONAL && length >= 5) {
+                    dataId = 0xFF & descriptors.get(offset + 4);
+                    break;
+                }
+                offset += length;
+            }
+        }
+        for (int i = 0; i < device.getInterfaceCount(); ++i) {
+            final BaseUsbInterface intf = device.getInterface(i);
+            if (intf.getId() == dataId && hasBulkPair(intf)) {
+                return intf;
+            }
+        }
+        return hasBulkPair(control) ? control : null;
+    }
+
+    private static boolean contains(@NotNull int[] values, int value) {
+        for (int candidate : values) {
+            if (candidate == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,237 @@
+package com.jwoolston.libusb.uac;
+
+import com.jwoolston.libusb.pipeline.Sequence;
+import com.jwoolston.libusb.util.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A lock free single producer, single consumer ring of interleaved PCM frames in a direct buffer. For capture the
+ * event thread produces and the application consumes, for playback the roles are reversed. Each side keeps its own
+ * view of the buffer and publishes its position with an ordered store, so neither side ever blocks or allocates.
+ * <p>
+ * Frames which do not fit when written are discarded and counted as overrun. Frames which are missing when read for
+ * playback are replaced by silence and counted as underrun. Silence is all zero bytes for signed samples; a ring for
+ * unsigned 8 bit PCM should be created from its {@link UacStreamFormat} so it is filled with 0x80 instead.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class PcmRing {
+
+    private final int capacityFrames;
+
+    private final int frameSize;
+
+    private final byte silence;
+
+    @NotNull
+    private final ByteBuffer producerView;
+
+    @NotNull
+    private final ByteBuffer consumerView;
+
+    /** Total frames written, only advanced by the producer */
+    private final Sequence writePosition = new Sequence(0);
+
+    /** Total frames read, only advanced by the consumer */
+    private final Sequence readPosition = new Sequence(0);
+
+    private final Sequence overrunFrames = new Sequence(0);
+
+    private final Sequence underrunFrames = new Sequence(0);
+
+    /**
+     * Creates a ring of signed samples.
+     *
+     * @param capacityFrames {@code int} The number of frames the ring holds.
+     * @param frameSize      {@code int} The size of one frame in bytes, the channel count times the subslot size.
+     */
+    public PcmRing(int capacityFrames, int frameSize) {
+        this(capacityFrames, frameSize, (byte) 0);
+    }
+
+    /**
+     * Creates a ring sized and silenced for a format.
+     *
+     * @param capacityFrames {@code int} The number of frames the ring holds.
+     * @param format         {@link UacStreamFormat} The format which will be streamed through the ring.
+     */
+    public PcmRing(int capacityFrames, @NotNull UacStreamFormat format) {
+        this(capacityFrames, format.getFrameSize(), format.getSilence());
+    }
+
+    private PcmRing(int capacityFrames, int frameSize, byte silence) {
+        Preconditions.checkArgument(capacityFrames > 0, "Capacity must be positive.");
+        Preconditions.checkArgument(frameSize > 0, "Frame size must be positive.");
+        this.capacityFrames = capacityFrames;
+        this.frameSize = frameSize;
+        this.silence = silence;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(capacityFrames * frameSize);
+        producerView = buffer.duplicate();
+        consumerView = buffer.duplicate();
+    }
+
+    public int getCapacityFrames() {
+        return capacityFrames;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return {@code byte} The value every byte of a frame of silence is filled with.
+     */
+    public byte getSilence() {
+        return silence;
+    }
+
+    /**
+     * @return {@code int} The frames waiting to be read.
+     */
+    public int getAvailableFrames() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /**
+     * @return {@code int} The frames which can be written without overrunning.
+     */
+    public int getFreeFrames() {
+        return capacityFrames - getAvailableFrames();
+    }
+
+    /**
+     * @return {@code long} The frames discarded because the ring was full.
+     */
+    public long getOverrunFrames() {
+        return overrunFrames.get();
+    }
+
+    /**
+     * @return {@code long} The frames of silence played because the ring was empty.
+     */
+    public long getUnderrunFrames() {
+        return underrunFrames.get();
+    }
+
+    /**
+     * Writes the whole frames remaining in {@code src}, advancing its position past the frames consumed. Frames which
+     * do not fit are skipped and counted as overrun. Producer side only.
+     *
+     * @param src {@link ByteBuffer} of interleaved frames.
+     *
+     * @return {@code int} The number of frames written.
+     */
+    public int write(@NotNull ByteBuffer src) {
+        final int position = src.position();
+        final int limit = src.limit();
+        final int frames = src.remaining() / frameSize;
+        final int written = write(src, position, frames);
+        src.limit(limit);
+        src.position(position + frames * frameSize);
+        return written;
+    }
+
+    /**
+     * Writes frames from an absolute offset of {@code src}, whose position and limit are left changed. Producer side
+     * only.
+     *
+     * @return {@code int} The number of frames written.
+     */
+    int write(@NotNull ByteBuffer src, int offset, int frames) {
+        final long write = writePosition.get();
+        final int free = capacityFrames - (int) (write - readPosition.get());
+        final int count = Math.min(frames, free);
+        if (count < frames) {
+            overrunFrames.set(overrunFrames.get() + frames - count);
+        }
+        if (count > 0) {
+            final int start = (int) (write % capacityFrames);
+            final int first = Math.min(count, capacityFrames - start);
+            copyIn(src, offset, start, first);
+            if (first < count) {
+                copyIn(src, offset + first * frameSize, 0, count - first);
+            }
+            writePosition.set(write + count);
+        }
+        return count;
+    }
+
+    /**
+     * Reads as many whole frames as are available and fit in the remaining space of {@code dst}, advancing its
+     * position. Consumer side only.
+     *
+     * @param dst {@link ByteBuffer} to receive interleaved frames.
+     *
+     * @return {@code int} The number of frames read.
+     */
+    public int read(@NotNull ByteBuffer dst) {
+        final long read = readPosition.get();
+        final int count = Math.min(dst.remaining() / frameSize, (int) (writePosition.get() - read));
+        if (count > 0) {
+            final int start = (int) (read % capacityFrames);
+            final int first = Math.min(count, capacityFrames - start);
+            consumerView.clear();
+            consumerView.position(start * frameSize).limit((start + first) * frameSize);
+            dst.put(consumerView);
+            if (first < count) {
+                consumerView.clear();
+                consumerView.limit((count - first) * frameSize);
+                dst.put(consumerView);
+            }
+            readPosition.set(read + count);
+        }
+        return count;
+    }
+
+    /**
+     * Reads exactly {@code frames} frames to an absolute offset of {@code dst}, filling any shortfall with silence,
+     * which is counted as underrun. The position and limit of {@code dst} are left changed. Consumer side only.
+     *
+     * @return {@code int} The number of frames taken from the ring.
+     */
+    int readOrSilence(@NotNull ByteBuffer dst, int offset, int frames) {
+        final long read = readPosition.get();
+        final int count = Math.min(frames, (int) (writePosition.get() - read));
+        if (count > 0) {
+            final int start = (int) (read % capacityFrames);
+            final int first = Math.min(count, capacityFrames - start);
+            copyOut(start, dst, offset, first);
+            if (first < count) {
+                copyOut(0, dst, offset + first * frameSize, count - first);
+            }
+            readPosition.set(read + count);
+        }
+        if (count < frames) {
+            underrunFrames.set(underrunFrames.get() + frames - count);
+            for (int i = offset + count * frameSize, end = offset + frames * frameSize; i < end; ++i) {
+                dst.put(i, silence);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies frames from an absolute offset of {@code src} into the ring at a frame index.
+     */
+    private void copyIn(@NotNull ByteBuffer src, int srcOffset, int ringFrame, int frames) {
+        src.clear();
+        src.position(srcOffset).limit(srcOffset + frames * frameSize);
+        producerView.clear();
+        producerView.position(ringFrame * frameSize);
+        producerView.put(src);
+    }
+
+    /**
+     * Copies frames out of the ring from a frame index to an absolute offset of {@code dst}.
+     */
+    private void copyOut(int ringFrame, @NotNull ByteBuffer dst, int dstOffset, int frames) {
+        consumerView.clear();
+        consumerView.position(ringFrame * frameSize).limit((ringFrame + frames) * frameSize);
+        dst.clear();
+        dst.position(dstOffset);
+        dst.put(consumerView);
+    }
+}
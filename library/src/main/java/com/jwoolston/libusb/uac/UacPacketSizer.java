@@ -0,0 +1,133 @@
+package com.jwoolston.libusb.uac;
+
+import com.jwoolston.libusb.LibusbSpeed;
+import com.jwoolston.libusb.util.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides how many frames go into each packet of an isochronous OUT stream. The rate is kept in 16.16 fixed point
+ * frames per packet and the fractional part is carried from packet to packet, so over time exactly the device's rate
+ * is sent even though every packet holds a whole number of frames. The rate starts at the nominal sample rate and
+ * follows the feedback endpoint of an asynchronous device, which reports how fast its clock is actually consuming
+ * samples.
+ * <p>
+ * Feedback is 10.14 frames per 1ms frame in 3 bytes at full speed and 16.16 frames per 125us microframe in 4 bytes at
+ * high speed (USB 2.0 section 5.12.4.2). Values further than an eighth from the nominal rate are taken to be in error
+ * and ignored.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class UacPacketSizer {
+
+    private static final long FRAME_MICROS = 1000;
+
+    private static final long MICROFRAME_MICROS = 125;
+
+    private final long nominalRate;
+
+    private final long packetIntervalMicros;
+
+    private final int maxFramesPerPacket;
+
+    private volatile long rate;
+
+    private long accumulator;
+
+    private volatile long feedbackCount;
+
+    private volatile long rejectedFeedbackCount;
+
+    /**
+     * @param sampleRate           {@code int} The nominal sample rate in Hz.
+     * @param packetIntervalMicros {@code long} The service interval of the data endpoint.
+     * @param maxFramesPerPacket   {@code int} The most frames a packet can hold, from the endpoint's packet size.
+     */
+    public UacPacketSizer(int sampleRate, long packetIntervalMicros, int maxFramesPerPacket) {
+        Preconditions.checkArgument(sampleRate > 0, "Sample rate must be positive.");
+        Preconditions.checkArgument(packetIntervalMicros > 0, "Packet interval must be positive.");
+        Preconditions.checkArgument(maxFramesPerPacket > 0, "A packet must hold at least one frame.");
+        this.packetIntervalMicros = packetIntervalMicros;
+        this.maxFramesPerPacket = maxFramesPerPacket;
+        nominalRate = ((long) sampleRate << 16) * packetIntervalMicros / 1000000L;
+        rate = nominalRate;
+    }
+
+    /**
+     * Frames owed beyond what a packet can hold are carried into the following packets rather than dropped, up to
+     * one full packet's worth, so a rate above the packet size does not let the backlog grow without bound.
+     *
+     * @return {@code int} The number of frames for the next packet. Only called by the thread filling packets.
+     */
+    public int nextPacketFrames() {
+        accumulator += rate;
+        final int frames = (int) Math.min(accumulator >>> 16, maxFramesPerPacket);
+        accumulator = Math.min(accumulator - ((long) frames << 16), (long) maxFramesPerPacket << 16);
+        return frames;
+    }
+
+    /**
+     * Applies a feedback value read from the feedback endpoint.
+     *
+     * @param buffer {@link ByteBuffer} holding the feedback packet.
+     * @param offset {@code int} The offset of the packet in the buffer.
+     * @param length {@code int} The length of the packet, 3 or 4 bytes.
+     * @param speed  {@link LibusbSpeed} The speed the device is operating at.
+     *
+     * @return {@code boolean} {@code true} if the value was accepted.
+     */
+    public boolean onFeedback(@NotNull ByteBuffer buffer, int offset, int length, @NotNull LibusbSpeed speed) {
+        final long perPacket;
+        if (length == 3 || (length >= 3 && speed == LibusbSpeed.LIBUSB_SPEED_FULL)) {
+            // 10.14 frames per frame, shifted to 16.16
+            final long value = (0xFFL & buffer.get(offset)) | (0xFFL & buffer.get(offset + 1)) << 8
+                               | (0xFFL & buffer.get(offset + 2)) << 16;
+            perPacket = (value << 2) * packetIntervalMicros / FRAME_MICROS;
+        } else if (length >= 4) {
+            final long value = (0xFFL & buffer.get(offset)) | (0xFFL & buffer.get(offset + 1)) << 8
+                               | (0xFFL & buffer.get(offset + 2)) << 16 | (0xFFL & buffer.get(offset + 3)) << 24;
+            perPacket = value * packetIntervalMicros / MICROFRAME_MICROS;
+        } else {
+            ++rejectedFeedbackCount;
+            return false;
+        }
+        if (Math.abs(perPacket - nominalRate) > nominalRate / 8) {
+            ++rejectedFeedbackCount;
+            return false;
+        }
+        rate = perPacket;
+        ++feedbackCount;
+        return true;
+    }
+
+    /**
+     * @return {@code long} The nominal rate in 16.16 fixed point frames per packet.
+     */
+    public long getNominalRate() {
+        return nominalRate;
+    }
+
+    /**
+     * @return {@code long} The current rate in 16.16 fixed point frames per packet.
+     */
+    public long getRate() {
+        return rate;
+    }
+
+    /**
+     * @return {@code double} The current rate in frames per second.
+     */
+    public double getSampleRate() {
+        return rate / 65536.0 * 1000000.0 / packetIntervalMicros;
+    }
+
+    public long getFeedbackCount() {
+        return feedbackCount;
+    }
+
+    public long getRejectedFeedbackCount() {
+        return rejectedFeedbackCount;
+    }
+}
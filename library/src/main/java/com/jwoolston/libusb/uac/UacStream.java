@@ -0,0 +1,532 @@
+package com.jwoolston.libusb.uac;
+
+import com.jwoolston.libusb.BaseUsbDeviceConnection;
+import com.jwoolston.libusb.BaseUsbEndpoint;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.LibusbError;
+import com.jwoolston.libusb.LibusbSpeed;
+import com.jwoolston.libusb.UsbConstants;
+import com.jwoolston.libusb.async.CallbackExecutors;
+import com.jwoolston.libusb.async.IsochronousAsyncTransfer;
+import com.jwoolston.libusb.async.IsochronousStreamConfig;
+import com.jwoolston.libusb.async.IsochronousTransferCallback;
+import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams PCM audio over the isochronous endpoint of a USB Audio Class AudioStreaming interface, in either direction.
+ * The format is chosen by selecting the alternate setting carrying it, and several transfers are kept in flight so the
+ * host controller never runs dry while one is being handled.
+ * <p>
+ * Captured packets are written straight from the transfer buffer into a {@link PcmRing}. For playback each transfer is
+ * refilled from the ring as it completes, with the size of every packet decided by a {@link UacPacketSizer}; when the
+ * setting has an explicit feedback endpoint it is polled alongside and steers the sizer to the device's clock. Devices
+ * relying on implicit feedback are played at the nominal rate. Packets are handled on the libusb event thread
+ * regardless of the connection's callback executor, as they must be handled in order.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class UacStream {
+
+    private static final int RECIPIENT_INTERFACE = 0x01;
+    private static final int RECIPIENT_ENDPOINT = 0x02;
+
+    private static final int SET_CUR = 0x01;
+
+    /** UAC 1 endpoint control and UAC 2 clock source control selector */
+    private static final int SAMPLING_FREQ_CONTROL = 0x01;
+
+    private static final int CONTROL_TIMEOUT = 1000;
+
+    private static final int ENDPOINT_USAGE_MASK = 0x30;
+    private static final int ENDPOINT_USAGE_FEEDBACK = 0x10;
+
+    private static final int TRANSFER_COUNT = 4;
+
+    private static final int FEEDBACK_TRANSFER_COUNT = 2;
+
+    /**
+     * Time spanned by each data transfer, {@value #TRANSFER_COUNT} of them keep 8ms of audio queued on the host
+     * controller.
+     */
+    private static final long TRANSFER_LATENCY_MICROS = 2000;
+
+    private static final int CAPTURE = 0;
+    private static final int PLAYBACK = 1;
+    private static final int FEEDBACK = 2;
+
+    @NotNull
+    private final UacTransport transport;
+
+    private final int interfaceNumber;
+
+    private final Object lock = new Object();
+
+    private final List<IsochronousStreamConfig> reservations = new ArrayList<>();
+
+    @Nullable
+    private PcmRing ring;
+
+    @Nullable
+    private UacPacketSizer sizer;
+
+    private int inFlight;
+
+    private boolean running;
+
+    private int error;
+
+    private volatile long packetErrors;
+
+    /**
+     * @param connection      {@link BaseUsbDeviceConnection} to the audio device.
+     * @param interfaceNumber {@code int} The number of the AudioStreaming interface, which should already be claimed.
+     */
+    public UacStream(@NotNull final BaseUsbDeviceConnection connection, int interfaceNumber) {
+        this(new UacTransport() {
+            @Override
+            public int getInterfaceCount() {
+                return connection.getDevice().getInterfaceCount();
+            }
+
+            @NotNull
+            @Override
+            public BaseUsbInterface getInterface(int index) {
+                return connection.getDevice().getInterface(index);
+            }
+
+            @NotNull
+            @Override
+            public LibusbSpeed getDeviceSpeed() {
+                return connection.getDevice().getDeviceSpeed();
+            }
+
+            @Override
+            public int controlTransfer(int requestType, int request, int value, int index, @NotNull byte[] buffer,
+                                       int length, int timeout) {
+                return connection.controlTransfer(requestType, request, value, index, buffer, length, timeout);
+            }
+
+            @NotNull
+            @Override
+            public LibusbError setInterface(@NotNull BaseUsbInterface setting) {
+                return connection.setInterface(setting);
+            }
+
+            @NotNull
+            @Override
+            public IsochronousStreamConfig reserveIsochronousStream(@NotNull BaseUsbEndpoint endpoint,
+                                                                    long latencyMicros) throws IOException {
+                connection.setCallbackExecutor(endpoint, CallbackExecutors.INLINE);
+                return connection.reserveIsochronousStream(endpoint, latencyMicros);
+            }
+
+            @Override
+            public void releaseIsochronousStream(@NotNull IsochronousStreamConfig config) {
+                connection.releaseIsochronousStream(config);
+            }
+
+            @NotNull
+            @Override
+            public IsochronousAsyncTransfer createTransfer(@NotNull IsochronousTransferCallback callback,
+                                                           @NotNull IsochronousStreamConfig config)
+                throws IOException {
+                return new IsochronousAsyncTransfer(callback, connection, config);
+            }
+        }, interfaceNumber);
+    }
+
+    UacStream(@NotNull UacTransport transport, int interfaceNumber) {
+        this.transport = transport;
+        this.interfaceNumber = interfaceNumber;
+    }
+
+    /**
+     * @return {@link List} of the PCM formats offered by the interface's alternate settings.
+     */
+    @NotNull
+    public List<UacStreamFormat> getFormats() {
+        final List<UacStreamFormat> formats = new ArrayList<>();
+        for (int i = 0; i < transport.getInterfaceCount(); ++i) {
+            final BaseUsbInterface setting = transport.getInterface(i);
+            if (setting.getId() == interfaceNumber) {
+                final UacStreamFormat format = UacStreamFormat.parse(setting);
+                if (format != null) {
+                    formats.add(format);
+                }
+            }
+        }
+        return formats;
+    }
+
+    /**
+     * Sets the sample rate of a UAC 1 stream through its data endpoint's sampling frequency control. The format's
+     * alternate setting should already be selected, which {@link #start(UacStreamFormat, int, PcmRing)} does.
+     *
+     * @param format     {@link UacStreamFormat} The UAC 1 format being streamed.
+     * @param sampleRate {@code int} The sample rate in Hz.
+     *
+     * @throws IOException if the control request fails.
+     */
+    public void setSampleRate(@NotNull UacStreamFormat format, int sampleRate) throws IOException {
+        Preconditions.checkArgument(format.getVersion() == 1,
+            "UAC 2 sample rates are set on the clock source, see setClockSampleRate().");
+        final BaseUsbEndpoint endpoint = findDataEndpoint(format.getSetting());
+        final byte[] bytes = {(byte) sampleRate, (byte) (sampleRate >> 8), (byte) (sampleRate >> 16)};
+        final int result = transport.controlTransfer(UsbConstants.USB_DIR_OUT | UsbConstants.USB_TYPE_CLASS
+                                                     | RECIPIENT_ENDPOINT, SET_CUR, SAMPLING_FREQ_CONTROL << 8,
+            endpoint.getAddress(), bytes, bytes.length, CONTROL_TIMEOUT);
+        if (result < 0) {
+            throw new IOException("Failed to set sample rate " + sampleRate + ": " + LibusbError.fromNative(result));
+        }
+    }
+
+    /**
+     * Sets the sample rate of a UAC 2 clock source.
+     *
+     * @param controlInterface {@code int} The number of the AudioControl interface.
+     * @param clockId          {@code int} The ID of the clock source entity driving the stream.
+     * @param sampleRate       {@code int} The sample rate in Hz.
+     *
+     * @throws IOException if the control request fails.
+     */
+    public void setClockSampleRate(int controlInterface, int clockId, int sampleRate) throws IOException {
+        final byte[] bytes = {(byte) sampleRate, (byte) (sampleRate >> 8), (byte) (sampleRate >> 16),
+                              (byte) (sampleRate >> 24)};
+        final int result = transport.controlTransfer(UsbConstants.USB_DIR_OUT | UsbConstants.USB_TYPE_CLASS
+                                                     | RECIPIENT_INTERFACE, SET_CUR, SAMPLING_FREQ_CONTROL << 8,
+            clockId << 8 | controlInterface, bytes, bytes.length, CONTROL_TIMEOUT);
+        if (result < 0) {
+            throw new IOException("Failed to set clock " + clockId + " to " + sampleRate + ": "
+                                  + LibusbError.fromNative(result));
+        }
+    }
+
+    /**
+     * Selects the format's alternate setting and starts streaming. The direction follows the format's data endpoint:
+     * captured audio is written to the ring, played audio is read from it. For a UAC 1 format the sample rate is also
+     * set on the endpoint; a UAC 2 clock source should be set with {@link #setClockSampleRate(int, int, int)} first.
+     *
+     * @param format     {@link UacStreamFormat} The format to stream.
+     * @param sampleRate {@code int} The sample rate in Hz.
+     * @param ring       {@link PcmRing} with the format's frame size, and for playback its silence, see
+     *                   {@link PcmRing#PcmRing(int, UacStreamFormat)}.
+     *
+     * @throws IOException if the stream is already running, the bus lacks the bandwidth, the alternate setting can not
+     *                     be selected or no transfer could be submitted.
+     */
+    public void start(@NotNull UacStreamFormat format, int sampleRate, @NotNull PcmRing ring) throws IOException {
+        Preconditions.checkArgument(ring.getFrameSize() == format.getFrameSize(),
+            "Ring frame size %d does not match the format's %d.", ring.getFrameSize(), format.getFrameSize());
+        Preconditions.checkArgument(format.supportsSampleRate(sampleRate), "%s does not support %d Hz.", format,
+            sampleRate);
+        synchronized (lock) {
+            if (running || inFlight > 0) {
+                throw new IOException("UAC stream is already running.");
+            }
+            final BaseUsbInterface setting = format.getSetting();
+            final BaseUsbEndpoint dataEndpoint = findDataEndpoint(setting);
+            final boolean playback = dataEndpoint.getDirection() == UsbConstants.USB_DIR_OUT;
+            final BaseUsbEndpoint feedbackEndpoint = playback ? findFeedbackEndpoint(setting) : null;
+            Preconditions.checkArgument(!playback || ring.getSilence() == format.getSilence(),
+                "Ring silence 0x%02X does not match the format's 0x%02X.", 0xFF & ring.getSilence(),
+                0xFF & format.getSilence());
+            this.ring = ring;
+            running = true;
+            error = 0;
+            packetErrors = 0;
+            boolean selected = false;
+            try {
+                // Admit the whole stream before touching the device
+                final IsochronousStreamConfig dataConfig = reserve(dataEndpoint, TRANSFER_LATENCY_MICROS);
+                final IsochronousStreamConfig feedbackConfig = feedbackEndpoint != null
+                                                               ? reserve(feedbackEndpoint, 1) : null;
+                final LibusbError result = transport.setInterface(setting);
+                if (result != LibusbError.LIBUSB_SUCCESS) {
+                    throw new IOException("Failed to select alternate setting " + setting.getAlternateSetting() + ": "
+                                          + result);
+                }
+                selected = true;
+                if (format.getVersion() == 1) {
+                    setSampleRate(format, sampleRate);
+                }
+                if (playback) {
+                    sizer = new UacPacketSizer(sampleRate, dataConfig.getIntervalMicros(),
+                        dataConfig.getPacketSize() / format.getFrameSize());
+                } else {
+                    sizer = null;
+                }
+                if (feedbackConfig != null) {
+                    submitSlots(feedbackConfig, FEEDBACK, FEEDBACK_TRANSFER_COUNT);
+                }
+                submitSlots(dataConfig, playback ? PLAYBACK : CAPTURE, TRANSFER_COUNT);
+            } catch (IOException e) {
+                running = false;
+                if (selected) {
+                    selectDefaultSetting();
+                }
+                if (inFlight == 0) {
+                    releaseReservations();
+                }
+                throw e;
+            }
+        }
+    }
+
+    @NotNull
+    private IsochronousStreamConfig reserve(@NotNull BaseUsbEndpoint endpoint, long latencyMicros) throws IOException {
+        final IsochronousStreamConfig config = transport.reserveIsochronousStream(endpoint, latencyMicros);
+        reservations.add(config);
+        return config;
+    }
+
+    private void submitSlots(@NotNull IsochronousStreamConfig config, int role, int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            final Slot slot = new Slot(config, role);
+            try {
+                slot.submit();
+            } catch (IllegalStateException e) {
+                if (i == 0) {
+                    throw new IOException(e.getMessage());
+                }
+                Arbor.w("UAC stream running with %d of %d transfers: %s", i, count, e.getMessage());
+                return;
+            }
+            ++inFlight;
+        }
+    }
+
+    @NotNull
+    private static BaseUsbEndpoint findDataEndpoint(@NotNull BaseUsbInterface setting) throws IOException {
+        for (int i = 0; i < setting.getEndpointCount(); ++i) {
+            final BaseUsbEndpoint endpoint = setting.getEndpoint(i);
+            if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_ISOC
+                && (endpoint.getAttributes() & ENDPOINT_USAGE_MASK) != ENDPOINT_USAGE_FEEDBACK) {
+                return endpoint;
+            }
+        }
+        throw new IOException("Alternate setting " + setting.getAlternateSetting() + " has no isochronous data "
+                              + "endpoint.");
+    }
+
+    @Nullable
+    private static BaseUsbEndpoint findFeedbackEndpoint(@NotNull BaseUsbInterface setting) {
+        for (int i = 0; i < setting.getEndpointCount(); ++i) {
+            final BaseUsbEndpoint endpoint = setting.getEndpoint(i);
+            if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_ISOC
+                && endpoint.getDirection() == UsbConstants.USB_DIR_IN
+                && (endpoint.getAttributes() & ENDPOINT_USAGE_MASK) == ENDPOINT_USAGE_FEEDBACK) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    private void selectDefaultSetting() {
+        for (int i = 0; i < transport.getInterfaceCount(); ++i) {
+            final BaseUsbInterface setting = transport.getInterface(i);
+            if (setting.getId() == interfaceNumber && setting.getAlternateSetting() == 0) {
+                transport.setInterface(setting);
+                return;
+            }
+        }
+    }
+
+    private void releaseReservations() {
+        for (IsochronousStreamConfig config : reservations) {
+            transport.releaseIsochronousStream(config);
+        }
+        reservations.clear();
+    }
+
+    /**
+     * @return {@code boolean} {@code true} while transfers are being resubmitted.
+     */
+    public boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * @return {@code int} The libusb error which stopped the stream, 0 if it was stopped normally or is running.
+     */
+    public int getError() {
+        synchronized (lock) {
+            return error;
+        }
+    }
+
+    /**
+     * @return {@code long} The isochronous packets lost or failed since the stream started.
+     */
+    public long getPacketErrors() {
+        return packetErrors;
+    }
+
+    /**
+     * @return {@link UacPacketSizer} steering a playback stream, {@code null} when capturing or stopped.
+     */
+    @Nullable
+    public UacPacketSizer getPacketSizer() {
+        return sizer;
+    }
+
+    /**
+     * Stops streaming and waits for the transfers in flight to retire, then returns the interface to its zero
+     * bandwidth setting and releases the stream's bus time. Must not be called from the event thread.
+     *
+     * @param timeoutMillis {@code long} The longest to wait for transfers to retire.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void stop(long timeoutMillis) throws InterruptedException {
+        final List<IsochronousStreamConfig> released;
+        synchronized (lock) {
+            final boolean started = running || inFlight > 0;
+            running = false;
+            final long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+            long remaining;
+            while (inFlight > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                lock.wait(Math.max(1, remaining / 1000000L));
+            }
+            if (inFlight > 0) {
+                Arbor.w("UAC stream stopped with %d transfers still in flight.", inFlight);
+            }
+            if (!started) {
+                return;
+            }
+            released = new ArrayList<>(reservations);
+            reservations.clear();
+        }
+        // Outside the lock, a blocking transfer may need the event thread which a late completion could be holding
+        selectDefaultSetting();
+        for (IsochronousStreamConfig config : released) {
+            transport.releaseIsochronousStream(config);
+        }
+    }
+
+    /**
+     * Accounts for a completed transfer and decides whether it is resubmitted.
+     */
+    private boolean onCompleted(int result) {
+        synchronized (lock) {
+            if (result < 0 && running) {
+                Arbor.e("UAC stream stopped: %s", LibusbError.fromNative(result));
+                error = result;
+                running = false;
+            }
+            if (!running) {
+                --inFlight;
+                lock.notifyAll();
+            }
+            return running;
+        }
+    }
+
+    private final class Slot implements IsochronousTransferCallback {
+
+        @NotNull
+        private final IsochronousAsyncTransfer transfer;
+
+        @NotNull
+        private final ByteBuffer buffer;
+
+        @NotNull
+        private final int[] lengths;
+
+        private final int packetSize;
+
+        private final int role;
+
+        Slot(@NotNull IsochronousStreamConfig config, int role) throws IOException {
+            transfer = transport.createTransfer(this, config);
+            buffer = ByteBuffer.allocateDirect(config.getTransferSize());
+            lengths = new int[config.getPacketsPerTransfer()];
+            packetSize = config.getPacketSize();
+            this.role = role;
+        }
+
+        void submit() {
+            if (role == PLAYBACK) {
+                fill();
+            }
+            transfer.submit(buffer, 0);
+        }
+
+        /**
+         * Packs the next packets of audio back to back, each sized by the feedback driven rate.
+         */
+        private void fill() {
+            final PcmRing source = ring;
+            final UacPacketSizer packetSizer = sizer;
+            final int frameSize = source.getFrameSize();
+            int offset = 0;
+            for (int i = 0; i < lengths.length; ++i) {
+                final int frames = packetSizer.nextPacketFrames();
+                source.readOrSilence(buffer, offset, frames);
+                lengths[i] = frames * frameSize;
+                offset += lengths[i];
+            }
+            transfer.setPacketLengths(lengths);
+        }
+
+        @Override
+        public void onIsochronousTransferComplete(@Nullable ByteBuffer data, int result) {
+            if (result >= 0 && isRunning()) {
+                switch (role) {
+                    case CAPTURE:
+                        onCaptured();
+                        break;
+                    case PLAYBACK:
+                        packetErrors += transfer.getPacketErrorCount();
+                        break;
+                    default:
+                        onFeedback();
+                        break;
+                }
+            }
+            if (onCompleted(result)) {
+                try {
+                    submit();
+                } catch (IllegalStateException e) {
+                    Arbor.e(e, "Failed to resubmit isochronous transfer.");
+                    onCompleted(LibusbError.LIBUSB_ERROR_IO.getCode());
+                }
+            }
+        }
+
+        private void onCaptured() {
+            final PcmRing target = ring;
+            final int frameSize = target.getFrameSize();
+            final int packets = transfer.getPacketLengths(lengths);
+            for (int i = 0; i < packets; ++i) {
+                if (lengths[i] < 0) {
+                    ++packetErrors;
+                } else if (lengths[i] > 0) {
+                    target.write(buffer, i * packetSize, lengths[i] / frameSize);
+                }
+            }
+        }
+
+        private void onFeedback() {
+            final UacPacketSizer packetSizer = sizer;
+            final int packets = transfer.getPacketLengths(lengths);
+            // Only the most recent value matters
+            for (int i = packets - 1; i >= 0; --i) {
+                if (lengths[i] >= 3) {
+                    packetSizer.onFeedback(buffer, i * packetSize, lengths[i], transport.getDeviceSpeed());
+                    return;
+                }
+            }
+        }
+    }
+}
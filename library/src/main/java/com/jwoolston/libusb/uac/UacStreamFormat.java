@@ -0,0 +1,233 @@
+package com.jwoolston.libusb.uac;
+
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.UsbConstants;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The PCM format of one alternate setting of a USB Audio Class AudioStreaming interface, read from its class specific
+ * AS_GENERAL and FORMAT_TYPE descriptors. Both UAC 1 and UAC 2 Type I formats are understood. UAC 1 lists the sample
+ * rates in the format descriptor, UAC 2 moves them to the clock source and leaves {@link #getSampleRates()} empty.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class UacStreamFormat {
+
+    private static final int CS_INTERFACE = 0x24;
+    private static final int AS_GENERAL = 0x01;
+    private static final int FORMAT_TYPE = 0x02;
+    private static final int FORMAT_TYPE_I = 0x01;
+    private static final int AUDIO_STREAMING = 0x02;
+    private static final int PROTOCOL_UAC2 = 0x20;
+
+    /** UAC 1 wFormatTag of unsigned 8 bit PCM */
+    private static final int FORMAT_TAG_PCM8 = 0x0002;
+
+    /** UAC 2 bmFormats bits of signed and unsigned 8 bit PCM */
+    private static final int FORMATS_PCM = 0x01;
+    private static final int FORMATS_PCM8 = 0x02;
+
+    @NotNull
+    private final BaseUsbInterface setting;
+
+    private final int version;
+
+    private final int channels;
+
+    private final int subslotSize;
+
+    private final int bitResolution;
+
+    private final boolean unsigned;
+
+    private final boolean continuousRates;
+
+    @NotNull
+    private final int[] sampleRates;
+
+    private UacStreamFormat(@NotNull BaseUsbInterface setting, int version, int channels, int subslotSize,
+                            int bitResolution, boolean unsigned, boolean continuousRates, @NotNull int[] sampleRates) {
+        this.setting = setting;
+        this.version = version;
+        this.channels = channels;
+        this.subslotSize = subslotSize;
+        this.bitResolution = bitResolution;
+        this.unsigned = unsigned;
+        this.continuousRates = continuousRates;
+        this.sampleRates = sampleRates;
+    }
+
+    /**
+     * @param setting {@link BaseUsbInterface} An alternate setting of an AudioStreaming interface.
+     *
+     * @return {@link UacStreamFormat} of the setting, or {@code null} if it is not a Type I PCM format, such as the
+     * zero bandwidth setting.
+     */
+    @Nullable
+    public static UacStreamFormat parse(@NotNull BaseUsbInterface setting) {
+        if (setting.getInterfaceClass() != UsbConstants.USB_CLASS_AUDIO
+            || setting.getInterfaceSubclass() != AUDIO_STREAMING) {
+            return null;
+        }
+        final ByteBuffer descriptors = setting.getClassSpecificDescriptors();
+        if (descriptors == null) {
+            return null;
+        }
+        final boolean uac2 = setting.getInterfaceProtocol() == PROTOCOL_UAC2;
+        int channels = 0;
+        int subslotSize = 0;
+        int bitResolution = 0;
+        boolean pcm8 = false;
+        boolean continuous = false;
+        int[] rates = new int[0];
+        boolean typeI = false;
+        int offset = descriptors.position();
+        while (offset + 3 <= descriptors.limit()) {
+            final int length = 0xFF & descriptors.get(offset);
+            if (length < 3 || offset + length > descriptors.limit()) {
+                break;
+            }
+            if ((0xFF & descriptors.get(offset + 1)) == CS_INTERFACE) {
+                final int subtype = 0xFF & descriptors.get(offset + 2);
+                if (uac2 && subtype == AS_GENERAL && length >= 11) {
+                    final int formats = 0xFF & descriptors.get(offset + 6);
+                    pcm8 = (formats & (FORMATS_PCM | FORMATS_PCM8)) == FORMATS_PCM8;
+                    channels = 0xFF & descriptors.get(offset + 10);
+                } else if (!uac2 && subtype == AS_GENERAL && length >= 7) {
+                    pcm8 = ((0xFF & descriptors.get(offset + 5)) | (0xFF & descriptors.get(offset + 6)) << 8)
+                           == FORMAT_TAG_PCM8;
+                } else if (subtype == FORMAT_TYPE && length >= 6
+                           && (0xFF & descriptors.get(offset + 3)) == FORMAT_TYPE_I) {
+                    typeI = true;
+                    if (uac2) {
+                        subslotSize = 0xFF & descriptors.get(offset + 4);
+                        bitResolution = 0xFF & descriptors.get(offset + 5);
+                    } else if (length >= 8) {
+                        channels = 0xFF & descriptors.get(offset + 4);
+                        subslotSize = 0xFF & descriptors.get(offset + 5);
+                        bitResolution = 0xFF & descriptors.get(offset + 6);
+                        final int rateCount = 0xFF & descriptors.get(offset + 7);
+                        continuous = rateCount == 0;
+                        final int entries = continuous ? 2 : rateCount;
+                        final int available = Math.min(entries, (length - 8) / 3);
+                        rates = new int[available];
+                        for (int i = 0; i < available; ++i) {
+                            final int at = offset + 8 + 3 * i;
+                            rates[i] = (0xFF & descriptors.get(at)) | (0xFF & descriptors.get(at + 1)) << 8
+                                       | (0xFF & descriptors.get(at + 2)) << 16;
+                        }
+                    }
+                }
+            }
+            offset += length;
+        }
+        if (!typeI || channels == 0 || subslotSize == 0) {
+            return null;
+        }
+        return new UacStreamFormat(setting, uac2 ? 2 : 1, channels, subslotSize, bitResolution,
+            pcm8 && subslotSize == 1, continuous, rates);
+    }
+
+    /**
+     * @return {@link BaseUsbInterface} The alternate setting carrying this format.
+     */
+    @NotNull
+    public BaseUsbInterface getSetting() {
+        return setting;
+    }
+
+    /**
+     * @return {@code int} The Audio Class revision, 1 or 2.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return {@code int} The bytes each sample occupies.
+     */
+    public int getSubslotSize() {
+        return subslotSize;
+    }
+
+    /**
+     * @return {@code int} The significant bits of each sample.
+     */
+    public int getBitResolution() {
+        return bitResolution;
+    }
+
+    /**
+     * @return {@code boolean} {@code true} for unsigned 8 bit PCM, whose samples are offset by 0x80. Every other
+     * format carries signed samples.
+     */
+    public boolean isUnsigned() {
+        return unsigned;
+    }
+
+    /**
+     * @return {@code byte} The value of every byte of a silent frame.
+     */
+    public byte getSilence() {
+        return unsigned ? (byte) 0x80 : 0;
+    }
+
+    /**
+     * @return {@code int} The bytes of one frame, a sample for every channel.
+     */
+    public int getFrameSize() {
+        return channels * subslotSize;
+    }
+
+    /**
+     * @return {@code boolean} {@code true} if {@link #getSampleRates()} holds a lower and upper bound rather than
+     * discrete rates.
+     */
+    public boolean isContinuousRates() {
+        return continuousRates;
+    }
+
+    /**
+     * @return {@code int[]} The sample rates of a UAC 1 format, empty for UAC 2.
+     */
+    @NotNull
+    public int[] getSampleRates() {
+        return sampleRates.clone();
+    }
+
+    /**
+     * @param sampleRate {@code int} A sample rate in Hz.
+     *
+     * @return {@code boolean} {@code true} if the format lists the rate, or does not list rates at all.
+     */
+    public boolean supportsSampleRate(int sampleRate) {
+        if (sampleRates.length == 0) {
+            return true;
+        }
+        if (continuousRates) {
+            return sampleRates.length == 2 && sampleRate >= sampleRates[0] && sampleRate <= sampleRates[1];
+        }
+        for (int rate : sampleRates) {
+            if (rate == sampleRate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "UacStreamFormat[alternateSetting=" + setting.getAlternateSetting() + ",version=" + version
+               + ",channels=" + channels + ",subslotSize=" + subslotSize + ",bitResolution=" + bitResolution
+               + ",unsigned=" + unsigned + ",sampleRates=" + Arrays.toString(sampleRates) + "]";
+    }
+}
@@ -0,0 +1,60 @@
+package com.jwoolston.libusb.uac;
+
+import com.jwoolston.libusb.BaseUsbEndpoint;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.LibusbError;
+import com.jwoolston.libusb.LibusbSpeed;
+import com.jwoolston.libusb.async.IsochronousAsyncTransfer;
+import com.jwoolston.libusb.async.IsochronousStreamConfig;
+import com.jwoolston.libusb.async.IsochronousTransferCallback;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * What a {@link UacStream} needs of its device. Implemented over a {@link com.jwoolston.libusb.BaseUsbDeviceConnection}
+ * by the stream, and by a simulated device in tests.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+interface UacTransport {
+
+    int getInterfaceCount();
+
+    @NotNull
+    BaseUsbInterface getInterface(int index);
+
+    @NotNull
+    LibusbSpeed getDeviceSpeed();
+
+    /**
+     * Performs a control transfer, with the contract of
+     * {@link com.jwoolston.libusb.BaseUsbDeviceConnection#controlTransfer(int, int, int, int, byte[], int, int)}.
+     *
+     * @return {@code int} The transferred length or a negative libusb error code.
+     */
+    int controlTransfer(int requestType, int request, int value, int index, @NotNull byte[] buffer, int length,
+                        int timeout);
+
+    @NotNull
+    LibusbError setInterface(@NotNull BaseUsbInterface setting);
+
+    /**
+     * Reserves bus time for an isochronous stream whose completions are handled on the event thread.
+     *
+     * @throws IOException if the bus lacks the bandwidth.
+     */
+    @NotNull
+    IsochronousStreamConfig reserveIsochronousStream(@NotNull BaseUsbEndpoint endpoint, long latencyMicros)
+        throws IOException;
+
+    void releaseIsochronousStream(@NotNull IsochronousStreamConfig config);
+
+    /**
+     * @throws IOException if the transfer could not be allocated.
+     */
+    @NotNull
+    IsochronousAsyncTransfer createTransfer(@NotNull IsochronousTransferCallback callback,
+                                            @NotNull IsochronousStreamConfig config) throws IOException;
+}
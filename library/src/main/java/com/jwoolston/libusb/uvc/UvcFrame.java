@@ -0,0 +1,128 @@
+package com.jwoolston.libusb.uvc;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A video frame assembled by a {@link UvcFrameAssembler}. The frame and its direct buffer belong to the assembler's
+ * pool and are lent to the {@link UvcFrameListener}; once the frame has been consumed it must be handed back with
+ * {@link #release()}, otherwise the pool runs dry and frames are dropped.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class UvcFrame {
+
+    @NotNull
+    private final ByteBuffer buffer;
+
+    @NotNull
+    private final BlockingQueue<UvcFrame> pool;
+
+    private long sequence;
+
+    private long timestampNanos;
+
+    private long presentationTime;
+
+    private boolean hasPresentationTime;
+
+    private boolean corrupt;
+
+    private boolean released = true;
+
+    UvcFrame(int capacity, @NotNull BlockingQueue<UvcFrame> pool) {
+        buffer = ByteBuffer.allocateDirect(capacity);
+        this.pool = pool;
+    }
+
+    void begin(long sequence, long timestampNanos) {
+        this.sequence = sequence;
+        this.timestampNanos = timestampNanos;
+        hasPresentationTime = false;
+        corrupt = false;
+        released = false;
+        buffer.clear();
+    }
+
+    /**
+     * Direct access to the frame buffer while it is being filled, positioned at the end of the data so far.
+     */
+    @NotNull
+    ByteBuffer fillBuffer() {
+        return buffer;
+    }
+
+    void setPresentationTime(long presentationTime) {
+        this.presentationTime = presentationTime;
+        hasPresentationTime = true;
+    }
+
+    void markCorrupt() {
+        corrupt = true;
+    }
+
+    void finish() {
+        buffer.flip();
+    }
+
+    /**
+     * @return {@link ByteBuffer} holding the frame data from position 0 to the limit.
+     */
+    @NotNull
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return {@code long} The number of frames begun by the assembler before this one, dropped frames included, so a
+     * gap in the sequence seen by a listener is a lost frame.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return {@code long} The completion time of the frame's first payload on the {@link System#nanoTime()} clock.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return {@code boolean} {@code true} if a payload header carried a presentation time stamp.
+     */
+    public boolean hasPresentationTime() {
+        return hasPresentationTime;
+    }
+
+    /**
+     * @return {@code long} The dwPresentationTime of the frame in device clock ticks, see
+     * {@link UvcStreamingControl#getClockFrequency()}.
+     */
+    public long getPresentationTime() {
+        return presentationTime;
+    }
+
+    /**
+     * @return {@code boolean} {@code true} if the frame is known to be incomplete or damaged. Corrupt frames are only
+     * delivered when the assembler is configured to.
+     */
+    public boolean isCorrupt() {
+        return corrupt;
+    }
+
+    /**
+     * Returns the frame to its pool. The buffer must not be accessed afterwards.
+     */
+    public void release() {
+        synchronized (this) {
+            if (released) {
+                throw new IllegalStateException("Frame " + sequence + " has already been released.");
+            }
+            released = true;
+        }
+        pool.offer(this);
+    }
+}
@@ -0,0 +1,262 @@
+package com.jwoolston.libusb.uvc;
+
+import com.jwoolston.libusb.util.Preconditions;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Reassembles UVC payloads into frames. Each payload's header is parsed in place in the transfer buffer it arrived in,
+ * and its data is copied straight from there into a direct buffer from a fixed pool of frames, so a frame costs exactly
+ * one copy of its data and no allocation. Frame boundaries follow the payload headers: a frame ends with the payload
+ * carrying the end of frame bit, or when the frame ID toggles without one.
+ * <p>
+ * A frame is marked corrupt if a payload reports an error, a payload header is malformed, a packet carrying it was
+ * lost, its data overflows the frame buffer or, when an exact frame size is configured, it ends at a different size.
+ * If no pooled frame is free when a frame begins, the whole frame is dropped. Both outcomes are counted in
+ * {@link #getStats()}.
+ * <p>
+ * The assembler is independent of how payloads are received, it may be fed by a {@link UvcStream} or by a simulated
+ * device. It must be fed from one thread at a time.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class UvcFrameAssembler {
+
+    /** bmHeaderInfo bits, UVC 1.5 section 2.4.3.3 */
+    public static final int HEADER_FID = 0x01;
+    public static final int HEADER_EOF = 0x02;
+    public static final int HEADER_PTS = 0x04;
+    public static final int HEADER_SCR = 0x08;
+    public static final int HEADER_STI = 0x20;
+    public static final int HEADER_ERR = 0x40;
+    public static final int HEADER_EOH = 0x80;
+
+    private static final int MIN_HEADER_LENGTH = 2;
+
+    private static final int PTS_HEADER_LENGTH = 6;
+
+    private static final int PAYLOADS = 0;
+    private static final int PAYLOAD_BYTES = 1;
+    private static final int HEADER_ERRORS = 2;
+    private static final int PACKET_ERRORS = 3;
+    private static final int FRAMES_DELIVERED = 4;
+    private static final int FRAMES_DROPPED = 5;
+    private static final int FRAMES_CORRUPT = 6;
+    private static final int COUNTER_COUNT = 7;
+
+    @NotNull
+    private final UvcFrameListener listener;
+
+    private final int frameCapacity;
+
+    private final int frameCount;
+
+    private final int expectedFrameSize;
+
+    private final boolean deliverCorruptFrames;
+
+    private final BlockingQueue<UvcFrame> pool;
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTER_COUNT);
+
+    private UvcFrame current;
+
+    /** Set while the payloads of a frame are discarded because no pooled frame was free */
+    private boolean dropping;
+
+    private boolean inFrame;
+
+    private int frameId;
+
+    private long sequence;
+
+    /**
+     * @param frameCapacity        {@code int} The size of each frame buffer, normally
+     *                             {@link UvcStreamingControl#getMaxVideoFrameSize()}.
+     * @param frameCount           {@code int} The number of frames in the pool.
+     * @param expectedFrameSize    {@code int} The exact size of every frame for uncompressed formats, or 0 if frames
+     *                             vary in size.
+     * @param deliverCorruptFrames {@code boolean} {@code true} to deliver corrupt frames flagged with
+     *                             {@link UvcFrame#isCorrupt()} rather than recycling them.
+     * @param listener             {@link UvcFrameListener} to deliver frames to.
+     */
+    public UvcFrameAssembler(int frameCapacity, int frameCount, int expectedFrameSize, boolean deliverCorruptFrames,
+                             @NotNull UvcFrameListener listener) {
+        Preconditions.checkArgument(frameCapacity > 0, "Frame capacity must be positive.");
+        Preconditions.checkArgument(frameCount > 0, "Frame count must be positive.");
+        Preconditions.checkArgument(expectedFrameSize >= 0 && expectedFrameSize <= frameCapacity,
+            "Expected frame size %d does not fit the frame capacity %d.", expectedFrameSize, frameCapacity);
+        this.listener = listener;
+        this.frameCapacity = frameCapacity;
+        this.frameCount = frameCount;
+        this.expectedFrameSize = expectedFrameSize;
+        this.deliverCorruptFrames = deliverCorruptFrames;
+        pool = new ArrayBlockingQueue<>(frameCount);
+        for (int i = 0; i < frameCount; ++i) {
+            pool.add(new UvcFrame(frameCapacity, pool));
+        }
+    }
+
+    public int getFrameCapacity() {
+        return frameCapacity;
+    }
+
+    /**
+     * @return {@code int} The number of pooled frames not currently lent to the listener or being filled.
+     */
+    public int getFreeFrames() {
+        return pool.size();
+    }
+
+    /**
+     * Consumes one payload. The buffer's position and limit are used to address the payload and are left changed.
+     *
+     * @param buffer         {@link ByteBuffer} holding the payload.
+     * @param offset         {@code int} The offset of the payload header in the buffer.
+     * @param length         {@code int} The length of the payload, header included. Empty payloads are ignored.
+     * @param timestampNanos {@code long} The time the payload was received on the {@link System#nanoTime()} clock.
+     */
+    public void onPayload(@NotNull ByteBuffer buffer, int offset, int length, long timestampNanos) {
+        if (length <= 0) {
+            return;
+        }
+        increment(PAYLOADS, 1);
+        increment(PAYLOAD_BYTES, length);
+        final int headerLength = 0xFF & buffer.get(offset);
+        if (length < MIN_HEADER_LENGTH || headerLength < MIN_HEADER_LENGTH || headerLength > length) {
+            increment(HEADER_ERRORS, 1);
+            markCorrupt();
+            return;
+        }
+        final int info = 0xFF & buffer.get(offset + 1);
+        final int fid = info & HEADER_FID;
+        if (inFrame && fid != frameId) {
+            // The frame ID toggled without an end of frame, the previous frame is over
+            endFrame();
+        }
+        final int dataLength = length - headerLength;
+        if (!inFrame) {
+            if (dataLength == 0) {
+                // Header only payloads between frames carry nothing to begin a frame with
+                return;
+            }
+            beginFrame(fid, timestampNanos);
+        }
+        if (!dropping) {
+            if ((info & HEADER_ERR) != 0) {
+                current.markCorrupt();
+            }
+            if ((info & HEADER_PTS) != 0 && headerLength >= PTS_HEADER_LENGTH && !current.hasPresentationTime()) {
+                current.setPresentationTime(readUnsignedInt(buffer, offset + 2));
+            }
+            if (dataLength > 0) {
+                final ByteBuffer target = current.fillBuffer();
+                if (dataLength > target.remaining()) {
+                    current.markCorrupt();
+                } else {
+                    buffer.clear();
+                    buffer.position(offset + headerLength).limit(offset + length);
+                    target.put(buffer);
+                }
+            }
+        }
+        if ((info & HEADER_EOF) != 0) {
+            endFrame();
+        }
+    }
+
+    /**
+     * Notes that a packet was lost, which corrupts the frame in progress.
+     */
+    public void onPacketError() {
+        increment(PACKET_ERRORS, 1);
+        markCorrupt();
+    }
+
+    /**
+     * Discards the frame in progress, for instance when the stream stops.
+     */
+    public void reset() {
+        if (inFrame && !dropping) {
+            pool.offer(current);
+        }
+        current = null;
+        inFrame = false;
+        dropping = false;
+    }
+
+    private void markCorrupt() {
+        if (inFrame && !dropping) {
+            current.markCorrupt();
+        }
+    }
+
+    private void beginFrame(int fid, long timestampNanos) {
+        inFrame = true;
+        frameId = fid;
+        current = pool.poll();
+        dropping = current == null;
+        if (dropping) {
+            increment(FRAMES_DROPPED, 1);
+        } else {
+            current.begin(sequence, timestampNanos);
+        }
+        ++sequence;
+    }
+
+    private void endFrame() {
+        final UvcFrame frame = current;
+        final boolean dropped = dropping;
+        current = null;
+        inFrame = false;
+        dropping = false;
+        if (dropped) {
+            return;
+        }
+        frame.finish();
+        if (expectedFrameSize > 0 && frame.getBuffer().limit() != expectedFrameSize) {
+            frame.markCorrupt();
+        }
+        if (frame.isCorrupt()) {
+            increment(FRAMES_CORRUPT, 1);
+            if (!deliverCorruptFrames) {
+                pool.offer(frame);
+                return;
+            }
+        } else {
+            increment(FRAMES_DELIVERED, 1);
+        }
+        try {
+            listener.onFrame(frame);
+        } catch (RuntimeException e) {
+            // The frame may or may not have been kept by the listener, so it is left out of the pool
+            Arbor.e(e, "UVC frame listener threw an exception.");
+        }
+    }
+
+    private static long readUnsignedInt(@NotNull ByteBuffer buffer, int offset) {
+        return (0xFFL & buffer.get(offset)) | (0xFFL & buffer.get(offset + 1)) << 8
+               | (0xFFL & buffer.get(offset + 2)) << 16 | (0xFFL & buffer.get(offset + 3)) << 24;
+    }
+
+    private void increment(int index, long delta) {
+        // Single writer, the ordered store is enough for readers taking a snapshot
+        counters.lazySet(index, counters.get(index) + delta);
+    }
+
+    /**
+     * @return {@link UvcStreamStats} of the payloads and frames seen so far. Can be taken at any time.
+     */
+    @NotNull
+    public UvcStreamStats getStats() {
+        return new UvcStreamStats(counters.get(PAYLOADS), counters.get(PAYLOAD_BYTES), counters.get(HEADER_ERRORS),
+            counters.get(PACKET_ERRORS), counters.get(FRAMES_DELIVERED), counters.get(FRAMES_DROPPED),
+            counters.get(FRAMES_CORRUPT), pool.size(), frameCount);
+    }
+}
@@ -0,0 +1,18 @@
+package com.jwoolston.libusb.uvc;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public interface UvcFrameListener {
+
+    /**
+     * Called with each assembled frame, on the thread feeding the assembler, which for a {@link UvcStream} is the
+     * libusb event thread. The frame should be handed off rather than processed in place and must be
+     * {@link UvcFrame#release() released} once consumed.
+     *
+     * @param frame {@link UvcFrame} The assembled frame.
+     */
+    void onFrame(@NotNull UvcFrame frame);
+}
@@ -0,0 +1,108 @@
+package com.jwoolston.libusb.uvc;
+
+import com.jwoolston.libusb.LibusbError;
+import com.jwoolston.libusb.UsbConstants;
+import com.jwoolston.libusb.util.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * The probe and commit requests of a VideoStreaming interface (UVC 1.5 section 4.3.1.1), made through a
+ * {@link UvcTransport}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+final class UvcProbeCommit {
+
+    private static final int RECIPIENT_INTERFACE = 0x01;
+
+    static final int REQUEST_TYPE_SET = UsbConstants.USB_DIR_OUT | UsbConstants.USB_TYPE_CLASS | RECIPIENT_INTERFACE;
+    static final int REQUEST_TYPE_GET = UsbConstants.USB_DIR_IN | UsbConstants.USB_TYPE_CLASS | RECIPIENT_INTERFACE;
+
+    static final int SET_CUR = 0x01;
+    static final int GET_CUR = 0x81;
+    static final int GET_MIN = 0x82;
+    static final int GET_MAX = 0x83;
+
+    static final int VS_PROBE_CONTROL = 0x01;
+    static final int VS_COMMIT_CONTROL = 0x02;
+
+    private static final int CONTROL_TIMEOUT = 1000;
+
+    @NotNull
+    private final UvcTransport transport;
+
+    private final int interfaceNumber;
+
+    UvcProbeCommit(@NotNull UvcTransport transport, int interfaceNumber) {
+        this.transport = transport;
+        this.interfaceNumber = interfaceNumber;
+    }
+
+    /**
+     * @see UvcStream#probe(UvcStreamingControl)
+     */
+    @NotNull
+    UvcStreamingControl probe(@NotNull UvcStreamingControl proposed) throws IOException {
+        setControl(VS_PROBE_CONTROL, proposed);
+        return getControl(VS_PROBE_CONTROL, GET_CUR, proposed.getLength());
+    }
+
+    /**
+     * @see UvcStream#getProbeLimit(int, int)
+     */
+    @NotNull
+    UvcStreamingControl getProbeLimit(int request, int length) throws IOException {
+        Preconditions.checkArgument(request == GET_MIN || request == GET_MAX,
+            "Request 0x%02x is not GET_MIN or GET_MAX.", request);
+        return getControl(VS_PROBE_CONTROL, request, length);
+    }
+
+    /**
+     * @see UvcStream#commit(UvcStreamingControl)
+     */
+    void commit(@NotNull UvcStreamingControl control) throws IOException {
+        setControl(VS_COMMIT_CONTROL, control);
+    }
+
+    /**
+     * @see UvcStream#negotiate(UvcStreamingControl)
+     */
+    @NotNull
+    UvcStreamingControl negotiate(@NotNull UvcStreamingControl proposed) throws IOException {
+        final UvcStreamingControl answer = probe(probe(proposed));
+        commit(answer);
+        return answer;
+    }
+
+    private void setControl(int selector, @NotNull UvcStreamingControl control) throws IOException {
+        final byte[] bytes = new byte[control.getLength()];
+        control.write(bytes);
+        final int result = transport.controlTransfer(REQUEST_TYPE_SET, SET_CUR, selector << 8, interfaceNumber,
+            bytes, bytes.length, CONTROL_TIMEOUT);
+        if (result < 0) {
+            throw new IOException("Failed to set streaming control " + selector + ": "
+                                  + LibusbError.fromNative(result));
+        }
+    }
+
+    @NotNull
+    private UvcStreamingControl getControl(int selector, int request, int length) throws IOException {
+        final UvcStreamingControl control = new UvcStreamingControl(length);
+        final byte[] bytes = new byte[length];
+        final int result = transport.controlTransfer(REQUEST_TYPE_GET, request, selector << 8, interfaceNumber,
+            bytes, length, CONTROL_TIMEOUT);
+        if (result < 0) {
+            throw new IOException("Failed to get streaming control " + selector + ": "
+                                  + LibusbError.fromNative(result));
+        }
+        try {
+            control.read(bytes, result);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        return control;
+    }
+}
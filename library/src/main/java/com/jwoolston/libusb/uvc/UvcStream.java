@@ -0,0 +1,496 @@
+package com.jwoolston.libusb.uvc;
+
+import com.jwoolston.libusb.BaseUsbDevice;
+import com.jwoolston.libusb.BaseUsbDeviceConnection;
+import com.jwoolston.libusb.BaseUsbEndpoint;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.DirectTransfer;
+import com.jwoolston.libusb.LibusbError;
+import com.jwoolston.libusb.UsbConstants;
+import com.jwoolston.libusb.async.CallbackExecutors;
+import com.jwoolston.libusb.async.IsochronousAsyncTransfer;
+import com.jwoolston.libusb.async.IsochronousStreamConfig;
+import com.jwoolston.libusb.async.IsochronousTransferCallback;
+import com.toxicbakery.logging.Arbor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Streams video from a UVC VideoStreaming interface. The stream format is negotiated with the probe and commit
+ * controls, after which {@link #start(UvcStreamingControl, int, UvcFrameListener)} selects the alternate setting with
+ * enough bandwidth for the negotiated payload size and keeps a ring of transfers in flight, feeding each payload to a
+ * {@link UvcFrameAssembler} from the transfer buffer it was received in.
+ * <p>
+ * Isochronous streams are admitted against the bus's periodic budget before the alternate setting is selected. Bulk
+ * streams, on interfaces whose default setting has a bulk IN endpoint, transfer one payload per transfer with no
+ * timeout, so a payload is never split across transfers.
+ * <p>
+ * Payloads must be assembled in completion order, so they are always handled on the libusb event thread. While the
+ * stream runs it overrides the callback executor of its isochronous endpoint with {@link CallbackExecutors#INLINE},
+ * and {@link #stop(long)} restores the executor the endpoint had before. Bulk payloads complete through
+ * {@link DirectTransfer}, which never uses an executor. Frame listeners therefore run on the event thread and should
+ * hand frames off rather than process them in place.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class UvcStream {
+
+    private static final int TRANSFER_COUNT = 4;
+
+    /**
+     * Time spanned by each isochronous transfer. 4ms keeps 16ms of video queued on the host controller with
+     * {@value #TRANSFER_COUNT} transfers.
+     */
+    private static final long ISOCHRONOUS_LATENCY_MICROS = 4000;
+
+    @NotNull
+    private final BaseUsbDeviceConnection connection;
+
+    @NotNull
+    private final UvcProbeCommit probeCommit;
+
+    private final int interfaceNumber;
+
+    private final Object lock = new Object();
+
+    @Nullable
+    private UvcFrameAssembler assembler;
+
+    @Nullable
+    private IsochronousStreamConfig isochronousConfig;
+
+    @Nullable
+    private BaseUsbInterface defaultSetting;
+
+    @Nullable
+    private BaseUsbEndpoint isochronousEndpoint;
+
+    /** The isochronous endpoint's own callback executor before the stream took it over, if it had one */
+    @Nullable
+    private Executor endpointExecutor;
+
+    @NotNull
+    private final List<BulkSlot> bulkSlots = new ArrayList<>();
+
+    private int inFlight;
+
+    private boolean running;
+
+    private int error;
+
+    /**
+     * @param connection      {@link BaseUsbDeviceConnection} to the camera.
+     * @param interfaceNumber {@code int} The number of the VideoStreaming interface, which should already be claimed.
+     */
+    public UvcStream(@NotNull final BaseUsbDeviceConnection connection, int interfaceNumber) {
+        this.connection = connection;
+        this.interfaceNumber = interfaceNumber;
+        probeCommit = new UvcProbeCommit(new UvcTransport() {
+            @Override
+            public int controlTransfer(int requestType, int request, int value, int index, @NotNull byte[] buffer,
+                                       int length, int timeout) {
+                return connection.controlTransfer(requestType, request, value, index, buffer, length, timeout);
+            }
+        }, interfaceNumber);
+    }
+
+    /**
+     * Proposes a stream format to the device and returns the device's counter proposal, which fills in the payload and
+     * frame sizes. The request is repeated until the device settles, see {@link #negotiate(UvcStreamingControl)}.
+     *
+     * @param proposed {@link UvcStreamingControl} with at least the format, frame and frame interval set.
+     *
+     * @return {@link UvcStreamingControl} as answered by the device.
+     *
+     * @throws IOException if either control request fails.
+     */
+    @NotNull
+    public UvcStreamingControl probe(@NotNull UvcStreamingControl proposed) throws IOException {
+        return probeCommit.probe(proposed);
+    }
+
+    /**
+     * @param request {@code int} {@code GET_MIN} (0x82) or {@code GET_MAX} (0x83).
+     * @param length  {@code int} The control length the device implements.
+     *
+     * @return {@link UvcStreamingControl} The bound of the probe control reported by the device.
+     *
+     * @throws IOException if the control request fails.
+     */
+    @NotNull
+    public UvcStreamingControl getProbeLimit(int request, int length) throws IOException {
+        return probeCommit.getProbeLimit(request, length);
+    }
+
+    /**
+     * Commits a format previously answered by {@link #probe(UvcStreamingControl)}.
+     *
+     * @param control {@link UvcStreamingControl} as answered by the device.
+     *
+     * @throws IOException if the control request fails.
+     */
+    public void commit(@NotNull UvcStreamingControl control) throws IOException {
+        probeCommit.commit(control);
+    }
+
+    /**
+     * Probes the proposed format, probes again with the device's answer to confirm it, and commits it.
+     *
+     * @param proposed {@link UvcStreamingControl} with at least the format, frame and frame interval set.
+     *
+     * @return {@link UvcStreamingControl} The committed format.
+     *
+     * @throws IOException if a control request fails.
+     */
+    @NotNull
+    public UvcStreamingControl negotiate(@NotNull UvcStreamingControl proposed) throws IOException {
+        return probeCommit.negotiate(proposed);
+    }
+
+    /**
+     * Starts streaming a committed format. An isochronous stream overrides its endpoint's callback executor with
+     * {@link CallbackExecutors#INLINE} until {@link #stop(long)}, see the class documentation.
+     *
+     * @param committed  {@link UvcStreamingControl} The committed format.
+     * @param frameCount {@code int} The number of frame buffers to assemble into.
+     * @param listener   {@link UvcFrameListener} to deliver frames to.
+     *
+     * @return {@link UvcFrameAssembler} assembling the stream, for its statistics.
+     *
+     * @throws IOException if the stream is already running, no alternate setting can carry the payload size, the bus
+     *                     lacks the bandwidth or no transfer could be submitted.
+     */
+    @NotNull
+    public UvcFrameAssembler start(@NotNull UvcStreamingControl committed, int frameCount,
+                                   @NotNull UvcFrameListener listener) throws IOException {
+        synchronized (lock) {
+            if (running || inFlight > 0) {
+                throw new IOException("UVC stream is already running.");
+            }
+            final long frameSize = committed.getMaxVideoFrameSize();
+            final long payloadSize = committed.getMaxPayloadTransferSize();
+            if (frameSize <= 0 || frameSize > Integer.MAX_VALUE
+                || payloadSize <= 0 || payloadSize > Integer.MAX_VALUE) {
+                throw new IOException("Committed format has no usable frame or payload size: " + committed);
+            }
+            defaultSetting = findSetting(0);
+            if (defaultSetting == null) {
+                throw new IOException("Interface " + interfaceNumber + " not found.");
+            }
+            final UvcFrameAssembler frameAssembler = new UvcFrameAssembler((int) frameSize, frameCount, 0, false,
+                listener);
+            final BaseUsbEndpoint bulkEndpoint = findEndpoint(defaultSetting, UsbConstants.USB_ENDPOINT_XFER_BULK);
+            assembler = frameAssembler;
+            running = true;
+            error = 0;
+            try {
+                if (bulkEndpoint != null) {
+                    startBulk(bulkEndpoint, (int) payloadSize);
+                } else {
+                    startIsochronous((int) payloadSize);
+                }
+            } catch (IOException e) {
+                running = false;
+                if (isochronousConfig != null) {
+                    connection.setInterface(defaultSetting);
+                }
+                releaseBandwidth();
+                restoreExecutor();
+                throw e;
+            }
+            return frameAssembler;
+        }
+    }
+
+    private void startIsochronous(int payloadSize) throws IOException {
+        final BaseUsbInterface setting = selectIsochronousSetting(payloadSize);
+        final BaseUsbEndpoint endpoint = findEndpoint(setting, UsbConstants.USB_ENDPOINT_XFER_ISOC);
+        // Payloads have to be assembled in completion order, which only the event thread guarantees. The endpoint's own
+        // executor, if it has one, is put back when the stream stops
+        final Executor previous = connection.getCallbackExecutor(endpoint);
+        endpointExecutor = previous != connection.getCallbackExecutor(null) ? previous : null;
+        isochronousEndpoint = endpoint;
+        connection.setCallbackExecutor(endpoint, CallbackExecutors.INLINE);
+        final IsochronousStreamConfig config = connection.reserveIsochronousStream(endpoint,
+            ISOCHRONOUS_LATENCY_MICROS);
+        isochronousConfig = config;
+        final LibusbError result = connection.setInterface(setting);
+        if (result != LibusbError.LIBUSB_SUCCESS) {
+            throw new IOException("Failed to select alternate setting " + setting.getAlternateSetting() + ": "
+                                  + result);
+        }
+        for (int i = 0; i < TRANSFER_COUNT; ++i) {
+            final IsochronousSlot slot = new IsochronousSlot(config);
+            try {
+                slot.submit();
+            } catch (IllegalStateException e) {
+                if (inFlight == 0) {
+                    throw new IOException(e.getMessage());
+                }
+                Arbor.w("UVC stream running with %d of %d transfers: %s", inFlight, TRANSFER_COUNT, e.getMessage());
+                break;
+            }
+            ++inFlight;
+        }
+    }
+
+    private void startBulk(@NotNull BaseUsbEndpoint endpoint, int payloadSize) throws IOException {
+        bulkSlots.clear();
+        for (int i = 0; i < TRANSFER_COUNT; ++i) {
+            final BulkSlot slot = new BulkSlot(endpoint, payloadSize);
+            bulkSlots.add(slot);
+            final int result = slot.submit();
+            if (result < 0) {
+                if (inFlight == 0) {
+                    throw new IOException("Failed to submit bulk transfer: " + LibusbError.fromNative(result));
+                }
+                Arbor.w("UVC stream running with %d of %d transfers: %s", inFlight, TRANSFER_COUNT,
+                    LibusbError.fromNative(result));
+                break;
+            }
+            ++inFlight;
+        }
+    }
+
+    /**
+     * Picks the alternate setting with the smallest isochronous packet that still carries a whole payload, leaving as
+     * much of the bus as possible to other devices.
+     */
+    @NotNull
+    private BaseUsbInterface selectIsochronousSetting(int payloadSize) throws IOException {
+        final BaseUsbDevice device = connection.getDevice();
+        BaseUsbInterface best = null;
+        int bestSize = Integer.MAX_VALUE;
+        for (int i = 0; i < device.getInterfaceCount(); ++i) {
+            final BaseUsbInterface setting = device.getInterface(i);
+            if (setting.getId() != interfaceNumber || setting.getAlternateSetting() == 0) {
+                continue;
+            }
+            final BaseUsbEndpoint endpoint = findEndpoint(setting, UsbConstants.USB_ENDPOINT_XFER_ISOC);
+            if (endpoint == null) {
+                continue;
+            }
+            final int packetSize = IsochronousStreamConfig.forEndpoint(endpoint, device.getDeviceSpeed(), 1)
+                .getPacketSize();
+            if (packetSize >= payloadSize && packetSize < bestSize) {
+                best = setting;
+                bestSize = packetSize;
+            }
+        }
+        if (best == null) {
+            throw new IOException("No alternate setting of interface " + interfaceNumber + " carries " + payloadSize
+                                  + " byte payloads.");
+        }
+        return best;
+    }
+
+    @Nullable
+    private BaseUsbInterface findSetting(int alternateSetting) {
+        final BaseUsbDevice device = connection.getDevice();
+        for (int i = 0; i < device.getInterfaceCount(); ++i) {
+            final BaseUsbInterface setting = device.getInterface(i);
+            if (setting.getId() == interfaceNumber && setting.getAlternateSetting() == alternateSetting) {
+                return setting;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static BaseUsbEndpoint findEndpoint(@NotNull BaseUsbInterface setting, int type) {
+        for (int i = 0; i < setting.getEndpointCount(); ++i) {
+            final BaseUsbEndpoint endpoint = setting.getEndpoint(i);
+            if (endpoint.getType() == type && endpoint.getDirection() == UsbConstants.USB_DIR_IN) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return {@code boolean} {@code true} while transfers are being resubmitted.
+     */
+    public boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * @return {@code int} The libusb error which stopped the stream, 0 if it was stopped normally or is running.
+     */
+    public int getError() {
+        synchronized (lock) {
+            return error;
+        }
+    }
+
+    /**
+     * Stops streaming and waits for the transfers in flight to retire, cancelling bulk transfers which would otherwise
+     * wait for the camera indefinitely. The interface is then returned to its zero bandwidth setting, the stream's bus
+     * time is released and the isochronous endpoint's callback executor is restored. Must not be called from the event
+     * thread or a frame listener.
+     *
+     * @param timeoutMillis {@code long} The longest to wait for transfers to retire.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void stop(long timeoutMillis) throws InterruptedException {
+        final IsochronousStreamConfig config;
+        final BaseUsbInterface setting;
+        synchronized (lock) {
+            running = false;
+            for (BulkSlot slot : bulkSlots) {
+                slot.cancel();
+            }
+            final long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+            long remaining;
+            while (inFlight > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                lock.wait(Math.max(1, remaining / 1000000L));
+            }
+            if (inFlight > 0) {
+                Arbor.w("UVC stream stopped with %d transfers still in flight.", inFlight);
+            }
+            config = isochronousConfig;
+            setting = defaultSetting;
+            isochronousConfig = null;
+            bulkSlots.clear();
+            restoreExecutor();
+            if (assembler != null) {
+                assembler.reset();
+            }
+        }
+        // Outside the lock, a blocking transfer may need the event thread which a late completion could be holding
+        if (config != null) {
+            if (setting != null) {
+                connection.setInterface(setting);
+            }
+            connection.releaseIsochronousStream(config);
+        }
+    }
+
+    private void restoreExecutor() {
+        if (isochronousEndpoint != null) {
+            connection.setCallbackExecutor(isochronousEndpoint, endpointExecutor);
+            isochronousEndpoint = null;
+            endpointExecutor = null;
+        }
+    }
+
+    private void releaseBandwidth() {
+        if (isochronousConfig != null) {
+            connection.releaseIsochronousStream(isochronousConfig);
+            isochronousConfig = null;
+        }
+    }
+
+    /**
+     * Accounts for a completed transfer and decides whether it is resubmitted.
+     */
+    private boolean onCompleted(int result) {
+        synchronized (lock) {
+            if (result < 0 && running) {
+                Arbor.e("UVC stream stopped: %s", LibusbError.fromNative(result));
+                error = result;
+                running = false;
+            }
+            if (!running) {
+                --inFlight;
+                lock.notifyAll();
+            }
+            return running;
+        }
+    }
+
+    private final class IsochronousSlot implements IsochronousTransferCallback {
+
+        @NotNull
+        private final IsochronousAsyncTransfer transfer;
+
+        @NotNull
+        private final ByteBuffer buffer;
+
+        @NotNull
+        private final int[] lengths;
+
+        private final int packetSize;
+
+        IsochronousSlot(@NotNull IsochronousStreamConfig config) throws IOException {
+            transfer = new IsochronousAsyncTransfer(this, connection, config);
+            buffer = ByteBuffer.allocateDirect(config.getTransferSize());
+            lengths = new int[config.getPacketsPerTransfer()];
+            packetSize = config.getPacketSize();
+        }
+
+        void submit() {
+            transfer.submit(buffer, 0);
+        }
+
+        @Override
+        public void onIsochronousTransferComplete(@Nullable ByteBuffer data, int result) {
+            final UvcFrameAssembler frameAssembler = assembler;
+            if (result >= 0 && frameAssembler != null && isRunning()) {
+                final long now = System.nanoTime();
+                final int packets = transfer.getPacketLengths(lengths);
+                for (int i = 0; i < packets; ++i) {
+                    if (lengths[i] < 0) {
+                        frameAssembler.onPacketError();
+                    } else {
+                        frameAssembler.onPayload(buffer, i * packetSize, lengths[i], now);
+                    }
+                }
+            }
+            if (onCompleted(result)) {
+                try {
+                    submit();
+                } catch (IllegalStateException e) {
+                    Arbor.e(e, "Failed to resubmit isochronous transfer.");
+                    onCompleted(LibusbError.LIBUSB_ERROR_IO.getCode());
+                }
+            }
+        }
+    }
+
+    private final class BulkSlot extends DirectTransfer {
+
+        @NotNull
+        private final BaseUsbEndpoint endpoint;
+
+        @NotNull
+        private final ByteBuffer buffer;
+
+        BulkSlot(@NotNull BaseUsbEndpoint endpoint, int payloadSize) {
+            this.endpoint = endpoint;
+            buffer = ByteBuffer.allocateDirect(payloadSize);
+        }
+
+        int submit() {
+            buffer.clear();
+            // No timeout, a timeout could split a payload and leave its remainder to arrive without a header
+            return connection.submitDirectTransfer(endpoint, buffer, buffer.capacity(), 0, this);
+        }
+
+        @Override
+        public void onComplete(int result) {
+            final UvcFrameAssembler frameAssembler = assembler;
+            // A transfer which ended early still holds whatever part of the payload it received
+            final int length = result >= 0 ? result : getActualLength();
+            if (length > 0 && frameAssembler != null && isRunning()) {
+                frameAssembler.onPayload(buffer, 0, length, System.nanoTime());
+            }
+            if (onCompleted(result)) {
+                final int submitted = submit();
+                if (submitted < 0) {
+                    onCompleted(submitted);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.jwoolston.libusb.uvc;
+
+/**
+ * A snapshot of a {@link UvcFrameAssembler}'s counters. Counters are not captured atomically with each other and may
+ * be one payload apart.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class UvcStreamStats {
+
+    private final long payloads;
+
+    private final long payloadBytes;
+
+    private final long headerErrors;
+
+    private final long packetErrors;
+
+    private final long framesDelivered;
+
+    private final long framesDropped;
+
+    private final long framesCorrupt;
+
+    private final int freeFrames;
+
+    private final int frameCount;
+
+    UvcStreamStats(long payloads, long payloadBytes, long headerErrors, long packetErrors, long framesDelivered,
+                   long framesDropped, long framesCorrupt, int freeFrames, int frameCount) {
+        this.payloads = payloads;
+        this.payloadBytes = payloadBytes;
+        this.headerErrors = headerErrors;
+        this.packetErrors = packetErrors;
+        this.framesDelivered = framesDelivered;
+        this.framesDropped = framesDropped;
+        this.framesCorrupt = framesCorrupt;
+        this.freeFrames = freeFrames;
+        this.frameCount = frameCount;
+    }
+
+    public long getPayloads() {
+        return payloads;
+    }
+
+    /**
+     * @return {@code long} The bytes received, payload headers included.
+     */
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    /**
+     * @return {@code long} The number of payloads discarded because their header was malformed.
+     */
+    public long getHeaderErrors() {
+        return headerErrors;
+    }
+
+    /**
+     * @return {@code long} The number of isochronous packets lost in transfer.
+     */
+    public long getPacketErrors() {
+        return packetErrors;
+    }
+
+    /**
+     * @return {@code long} The number of intact frames delivered.
+     */
+    public long getFramesDelivered() {
+        return framesDelivered;
+    }
+
+    /**
+     * @return {@code long} The number of frames discarded because every pooled frame was in use.
+     */
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    /**
+     * @return {@code long} The number of frames found corrupt, whether or not they were delivered.
+     */
+    public long getFramesCorrupt() {
+        return framesCorrupt;
+    }
+
+    public int getFreeFrames() {
+        return freeFrames;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public String toString() {
+        return "UvcStreamStats[payloads=" + payloads + ",framesDelivered=" + framesDelivered + ",framesDropped="
+               + framesDropped + ",framesCorrupt=" + framesCorrupt + ",headerErrors=" + headerErrors
+               + ",packetErrors=" + packetErrors + ",freeFrames=" + freeFrames + "/" + frameCount + "]";
+    }
+}
@@ -0,0 +1,237 @@
+package com.jwoolston.libusb.uvc;
+
+import com.jwoolston.libusb.util.Preconditions;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The video probe and commit control of a UVC VideoStreaming interface (UVC 1.5 section 4.3.1.1). The structure grew
+ * with each revision of the specification, 26 bytes for UVC 1.0, 34 bytes for 1.1 and 48 bytes for 1.5, and a device
+ * expects exactly the length of the revision it implements. Fields beyond the chosen length are ignored.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class UvcStreamingControl {
+
+    public static final int LENGTH_UVC_10 = 26;
+    public static final int LENGTH_UVC_11 = 34;
+    public static final int LENGTH_UVC_15 = 48;
+
+    private final int length;
+
+    private int hint;
+    private int formatIndex;
+    private int frameIndex;
+    private long frameInterval;
+    private int keyFrameRate;
+    private int pFrameRate;
+    private int compQuality;
+    private int compWindowSize;
+    private int delay;
+    private long maxVideoFrameSize;
+    private long maxPayloadTransferSize;
+    private long clockFrequency;
+    private int framingInfo;
+    private int preferredVersion;
+    private int minVersion;
+    private int maxVersion;
+
+    /**
+     * @param length {@code int} The length of the control, one of {@link #LENGTH_UVC_10}, {@link #LENGTH_UVC_11} or
+     *               {@link #LENGTH_UVC_15}.
+     */
+    public UvcStreamingControl(int length) {
+        Preconditions.checkArgument(length == LENGTH_UVC_10 || length == LENGTH_UVC_11 || length == LENGTH_UVC_15,
+            "Unsupported streaming control length %d.", length);
+        this.length = length;
+    }
+
+    /**
+     * @param bcdUvc {@code int} The UVC revision from the VideoControl interface header, e.g. {@code 0x0110}.
+     *
+     * @return {@link UvcStreamingControl} of the length that revision uses.
+     */
+    @NotNull
+    public static UvcStreamingControl forVersion(int bcdUvc) {
+        if (bcdUvc >= 0x0150) {
+            return new UvcStreamingControl(LENGTH_UVC_15);
+        } else if (bcdUvc >= 0x0110) {
+            return new UvcStreamingControl(LENGTH_UVC_11);
+        }
+        return new UvcStreamingControl(LENGTH_UVC_10);
+    }
+
+    /**
+     * Writes the control in wire format.
+     *
+     * @param bytes {@code byte[]} of at least {@link #getLength()} bytes.
+     */
+    public void write(@NotNull byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) hint).put((byte) formatIndex).put((byte) frameIndex).putInt((int) frameInterval)
+            .putShort((short) keyFrameRate).putShort((short) pFrameRate).putShort((short) compQuality)
+            .putShort((short) compWindowSize).putShort((short) delay).putInt((int) maxVideoFrameSize)
+            .putInt((int) maxPayloadTransferSize);
+        if (length >= LENGTH_UVC_11) {
+            buffer.putInt((int) clockFrequency).put((byte) framingInfo).put((byte) preferredVersion)
+                .put((byte) minVersion).put((byte) maxVersion);
+        }
+        // The UVC 1.5 encoding fields are left zeroed, the device fills them in when probed
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    /**
+     * Reads the control from wire format, as returned by the device.
+     *
+     * @param bytes  {@code byte[]} containing the control.
+     * @param actual {@code int} The number of bytes the device returned.
+     */
+    public void read(@NotNull byte[] bytes, int actual) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, Math.min(actual, length)).order(ByteOrder.LITTLE_ENDIAN);
+        Preconditions.checkArgument(buffer.remaining() >= LENGTH_UVC_10, "Streaming control is truncated at %d bytes.",
+            actual);
+        hint = 0xFFFF & buffer.getShort();
+        formatIndex = 0xFF & buffer.get();
+        frameIndex = 0xFF & buffer.get();
+        frameInterval = 0xFFFFFFFFL & buffer.getInt();
+        keyFrameRate = 0xFFFF & buffer.getShort();
+        pFrameRate = 0xFFFF & buffer.getShort();
+        compQuality = 0xFFFF & buffer.getShort();
+        compWindowSize = 0xFFFF & buffer.getShort();
+        delay = 0xFFFF & buffer.getShort();
+        maxVideoFrameSize = 0xFFFFFFFFL & buffer.getInt();
+        maxPayloadTransferSize = 0xFFFFFFFFL & buffer.getInt();
+        if (buffer.remaining() >= LENGTH_UVC_11 - LENGTH_UVC_10) {
+            clockFrequency = 0xFFFFFFFFL & buffer.getInt();
+            framingInfo = 0xFF & buffer.get();
+            preferredVersion = 0xFF & buffer.get();
+            minVersion = 0xFF & buffer.get();
+            maxVersion = 0xFF & buffer.get();
+        }
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getHint() {
+        return hint;
+    }
+
+    /**
+     * @param hint {@code int} bmHint, which fields the device should keep fixed while negotiating.
+     */
+    public void setHint(int hint) {
+        this.hint = hint;
+    }
+
+    public int getFormatIndex() {
+        return formatIndex;
+    }
+
+    public void setFormatIndex(int formatIndex) {
+        this.formatIndex = formatIndex;
+    }
+
+    public int getFrameIndex() {
+        return frameIndex;
+    }
+
+    public void setFrameIndex(int frameIndex) {
+        this.frameIndex = frameIndex;
+    }
+
+    /**
+     * @return {@code long} The frame interval in 100ns units.
+     */
+    public long getFrameInterval() {
+        return frameInterval;
+    }
+
+    public void setFrameInterval(long frameInterval) {
+        this.frameInterval = frameInterval;
+    }
+
+    public int getKeyFrameRate() {
+        return keyFrameRate;
+    }
+
+    public void setKeyFrameRate(int keyFrameRate) {
+        this.keyFrameRate = keyFrameRate;
+    }
+
+    public int getPFrameRate() {
+        return pFrameRate;
+    }
+
+    public void setPFrameRate(int pFrameRate) {
+        this.pFrameRate = pFrameRate;
+    }
+
+    public int getCompQuality() {
+        return compQuality;
+    }
+
+    public void setCompQuality(int compQuality) {
+        this.compQuality = compQuality;
+    }
+
+    public int getCompWindowSize() {
+        return compWindowSize;
+    }
+
+    public void setCompWindowSize(int compWindowSize) {
+        this.compWindowSize = compWindowSize;
+    }
+
+    public int getDelay() {
+        return delay;
+    }
+
+    /**
+     * @return {@code long} The largest frame the device will send in bytes, as negotiated.
+     */
+    public long getMaxVideoFrameSize() {
+        return maxVideoFrameSize;
+    }
+
+    /**
+     * @return {@code long} The largest payload, header included, the device will send in one isochronous interval or
+     * bulk transfer.
+     */
+    public long getMaxPayloadTransferSize() {
+        return maxPayloadTransferSize;
+    }
+
+    public long getClockFrequency() {
+        return clockFrequency;
+    }
+
+    public int getFramingInfo() {
+        return framingInfo;
+    }
+
+    public int getPreferredVersion() {
+        return preferredVersion;
+    }
+
+    public int getMinVersion() {
+        return minVersion;
+    }
+
+    public int getMaxVersion() {
+        return maxVersion;
+    }
+
+    @Override
+    public String toString() {
+        return "UvcStreamingControl[format=" + formatIndex + ",frame=" + frameIndex + ",frameInterval="
+               + frameInterval + ",maxVideoFrameSize=" + maxVideoFrameSize + ",maxPayloadTransferSize="
+               + maxPayloadTransferSize + "]";
+    }
+}
@@ -0,0 +1,21 @@
+package com.jwoolston.libusb.uvc;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The control requests a {@link UvcStream} makes of its camera to negotiate a format. Implemented over a
+ * {@link com.jwoolston.libusb.BaseUsbDeviceConnection} by the stream, and by a simulated camera in tests.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+interface UvcTransport {
+
+    /**
+     * Performs a control transfer, with the contract of
+     * {@link com.jwoolston.libusb.BaseUsbDeviceConnection#controlTransfer(int, int, int, int, byte[], int, int)}.
+     *
+     * @return {@code int} The transferred length or a negative libusb error code.
+     */
+    int controlTransfer(int requestType, int request, int value, int index, @NotNull byte[] buffer, int length,
+                        int timeout);
+}
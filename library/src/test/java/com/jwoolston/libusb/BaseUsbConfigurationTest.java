@@ -0,0 +1,196 @@
+package com.jwoolston.libusb;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class BaseUsbConfigurationTest {
+
+    private static final int[] INTERFACE_ASSOCIATION = {8, 0x0B, 0, 2, UsbConstants.USB_CLASS_COMM, 2, 1, 0};
+
+    private static final int[] CDC_HEADER = {5, 0x24, 0x00, 0x10, 0x01};
+
+    private static final int[] CDC_UNION = {5, 0x24, 0x06, 0x00, 0x01};
+
+    private static final int[] SS_COMPANION = {6, 0x30, 15, 0, 0, 0};
+
+    private final TestUsbDevice device = new TestUsbDevice("/dev/bus/usb/001/002");
+
+    @Test
+    public void parsesInterfacesAlternateSettingsAndEndpoints() {
+        final BaseUsbConfiguration configuration = BaseUsbConfiguration.fromRawDescriptor(device, buildComposite());
+        assertEquals(1, configuration.getId());
+        assertEquals(500, configuration.getMaxPower());
+        assertTrue(configuration.isSelfPowered());
+        assertEquals(4, configuration.getInterfaceCount());
+
+        final BaseUsbInterface control = configuration.getInterface(0);
+        assertEquals(0, control.getId());
+        assertEquals(0, control.getAlternateSetting());
+        assertEquals(UsbConstants.USB_CLASS_COMM, control.getInterfaceClass());
+        assertEquals(1, control.getEndpointCount());
+        assertEquals(0x81, control.getEndpoint(0).getAddress());
+        assertEquals(UsbConstants.USB_ENDPOINT_XFER_INT, control.getEndpoint(0).getType());
+        assertEquals(16, control.getEndpoint(0).getMaxPacketSize());
+        assertEquals(8, control.getEndpoint(0).getInterval());
+
+        final BaseUsbInterface idle = configuration.getInterface(1);
+        assertEquals(1, idle.getId());
+        assertEquals(0, idle.getAlternateSetting());
+        assertEquals(0, idle.getEndpointCount());
+
+        final BaseUsbInterface data = configuration.getInterface(2);
+        assertEquals(1, data.getId());
+        assertEquals(1, data.getAlternateSetting());
+        assertEquals(2, data.getEndpointCount());
+        assertEquals(0x82, data.getEndpoint(0).getAddress());
+        assertEquals(UsbConstants.USB_DIR_IN, data.getEndpoint(0).getDirection());
+        assertEquals(1024, data.getEndpoint(0).getMaxPacketSize());
+        assertEquals(0x02, data.getEndpoint(1).getAddress());
+        assertEquals(UsbConstants.USB_DIR_OUT, data.getEndpoint(1).getDirection());
+
+        final BaseUsbInterface vendor = configuration.getInterface(3);
+        assertEquals(2, vendor.getId());
+        assertEquals(UsbConstants.USB_CLASS_VENDOR_SPEC, vendor.getInterfaceClass());
+        assertEquals(0, vendor.getEndpointCount());
+    }
+
+    @Test
+    public void extraDescriptorsAttachedToPrecedingDescriptor() {
+        final BaseUsbConfiguration configuration = BaseUsbConfiguration.fromRawDescriptor(device, buildComposite());
+        assertSlice(configuration.getClassSpecificDescriptors(), INTERFACE_ASSOCIATION);
+        assertSlice(configuration.getInterface(0).getClassSpecificDescriptors(), CDC_HEADER, CDC_UNION);
+        assertNull(configuration.getInterface(0).getEndpoint(0).getClassSpecificDescriptors());
+        assertNull(configuration.getInterface(1).getClassSpecificDescriptors());
+        assertNull(configuration.getInterface(2).getClassSpecificDescriptors());
+        assertSlice(configuration.getInterface(2).getEndpoint(0).getClassSpecificDescriptors(), SS_COMPANION);
+        assertSlice(configuration.getInterface(2).getEndpoint(1).getClassSpecificDescriptors(), SS_COMPANION);
+    }
+
+    @Test
+    public void extraDescriptorsAreReadOnly() {
+        final BaseUsbConfiguration configuration = BaseUsbConfiguration.fromRawDescriptor(device, buildComposite());
+        final ByteBuffer extra = configuration.getInterface(0).getClassSpecificDescriptors();
+        assertTrue(extra != null && extra.isReadOnly());
+    }
+
+    @Test
+    public void totalLengthBeyondBufferParsesWhatIsThere() {
+        final byte[] full = buildComposite();
+        // Cut inside the second bulk endpoint of the data interface
+        final byte[] truncated = new byte[indexOfEndpoint(full, 0x02) + 4];
+        System.arraycopy(full, 0, truncated, 0, truncated.length);
+        final BaseUsbConfiguration configuration = BaseUsbConfiguration.fromRawDescriptor(device, truncated);
+        assertEquals(3, configuration.getInterfaceCount());
+        assertEquals(1, configuration.getInterface(2).getEndpointCount());
+        assertEquals(0x82, configuration.getInterface(2).getEndpoint(0).getAddress());
+    }
+
+    @Test
+    public void bytesBeyondTotalLengthIgnored() {
+        final byte[] full = buildComposite();
+        final int total = indexOfEndpoint(full, 0x02);
+        full[2] = (byte) total;
+        full[3] = (byte) (total >> 8);
+        final BaseUsbConfiguration configuration = BaseUsbConfiguration.fromRawDescriptor(device, full);
+        assertEquals(3, configuration.getInterfaceCount());
+        assertEquals(1, configuration.getInterface(2).getEndpointCount());
+    }
+
+    @Test
+    public void zeroLengthDescriptorStopsParsing() {
+        final byte[] full = buildComposite();
+        full[indexOfEndpoint(full, 0x02)] = 0;
+        final BaseUsbConfiguration configuration = BaseUsbConfiguration.fromRawDescriptor(device, full);
+        assertEquals(3, configuration.getInterfaceCount());
+        assertEquals(1, configuration.getInterface(2).getEndpointCount());
+    }
+
+    @Test
+    public void shortConfigurationLengthNotTrusted() {
+        final byte[] full = buildComposite();
+        full[0] = 4;
+        final BaseUsbConfiguration configuration = BaseUsbConfiguration.fromRawDescriptor(device, full);
+        assertEquals(4, configuration.getInterfaceCount());
+        assertSlice(configuration.getClassSpecificDescriptors(), INTERFACE_ASSOCIATION);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortDescriptor() {
+        BaseUsbConfiguration.fromRawDescriptor(device, new byte[]{9, (byte) UsbConstants.USB_DT_CONFIG, 9, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherDescriptorType() {
+        final byte[] raw = buildComposite();
+        raw[1] = (byte) UsbConstants.USB_DT_DEVICE;
+        BaseUsbConfiguration.fromRawDescriptor(device, raw);
+    }
+
+    /**
+     * A CDC ACM function with a data interface which has an idle setting, followed by a vendor interface without
+     * endpoints.
+     */
+    @NotNull
+    private static byte[] buildComposite() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, 9, UsbConstants.USB_DT_CONFIG, 0, 0, 3, 1, 0, 0xC0, 250);
+        write(out, INTERFACE_ASSOCIATION);
+        write(out, 9, UsbConstants.USB_DT_INTERFACE, 0, 0, 1, UsbConstants.USB_CLASS_COMM, 2, 1, 0);
+        write(out, CDC_HEADER);
+        write(out, CDC_UNION);
+        write(out, 7, UsbConstants.USB_DT_ENDPOINT, 0x81, UsbConstants.USB_ENDPOINT_XFER_INT, 16, 0, 8);
+        write(out, 9, UsbConstants.USB_DT_INTERFACE, 1, 0, 0, UsbConstants.USB_CLASS_CDC_DATA, 0, 0, 0);
+        write(out, 9, UsbConstants.USB_DT_INTERFACE, 1, 1, 2, UsbConstants.USB_CLASS_CDC_DATA, 0, 0, 0);
+        write(out, 7, UsbConstants.USB_DT_ENDPOINT, 0x82, UsbConstants.USB_ENDPOINT_XFER_BULK, 0, 4, 0);
+        write(out, SS_COMPANION);
+        write(out, 7, UsbConstants.USB_DT_ENDPOINT, 0x02, UsbConstants.USB_ENDPOINT_XFER_BULK, 0, 4, 0);
+        write(out, SS_COMPANION);
+        write(out, 9, UsbConstants.USB_DT_INTERFACE, 2, 0, 0, UsbConstants.USB_CLASS_VENDOR_SPEC, 0, 0, 0);
+        final byte[] raw = out.toByteArray();
+        raw[2] = (byte) raw.length;
+        raw[3] = (byte) (raw.length >> 8);
+        return raw;
+    }
+
+    private static int indexOfEndpoint(@NotNull byte[] raw, int address) {
+        int offset = 0;
+        while (offset < raw.length) {
+            if (raw[offset + 1] == UsbConstants.USB_DT_ENDPOINT && (0xFF & raw[offset + 2]) == address) {
+                return offset;
+            }
+            offset += raw[offset];
+        }
+        throw new AssertionError("No endpoint " + address);
+    }
+
+    private static void write(@NotNull ByteArrayOutputStream out, int... values) {
+        for (int value : values) {
+            out.write(value);
+        }
+    }
+
+    private static void assertSlice(ByteBuffer slice, int[]... expected) {
+        assertTrue("Missing descriptors", slice != null);
+        int length = 0;
+        for (int[] descriptor : expected) {
+            length += descriptor.length;
+        }
+        assertEquals(length, slice.remaining());
+        int index = slice.position();
+        for (int[] descriptor : expected) {
+            for (int value : descriptor) {
+                assertEquals(value, 0xFF & slice.get(index++));
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.jwoolston.libusb;
+
+import com.jwoolston.libusb.async.BulkTransferCallback;
+import com.jwoolston.libusb.async.CallbackExecutors;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class BusBandwidthGovernorTest {
+
+    private static final int BUS = 1;
+
+    private static final long LIMIT = 1000;
+
+    private BusBandwidthGovernor governor;
+
+    private TestUsbDevice first;
+
+    private TestUsbDevice second;
+
+    private List<String> events;
+
+    @Before
+    public void setUp() {
+        governor = new BusBandwidthGovernor();
+        governor.setLimit(BUS, LIMIT);
+        first = device("first", BUS, 1);
+        second = device("second", BUS, 2);
+        events = new ArrayList<>();
+    }
+
+    @Test
+    public void unlimitedBusNotGoverned() {
+        final TestUsbDevice other = device("other", BUS + 1, 1);
+        assertFalse(governor.isGoverned(other));
+        assertTrue(governor.admit(other, 10 * LIMIT, new RecordingSubmission("other")));
+        assertNull(governor.getUtilization(BUS + 1));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void transfersWithinLimitAdmitted() {
+        assertTrue(governor.isGoverned(first));
+        assertTrue(governor.admit(first, 600, new RecordingSubmission("a1")));
+        assertTrue(governor.admit(first, 400, new RecordingSubmission("a2")));
+        assertEquals(1000, governor.getUtilization(BUS).getInFlightBytes());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void idleBusAdmitsOversizedTransfer() {
+        assertTrue(governor.admit(first, 4 * LIMIT, new RecordingSubmission("a1")));
+        assertFalse(governor.admit(first, 1, new RecordingSubmission("a2")));
+        assertEquals(Arrays.asList("held a2"), events);
+        governor.release(first, 4 * LIMIT);
+        assertEquals(Arrays.asList("held a2", "submit a2"), events);
+    }
+
+    @Test
+    public void overLimitHeldUntilRelease() {
+        assertTrue(governor.admit(first, 800, new RecordingSubmission("a1")));
+        assertFalse(governor.admit(first, 300, new RecordingSubmission("a2")));
+        // Queued behind a2 even though it would fit, so a device's transfers stay in order
+        assertFalse(governor.admit(first, 100, new RecordingSubmission("a3")));
+        assertEquals(Arrays.asList("held a2", "held a3"), events);
+        assertEquals(2, governor.getUtilization(BUS).getQueuedTransfers());
+
+        governor.release(first, 800);
+        assertEquals(Arrays.asList("held a2", "held a3", "submit a2", "submit a3"), events);
+        assertEquals(400, governor.getUtilization(BUS).getInFlightBytes());
+        assertEquals(800, governor.getUtilization(BUS).getCompletedBytes());
+    }
+
+    @Test
+    public void deviceOverItsShareWaitsForOthers() {
+        // Alone on the bus the first device may exceed its half share
+        assertTrue(governor.admit(first, 400, new RecordingSubmission("a1")));
+        assertTrue(governor.admit(first, 400, new RecordingSubmission("a2")));
+        assertFalse(governor.admit(second, 300, new RecordingSubmission("b1")));
+        // Fits the limit, but the first device is over its share while the second waits
+        assertFalse(governor.admit(first, 100, new RecordingSubmission("a3")));
+
+        governor.release(first, 400);
+        // The device furthest below its share goes first
+        assertEquals(Arrays.asList("held b1", "held a3", "submit b1", "submit a3"), events);
+        assertEquals(800, governor.getUtilization(BUS).getInFlightBytes());
+    }
+
+    @Test
+    public void deviceWithinItsShareAdmittedWhileOthersWait() {
+        assertTrue(governor.admit(second, 900, new RecordingSubmission("b1")));
+        assertFalse(governor.admit(second, 900, new RecordingSubmission("b2")));
+        assertTrue(governor.admit(first, 100, new RecordingSubmission("a1")));
+        assertEquals(Arrays.asList("held b2"), events);
+    }
+
+    @Test
+    public void weightsScaleTheShare() {
+        governor.setWeight(first.getBusPath(), 3);
+        assertTrue(governor.admit(first, 500, new RecordingSubmission("a1")));
+        assertFalse(governor.admit(second, 600, new RecordingSubmission("b1")));
+        // Within three quarters of the limit, so allowed although the second device waits
+        assertTrue(governor.admit(first, 250, new RecordingSubmission("a2")));
+        // Beyond three quarters
+        assertFalse(governor.admit(first, 100, new RecordingSubmission("a3")));
+        assertEquals(Arrays.asList("held b1", "held a3"), events);
+    }
+
+    @Test
+    public void nextWaitingFollowsWeightedUsage() {
+        governor.setWeight(second.getBusPath(), 2);
+        assertTrue(governor.admit(first, 400, new RecordingSubmission("a1")));
+        assertTrue(governor.admit(second, 600, new RecordingSubmission("b1")));
+        assertFalse(governor.admit(first, 100, new RecordingSubmission("a2")));
+        assertFalse(governor.admit(second, 100, new RecordingSubmission("b2")));
+        events.clear();
+
+        // At twice the weight, 500 in flight leaves the second device further below its share than 400 the first
+        governor.release(second, 100);
+        assertEquals(Arrays.asList("submit b2"), events);
+        governor.release(first, 400);
+        assertEquals(Arrays.asList("submit b2", "submit a2"), events);
+    }
+
+    @Test
+    public void failedTransferReleasesThroughDispatch() {
+        final List<Integer> results = new ArrayList<>();
+        final BulkTransferCallback callback = new BulkTransferCallback() {
+            @Override
+            public void onBulkTransferComplete(@Nullable ByteBuffer data, int result) {
+                assertNull(data);
+                results.add(result);
+            }
+        };
+        final CompletionDispatch dispatch = new CompletionDispatch(new ArrayBlockingQueue<CompletionDispatch>(1))
+            .prepare(CallbackExecutors.INLINE, CompletionDispatch.BULK, callback).govern(governor, first, 900);
+        assertTrue(governor.admit(first, 900, new RecordingSubmission("a1")));
+        assertFalse(governor.admit(second, 500, new RecordingSubmission("b1")));
+
+        dispatch.onBulkTransferComplete(null, LibusbError.LIBUSB_ERROR_PIPE.getCode());
+        assertEquals(Arrays.asList(LibusbError.LIBUSB_ERROR_PIPE.getCode()), results);
+        assertEquals(Arrays.asList("held b1", "submit b1"), events);
+        assertEquals(500, governor.getUtilization(BUS).getInFlightBytes());
+    }
+
+    @Test
+    public void failedDirectTransferReleases() {
+        final List<Integer> results = new ArrayList<>();
+        final DirectTransfer transfer = new DirectTransfer() {
+            @Override
+            public void onComplete(int result) {
+                results.add(result);
+            }
+        };
+        transfer.govern(governor, first, 900);
+        assertTrue(governor.admit(first, 900, new RecordingSubmission("a1")));
+        assertFalse(governor.admit(second, 500, new RecordingSubmission("b1")));
+
+        transfer.complete(LibusbError.LIBUSB_ERROR_TIMEOUT.getCode(), 0);
+        assertEquals(Arrays.asList(LibusbError.LIBUSB_ERROR_TIMEOUT.getCode()), results);
+        assertEquals(Arrays.asList("held b1", "submit b1"), events);
+        assertEquals(500, governor.getUtilization(BUS).getInFlightBytes());
+
+        // Released once only, even if completed again after being resubmitted without a charge
+        transfer.complete(LibusbError.LIBUSB_ERROR_TIMEOUT.getCode(), 0);
+        assertEquals(500, governor.getUtilization(BUS).getInFlightBytes());
+    }
+
+    @Test
+    public void purgeFailsHeldTransfersWithoutCharge() {
+        assertTrue(governor.admit(first, 900, new RecordingSubmission("a1")));
+        assertFalse(governor.admit(first, 500, new RecordingSubmission("a2")));
+        assertFalse(governor.admit(second, 500, new RecordingSubmission("b1")));
+        assertFalse(governor.admit(first, 200, new RecordingSubmission("a3")));
+
+        governor.purge(first);
+        final int noDevice = LibusbError.LIBUSB_ERROR_NO_DEVICE.getCode();
+        assertEquals(Arrays.asList("held a2", "held b1", "held a3", "fail a2 " + noDevice, "fail a3 " + noDevice),
+            events);
+        assertEquals(900, governor.getUtilization(BUS).getInFlightBytes());
+        assertEquals(1, governor.getUtilization(BUS).getQueuedTransfers());
+
+        governor.release(first, 900);
+        assertEquals("submit b1", events.get(events.size() - 1));
+        assertEquals(500, governor.getUtilization(BUS).getInFlightBytes());
+    }
+
+    @Test
+    public void removingLimitSubmitsHeldTransfers() {
+        assertTrue(governor.admit(first, 900, new RecordingSubmission("a1")));
+        assertFalse(governor.admit(second, 500, new RecordingSubmission("b1")));
+        governor.setLimit(BUS, 0);
+        assertEquals(Arrays.asList("held b1", "submit b1"), events);
+        assertFalse(governor.isGoverned(first));
+        // Completions of transfers charged before the limit was removed are ignored
+        governor.release(first, 900);
+    }
+
+    @NotNull
+    private static TestUsbDevice device(@NotNull String name, int bus, int port) {
+        final TestUsbDevice device = new TestUsbDevice(name);
+        device.busPath = new int[]{bus, port};
+        return device;
+    }
+
+    private final class RecordingSubmission implements BusBandwidthGovernor.Submission {
+
+        @NotNull
+        private final String name;
+
+        RecordingSubmission(@NotNull String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void onHeld() {
+            events.add("held " + name);
+        }
+
+        @Override
+        public void submit() {
+            events.add("submit " + name);
+        }
+
+        @Override
+        public void fail(int result) {
+            events.add("fail " + name + " " + result);
+        }
+    }
+}
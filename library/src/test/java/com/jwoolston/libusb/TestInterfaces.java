@@ -0,0 +1,50 @@
+package com.jwoolston.libusb;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds interfaces as enumeration would, for tests of the class drivers outside this package.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class TestInterfaces {
+
+    private TestInterfaces() {
+    }
+
+    /**
+     * @param classSpecific {@code byte[]} The class specific descriptors following the interface descriptor, or
+     *                      {@code null} if there are none.
+     */
+    @NotNull
+    public static BaseUsbInterface create(int id, int alternateSetting, int interfaceClass, int subClass,
+                                          int protocol, @Nullable byte[] classSpecific) {
+        return create(id, alternateSetting, interfaceClass, subClass, protocol, classSpecific, new BaseUsbEndpoint[0]);
+    }
+
+    /**
+     * @param classSpecific {@code byte[]} The class specific descriptors following the interface descriptor, or
+     *                      {@code null} if there are none.
+     * @param endpoints     {@link BaseUsbEndpoint}s of the interface, see {@link #endpoint(int, int, int, int)}.
+     */
+    @NotNull
+    public static BaseUsbInterface create(int id, int alternateSetting, int interfaceClass, int subClass,
+                                          int protocol, @Nullable byte[] classSpecific,
+                                          @NotNull BaseUsbEndpoint... endpoints) {
+        final BaseUsbInterface setting = new BaseUsbInterface(id, alternateSetting, null, interfaceClass, subClass,
+            protocol);
+        setting.setEndpoints(endpoints);
+        if (classSpecific != null) {
+            setting.setClassSpecificDescriptors(ByteBuffer.wrap(classSpecific).asReadOnlyBuffer());
+        }
+        return setting;
+    }
+
+    @NotNull
+    public static BaseUsbEndpoint endpoint(int address, int attributes, int maxPacketSize, int interval) {
+        return new BaseUsbEndpoint(address, attributes, maxPacketSize, interval);
+    }
+}
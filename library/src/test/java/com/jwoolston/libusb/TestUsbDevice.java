@@ -0,0 +1,33 @@
+package com.jwoolston.libusb;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A device which is neither open nor backed by libusb, for tests of code which only needs its descriptors or
+ * identity.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class TestUsbDevice extends BaseUsbDevice {
+
+    public TestUsbDevice(@NotNull String name) {
+        this.name = name;
+    }
+
+    @Override
+    BaseUsbConfiguration createConfiguration(int id, @Nullable String name, int attributes, int maxPower) {
+        return new BaseUsbConfiguration(id, name, attributes, maxPower);
+    }
+
+    @Override
+    BaseUsbInterface createInterface(int id, int alternateSetting, @Nullable String name, int interfaceClass,
+                                     int subClass, int protocol) {
+        return new BaseUsbInterface(id, alternateSetting, name, interfaceClass, subClass, protocol);
+    }
+
+    @Override
+    BaseUsbEndpoint createEndpoint(int address, int attributes, int maxPacketSize, int interval) {
+        return new BaseUsbEndpoint(address, attributes, maxPacketSize, interval);
+    }
+}
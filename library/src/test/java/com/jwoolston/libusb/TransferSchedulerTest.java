@@ -0,0 +1,232 @@
+package com.jwoolston.libusb;
+
+import com.jwoolston.libusb.async.BulkTransferCallback;
+import com.jwoolston.libusb.async.ControlTransferCallback;
+import com.jwoolston.libusb.async.InterruptTransferCallback;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class TransferSchedulerTest {
+
+    private static final int TIMEOUT = 1000;
+
+    private final TransferScheduler.PriorityClass high = new TransferScheduler.PriorityClass("high", 10, 1);
+
+    private final TransferScheduler.PriorityClass low = new TransferScheduler.PriorityClass("low", 0, 2);
+
+    private final BaseUsbEndpoint bulkIn = new BaseUsbEndpoint(0x81, UsbConstants.USB_ENDPOINT_XFER_BULK, 512, 0);
+
+    private FakeTransport transport;
+
+    private TransferScheduler scheduler;
+
+    private List<Integer> results;
+
+    @Before
+    public void setUp() {
+        transport = new FakeTransport();
+        scheduler = new TransferScheduler(transport, 2, high, low);
+        results = new ArrayList<>();
+    }
+
+    @Test
+    public void failedTransfersFreeTheirSlots() {
+        for (int i = 0; i < 6; ++i) {
+            scheduler.bulkTransfer(low, new RecordingCallback(), bulkIn, new byte[8], 0, 8, TIMEOUT);
+        }
+        assertEquals(2, transport.pending.size());
+        assertEquals(4, scheduler.getStats(low).queued);
+
+        int failures = 0;
+        while (!transport.pending.isEmpty()) {
+            transport.complete(0, null, LibusbError.LIBUSB_ERROR_PIPE.getCode());
+            ++failures;
+        }
+
+        assertEquals(6, failures);
+        assertEquals(6, transport.submitted);
+        assertEquals(6, results.size());
+        for (int result : results) {
+            assertEquals(LibusbError.LIBUSB_ERROR_PIPE.getCode(), result);
+        }
+        final TransferScheduler.Stats stats = scheduler.getStats(low);
+        assertEquals(0, stats.queued);
+        assertEquals(0, stats.inFlight);
+        assertEquals(6, stats.submitted);
+    }
+
+    @Test
+    public void rejectedSubmissionsReportedAndDrained() {
+        transport.rejectNext = 3;
+        for (int i = 0; i < 4; ++i) {
+            scheduler.bulkTransfer(low, new RecordingCallback(), bulkIn, new byte[8], 0, 8, TIMEOUT);
+        }
+        assertEquals(3, results.size());
+        for (int result : results) {
+            assertEquals(LibusbError.LIBUSB_ERROR_NO_DEVICE.getCode(), result);
+        }
+        assertEquals(1, transport.pending.size());
+        assertEquals(0, scheduler.getStats(low).queued);
+        assertEquals(1, scheduler.getStats(low).inFlight);
+    }
+
+    @Test
+    public void errorsAndSuccessesInterleavedKeepPriority() {
+        for (int i = 0; i < 3; ++i) {
+            scheduler.bulkTransfer(low, new RecordingCallback(), bulkIn, new byte[8], 0, 8, TIMEOUT);
+        }
+        scheduler.controlTransfer(new RecordingCallback(), 0x80, 0x00, 0, 0, new byte[2], 0, 2, TIMEOUT);
+        scheduler.controlTransfer(new RecordingCallback(), 0x80, 0x00, 0, 0, new byte[2], 0, 2, TIMEOUT);
+        assertEquals(2, scheduler.getStats(high).queued);
+        assertEquals(1, scheduler.getStats(low).queued);
+
+        // A failed bulk transfer frees a slot, which the waiting control request takes ahead of the bulk queue
+        transport.complete(0, null, LibusbError.LIBUSB_ERROR_TIMEOUT.getCode());
+        assertEquals(1, scheduler.getStats(high).inFlight);
+        assertEquals(1, scheduler.getStats(low).queued);
+        assertEquals(2, transport.pending.size());
+        assertEquals(1, transport.pending.get(1).kind);
+
+        transport.complete(1, null, 2);
+        assertEquals(1, scheduler.getStats(high).inFlight);
+        assertEquals(0, scheduler.getStats(high).queued);
+
+        while (!transport.pending.isEmpty()) {
+            transport.complete(0, null, LibusbError.LIBUSB_ERROR_IO.getCode());
+        }
+        assertEquals(5, results.size());
+        assertEquals(0, scheduler.getStats(high).inFlight);
+        assertEquals(0, scheduler.getStats(low).inFlight);
+        assertEquals(0, scheduler.getStats(low).queued);
+    }
+
+    @Test
+    public void throwingCallbackDoesNotStallQueue() {
+        final BulkTransferCallback throwing = new BulkTransferCallback() {
+            @Override
+            public void onBulkTransferComplete(@Nullable ByteBuffer data, int result) {
+                throw new IllegalStateException("Callback failed.");
+            }
+        };
+        scheduler.bulkTransfer(low, throwing, bulkIn, new byte[8], 0, 8, TIMEOUT);
+        scheduler.bulkTransfer(low, throwing, bulkIn, new byte[8], 0, 8, TIMEOUT);
+        scheduler.bulkTransfer(low, new RecordingCallback(), bulkIn, new byte[8], 0, 8, TIMEOUT);
+        transport.complete(0, null, LibusbError.LIBUSB_ERROR_OVERFLOW.getCode());
+        assertEquals(2, transport.pending.size());
+        transport.complete(0, null, LibusbError.LIBUSB_ERROR_OVERFLOW.getCode());
+        transport.complete(0, null, LibusbError.LIBUSB_ERROR_OVERFLOW.getCode());
+        assertEquals(1, results.size());
+        assertEquals(0, scheduler.getStats(low).inFlight);
+    }
+
+    private final class RecordingCallback implements ControlTransferCallback, BulkTransferCallback,
+                                                     InterruptTransferCallback {
+
+        @Override
+        public void onControlTransferComplete(@Nullable ByteBuffer data, int result) {
+            record(data, result);
+        }
+
+        @Override
+        public void onBulkTransferComplete(@Nullable ByteBuffer data, int result) {
+            record(data, result);
+        }
+
+        @Override
+        public void onInterruptTransferComplete(@Nullable ByteBuffer data, int result) {
+            record(data, result);
+        }
+
+        private void record(@Nullable ByteBuffer data, int result) {
+            if (result < 0) {
+                assertNull(data);
+            }
+            results.add(result);
+        }
+    }
+
+    private static final class Submitted {
+
+        final int kind;
+
+        @NotNull
+        final Object callback;
+
+        Submitted(int kind, @NotNull Object callback) {
+            this.kind = kind;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Holds submitted transfers until the test completes them, as libusb does until the event thread handles them.
+     */
+    private static final class FakeTransport implements TransferScheduler.Transport {
+
+        final List<Submitted> pending = new ArrayList<>();
+
+        int submitted;
+
+        int rejectNext;
+
+        @Override
+        public int controlTransferAsync(@NotNull ControlTransferCallback callback, int requestType, int request,
+                                        int value, int index, byte[] buffer, int offset, int length, int timeout) {
+            return submit(1, callback);
+        }
+
+        @Override
+        public int bulkTransferAsync(@NotNull BulkTransferCallback callback, @NotNull BaseUsbEndpoint endpoint,
+                                     byte[] buffer, int offset, int length, int timeout) {
+            return submit(2, callback);
+        }
+
+        @Override
+        public int interruptTransferAsync(@NotNull InterruptTransferCallback callback,
+                                          @NotNull BaseUsbEndpoint endpoint, byte[] buffer, int offset, int length,
+                                          int timeout) {
+            return submit(3, callback);
+        }
+
+        private int submit(int kind, @NotNull Object callback) {
+            if (rejectNext > 0) {
+                --rejectNext;
+                return LibusbError.LIBUSB_ERROR_NO_DEVICE.getCode();
+            }
+            ++submitted;
+            pending.add(new Submitted(kind, callback));
+            return LibusbError.LIBUSB_SUCCESS.getCode();
+        }
+
+        void complete(int index, @Nullable ByteBuffer data, int result) {
+            final Submitted transfer = pending.remove(index);
+            try {
+                switch (transfer.kind) {
+                    case 1:
+                        ((ControlTransferCallback) transfer.callback).onControlTransferComplete(data, result);
+                        break;
+                    case 2:
+                        ((BulkTransferCallback) transfer.callback).onBulkTransferComplete(data, result);
+                        break;
+                    default:
+                        ((InterruptTransferCallback) transfer.callback).onInterruptTransferComplete(data, result);
+                }
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.jwoolston.libusb.mtp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class MtpObjectCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsedInfo() {
+        final MtpObjectCache cache = new MtpObjectCache(2);
+        cache.putInfo(info(1));
+        cache.putInfo(info(2));
+        assertNotNull(cache.getInfo(1));
+        cache.putInfo(info(3));
+        assertEquals(2, cache.getInfoCount());
+        assertNotNull(cache.getInfo(1));
+        assertNull(cache.getInfo(2));
+        assertNotNull(cache.getInfo(3));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void invalidationDropsListings() {
+        final MtpObjectCache cache = new MtpObjectCache();
+        cache.putInfo(info(1));
+        cache.putInfo(info(2));
+        cache.putListing(1, MtpSession.ROOT, new int[]{1, 2});
+        cache.putListing(2, MtpSession.ROOT, new int[]{3});
+        assertArrayEquals(new int[]{1, 2}, cache.getListing(1, MtpSession.ROOT));
+        // The storage and parent are kept apart in the key
+        assertNull(cache.getListing(1, 2));
+
+        cache.invalidate(1);
+        assertNull(cache.getInfo(1));
+        assertNotNull(cache.getInfo(2));
+        assertNull(cache.getListing(1, MtpSession.ROOT));
+        assertNull(cache.getListing(2, MtpSession.ROOT));
+
+        cache.putListing(1, MtpSession.ROOT, new int[]{2});
+        cache.invalidateListings();
+        assertNull(cache.getListing(1, MtpSession.ROOT));
+        assertNotNull(cache.getInfo(2));
+
+        cache.clear();
+        assertEquals(0, cache.getInfoCount());
+    }
+
+    private static MtpObjectInfo info(int handle) {
+        return MtpObjectInfo.parse(handle, ByteBuffer.wrap(MtpObjectInfoTest.dataset(1, 0x3801, 100, MtpSession.ROOT,
+            "file" + handle)));
+    }
+}
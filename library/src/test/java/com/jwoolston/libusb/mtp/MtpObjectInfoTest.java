@@ -0,0 +1,93 @@
+package com.jwoolston.libusb.mtp;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class MtpObjectInfoTest {
+
+    private static final int FORMAT_JPEG = 0x3801;
+
+    @Test
+    public void parsesDataset() {
+        final byte[] dataset = dataset(0x00010001, FORMAT_JPEG, 123456, 42, "IMG_0001.JPG");
+        final ByteBuffer buffer = ByteBuffer.allocate(dataset.length + 4);
+        buffer.putInt(0x55AA55AA).put(dataset).position(4);
+        final MtpObjectInfo info = MtpObjectInfo.parse(7, buffer);
+        // The dataset is read from the buffer's position, which is left alone
+        assertEquals(4, buffer.position());
+        assertEquals(7, info.getHandle());
+        assertEquals(0x00010001, info.getStorageId());
+        assertEquals(FORMAT_JPEG, info.getFormat());
+        assertEquals(123456, info.getCompressedSize());
+        assertEquals(42, info.getParent());
+        assertEquals("IMG_0001.JPG", info.getFilename());
+        assertEquals("20260102T030405", info.getCaptureDate());
+        assertEquals("", info.getModificationDate());
+        assertFalse(info.isFolder());
+    }
+
+    @Test
+    public void parsesFoldersAndLargeObjects() {
+        final MtpObjectInfo folder = MtpObjectInfo.parse(1, ByteBuffer.wrap(dataset(1,
+            MtpObjectInfo.FORMAT_ASSOCIATION, 0, MtpSession.ROOT, "DCIM")));
+        assertTrue(folder.isFolder());
+        assertEquals(MtpSession.ROOT, folder.getParent());
+
+        final MtpObjectInfo large = MtpObjectInfo.parse(2, ByteBuffer.wrap(dataset(1, FORMAT_JPEG, 0xFFFFFFFFL, 1,
+            "video.mp4")));
+        assertEquals(MtpObjectInfo.SIZE_UNKNOWN, large.getCompressedSize());
+    }
+
+    @Test
+    public void readsStringsWithoutTerminator() {
+        final ByteBuffer buffer = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 2).putChar('O').putChar('K').flip();
+        assertEquals("OK", MtpObjectInfo.readString(buffer));
+        assertEquals("", MtpObjectInfo.readString(ByteBuffer.wrap(new byte[]{0})));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedDatasetRejected() {
+        final byte[] dataset = dataset(1, FORMAT_JPEG, 1, 1, "IMG_0001.JPG");
+        MtpObjectInfo.parse(3, ByteBuffer.wrap(Arrays.copyOf(dataset, dataset.length - 12)));
+    }
+
+    /**
+     * Builds an ObjectInfo dataset.
+     */
+    @NotNull
+    static byte[] dataset(int storageId, int format, long size, int parent, @NotNull String filename) {
+        final ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(storageId).putShort((short) format).putShort((short) 0).putInt((int) size);
+        buffer.putShort((short) 0).putInt(0).putInt(0).putInt(0).putInt(640).putInt(480).putInt(24);
+        buffer.putInt(parent).putShort((short) 0).putInt(0).putInt(0);
+        putString(buffer, filename);
+        putString(buffer, "20260102T030405");
+        putString(buffer, "");
+        putString(buffer, "");
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static void putString(@NotNull ByteBuffer buffer, @NotNull String value) {
+        if (value.isEmpty()) {
+            buffer.put((byte) 0);
+            return;
+        }
+        buffer.put((byte) (value.length() + 1));
+        for (int i = 0; i < value.length(); ++i) {
+            buffer.putChar(value.charAt(i));
+        }
+        buffer.putChar((char) 0);
+    }
+}
@@ -0,0 +1,438 @@
+package com.jwoolston.libusb.mtp;
+
+import com.jwoolston.libusb.BaseUsbEndpoint;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.DirectTransfer;
+import com.jwoolston.libusb.LibusbError;
+import com.jwoolston.libusb.TestInterfaces;
+import com.jwoolston.libusb.UsbConstants;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class MtpSessionTest {
+
+    private static final int PACKET_SIZE = 512;
+
+    private static final int HEADER_LENGTH = 12;
+
+    private static final int STORAGE = 0x00010001;
+
+    private final BaseUsbEndpoint bulkIn = TestInterfaces.endpoint(0x81, UsbConstants.USB_ENDPOINT_XFER_BULK,
+        PACKET_SIZE, 0);
+
+    private final BaseUsbEndpoint bulkOut = TestInterfaces.endpoint(0x02, UsbConstants.USB_ENDPOINT_XFER_BULK,
+        PACKET_SIZE, 0);
+
+    private final BaseUsbEndpoint eventIn = TestInterfaces.endpoint(0x83, UsbConstants.USB_ENDPOINT_XFER_INT, 28, 6);
+
+    private BaseUsbInterface intf;
+
+    private FakeDevice device;
+
+    private MtpSession session;
+
+    private File file;
+
+    private RandomAccessFile output;
+
+    @Before
+    public void setUp() throws IOException {
+        intf = TestInterfaces.create(0, 0, UsbConstants.USB_CLASS_STILL_IMAGE, 0x01, 0x01, null, bulkIn, bulkOut,
+            eventIn);
+        device = new FakeDevice();
+        device.respond(MtpSession.OPERATION_GET_DEVICE_INFO, deviceInfo(MtpSession.OPERATION_GET_OBJECT_HANDLES,
+            MtpSession.OPERATION_GET_OBJECT_INFO, MtpSession.OPERATION_GET_OBJECT));
+        session = new MtpSession(device, intf, new MtpObjectCache());
+        session.open();
+        file = File.createTempFile("mtp", ".bin");
+        output = new RandomAccessFile(file, "rw");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        output.close();
+        file.delete();
+    }
+
+    @Test
+    public void openFramesSessionlessCommands() {
+        assertSame(intf, device.claimed);
+        assertEquals(2, device.commands.size());
+        final ByteBuffer getDeviceInfo = device.commands.get(0);
+        assertEquals(HEADER_LENGTH, getDeviceInfo.remaining());
+        assertEquals(HEADER_LENGTH, getDeviceInfo.getInt(0));
+        assertEquals(1, getDeviceInfo.getShort(4));
+        assertEquals(MtpSession.OPERATION_GET_DEVICE_INFO, getDeviceInfo.getShort(6));
+        assertEquals(0, getDeviceInfo.getInt(8));
+
+        final ByteBuffer openSession = device.commands.get(1);
+        assertEquals(HEADER_LENGTH + 4, openSession.remaining());
+        assertEquals(HEADER_LENGTH + 4, openSession.getInt(0));
+        assertEquals(MtpSession.OPERATION_OPEN_SESSION, openSession.getShort(6));
+        assertEquals(0, openSession.getInt(8));
+        assertEquals(1, openSession.getInt(12));
+
+        assertTrue(session.supportsOperation(MtpSession.OPERATION_GET_OBJECT));
+        assertFalse(session.supportsOperation(MtpSession.OPERATION_GET_PARTIAL_OBJECT_64));
+    }
+
+    @Test
+    public void transactionsNumberedWithinTheSession() throws IOException {
+        device.respond(MtpSession.OPERATION_GET_OBJECT_HANDLES, array(5, 6));
+        assertArrayEquals(new int[]{5, 6}, session.getObjectHandles(STORAGE, MtpSession.ROOT));
+        final ByteBuffer command = device.commands.get(2);
+        assertEquals(HEADER_LENGTH + 12, command.getInt(0));
+        assertEquals(MtpSession.OPERATION_GET_OBJECT_HANDLES, command.getShort(6));
+        assertEquals(1, command.getInt(8));
+        assertEquals(STORAGE, command.getInt(12));
+        assertEquals(MtpSession.ALL, command.getInt(16));
+        assertEquals(MtpSession.ROOT, command.getInt(20));
+
+        session.close();
+        final ByteBuffer closeSession = device.commands.get(3);
+        assertEquals(MtpSession.OPERATION_CLOSE_SESSION, closeSession.getShort(6));
+        assertEquals(2, closeSession.getInt(8));
+        assertSame(intf, device.released);
+    }
+
+    @Test
+    public void datasetFillingWholePacketsSkipsTheZeroLengthPacket() throws IOException {
+        // 12 byte header, count and 124 handles fill exactly one packet
+        final int[] handles = new int[(PACKET_SIZE - HEADER_LENGTH - 4) / 4];
+        for (int i = 0; i < handles.length; ++i) {
+            handles[i] = i + 1;
+        }
+        device.respond(MtpSession.OPERATION_GET_OBJECT_HANDLES, array(handles));
+        assertArrayEquals(handles, session.getObjectHandles(STORAGE, MtpSession.ROOT));
+        assertTrue(device.in.isEmpty());
+    }
+
+    @Test
+    public void objectInfosAndListingsCached() throws IOException {
+        device.respond(MtpSession.OPERATION_GET_OBJECT_HANDLES, array(5));
+        device.respond(MtpSession.OPERATION_GET_OBJECT_INFO,
+            MtpObjectInfoTest.dataset(STORAGE, 0x3801, 1000, MtpSession.ROOT, "IMG_0005.JPG"));
+        final List<MtpObjectInfo> objects = session.listObjects(STORAGE, MtpSession.ROOT);
+        assertEquals(1, objects.size());
+        assertEquals(5, objects.get(0).getHandle());
+        assertEquals("IMG_0005.JPG", objects.get(0).getFilename());
+        assertEquals(4, device.commands.size());
+
+        assertSame(objects.get(0), session.listObjects(STORAGE, MtpSession.ROOT).get(0));
+        assertEquals(4, device.commands.size());
+    }
+
+    @Test
+    public void eventsInvalidateTheCache() throws IOException {
+        final MtpObjectCache cache = session.getCache();
+        fillCache(cache);
+        device.event(MtpSession.EVENT_OBJECT_ADDED, 9);
+        assertEquals(MtpSession.EVENT_OBJECT_ADDED, session.pollEvent(100));
+        assertNull(cache.getListing(STORAGE, MtpSession.ROOT));
+        assertNotNull(cache.getInfo(1));
+
+        fillCache(cache);
+        device.event(MtpSession.EVENT_OBJECT_REMOVED, 1);
+        assertEquals(MtpSession.EVENT_OBJECT_REMOVED, session.pollEvent(100));
+        assertNull(cache.getInfo(1));
+        assertNotNull(cache.getInfo(2));
+        assertNull(cache.getListing(STORAGE, MtpSession.ROOT));
+
+        fillCache(cache);
+        device.event(MtpSession.EVENT_OBJECT_INFO_CHANGED, 2);
+        assertEquals(MtpSession.EVENT_OBJECT_INFO_CHANGED, session.pollEvent(100));
+        assertNull(cache.getInfo(2));
+        assertNotNull(cache.getInfo(1));
+
+        fillCache(cache);
+        device.event(MtpSession.EVENT_STORE_REMOVED, STORAGE);
+        assertEquals(MtpSession.EVENT_STORE_REMOVED, session.pollEvent(100));
+        assertEquals(0, cache.getInfoCount());
+        assertNull(cache.getListing(STORAGE, MtpSession.ROOT));
+
+        // Nothing pending, or an event the cache does not care about, leaves it alone
+        fillCache(cache);
+        assertEquals(0, session.pollEvent(100));
+        device.event(0x400D, 0);
+        assertEquals(0x400D, session.pollEvent(100));
+        assertEquals(2, cache.getInfoCount());
+        assertNotNull(cache.getListing(STORAGE, MtpSession.ROOT));
+    }
+
+    @Test
+    public void streamsObjectIntoChannel() throws IOException {
+        final byte[] object = object(600000);
+        device.respond(MtpSession.OPERATION_GET_OBJECT_INFO,
+            MtpObjectInfoTest.dataset(STORAGE, 0x3801, object.length, MtpSession.ROOT, "IMG_0005.JPG"));
+        device.respond(MtpSession.OPERATION_GET_OBJECT, object);
+        assertEquals(object.length, session.getObject(5, output.getChannel(), 100));
+        assertArrayEquals(object, readBack(100, object.length));
+        final ByteBuffer command = device.commands.get(3);
+        assertEquals(MtpSession.OPERATION_GET_OBJECT, command.getShort(6));
+        assertEquals(5, command.getInt(12));
+        assertTrue(device.in.isEmpty());
+    }
+
+    @Test
+    public void streamsPacketAlignedObject() throws IOException {
+        // The data container ends on a packet boundary, so the device sends a zero length packet before the response
+        final byte[] object = object(1200 * PACKET_SIZE - HEADER_LENGTH);
+        device.respond(MtpSession.OPERATION_GET_OBJECT_INFO,
+            MtpObjectInfoTest.dataset(STORAGE, 0x3801, object.length, MtpSession.ROOT, "IMG_0006.JPG"));
+        device.respond(MtpSession.OPERATION_GET_OBJECT, object);
+        assertEquals(object.length, session.getObject(6, output.getChannel(), 0));
+        assertArrayEquals(object, readBack(0, object.length));
+        assertTrue(device.in.isEmpty());
+    }
+
+    @Test
+    public void streamEndingEarlyStillCompletes() throws IOException {
+        final byte[] object = object(300000);
+        device.respond(MtpSession.OPERATION_GET_OBJECT_INFO,
+            MtpObjectInfoTest.dataset(STORAGE, 0x3801, 1000000, MtpSession.ROOT, "IMG_0007.JPG"));
+        // The container claims the million bytes the info did, but the device stops short
+        device.respond(MtpSession.OPERATION_GET_OBJECT, object, HEADER_LENGTH + 1000000);
+        assertEquals(object.length, session.getObject(7, output.getChannel(), 0));
+        assertArrayEquals(object, readBack(0, object.length));
+        assertTrue(device.in.isEmpty());
+
+        // The pipes are left in step for the next transaction
+        device.respond(MtpSession.OPERATION_GET_STORAGE_IDS, array(STORAGE));
+        assertArrayEquals(new int[]{STORAGE}, session.getStorageIds());
+    }
+
+    private void fillCache(@NotNull MtpObjectCache cache) {
+        cache.putInfo(MtpObjectInfo.parse(1, ByteBuffer.wrap(MtpObjectInfoTest.dataset(STORAGE, 0x3801, 1,
+            MtpSession.ROOT, "a"))));
+        cache.putInfo(MtpObjectInfo.parse(2, ByteBuffer.wrap(MtpObjectInfoTest.dataset(STORAGE, 0x3801, 1,
+            MtpSession.ROOT, "b"))));
+        cache.putListing(STORAGE, MtpSession.ROOT, new int[]{1, 2});
+    }
+
+    @NotNull
+    private byte[] readBack(long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (output.getChannel().read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.array();
+    }
+
+    @NotNull
+    private static byte[] object(int length) {
+        final byte[] object = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            object[i] = (byte) (i * 7 + (i >> 9));
+        }
+        return object;
+    }
+
+    @NotNull
+    private static byte[] array(int... values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(values.length);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Builds a DeviceInfo dataset listing the supported operations.
+     */
+    @NotNull
+    private static byte[] deviceInfo(int... operations) {
+        final ByteBuffer buffer = ByteBuffer.allocate(2 + 4 + 2 + 1 + 2 + 4 + 2 * operations.length)
+                                            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) 100).putInt(6).putShort((short) 100).put((byte) 0).putShort((short) 0);
+        buffer.putInt(operations.length);
+        for (int operation : operations) {
+            buffer.putShort((short) operation);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * A device answering each command with its scripted data phase and an OK response. The bulk IN pipe is a queue of
+     * packets, which a read takes until it is filled or a short packet ends it.
+     */
+    private static final class FakeDevice implements MtpTransport {
+
+        final Map<Integer, byte[]> payloads = new HashMap<>();
+
+        final Map<Integer, Long> declaredLengths = new HashMap<>();
+
+        final List<ByteBuffer> commands = new ArrayList<>();
+
+        final ArrayDeque<byte[]> in = new ArrayDeque<>();
+
+        final ArrayDeque<byte[]> events = new ArrayDeque<>();
+
+        @Nullable
+        BaseUsbInterface claimed;
+
+        @Nullable
+        BaseUsbInterface released;
+
+        void respond(int operation, @NotNull byte[] payload) {
+            respond(operation, payload, HEADER_LENGTH + payload.length);
+        }
+
+        /**
+         * @param declaredLength {@code long} The container length to put in the header, which need not be true.
+         */
+        void respond(int operation, @NotNull byte[] payload, long declaredLength) {
+            payloads.put(operation, payload);
+            declaredLengths.put(operation, declaredLength);
+        }
+
+        void event(int code, int parameter) {
+            final ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + 4).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(HEADER_LENGTH + 4).putShort((short) 4).putShort((short) code).putInt(0).putInt(parameter);
+            events.add(buffer.array());
+        }
+
+        @NotNull
+        @Override
+        public LibusbError claimInterface(@NotNull BaseUsbInterface intf, boolean force) {
+            claimed = intf;
+            return LibusbError.LIBUSB_SUCCESS;
+        }
+
+        @NotNull
+        @Override
+        public LibusbError releaseInterface(@NotNull BaseUsbInterface intf) {
+            released = intf;
+            return LibusbError.LIBUSB_SUCCESS;
+        }
+
+        @Override
+        public int controlTransfer(int requestType, int request, int value, int index, @NotNull byte[] buffer,
+                                   int length, int timeout) {
+            throw new AssertionError("No transaction should be cancelled.");
+        }
+
+        @Override
+        public int bulkTransfer(@NotNull BaseUsbEndpoint endpoint, @NotNull byte[] buffer, int offset, int length,
+                                int timeout) {
+            if (endpoint.getDirection() == UsbConstants.USB_DIR_OUT) {
+                final ByteBuffer command = ByteBuffer.wrap(Arrays.copyOfRange(buffer, offset, offset + length))
+                                                     .order(ByteOrder.LITTLE_ENDIAN);
+                commands.add(command);
+                answer(0xFFFF & command.getShort(6), command.getInt(8));
+                return length;
+            }
+            return read(buffer, offset, length);
+        }
+
+        @Override
+        public int interruptTransfer(@NotNull BaseUsbEndpoint endpoint, @NotNull byte[] buffer, int length,
+                                     int timeout) {
+            final byte[] event = events.poll();
+            if (event == null) {
+                return LibusbError.LIBUSB_ERROR_TIMEOUT.getCode();
+            }
+            System.arraycopy(event, 0, buffer, 0, event.length);
+            return event.length;
+        }
+
+        @NotNull
+        @Override
+        public LibusbError clearStall(@NotNull BaseUsbEndpoint endpoint) {
+            return LibusbError.LIBUSB_SUCCESS;
+        }
+
+        /**
+         * Completes the transfer before returning, as if the event thread had run.
+         */
+        @Override
+        public int submitDirectTransfer(@NotNull BaseUsbEndpoint endpoint, @NotNull ByteBuffer buffer, int length,
+                                        int timeout, @NotNull DirectTransfer transfer) {
+            final byte[] data = new byte[length];
+            final int result = read(data, 0, length);
+            if (result > 0) {
+                final ByteBuffer target = buffer.duplicate();
+                target.clear();
+                target.put(data, 0, result);
+            }
+            transfer.onComplete(result);
+            return 0;
+        }
+
+        private void answer(int operation, int transaction) {
+            final byte[] payload = payloads.get(operation);
+            if (payload != null) {
+                final ByteBuffer data = ByteBuffer.allocate(HEADER_LENGTH + payload.length)
+                                                  .order(ByteOrder.LITTLE_ENDIAN);
+                data.putInt((int) (long) declaredLengths.get(operation)).putShort((short) 2)
+                    .putShort((short) operation).putInt(transaction).put(payload);
+                queue(data.array());
+            }
+            final ByteBuffer response = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            response.putInt(HEADER_LENGTH).putShort((short) 3).putShort((short) MtpSession.RESPONSE_OK)
+                    .putInt(transaction);
+            queue(response.array());
+        }
+
+        /**
+         * Splits a container into packets, ending it with a zero length packet if it fills the last.
+         */
+        private void queue(@NotNull byte[] container) {
+            int offset = 0;
+            do {
+                final int size = Math.min(PACKET_SIZE, container.length - offset);
+                in.add(Arrays.copyOfRange(container, offset, offset + size));
+                offset += size;
+            } while (offset < container.length);
+            if (container.length % PACKET_SIZE == 0) {
+                in.add(new byte[0]);
+            }
+        }
+
+        private int read(@NotNull byte[] buffer, int offset, int length) {
+            if (in.isEmpty()) {
+                return LibusbError.LIBUSB_ERROR_TIMEOUT.getCode();
+            }
+            int received = 0;
+            while (!in.isEmpty() && received + in.peek().length <= length) {
+                final byte[] packet = in.poll();
+                System.arraycopy(packet, 0, buffer, offset + received, packet.length);
+                received += packet.length;
+                if (packet.length < PACKET_SIZE) {
+                    break;
+                }
+            }
+            return received;
+        }
+    }
+}
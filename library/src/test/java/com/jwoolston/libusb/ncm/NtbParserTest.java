@@ -0,0 +1,157 @@
+package com.jwoolston.libusb.ncm;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class NtbParserTest {
+
+    private static final int BLOCK_LENGTH = 128;
+
+    private static final int NDP16_CRC_SIGNATURE = 0x314D434E;
+
+    private final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final NtbParser parser = new NtbParser(block);
+
+    private final NtbWriterTest.Frames frames = new NtbWriterTest.Frames();
+
+    @Test
+    public void followsTheTableChain() {
+        header16(BLOCK_LENGTH, 64);
+        datagrams();
+        ndp16(64, 96, 12, 4);
+        ndp16(96, 0, 16, 4);
+        assertEquals(2, parser.parse(BLOCK_LENGTH, frames));
+        assertFrames(new byte[]{1, 2, 3, 4}, new byte[]{5, 6, 7, 8});
+    }
+
+    @Test
+    public void crcTablesAccepted() {
+        header16(BLOCK_LENGTH, 64);
+        datagrams();
+        ndp16(64, 0, 12, 8);
+        block.putInt(64, NDP16_CRC_SIGNATURE);
+        assertEquals(1, parser.parse(BLOCK_LENGTH, frames));
+        assertFrames(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+    }
+
+    @Test
+    public void loopingChainIsMalformed() {
+        header16(BLOCK_LENGTH, 64);
+        datagrams();
+        ndp16(64, 96, 12, 4);
+        ndp16(96, 64, 16, 4);
+        assertEquals(-1, parser.parse(BLOCK_LENGTH, frames));
+        // Each datagram is delivered once before the loop is found
+        assertFrames(new byte[]{1, 2, 3, 4}, new byte[]{5, 6, 7, 8});
+    }
+
+    @Test
+    public void tableLinkedToItselfIsMalformed() {
+        header16(BLOCK_LENGTH, 64);
+        datagrams();
+        ndp16(64, 64, 12, 4);
+        assertEquals(-1, parser.parse(BLOCK_LENGTH, frames));
+        assertEquals(1, frames.frames.size());
+    }
+
+    @Test
+    public void datagramOutsideTheBlockIsMalformed() {
+        header16(BLOCK_LENGTH, 64);
+        datagrams();
+        ndp16(64, 96, 12, 4);
+        ndp16(96, 0, 120, 16);
+        assertEquals(-1, parser.parse(BLOCK_LENGTH, frames));
+        // Datagrams before the malformed entry are still delivered
+        assertFrames(new byte[]{1, 2, 3, 4});
+    }
+
+    @Test
+    public void tableOutsideTheBlockIsMalformed() {
+        header16(BLOCK_LENGTH, 124);
+        assertEquals(-1, parser.parse(BLOCK_LENGTH, frames));
+
+        // The block length bounds the block within the received length
+        header16(64, 64);
+        ndp16(64, 0, 12, 4);
+        assertEquals(-1, parser.parse(BLOCK_LENGTH, frames));
+
+        header16(BLOCK_LENGTH, 64);
+        ndp16(64, 0, 12, 4);
+        block.putShort(68, (short) 128);
+        assertEquals(-1, parser.parse(BLOCK_LENGTH, frames));
+        assertEquals(0, frames.frames.size());
+    }
+
+    @Test
+    public void zeroBlockLengthBoundedByReceivedLength() {
+        header16(0, 64);
+        datagrams();
+        ndp16(64, 0, 12, 8);
+        assertEquals(1, parser.parse(80, frames));
+        assertFrames(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        ndp16(64, 0, 100, 8);
+        assertEquals(-1, parser.parse(80, frames));
+        assertEquals(1, frames.frames.size());
+    }
+
+    @Test
+    public void unknownBlocksRejected() {
+        assertEquals(-1, parser.parse(8, frames));
+        header16(BLOCK_LENGTH, 64);
+        block.putInt(0, 0x12345678);
+        assertEquals(-1, parser.parse(BLOCK_LENGTH, frames));
+        // An NTB16 table in an NTB32 block
+        block.putInt(0, NtbWriter.NTH32_SIGNATURE);
+        block.putInt(8, BLOCK_LENGTH);
+        block.putInt(12, 64);
+        ndp16(64, 0, 16, 4);
+        assertEquals(-1, parser.parse(BLOCK_LENGTH, frames));
+    }
+
+    private void header16(int blockLength, int ndpIndex) {
+        block.putInt(0, NtbWriter.NTH16_SIGNATURE);
+        block.putShort(4, (short) NtbWriter.NTH16_LENGTH);
+        block.putShort(6, (short) 0);
+        block.putShort(8, (short) blockLength);
+        block.putShort(10, (short) ndpIndex);
+    }
+
+    /**
+     * Places bytes 1 through 8 after the header.
+     */
+    private void datagrams() {
+        for (int i = 0; i < 8; ++i) {
+            block.put(NtbWriter.NTH16_LENGTH + i, (byte) (i + 1));
+        }
+    }
+
+    /**
+     * Writes a table of one datagram and its terminator.
+     */
+    private void ndp16(int index, int next, int offset, int length) {
+        block.putInt(index, NtbWriter.NDP16_SIGNATURE);
+        block.putShort(index + 4, (short) (NtbWriter.NDP16_HEADER_LENGTH + 8));
+        block.putShort(index + 6, (short) next);
+        block.putShort(index + 8, (short) offset);
+        block.putShort(index + 10, (short) length);
+        block.putInt(index + 12, 0);
+    }
+
+    private void assertFrames(@NotNull byte[]... expected) {
+        assertEquals(expected.length, frames.frames.size());
+        for (int i = 0; i < expected.length; ++i) {
+            assertArrayEquals(expected[i], frames.frames.get(i));
+        }
+    }
+}
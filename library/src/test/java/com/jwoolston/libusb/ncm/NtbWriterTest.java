@@ -0,0 +1,166 @@
+package com.jwoolston.libusb.ncm;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class NtbWriterTest {
+
+    @Test
+    public void ntb16RoundTrip() {
+        final NtbWriter writer = new NtbWriter(2048, false, 4, 0, 4, 0);
+        final byte[][] datagrams = {datagram(1, 1), datagram(60, 2), datagram(1514, 3)};
+        for (byte[] datagram : datagrams) {
+            final ByteBuffer source = ByteBuffer.wrap(datagram);
+            assertTrue(writer.add(source));
+            assertFalse(source.hasRemaining());
+        }
+        assertEquals(3, writer.getDatagramCount());
+        final int length = writer.finish(512);
+
+        final ByteBuffer block = writer.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(NtbWriter.NTH16_SIGNATURE, block.getInt(0));
+        assertEquals(NtbWriter.NTH16_LENGTH, block.getShort(4));
+        assertEquals(length, 0xFFFF & block.getShort(8));
+        assertEquals(NtbWriter.NDP16_SIGNATURE, block.getInt(0xFFFF & block.getShort(10)));
+
+        final Frames frames = new Frames();
+        assertEquals(3, new NtbParser(writer.getBuffer()).parse(length, frames));
+        assertFrames(datagrams, frames);
+    }
+
+    @Test
+    public void ntb32RoundTrip() {
+        final NtbWriter writer = new NtbWriter(4096, true, 4, 0, 4, 0);
+        writer.reset(7);
+        final byte[][] datagrams = {datagram(42, 1), datagram(1514, 2)};
+        for (byte[] datagram : datagrams) {
+            assertTrue(writer.add(ByteBuffer.wrap(datagram)));
+        }
+        final int length = writer.finish(512);
+
+        final ByteBuffer block = writer.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(NtbWriter.NTH32_SIGNATURE, block.getInt(0));
+        assertEquals(NtbWriter.NTH32_LENGTH, block.getShort(4));
+        assertEquals(7, block.getShort(6));
+        assertEquals(length, block.getInt(8));
+        assertEquals(NtbWriter.NDP32_SIGNATURE, block.getInt(block.getInt(12)));
+
+        final Frames frames = new Frames();
+        assertEquals(2, new NtbParser(writer.getBuffer()).parse(length, frames));
+        assertFrames(datagrams, frames);
+    }
+
+    @Test
+    public void datagramsAndTableAligned() {
+        final NtbWriter writer = new NtbWriter(2048, false, 16, 2, 8, 0);
+        final byte[][] datagrams = {datagram(3, 1), datagram(17, 2), datagram(64, 3)};
+        for (byte[] datagram : datagrams) {
+            assertTrue(writer.add(ByteBuffer.wrap(datagram)));
+        }
+        final int length = writer.finish(0);
+
+        final Frames frames = new Frames();
+        assertEquals(3, new NtbParser(writer.getBuffer()).parse(length, frames));
+        assertFrames(datagrams, frames);
+        for (int offset : frames.offsets) {
+            assertEquals(2, offset % 16);
+        }
+        final int ndpIndex = 0xFFFF & writer.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN).getShort(10);
+        assertEquals(0, ndpIndex % 8);
+    }
+
+    @Test
+    public void blockEndingOnAPacketBoundaryIsPadded() {
+        // 12 byte header, 36 byte datagram and a 16 byte table fill exactly one 64 byte packet
+        final NtbWriter writer = new NtbWriter(512, false, 4, 0, 4, 0);
+        assertTrue(writer.add(ByteBuffer.wrap(datagram(36, 1))));
+        final int length = writer.finish(64);
+        assertEquals(65, length);
+        assertEquals(0, writer.getBuffer().get(64));
+        assertEquals(65, 0xFFFF & writer.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN).getShort(8));
+        assertEquals(1, new NtbParser(writer.getBuffer()).parse(length, new Frames()));
+
+        // Without a packet size, or for other lengths, the block is not padded
+        writer.reset(1);
+        writer.add(ByteBuffer.wrap(datagram(36, 1)));
+        assertEquals(64, writer.finish(0));
+        writer.reset(2);
+        writer.add(ByteBuffer.wrap(datagram(40, 1)));
+        assertEquals(68, writer.finish(64));
+    }
+
+    @Test
+    public void maximumSizeBlockIsNotPadded() {
+        final NtbWriter writer = new NtbWriter(64, false, 4, 0, 4, 0);
+        assertTrue(writer.add(ByteBuffer.wrap(datagram(36, 1))));
+        assertEquals(64, writer.finish(64));
+    }
+
+    @Test
+    public void fullBlockRejectsDatagrams() {
+        final NtbWriter writer = new NtbWriter(128, false, 4, 0, 4, 2);
+        assertTrue(writer.fits(100));
+        assertFalse(writer.fits(101));
+        assertTrue(writer.add(ByteBuffer.wrap(datagram(10, 1))));
+        final ByteBuffer tooLarge = ByteBuffer.wrap(datagram(100, 2));
+        assertFalse(writer.add(tooLarge));
+        // A rejected datagram is left for the next block
+        assertEquals(0, tooLarge.position());
+        assertTrue(writer.add(ByteBuffer.wrap(datagram(10, 3))));
+        assertTrue(writer.isFull());
+        assertFalse(writer.add(ByteBuffer.wrap(datagram(1, 4))));
+
+        writer.reset(1);
+        assertTrue(writer.isEmpty());
+        assertTrue(writer.add(tooLarge));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ntb16LimitedTo64K() {
+        new NtbWriter(0x10000, false, 4, 0, 4, 0);
+    }
+
+    @NotNull
+    private static byte[] datagram(int length, int seed) {
+        final byte[] datagram = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            datagram[i] = (byte) (seed * 31 + i);
+        }
+        return datagram;
+    }
+
+    private static void assertFrames(@NotNull byte[][] expected, @NotNull Frames frames) {
+        assertEquals(expected.length, frames.frames.size());
+        for (int i = 0; i < expected.length; ++i) {
+            assertArrayEquals(expected[i], frames.frames.get(i));
+        }
+    }
+
+    static final class Frames implements NcmPacketListener {
+
+        final List<byte[]> frames = new ArrayList<>();
+
+        final List<Integer> offsets = new ArrayList<>();
+
+        @Override
+        public void onPacket(@NotNull ByteBuffer frame) {
+            offsets.add(frame.position());
+            final byte[] copy = new byte[frame.remaining()];
+            frame.get(copy);
+            frames.add(copy);
+        }
+    }
+}
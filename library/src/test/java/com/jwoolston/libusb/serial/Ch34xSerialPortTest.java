@@ -0,0 +1,54 @@
+package com.jwoolston.libusb.serial;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class Ch34xSerialPortTest {
+
+    private static final int CLOCK_RATE = 48000000;
+
+    @Test
+    public void slowRatesClampedToMinimum() {
+        final int minimum = Ch34xSerialPort.encodeBaudRate(46);
+        assertEquals(minimum, Ch34xSerialPort.encodeBaudRate(45));
+        assertEquals(minimum, Ch34xSerialPort.encodeBaudRate(1));
+        assertEquals(46, actualRate(minimum), 0.5);
+    }
+
+    @Test
+    public void fastRatesClampedToMaximum() {
+        final int maximum = Ch34xSerialPort.encodeBaudRate(3000000);
+        assertEquals(maximum, Ch34xSerialPort.encodeBaudRate(4000000));
+        assertEquals(3000000, actualRate(maximum), 0.5);
+    }
+
+    @Test
+    public void commonRatesExact() {
+        final int[] rates = {300, 1200, 2400, 4800, 9600, 19200, 38400, 57600, 115200, 230400, 460800, 921600};
+        for (int rate : rates) {
+            assertEquals("Rate " + rate, rate, actualRate(Ch34xSerialPort.encodeBaudRate(rate)), rate * 0.005);
+        }
+    }
+
+    @Test
+    public void divisorAlwaysInRange() {
+        for (int rate = 1; rate <= 3100000; rate += rate < 1000 ? 1 : 997) {
+            final int encoded = Ch34xSerialPort.encodeBaudRate(rate);
+            assertTrue("Rate " + rate, encoded >= 0 && encoded <= 0xFFFF);
+            final int divisor = 0x100 - (encoded >> 8);
+            assertTrue("Rate " + rate + " divisor " + divisor, divisor >= 2 && divisor <= 255);
+        }
+    }
+
+    private static double actualRate(int encoded) {
+        final int prescaler = encoded & 0x03;
+        final int factor = (encoded >> 2) & 0x01;
+        final int divisor = 0x100 - (encoded >> 8);
+        return (double) CLOCK_RATE / ((1 << (12 - 3 * prescaler - factor)) * divisor);
+    }
+}
@@ -0,0 +1,104 @@
+package com.jwoolston.libusb.uac;
+
+import com.jwoolston.libusb.TestInterfaces;
+import com.jwoolston.libusb.UsbConstants;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class PcmRingTest {
+
+    @Test
+    public void readsWhatWasWritten() {
+        final PcmRing ring = new PcmRing(4, 2);
+        final ByteBuffer src = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5});
+        assertEquals(2, ring.write(src));
+        // The trailing partial frame is left in the source
+        assertEquals(4, src.position());
+        assertEquals(2, ring.getAvailableFrames());
+        assertEquals(2, ring.getFreeFrames());
+
+        final ByteBuffer dst = ByteBuffer.allocate(8);
+        assertEquals(2, ring.read(dst));
+        assertEquals(4, dst.position());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 0, 0, 0, 0}, dst.array());
+        assertEquals(0, ring.getAvailableFrames());
+    }
+
+    @Test
+    public void wrapsAround() {
+        final PcmRing ring = new PcmRing(3, 1);
+        ring.write(ByteBuffer.wrap(new byte[]{1, 2}));
+        assertEquals(2, ring.read(ByteBuffer.allocate(2)));
+        // Frames 3 and 4 straddle the end of the buffer
+        assertEquals(3, ring.write(ByteBuffer.wrap(new byte[]{3, 4, 5})));
+
+        final ByteBuffer dst = ByteBuffer.allocate(3);
+        assertEquals(3, ring.read(dst));
+        assertArrayEquals(new byte[]{3, 4, 5}, dst.array());
+
+        ring.write(ByteBuffer.wrap(new byte[]{6, 7}));
+        final ByteBuffer packet = ByteBuffer.allocate(4);
+        assertEquals(2, ring.readOrSilence(packet, 1, 2));
+        assertArrayEquals(new byte[]{0, 6, 7, 0}, packet.array());
+        assertEquals(0, ring.getOverrunFrames());
+        assertEquals(0, ring.getUnderrunFrames());
+    }
+
+    @Test
+    public void countsOverrun() {
+        final PcmRing ring = new PcmRing(2, 2);
+        assertEquals(2, ring.write(ByteBuffer.wrap(new byte[]{1, 1, 2, 2, 3, 3})));
+        assertEquals(1, ring.getOverrunFrames());
+        assertEquals(0, ring.getFreeFrames());
+        // A full ring discards everything
+        final ByteBuffer src = ByteBuffer.wrap(new byte[]{4, 4, 5, 5});
+        assertEquals(0, ring.write(src));
+        assertEquals(4, src.position());
+        assertEquals(3, ring.getOverrunFrames());
+
+        final ByteBuffer dst = ByteBuffer.allocate(4);
+        ring.read(dst);
+        assertArrayEquals(new byte[]{1, 1, 2, 2}, dst.array());
+    }
+
+    @Test
+    public void countsUnderrunAndFillsSilence() {
+        final PcmRing ring = new PcmRing(4, 2);
+        ring.write(ByteBuffer.wrap(new byte[]{1, 2}));
+        final ByteBuffer dst = ByteBuffer.wrap(new byte[]{9, 9, 9, 9, 9, 9});
+        assertEquals(1, ring.readOrSilence(dst, 0, 3));
+        assertArrayEquals(new byte[]{1, 2, 0, 0, 0, 0}, dst.array());
+        assertEquals(2, ring.getUnderrunFrames());
+        assertEquals(0, ring.getOverrunFrames());
+    }
+
+    @Test
+    public void unsignedFormatSilenceIsMidscale() {
+        final UacStreamFormat format = UacStreamFormat.parse(TestInterfaces.create(1, 1, UsbConstants.USB_CLASS_AUDIO,
+            0x02, 0, new byte[]{7, 0x24, 0x01, 1, 1, 0x02, 0x00,
+                                11, 0x24, 0x02, 0x01, 2, 1, 8, 1, 0x40, 0x1F, 0x00}));
+        assertNotNull(format);
+        final PcmRing ring = new PcmRing(4, format);
+        assertEquals(2, ring.getFrameSize());
+        assertEquals((byte) 0x80, ring.getSilence());
+
+        final ByteBuffer dst = ByteBuffer.allocate(4);
+        assertEquals(0, ring.readOrSilence(dst, 0, 2));
+        assertArrayEquals(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80}, dst.array());
+        assertEquals(2, ring.getUnderrunFrames());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCapacity() {
+        new PcmRing(0, 2);
+    }
+}
@@ -0,0 +1,146 @@
+package com.jwoolston.libusb.uac;
+
+import com.jwoolston.libusb.LibusbSpeed;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class UacPacketSizerTest {
+
+    @Test
+    public void nominalRateInFixedPoint() {
+        assertEquals(48L << 16, new UacPacketSizer(48000, 1000, 64).getNominalRate());
+        assertEquals(6L << 16, new UacPacketSizer(48000, 125, 64).getNominalRate());
+        assertEquals(44100L * 65536 / 1000, new UacPacketSizer(44100, 1000, 64).getNominalRate());
+    }
+
+    @Test
+    public void fractionalRateCarriedBetweenPackets() {
+        final UacPacketSizer sizer = new UacPacketSizer(44100, 1000, 64);
+        int total = 0;
+        for (int i = 0; i < 9; ++i) {
+            assertEquals(44, sizer.nextPacketFrames());
+            total += 44;
+        }
+        // The nominal rate truncates to just under 44.1 frames, so the tenth packet is one short of catching up
+        assertEquals(44, sizer.nextPacketFrames());
+        assertEquals(45, sizer.nextPacketFrames());
+        total += 89;
+        for (int i = 11; i < 1000; ++i) {
+            total += sizer.nextPacketFrames();
+        }
+        assertEquals(1000L * sizer.getNominalRate() >>> 16, total);
+    }
+
+    @Test
+    public void excessOverPacketSizeCarried() {
+        final UacPacketSizer sizer = new UacPacketSizer(48000, 1000, 48);
+        assertTrue(sizer.onFeedback(fullSpeed(48.5), 0, 3, LibusbSpeed.LIBUSB_SPEED_FULL));
+        assertEquals(48, sizer.nextPacketFrames());
+        assertEquals(48, sizer.nextPacketFrames());
+        // One frame is now owed beyond the packet size, it goes out once the rate drops
+        assertTrue(sizer.onFeedback(fullSpeed(47), 0, 3, LibusbSpeed.LIBUSB_SPEED_FULL));
+        assertEquals(48, sizer.nextPacketFrames());
+        assertEquals(47, sizer.nextPacketFrames());
+    }
+
+    @Test
+    public void excessCarriedAtMostOnePacket() {
+        final UacPacketSizer sizer = new UacPacketSizer(48000, 1000, 44);
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(44, sizer.nextPacketFrames());
+        }
+        assertTrue(sizer.onFeedback(fullSpeed(43), 0, 3, LibusbSpeed.LIBUSB_SPEED_FULL));
+        int owed = 0;
+        while (sizer.nextPacketFrames() == 44) {
+            ++owed;
+        }
+        assertEquals(44, owed);
+    }
+
+    @Test
+    public void fullSpeedFeedbackIs10Dot14() {
+        final UacPacketSizer sizer = new UacPacketSizer(48000, 1000, 64);
+        assertTrue(sizer.onFeedback(fullSpeed(48.25), 0, 3, LibusbSpeed.LIBUSB_SPEED_FULL));
+        assertEquals((long) (48.25 * 65536), sizer.getRate());
+        assertEquals(48250.0, sizer.getSampleRate(), 0.001);
+        assertEquals(1, sizer.getFeedbackCount());
+    }
+
+    @Test
+    public void fullSpeedFeedbackScaledToInterval() {
+        final UacPacketSizer sizer = new UacPacketSizer(48000, 2000, 128);
+        assertTrue(sizer.onFeedback(fullSpeed(48.25), 0, 3, LibusbSpeed.LIBUSB_SPEED_FULL));
+        assertEquals((long) (96.5 * 65536), sizer.getRate());
+    }
+
+    @Test
+    public void fourByteFeedbackAtFullSpeedReadAs10Dot14() {
+        final UacPacketSizer sizer = new UacPacketSizer(48000, 1000, 64);
+        final ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.put(fullSpeed(48.25)).put((byte) 0);
+        assertTrue(sizer.onFeedback(buffer, 0, 4, LibusbSpeed.LIBUSB_SPEED_FULL));
+        assertEquals((long) (48.25 * 65536), sizer.getRate());
+    }
+
+    @Test
+    public void highSpeedFeedbackIs16Dot16() {
+        final UacPacketSizer sizer = new UacPacketSizer(48000, 125, 16);
+        assertTrue(sizer.onFeedback(highSpeed(6.125), 0, 4, LibusbSpeed.LIBUSB_SPEED_HIGH));
+        assertEquals((long) (6.125 * 65536), sizer.getRate());
+        assertEquals(49000.0, sizer.getSampleRate(), 0.001);
+    }
+
+    @Test
+    public void highSpeedFeedbackScaledToInterval() {
+        final UacPacketSizer sizer = new UacPacketSizer(48000, 1000, 64);
+        assertTrue(sizer.onFeedback(highSpeed(6.125), 0, 4, LibusbSpeed.LIBUSB_SPEED_HIGH));
+        assertEquals((long) (49 * 65536), sizer.getRate());
+    }
+
+    @Test
+    public void feedbackAtOffset() {
+        final UacPacketSizer sizer = new UacPacketSizer(48000, 125, 16);
+        final ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.position(3);
+        buffer.put(highSpeed(5.5));
+        assertTrue(sizer.onFeedback(buffer, 3, 4, LibusbSpeed.LIBUSB_SPEED_HIGH));
+        assertEquals((long) (5.5 * 65536), sizer.getRate());
+    }
+
+    @Test
+    public void implausibleFeedbackRejected() {
+        final UacPacketSizer sizer = new UacPacketSizer(48000, 1000, 64);
+        assertFalse(sizer.onFeedback(fullSpeed(55), 0, 3, LibusbSpeed.LIBUSB_SPEED_FULL));
+        assertFalse(sizer.onFeedback(fullSpeed(41), 0, 3, LibusbSpeed.LIBUSB_SPEED_FULL));
+        assertFalse(sizer.onFeedback(fullSpeed(48), 0, 2, LibusbSpeed.LIBUSB_SPEED_FULL));
+        assertEquals(3, sizer.getRejectedFeedbackCount());
+        assertEquals(0, sizer.getFeedbackCount());
+        assertEquals(sizer.getNominalRate(), sizer.getRate());
+    }
+
+    /**
+     * @return {@link ByteBuffer} holding frames per 1ms frame in 10.14 fixed point.
+     */
+    private static ByteBuffer fullSpeed(double frames) {
+        final long value = (long) (frames * (1 << 14));
+        return ByteBuffer.wrap(new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16)});
+    }
+
+    /**
+     * @return {@link ByteBuffer} holding frames per 125us microframe in 16.16 fixed point.
+     */
+    private static ByteBuffer highSpeed(double frames) {
+        final long value = (long) (frames * (1 << 16));
+        return ByteBuffer.wrap(new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16),
+            (byte) (value >> 24)});
+    }
+}
@@ -0,0 +1,149 @@
+package com.jwoolston.libusb.uac;
+
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.TestInterfaces;
+import com.jwoolston.libusb.UsbConstants;
+
+import org.jetbrains.annotations.Nullable;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class UacStreamFormatTest {
+
+    private static final int AUDIO_STREAMING = 0x02;
+
+    private static final int PROTOCOL_UAC2 = 0x20;
+
+    /** UAC 1 AS_GENERAL, terminal 1, PCM */
+    private static final byte[] UAC1_GENERAL = {7, 0x24, 0x01, 1, 1, 0x01, 0x00};
+
+    /** UAC 2 AS_GENERAL, terminal 1, Type I PCM, 2 channels */
+    private static final byte[] UAC2_GENERAL = {16, 0x24, 0x01, 1, 0, 0x01, 0x01, 0, 0, 0, 2, 0x03, 0, 0, 0, 0};
+
+    @Test
+    public void parsesUac1DiscreteRates() {
+        final BaseUsbInterface setting = setting(0, concat(UAC1_GENERAL,
+            new byte[]{14, 0x24, 0x02, 0x01, 2, 2, 16, 2, 0x44, (byte) 0xAC, 0x00, (byte) 0x80, (byte) 0xBB, 0x00}));
+        final UacStreamFormat format = UacStreamFormat.parse(setting);
+        assertNotNull(format);
+        assertSame(setting, format.getSetting());
+        assertEquals(1, format.getVersion());
+        assertEquals(2, format.getChannels());
+        assertEquals(2, format.getSubslotSize());
+        assertEquals(16, format.getBitResolution());
+        assertEquals(4, format.getFrameSize());
+        assertFalse(format.isContinuousRates());
+        assertArrayEquals(new int[]{44100, 48000}, format.getSampleRates());
+        assertTrue(format.supportsSampleRate(48000));
+        assertFalse(format.supportsSampleRate(96000));
+    }
+
+    @Test
+    public void parsesUac1ContinuousRates() {
+        final BaseUsbInterface setting = setting(0, concat(UAC1_GENERAL,
+            new byte[]{14, 0x24, 0x02, 0x01, 1, 3, 24, 0, 0x40, 0x1F, 0x00, 0x00, 0x77, 0x01}));
+        final UacStreamFormat format = UacStreamFormat.parse(setting);
+        assertNotNull(format);
+        assertEquals(1, format.getChannels());
+        assertEquals(3, format.getFrameSize());
+        assertTrue(format.isContinuousRates());
+        assertArrayEquals(new int[]{8000, 96000}, format.getSampleRates());
+        assertTrue(format.supportsSampleRate(44100));
+        assertFalse(format.supportsSampleRate(192000));
+    }
+
+    @Test
+    public void parsesUac2() {
+        final UacStreamFormat format = UacStreamFormat.parse(setting(PROTOCOL_UAC2, concat(UAC2_GENERAL,
+            new byte[]{6, 0x24, 0x02, 0x01, 4, 24})));
+        assertNotNull(format);
+        assertEquals(2, format.getVersion());
+        assertEquals(2, format.getChannels());
+        assertEquals(4, format.getSubslotSize());
+        assertEquals(24, format.getBitResolution());
+        assertEquals(8, format.getFrameSize());
+        assertEquals(0, format.getSampleRates().length);
+        assertTrue(format.supportsSampleRate(192000));
+    }
+
+    @Test
+    public void signedFormatsAreSilencedWithZero() {
+        final UacStreamFormat format = UacStreamFormat.parse(setting(0, concat(UAC1_GENERAL,
+            new byte[]{11, 0x24, 0x02, 0x01, 1, 1, 8, 1, 0x40, 0x1F, 0x00})));
+        assertNotNull(format);
+        assertFalse(format.isUnsigned());
+        assertEquals(0, format.getSilence());
+    }
+
+    @Test
+    public void parsesUac1UnsignedPcm8() {
+        final UacStreamFormat format = UacStreamFormat.parse(setting(0, new byte[]{7, 0x24, 0x01, 1, 1, 0x02, 0x00,
+            11, 0x24, 0x02, 0x01, 1, 1, 8, 1, 0x40, 0x1F, 0x00}));
+        assertNotNull(format);
+        assertTrue(format.isUnsigned());
+        assertEquals((byte) 0x80, format.getSilence());
+    }
+
+    @Test
+    public void parsesUac2UnsignedPcm8() {
+        final byte[] general = UAC2_GENERAL.clone();
+        general[6] = 0x02;
+        final UacStreamFormat format = UacStreamFormat.parse(setting(PROTOCOL_UAC2, concat(general,
+            new byte[]{6, 0x24, 0x02, 0x01, 1, 8})));
+        assertNotNull(format);
+        assertTrue(format.isUnsigned());
+        assertEquals((byte) 0x80, format.getSilence());
+
+        // Offering signed PCM as well leaves the samples signed
+        general[6] = 0x03;
+        final UacStreamFormat both = UacStreamFormat.parse(setting(PROTOCOL_UAC2, concat(general,
+            new byte[]{6, 0x24, 0x02, 0x01, 1, 8})));
+        assertNotNull(both);
+        assertFalse(both.isUnsigned());
+    }
+
+    @Test
+    public void uac2WithoutGeneralHasNoChannels() {
+        assertNull(UacStreamFormat.parse(setting(PROTOCOL_UAC2, new byte[]{6, 0x24, 0x02, 0x01, 4, 24})));
+    }
+
+    @Test
+    public void zeroBandwidthSettingIsNotAFormat() {
+        assertNull(UacStreamFormat.parse(setting(0, null)));
+    }
+
+    @Test
+    public void otherTypesAreNotFormats() {
+        assertNull(UacStreamFormat.parse(setting(0, concat(UAC1_GENERAL,
+            new byte[]{8, 0x24, 0x02, 0x02, 0, 0, 0, 0}))));
+        assertNull(UacStreamFormat.parse(TestInterfaces.create(1, 1, UsbConstants.USB_CLASS_AUDIO, 0x01, 0,
+            concat(UAC1_GENERAL, new byte[]{8, 0x24, 0x02, 0x01, 2, 2, 16, 0}))));
+    }
+
+    @Test
+    public void truncatedDescriptorIgnored() {
+        assertNull(UacStreamFormat.parse(setting(0, concat(UAC1_GENERAL,
+            new byte[]{14, 0x24, 0x02, 0x01, 2, 2, 16, 2}))));
+    }
+
+    private static BaseUsbInterface setting(int protocol, @Nullable byte[] classSpecific) {
+        return TestInterfaces.create(1, 1, UsbConstants.USB_CLASS_AUDIO, AUDIO_STREAMING, protocol, classSpecific);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        final byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
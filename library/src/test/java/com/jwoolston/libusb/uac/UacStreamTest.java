@@ -0,0 +1,278 @@
+package com.jwoolston.libusb.uac;
+
+import com.jwoolston.libusb.BaseUsbEndpoint;
+import com.jwoolston.libusb.BaseUsbInterface;
+import com.jwoolston.libusb.LibusbError;
+import com.jwoolston.libusb.LibusbSpeed;
+import com.jwoolston.libusb.TestInterfaces;
+import com.jwoolston.libusb.UsbConstants;
+import com.jwoolston.libusb.async.IsochronousAsyncTransfer;
+import com.jwoolston.libusb.async.IsochronousStreamConfig;
+import com.jwoolston.libusb.async.IsochronousTransferCallback;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class UacStreamTest {
+
+    private static final int AUDIO_STREAMING = 0x02;
+
+    private static final int PROTOCOL_UAC2 = 0x20;
+
+    private static final int ISOCHRONOUS_ASYNC = UsbConstants.USB_ENDPOINT_XFER_ISOC | 0x04;
+
+    private static final int ISOCHRONOUS_FEEDBACK = UsbConstants.USB_ENDPOINT_XFER_ISOC | 0x10;
+
+    private final BaseUsbEndpoint captureEndpoint = TestInterfaces.endpoint(0x81, ISOCHRONOUS_ASYNC, 192, 1);
+
+    private final BaseUsbEndpoint playbackEndpoint = TestInterfaces.endpoint(0x02, ISOCHRONOUS_ASYNC, 49, 1);
+
+    private final BaseUsbEndpoint feedbackEndpoint = TestInterfaces.endpoint(0x83, ISOCHRONOUS_FEEDBACK, 3, 1);
+
+    private BaseUsbInterface zeroBandwidth;
+
+    private BaseUsbInterface capture;
+
+    private BaseUsbInterface playback;
+
+    private FakeTransport transport;
+
+    private UacStream stream;
+
+    @Before
+    public void setUp() {
+        zeroBandwidth = TestInterfaces.create(1, 0, UsbConstants.USB_CLASS_AUDIO, AUDIO_STREAMING, 0, null);
+        // 16 bit stereo capture at 48 kHz
+        capture = TestInterfaces.create(1, 1, UsbConstants.USB_CLASS_AUDIO, AUDIO_STREAMING, 0,
+            new byte[]{7, 0x24, 0x01, 1, 1, 0x01, 0x00,
+                       11, 0x24, 0x02, 0x01, 2, 2, 16, 1, (byte) 0x80, (byte) 0xBB, 0x00}, captureEndpoint);
+        // Unsigned 8 bit mono playback at 48 kHz with explicit feedback
+        playback = TestInterfaces.create(1, 2, UsbConstants.USB_CLASS_AUDIO, AUDIO_STREAMING, 0,
+            new byte[]{7, 0x24, 0x01, 1, 1, 0x02, 0x00,
+                       11, 0x24, 0x02, 0x01, 1, 1, 8, 1, (byte) 0x80, (byte) 0xBB, 0x00}, playbackEndpoint,
+            feedbackEndpoint);
+        final BaseUsbInterface otherInterface = TestInterfaces.create(2, 1, UsbConstants.USB_CLASS_AUDIO,
+            AUDIO_STREAMING, 0, new byte[]{7, 0x24, 0x01, 1, 1, 0x01, 0x00,
+                                           11, 0x24, 0x02, 0x01, 2, 2, 16, 1, (byte) 0x80, (byte) 0xBB, 0x00});
+        transport = new FakeTransport(zeroBandwidth, capture, playback, otherInterface);
+        stream = new UacStream(transport, 1);
+    }
+
+    @Test
+    public void formatsOfTheInterfaceOnly() {
+        final List<UacStreamFormat> formats = stream.getFormats();
+        assertEquals(2, formats.size());
+        assertSame(capture, formats.get(0).getSetting());
+        assertSame(playback, formats.get(1).getSetting());
+    }
+
+    @Test
+    public void setsEndpointSampleRate() throws IOException {
+        stream.setSampleRate(format(capture), 48000);
+        assertEquals(1, transport.controls.size());
+        final Control control = transport.controls.get(0);
+        assertEquals(0x22, control.requestType);
+        assertEquals(0x01, control.request);
+        assertEquals(0x0100, control.value);
+        assertEquals(0x81, control.index);
+        assertArrayEquals(new byte[]{(byte) 0x80, (byte) 0xBB, 0x00}, control.data);
+    }
+
+    @Test
+    public void setsClockSampleRate() throws IOException {
+        stream.setClockSampleRate(0, 5, 96000);
+        final Control control = transport.controls.get(0);
+        assertEquals(0x21, control.requestType);
+        assertEquals(0x01, control.request);
+        assertEquals(0x0100, control.value);
+        assertEquals(0x0500, control.index);
+        assertArrayEquals(new byte[]{0x00, 0x77, 0x01, 0x00}, control.data);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void uac2RateIsNotSetOnTheEndpoint() throws IOException {
+        final BaseUsbInterface setting = TestInterfaces.create(1, 1, UsbConstants.USB_CLASS_AUDIO, AUDIO_STREAMING,
+            PROTOCOL_UAC2, new byte[]{16, 0x24, 0x01, 1, 0, 0x01, 0x01, 0, 0, 0, 2, 0x03, 0, 0, 0, 0,
+                                      6, 0x24, 0x02, 0x01, 2, 16}, captureEndpoint);
+        stream.setSampleRate(format(setting), 48000);
+    }
+
+    @Test
+    public void failedSubmissionRestoresTheDevice() {
+        final UacStreamFormat format = format(playback);
+        try {
+            stream.start(format, 48000, new PcmRing(480, format));
+            fail("Expected the transfers to fail.");
+        } catch (IOException expected) {
+            // Expected
+        }
+        assertFalse(stream.isRunning());
+        assertEquals(Arrays.asList(playback, zeroBandwidth), transport.selected);
+        // The sample rate was set on the data endpoint once the setting was selected
+        assertEquals(1, transport.controls.size());
+        assertEquals(0x02, transport.controls.get(0).index);
+        assertEquals(2, transport.reserved.size());
+        assertEquals(transport.reserved, transport.released);
+    }
+
+    @Test
+    public void failedReservationLeavesTheDeviceAlone() {
+        transport.reserveFailure = feedbackEndpoint;
+        final UacStreamFormat format = format(playback);
+        try {
+            stream.start(format, 48000, new PcmRing(480, format));
+            fail("Expected the reservation to fail.");
+        } catch (IOException expected) {
+            // Expected
+        }
+        assertFalse(stream.isRunning());
+        assertTrue(transport.selected.isEmpty());
+        assertTrue(transport.controls.isEmpty());
+        assertEquals(1, transport.reserved.size());
+        assertEquals(transport.reserved, transport.released);
+    }
+
+    @Test
+    public void playbackRingMustBeSilencedForTheFormat() throws IOException {
+        final UacStreamFormat format = format(playback);
+        try {
+            stream.start(format, 48000, new PcmRing(480, format.getFrameSize()));
+            fail("Expected the ring to be rejected.");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        assertFalse(stream.isRunning());
+        assertTrue(transport.reserved.isEmpty());
+        assertTrue(transport.selected.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ringFrameSizeMustMatch() throws IOException {
+        stream.start(format(capture), 48000, new PcmRing(480, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedRateRejected() throws IOException {
+        final UacStreamFormat format = format(capture);
+        stream.start(format, 44100, new PcmRing(480, format));
+    }
+
+    @NotNull
+    private static UacStreamFormat format(@NotNull BaseUsbInterface setting) {
+        final UacStreamFormat format = UacStreamFormat.parse(setting);
+        assertNotNull(format);
+        return format;
+    }
+
+    private static final class Control {
+
+        final int requestType;
+        final int request;
+        final int value;
+        final int index;
+        final byte[] data;
+
+        Control(int requestType, int request, int value, int index, byte[] data) {
+            this.requestType = requestType;
+            this.request = request;
+            this.value = value;
+            this.index = index;
+            this.data = data;
+        }
+    }
+
+    /**
+     * A full speed device whose isochronous transfers can not be allocated.
+     */
+    private static final class FakeTransport implements UacTransport {
+
+        final BaseUsbInterface[] interfaces;
+
+        final List<Control> controls = new ArrayList<>();
+
+        final List<BaseUsbInterface> selected = new ArrayList<>();
+
+        final List<IsochronousStreamConfig> reserved = new ArrayList<>();
+
+        final List<IsochronousStreamConfig> released = new ArrayList<>();
+
+        BaseUsbEndpoint reserveFailure;
+
+        FakeTransport(BaseUsbInterface... interfaces) {
+            this.interfaces = interfaces;
+        }
+
+        @Override
+        public int getInterfaceCount() {
+            return interfaces.length;
+        }
+
+        @NotNull
+        @Override
+        public BaseUsbInterface getInterface(int index) {
+            return interfaces[index];
+        }
+
+        @NotNull
+        @Override
+        public LibusbSpeed getDeviceSpeed() {
+            return LibusbSpeed.LIBUSB_SPEED_FULL;
+        }
+
+        @Override
+        public int controlTransfer(int requestType, int request, int value, int index, @NotNull byte[] buffer,
+                                   int length, int timeout) {
+            controls.add(new Control(requestType, request, value, index, Arrays.copyOf(buffer, length)));
+            return length;
+        }
+
+        @NotNull
+        @Override
+        public LibusbError setInterface(@NotNull BaseUsbInterface setting) {
+            selected.add(setting);
+            return LibusbError.LIBUSB_SUCCESS;
+        }
+
+        @NotNull
+        @Override
+        public IsochronousStreamConfig reserveIsochronousStream(@NotNull BaseUsbEndpoint endpoint,
+                                                                long latencyMicros) throws IOException {
+            if (endpoint == reserveFailure) {
+                throw new IOException("Insufficient bandwidth.");
+            }
+            final IsochronousStreamConfig config = IsochronousStreamConfig.forEndpoint(endpoint,
+                LibusbSpeed.LIBUSB_SPEED_FULL, latencyMicros);
+            reserved.add(config);
+            return config;
+        }
+
+        @Override
+        public void releaseIsochronousStream(@NotNull IsochronousStreamConfig config) {
+            released.add(config);
+        }
+
+        @NotNull
+        @Override
+        public IsochronousAsyncTransfer createTransfer(@NotNull IsochronousTransferCallback callback,
+                                                       @NotNull IsochronousStreamConfig config) throws IOException {
+            throw new IOException("Transfer allocation failed.");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.jwoolston.libusb.uvc;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class UvcFrameAssemblerTest {
+
+    private static final int FRAME_CAPACITY = 16;
+
+    private final List<UvcFrame> frames = new ArrayList<>();
+
+    private final List<Boolean> corrupt = new ArrayList<>();
+
+    private UvcFrameListener listener;
+
+    private ByteBuffer buffer;
+
+    @Before
+    public void setUp() {
+        listener = new UvcFrameListener() {
+            @Override
+            public void onFrame(@NotNull UvcFrame frame) {
+                frames.add(frame);
+                corrupt.add(frame.isCorrupt());
+            }
+        };
+        buffer = ByteBuffer.allocateDirect(64);
+    }
+
+    @Test
+    public void assemblesFrameFromPayloads() {
+        final UvcFrameAssembler assembler = new UvcFrameAssembler(FRAME_CAPACITY, 2, 0, false, listener);
+        feed(assembler, 0, 1, 2, 3);
+        feed(assembler, UvcFrameAssembler.HEADER_EOF, 4, 5);
+        assertEquals(1, frames.size());
+        assertData(frames.get(0), 1, 2, 3, 4, 5);
+        assertEquals(0, frames.get(0).getSequence());
+        assertEquals(1, assembler.getStats().getFramesDelivered());
+        assertEquals(1, assembler.getFreeFrames());
+    }
+
+    @Test
+    public void frameIdToggleEndsFrame() {
+        final UvcFrameAssembler assembler = new UvcFrameAssembler(FRAME_CAPACITY, 2, 0, false, listener);
+        feed(assembler, 0, 1, 2);
+        feed(assembler, UvcFrameAssembler.HEADER_FID, 3);
+        assertEquals(1, frames.size());
+        assertData(frames.get(0), 1, 2);
+    }
+
+    @Test
+    public void presentationTimeReadFromFirstPayload() {
+        final UvcFrameAssembler assembler = new UvcFrameAssembler(FRAME_CAPACITY, 1, 0, false, listener);
+        buffer.clear();
+        buffer.put(new byte[]{6, (byte) (UvcFrameAssembler.HEADER_PTS | UvcFrameAssembler.HEADER_EOF), 0x78, 0x56,
+            0x34, 0x12, 9});
+        assembler.onPayload(buffer, 0, 7, 100);
+        assertEquals(1, frames.size());
+        assertTrue(frames.get(0).hasPresentationTime());
+        assertEquals(0x12345678L, frames.get(0).getPresentationTime());
+        assertEquals(100, frames.get(0).getTimestampNanos());
+        assertData(frames.get(0), 9);
+    }
+
+    @Test
+    public void payloadErrorCorruptsFrame() {
+        final UvcFrameAssembler assembler = new UvcFrameAssembler(FRAME_CAPACITY, 1, 0, true, listener);
+        feed(assembler, UvcFrameAssembler.HEADER_ERR, 1);
+        feed(assembler, UvcFrameAssembler.HEADER_EOF, 2);
+        assertEquals(1, frames.size());
+        assertTrue(corrupt.get(0));
+        assertEquals(1, assembler.getStats().getFramesCorrupt());
+    }
+
+    @Test
+    public void corruptFrameRecycledUnlessRequested() {
+        final UvcFrameAssembler assembler = new UvcFrameAssembler(FRAME_CAPACITY, 1, 0, false, listener);
+        feed(assembler, 0, 1);
+        assembler.onPacketError();
+        feed(assembler, UvcFrameAssembler.HEADER_EOF, 2);
+        assertEquals(0, frames.size());
+        assertEquals(1, assembler.getStats().getPacketErrors());
+        assertEquals(1, assembler.getStats().getFramesCorrupt());
+        assertEquals(1, assembler.getFreeFrames());
+    }
+
+    @Test
+    public void malformedHeaderCounted() {
+        final UvcFrameAssembler assembler = new UvcFrameAssembler(FRAME_CAPACITY, 1, 0, true, listener);
+        feed(assembler, 0, 1);
+        buffer.clear();
+        buffer.put(new byte[]{12, 0, 2});
+        assembler.onPayload(buffer, 0, 3, 0);
+        feed(assembler, UvcFrameAssembler.HEADER_EOF, 3);
+        assertEquals(1, assembler.getStats().getHeaderErrors());
+        assertEquals(1, frames.size());
+        assertTrue(corrupt.get(0));
+        assertData(frames.get(0), 1, 3);
+    }
+
+    @Test
+    public void overflowCorruptsFrame() {
+        final UvcFrameAssembler assembler = new UvcFrameAssembler(4, 1, 0, true, listener);
+        feed(assembler, 0, 1, 2, 3);
+        feed(assembler, UvcFrameAssembler.HEADER_EOF, 4, 5);
+        assertEquals(1, frames.size());
+        assertTrue(corrupt.get(0));
+        assertData(frames.get(0), 1, 2, 3);
+    }
+
+    @Test
+    public void unexpectedSizeCorruptsFrame() {
+        final UvcFrameAssembler assembler = new UvcFrameAssembler(FRAME_CAPACITY, 1, 4, true, listener);
+        feed(assembler, UvcFrameAssembler.HEADER_EOF, 1, 2, 3);
+        assertEquals(1, frames.size());
+        assertTrue(corrupt.get(0));
+    }
+
+    @Test
+    public void frameDroppedWhenPoolEmpty() {
+        final UvcFrameAssembler assembler = new UvcFrameAssembler(FRAME_CAPACITY, 1, 0, false, listener);
+        feed(assembler, UvcFrameAssembler.HEADER_EOF, 1);
+        feed(assembler, UvcFrameAssembler.HEADER_FID | UvcFrameAssembler.HEADER_EOF, 2);
+        assertEquals(1, frames.size());
+        assertEquals(1, assembler.getStats().getFramesDropped());
+        frames.get(0).release();
+        feed(assembler, UvcFrameAssembler.HEADER_EOF, 3);
+        assertEquals(2, frames.size());
+        assertData(frames.get(1), 3);
+        assertEquals(2, frames.get(1).getSequence());
+    }
+
+    @Test
+    public void headerOnlyPayloadBetweenFramesIgnored() {
+        final UvcFrameAssembler assembler = new UvcFrameAssembler(FRAME_CAPACITY, 1, 0, false, listener);
+        feed(assembler, UvcFrameAssembler.HEADER_EOF);
+        assertEquals(0, frames.size());
+        assertEquals(1, assembler.getFreeFrames());
+    }
+
+    @Test
+    public void resetDiscardsFrameInProgress() {
+        final UvcFrameAssembler assembler = new UvcFrameAssembler(FRAME_CAPACITY, 1, 0, false, listener);
+        feed(assembler, 0, 1, 2);
+        assertEquals(0, assembler.getFreeFrames());
+        assembler.reset();
+        assertEquals(1, assembler.getFreeFrames());
+        feed(assembler, UvcFrameAssembler.HEADER_EOF, 3);
+        assertEquals(1, frames.size());
+        assertFalse(corrupt.get(0));
+        assertData(frames.get(0), 3);
+    }
+
+    /**
+     * Feeds a payload with a two byte header, placed at an offset to check the assembler honours it.
+     */
+    private void feed(@NotNull UvcFrameAssembler assembler, int info, int... data) {
+        final int offset = 5;
+        buffer.clear();
+        buffer.position(offset);
+        buffer.put((byte) 2).put((byte) info);
+        for (int value : data) {
+            buffer.put((byte) value);
+        }
+        assembler.onPayload(buffer, offset, 2 + data.length, 0);
+    }
+
+    private static void assertData(@NotNull UvcFrame frame, int... expected) {
+        final ByteBuffer data = frame.getBuffer();
+        assertEquals(0, data.position());
+        assertEquals(expected.length, data.limit());
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(expected[i], 0xFF & data.get(i));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.jwoolston.libusb.uvc;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class UvcProbeCommitTest {
+
+    private static final int INTERFACE = 1;
+
+    private FakeCamera camera;
+
+    private UvcProbeCommit probeCommit;
+
+    @Before
+    public void setUp() {
+        camera = new FakeCamera();
+        probeCommit = new UvcProbeCommit(camera, INTERFACE);
+    }
+
+    @Test
+    public void probeSetsThenGetsCurrent() throws IOException {
+        final UvcStreamingControl proposed = proposal(UvcStreamingControl.LENGTH_UVC_11);
+        final UvcStreamingControl answer = probeCommit.probe(proposed);
+
+        assertEquals(2, camera.requests.size());
+        final Request set = camera.requests.get(0);
+        assertEquals(UvcProbeCommit.REQUEST_TYPE_SET, set.requestType);
+        assertEquals(0x21, set.requestType);
+        assertEquals(UvcProbeCommit.SET_CUR, set.request);
+        assertEquals(UvcProbeCommit.VS_PROBE_CONTROL << 8, set.value);
+        assertEquals(INTERFACE, set.index);
+        final byte[] expected = new byte[UvcStreamingControl.LENGTH_UVC_11];
+        proposed.write(expected);
+        assertArrayEquals(expected, set.data);
+
+        final Request get = camera.requests.get(1);
+        assertEquals(0xA1, get.requestType);
+        assertEquals(UvcProbeCommit.GET_CUR, get.request);
+        assertEquals(UvcProbeCommit.VS_PROBE_CONTROL << 8, get.value);
+        assertEquals(UvcStreamingControl.LENGTH_UVC_11, get.data.length);
+
+        assertEquals(UvcStreamingControl.LENGTH_UVC_11, answer.getLength());
+        assertEquals(2, answer.getFormatIndex());
+        assertEquals(3, answer.getFrameIndex());
+        assertEquals(333333, answer.getFrameInterval());
+        assertEquals(FakeCamera.FRAME_SIZE, answer.getMaxVideoFrameSize());
+        assertEquals(FakeCamera.PAYLOAD_SIZE, answer.getMaxPayloadTransferSize());
+    }
+
+    @Test
+    public void negotiateProbesTwiceAndCommitsAnswer() throws IOException {
+        final UvcStreamingControl committed = probeCommit.negotiate(proposal(UvcStreamingControl.LENGTH_UVC_10));
+
+        assertEquals(5, camera.requests.size());
+        assertEquals(UvcProbeCommit.VS_PROBE_CONTROL << 8, camera.requests.get(2).value);
+        final Request commit = camera.requests.get(4);
+        assertEquals(UvcProbeCommit.SET_CUR, commit.request);
+        assertEquals(UvcProbeCommit.VS_COMMIT_CONTROL << 8, commit.value);
+        final byte[] expected = new byte[UvcStreamingControl.LENGTH_UVC_10];
+        committed.write(expected);
+        assertArrayEquals(expected, commit.data);
+        assertEquals(FakeCamera.PAYLOAD_SIZE, committed.getMaxPayloadTransferSize());
+    }
+
+    @Test
+    public void probeLimitUsesRequest() throws IOException {
+        probeCommit.getProbeLimit(UvcProbeCommit.GET_MAX, UvcStreamingControl.LENGTH_UVC_15);
+        assertEquals(1, camera.requests.size());
+        assertEquals(UvcProbeCommit.GET_MAX, camera.requests.get(0).request);
+        assertEquals(UvcStreamingControl.LENGTH_UVC_15, camera.requests.get(0).data.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void probeLimitRejectsOtherRequests() throws IOException {
+        probeCommit.getProbeLimit(UvcProbeCommit.GET_CUR, UvcStreamingControl.LENGTH_UVC_10);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedAnswerFails() throws IOException {
+        camera.answerLength = UvcStreamingControl.LENGTH_UVC_10 - 1;
+        probeCommit.probe(proposal(UvcStreamingControl.LENGTH_UVC_10));
+    }
+
+    @NotNull
+    private static UvcStreamingControl proposal(int length) {
+        final UvcStreamingControl control = new UvcStreamingControl(length);
+        control.setHint(0x0001);
+        control.setFormatIndex(2);
+        control.setFrameIndex(3);
+        control.setFrameInterval(333333);
+        return control;
+    }
+
+    private static final class Request {
+
+        final int requestType;
+        final int request;
+        final int value;
+        final int index;
+        final byte[] data;
+
+        Request(int requestType, int request, int value, int index, @NotNull byte[] data) {
+            this.requestType = requestType;
+            this.request = request;
+            this.value = value;
+            this.index = index;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Records every request and answers GET requests with the last probe it was set to, with the frame and payload
+     * sizes filled in as a camera would.
+     */
+    private static final class FakeCamera implements UvcTransport {
+
+        static final long FRAME_SIZE = 640 * 480 * 2;
+        static final long PAYLOAD_SIZE = 3072;
+
+        private static final int MAX_VIDEO_FRAME_SIZE_OFFSET = 18;
+        private static final int MAX_PAYLOAD_TRANSFER_SIZE_OFFSET = 22;
+
+        final List<Request> requests = new ArrayList<>();
+
+        int answerLength = -1;
+
+        private byte[] probe = new byte[0];
+
+        @Override
+        public int controlTransfer(int requestType, int request, int value, int index, @NotNull byte[] buffer,
+                                   int length, int timeout) {
+            requests.add(new Request(requestType, request, value, index, Arrays.copyOf(buffer, length)));
+            if (request == UvcProbeCommit.SET_CUR) {
+                if (value == UvcProbeCommit.VS_PROBE_CONTROL << 8) {
+                    probe = Arrays.copyOf(buffer, length);
+                }
+                return length;
+            }
+            System.arraycopy(probe, 0, buffer, 0, Math.min(probe.length, length));
+            final ByteBuffer answer = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+            answer.putInt(MAX_VIDEO_FRAME_SIZE_OFFSET, (int) FRAME_SIZE);
+            answer.putInt(MAX_PAYLOAD_TRANSFER_SIZE_OFFSET, (int) PAYLOAD_SIZE);
+            return answerLength >= 0 ? answerLength : length;
+        }
+    }
+}